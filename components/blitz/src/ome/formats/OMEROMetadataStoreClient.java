@@ -32,7 +32,6 @@ import static omero.rtypes.rtime;
 
 import java.awt.Color;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
@@ -203,6 +202,7 @@ import omero.model.WellSample;
 import omero.model.XmlAnnotation;
 import omero.sys.EventContext;
 import omero.sys.ParametersI;
+import omero.util.RawFileTransfer;
 import omero.util.TempFileManager;
 
 import org.apache.commons.logging.Log;
@@ -1824,7 +1824,8 @@ public class OMEROMetadataStoreClient
     {
         // Lookup each source file in our hash map and write it to the
         // correct original file object server side.
-        byte[] buf = new byte[1048576];  // 1 MB buffer
+        RawFileTransfer transfer =
+            new RawFileTransfer(serviceFactory, 1048576);  // 1 MB blocks
         for (File file : files)
         {
             String path = file.getAbsolutePath();
@@ -1840,39 +1841,16 @@ public class OMEROMetadataStoreClient
                 continue;
             }
 
-            FileInputStream stream = null;
             try
             {
-                stream = new FileInputStream(file);
-                rawFileStore.setFileId(originalFile.getId().getValue());
-                int rlen = 0;
-                int offset = 0;
-                while (stream.available() != 0)
-                {
-                    rlen = stream.read(buf);
-                    rawFileStore.write(buf, offset, rlen);
-                    offset += rlen;
-                }
+                transfer.upload(
+                        rawFileStore, originalFile.getId().getValue(), file);
             }
             catch (Exception e)
             {
                 log.error("I/O or server error populating file store.", e);
                 break;
             }
-            finally
-            {
-                if (stream != null)
-                {
-                    try
-                    {
-                        stream.close();
-                    }
-                    catch (Exception e)
-                    {
-                        log.error("I/O error closing stream.", e);
-                    }
-                }
-            }
         }
     }
 
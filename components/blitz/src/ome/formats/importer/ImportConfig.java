@@ -132,6 +132,8 @@ public class ImportConfig {
     public final AnnotationListValue annotations;
     public final DoubleArrayValue userPixels;
 
+    public final IntValue uploadWindow;
+
     /**
      * Static method for creating {@link Preferences} during construction if
      * necessary.
@@ -249,6 +251,9 @@ public class ImportConfig {
         userPixels = new DoubleArrayValue(
                 "userPixels", this, null);
 
+        uploadWindow = new IntValue("uploadWindow", this,
+                TileUploader.DEFAULT_WINDOW, "omero.import.upload_window");
+
         readersPath = new StrValue("readersPath", this);
     }
 
@@ -250,6 +250,43 @@ public class ImportEvent {
         }
     }
 
+    public static class UPLOAD_THROUGHPUT extends ImportEvent {
+        public final long pixId;
+        public final int series;
+        public final long bytes;
+        public final long elapsedTime;
+
+        public UPLOAD_THROUGHPUT(long pixId, int series, long bytes,
+                long elapsedTime) {
+            this.pixId = pixId;
+            this.series = series;
+            this.bytes = bytes;
+            this.elapsedTime = elapsedTime;
+        }
+
+        /**
+         * Returns the upload rate in megabytes per second.
+         */
+        public double getMegabytesPerSecond() {
+            if (elapsedTime <= 0) {
+                return 0;
+            }
+            return (bytes / (1024.0 * 1024.0)) / (elapsedTime / 1000.0);
+        }
+
+        @Override
+        public String toLog() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(super.toLog());
+            sb.append(" ");
+            sb.append(String.format(
+                    "Pixels: %d Series: %d Bytes: %d Time: %dms Rate: %.2f MB/s",
+                    pixId, series, bytes, elapsedTime,
+                    getMegabytesPerSecond()));
+            return sb.toString();
+        }
+    }
+
     // count-events
 
     public static class LOADING_IMAGE extends COUNT_EVENT {
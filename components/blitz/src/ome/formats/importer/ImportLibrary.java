@@ -101,6 +101,9 @@ public class ImportLibrary implements IObservable
     /** Whether or not to import as metadata only. */
     private boolean isMetadataOnly = false;
 
+    /** Maximum number of tiles read ahead of the upload. */
+    private int uploadWindow = TileUploader.DEFAULT_WINDOW;
+
     /**
      * The library will not close the client instance. The reader will be closed
      * between calls to import.
@@ -143,6 +146,30 @@ public class ImportLibrary implements IObservable
         return isMetadataOnly;
     }
 
+    /**
+     * Sets the maximum number of tiles which may be read from the file ahead
+     * of their upload to the server.
+     * @param uploadWindow The number of tiles.
+     */
+    public void setUploadWindow(int uploadWindow)
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug("Setting upload window: " + uploadWindow);
+        }
+        this.uploadWindow = uploadWindow;
+    }
+
+    /**
+     * Retrieves the maximum number of tiles which may be read from the file
+     * ahead of their upload to the server.
+     * @return See above.
+     */
+    public int getUploadWindow()
+    {
+        return uploadWindow;
+    }
+
     //
     // Delegation methods
     //
@@ -206,6 +233,8 @@ public class ImportLibrary implements IObservable
      */
     public boolean importCandidates(ImportConfig config, ImportCandidates candidates)
     {
+        Integer window = config.uploadWindow.get();
+        setUploadWindow(window == null ? TileUploader.DEFAULT_WINDOW : window);
         List<ImportContainer> containers = candidates.getContainers();
         if (containers != null) {
             int numDone = 0;
@@ -702,30 +731,76 @@ public class ImportLibrary implements IObservable
         {
             log.debug("Server tile size: " + Arrays.toString(tileSize));
         }
-        for (int t = 0; t < size.sizeT; t++)
+        TileUploader uploader = new TileUploader(store, pixId, uploadWindow);
+        uploader.start();
+        boolean finished = false;
+        try
         {
-            for (int c = 0; c < size.sizeC; c++)
+            for (int t = 0; t < size.sizeT; t++)
             {
-                for (int z = 0; z < size.sizeZ; z++)
+                for (int c = 0; c < size.sizeC; c++)
                 {
-                    writeDataTileBased(
-                            pixId, size, z, c, t, tileSize[0], tileSize[1],
-                            bytesPerPixel, fileName, md);
-                    notifyObservers(new ImportEvent.IMPORT_STEP(
-                            planeNo, series, reader.getSeriesCount()));
-                    planeNo++;
+                    for (int z = 0; z < size.sizeZ; z++)
+                    {
+                        writeDataTileBased(
+                                uploader, size, z, c, t, tileSize[0],
+                                tileSize[1], bytesPerPixel, fileName, md);
+                        planeNo = notifyImportSteps(uploader, planeNo, series);
+                    }
                 }
             }
+            uploader.finish();
+            finished = true;
         }
+        finally
+        {
+            if (!finished)
+            {
+                uploader.cancel();
+            }
+        }
+        notifyImportSteps(uploader, planeNo, series);
+        ImportEvent.UPLOAD_THROUGHPUT throughput =
+            new ImportEvent.UPLOAD_THROUGHPUT(
+                pixId, series, uploader.getBytesUploaded(),
+                uploader.getElapsedTime());
+        if (log.isDebugEnabled())
+        {
+            log.debug(throughput.toLog());
+        }
+        notifyObservers(throughput);
         return md;
     }
 
+    /**
+     * Raises an {@link ImportEvent.IMPORT_STEP} for each plane whose upload
+     * has completed since the last call.
+     * @param uploader The uploader of the current Pixels set.
+     * @param planeNo The number of the next plane to report.
+     * @param series The current series.
+     * @return The number of the next plane to report.
+     */
+    private int notifyImportSteps(TileUploader uploader, int planeNo,
+                                  int series)
+    {
+        int completed = uploader.getCompletedPlanes();
+        while (planeNo <= completed)
+        {
+            notifyObservers(new ImportEvent.IMPORT_STEP(
+                    planeNo, series, reader.getSeriesCount()));
+            planeNo++;
+        }
+        return planeNo;
+    }
+
     // ~ Helpers
     // =========================================================================
 
     /**
      * Writes data to the server for a given plane in a tile based manner.
-     * @param pixId Pixels ID to write to.
+     * The tiles are read and digested on the calling thread and handed to
+     * the uploader, which writes them while the following tiles are read.
+     * @param uploader Uploader of the Pixels set to write to.
      * @param size Sizes of the Pixels set.
      * @param z The Z-section offset to write to.
      * @param c The channel offset to write to.
@@ -735,7 +810,6 @@ public class ImportLibrary implements IObservable
      * @param bytesPerPixel Number of bytes per pixel.
      * @param fileName Name of the file.
      * @param md Current Pixels set message digest.
-     * @return The new offset to use for the next plane.
      * @throws FormatException If there is an error reading Pixel data via
      * Bio-Formats.
      * @throws IOException If there is an I/O error reading Pixel data via
@@ -743,20 +817,19 @@ public class ImportLibrary implements IObservable
      * @throws ServerError If there is an error writing the data to the
      * OMERO.server instance.
      */
-    private void writeDataTileBased(long pixId, ImportSize size,
+    private void writeDataTileBased(TileUploader uploader, ImportSize size,
                                     int z, int c, int t, int tileWidth,
                                     int tileHeight, int bytesPerPixel,
                                     String fileName, MessageDigest md)
         throws FormatException, IOException, ServerError
     {
         int planeNumber, x, y, w, h;
-        for (int tileOffsetY = 0;
-             tileOffsetY < (size.sizeY + tileHeight - 1) / tileHeight;
-             tileOffsetY++)
+        int tileCountY = (size.sizeY + tileHeight - 1) / tileHeight;
+        int tileCountX = (size.sizeX + tileWidth - 1) / tileWidth;
+        byte[] tileBuf;
+        for (int tileOffsetY = 0; tileOffsetY < tileCountY; tileOffsetY++)
         {
-            for (int tileOffsetX = 0;
-                 tileOffsetX < (size.sizeX + tileWidth - 1) / tileWidth;
-                 tileOffsetX++)
+            for (int tileOffsetX = 0; tileOffsetX < tileCountX; tileOffsetX++)
             {
                 x = tileOffsetX * tileWidth;
                 y = tileOffsetY * tileHeight;
@@ -770,34 +843,33 @@ public class ImportLibrary implements IObservable
                 {
                     h = size.sizeY - y;
                 }
-                int bytesToRead = w * h * bytesPerPixel;
-                if (arrayBuf.length != bytesToRead)
-                {
-                    arrayBuf = new byte[bytesToRead];
-                }
+                // A new buffer per tile as the previous ones may still be
+                // waiting to be uploaded.
+                tileBuf = new byte[w * h * bytesPerPixel];
                 planeNumber = reader.getIndex(z, c, t);
                 if (log.isDebugEnabled())
                 {
                     log.debug(String.format(
                             "Plane:%d X:%d Y:%d TileWidth:%d TileHeight:%d " +
-                            "arrayBuf.length:%d", planeNumber, x, y, w, h,
-                            arrayBuf.length));
+                            "tileBuf.length:%d", planeNumber, x, y, w, h,
+                            tileBuf.length));
                 }
-                arrayBuf = reader.openBytes(
-                        planeNumber, arrayBuf, x, y, w, h);
-                ByteBuffer buf = ByteBuffer.wrap(arrayBuf);
-                arrayBuf = swapIfRequired(buf, fileName);
+                tileBuf = reader.openBytes(
+                        planeNumber, tileBuf, x, y, w, h);
+                ByteBuffer buf = ByteBuffer.wrap(tileBuf);
+                tileBuf = swapIfRequired(buf, fileName);
                 try
                 {
-                    md.update(arrayBuf, 0, arrayBuf.length);
+                    md.update(tileBuf, 0, tileBuf.length);
                 }
                 catch (Exception e)
                 {
                     // This better not happen. :)
                     throw new RuntimeException(e);
                 }
-                store.setTile(
-                        pixId, arrayBuf, z, c, t, x, y, w, h);
+                uploader.put(tileBuf, z, c, t, x, y, w, h,
+                        tileOffsetY == tileCountY - 1
+                        && tileOffsetX == tileCountX - 1);
             }
         }
     }
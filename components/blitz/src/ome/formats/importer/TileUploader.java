@@ -0,0 +1,317 @@
+/*
+ * ome.formats.importer.TileUploader
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.formats.importer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ome.formats.OMEROMetadataStoreClient;
+import omero.ServerError;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Uploads the tiles of a Pixels set on a background thread so that the
+ * import thread can read, byte swap and digest the following tiles while
+ * the previous ones are in transit. Tiles are queued up to a bounded window
+ * and written in the order they were queued since the server writes pixels
+ * pyramids sequentially.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class TileUploader
+{
+
+    /** Logger for this class */
+    private static final Log log = LogFactory.getLog(TileUploader.class);
+
+    /** Default maximum number of tiles waiting to be uploaded. */
+    public static final int DEFAULT_WINDOW = 8;
+
+    /** Marks the end of the queue. */
+    private static final Tile END = new Tile(null, 0, 0, 0, 0, 0, 0, 0, false);
+
+    /** How long to wait for room in the queue before checking for errors. */
+    private static final long POLL_INTERVAL = 100;
+
+    /**
+     * How long {@link #cancel()} waits for the tile in transit, if any, to be
+     * written before giving up on the upload thread, in milliseconds.
+     */
+    public static final long CANCEL_TIMEOUT = 10000;
+
+    /** The store used to write the tiles. */
+    private final OMEROMetadataStoreClient store;
+
+    /** The Pixels set to write to. */
+    private final long pixId;
+
+    /** The tiles waiting to be uploaded. */
+    private final BlockingQueue<Tile> queue;
+
+    /** The upload thread. */
+    private final Thread thread;
+
+    /** Number of planes whose last tile has been uploaded. */
+    private final AtomicInteger completedPlanes = new AtomicInteger();
+
+    /** Number of bytes uploaded so far. */
+    private final AtomicLong bytesUploaded = new AtomicLong();
+
+    /** Time the upload started. */
+    private volatile long startTime;
+
+    /** Time the last tile was uploaded. */
+    private volatile long endTime;
+
+    /** The first error raised by the upload thread. */
+    private volatile Throwable failure;
+
+    /**
+     * Creates a new instance.
+     * @param store The store used to write the tiles.
+     * @param pixId The Pixels set to write to.
+     * @param window Maximum number of tiles waiting to be uploaded. Values
+     * lower than <code>1</code> are replaced by <code>1</code>.
+     */
+    public TileUploader(OMEROMetadataStoreClient store, long pixId,
+                        int window)
+    {
+        this.store = store;
+        this.pixId = pixId;
+        this.queue = new ArrayBlockingQueue<Tile>(Math.max(1, window));
+        this.thread = new Thread(new Runnable() {
+            public void run()
+            {
+                upload();
+            }
+        }, "TileUploader-" + pixId);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the upload thread.
+     */
+    public void start()
+    {
+        startTime = System.currentTimeMillis();
+        endTime = startTime;
+        thread.start();
+    }
+
+    /**
+     * Queues a tile for upload, blocking while the window is full. The
+     * buffer is handed over and must not be modified by the caller.
+     * @param data The pixels of the tile.
+     * @param z Z offset within the Pixels set.
+     * @param c Channel offset within the Pixels set.
+     * @param t Timepoint offset within the Pixels set.
+     * @param x X offset of the tile.
+     * @param y Y offset of the tile.
+     * @param w Width of the tile.
+     * @param h Height of the tile.
+     * @param lastOfPlane Whether or not this is the last tile of the plane.
+     * @throws ServerError If a previous tile could not be written.
+     */
+    public void put(byte[] data, int z, int c, int t, int x, int y, int w,
+                    int h, boolean lastOfPlane)
+        throws ServerError
+    {
+        enqueue(new Tile(data, z, c, t, x, y, w, h, lastOfPlane));
+    }
+
+    /**
+     * Waits for all the queued tiles to be uploaded and stops the upload
+     * thread.
+     * @throws ServerError If a tile could not be written.
+     */
+    public void finish() throws ServerError
+    {
+        enqueue(END);
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during tile upload.", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stops the upload thread, discarding the queued tiles. Used when the
+     * import fails before {@link #finish()} is reached. Waits up to
+     * {@link #CANCEL_TIMEOUT} milliseconds for the tile in transit, if any,
+     * so that the store is no longer in use once this method returns.
+     */
+    public void cancel()
+    {
+        queue.clear();
+        // Stops the thread even if the interrupt is swallowed by the store.
+        queue.offer(END);
+        thread.interrupt();
+        try
+        {
+            thread.join(CANCEL_TIMEOUT);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive())
+        {
+            log.warn("Tile upload of Pixels:" + pixId + " still running "
+                     + CANCEL_TIMEOUT + "ms after cancellation.");
+        }
+    }
+
+    /**
+     * Returns the number of planes which have been fully uploaded.
+     * @return See above.
+     */
+    public int getCompletedPlanes()
+    {
+        return completedPlanes.get();
+    }
+
+    /**
+     * Returns the number of bytes uploaded so far.
+     * @return See above.
+     */
+    public long getBytesUploaded()
+    {
+        return bytesUploaded.get();
+    }
+
+    /**
+     * Returns the time spent uploading so far in milliseconds.
+     * @return See above.
+     */
+    public long getElapsedTime()
+    {
+        return endTime - startTime;
+    }
+
+    /**
+     * Adds an entry to the queue, checking for upload errors while waiting
+     * for room.
+     * @param tile The entry to add.
+     * @throws ServerError If a tile could not be written.
+     */
+    private void enqueue(Tile tile) throws ServerError
+    {
+        try
+        {
+            checkFailure();
+            while (!queue.offer(tile, POLL_INTERVAL, TimeUnit.MILLISECONDS))
+            {
+                checkFailure();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during tile upload.", e);
+        }
+    }
+
+    /**
+     * Rethrows the error raised by the upload thread, if any.
+     * @throws ServerError If a tile could not be written.
+     */
+    private void checkFailure() throws ServerError
+    {
+        Throwable t = failure;
+        if (t == null)
+        {
+            return;
+        }
+        if (t instanceof ServerError)
+        {
+            throw (ServerError) t;
+        }
+        if (t instanceof RuntimeException)
+        {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error)
+        {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t);
+    }
+
+    /**
+     * Writes the queued tiles in order until the end of the queue is
+     * reached or an error occurs.
+     */
+    private void upload()
+    {
+        try
+        {
+            while (true)
+            {
+                Tile tile = queue.take();
+                if (tile == END)
+                {
+                    return;
+                }
+                store.setTile(pixId, tile.data, tile.z, tile.c, tile.t,
+                              tile.x, tile.y, tile.w, tile.h);
+                bytesUploaded.addAndGet(tile.data.length);
+                endTime = System.currentTimeMillis();
+                if (tile.lastOfPlane)
+                {
+                    completedPlanes.incrementAndGet();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            log.debug("Tile upload of Pixels:" + pixId + " cancelled.");
+        }
+        catch (Throwable t)
+        {
+            log.error("Error uploading tile of Pixels:" + pixId, t);
+            failure = t;
+            queue.clear();
+        }
+    }
+
+    /**
+     * A tile waiting to be uploaded.
+     */
+    private static class Tile
+    {
+        final byte[] data;
+
+        final int z, c, t, x, y, w, h;
+
+        final boolean lastOfPlane;
+
+        Tile(byte[] data, int z, int c, int t, int x, int y, int w, int h,
+             boolean lastOfPlane)
+        {
+            this.data = data;
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.lastOfPlane = lastOfPlane;
+        }
+    }
+}
@@ -9,6 +9,7 @@ package ome.services.blitz.impl;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -22,6 +23,7 @@ import ome.conditions.InternalException;
 import ome.io.bioformats.BfPyramidPixelBuffer;
 import ome.io.nio.AbstractFileSystemService;
 import ome.io.nio.PixelsService;
+import ome.io.nio.RomioPixelBuffer;
 import ome.services.delete.DeleteStepFactory;
 import ome.services.graphs.GraphException;
 import ome.services.graphs.GraphSpec;
@@ -37,6 +39,7 @@ import omero.api.delete.DeleteCommand;
 import omero.api.delete.DeleteReport;
 import omero.api.delete._DeleteHandleDisp;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -138,6 +141,13 @@ public class DeleteHandleI extends _DeleteHandleDisp implements
 
     private final ServiceFactoryI sf;
 
+    /**
+     * Maximum number of ids deleted per statement in bulk mode. If 0 or less,
+     * or if a graph cannot be deleted in bulk, each step is executed on its
+     * own.
+     */
+    private volatile int bulkChunkSize = 0;
+
     /**
      * Create and
      *
@@ -196,6 +206,16 @@ public class DeleteHandleI extends _DeleteHandleDisp implements
         }
     }
 
+    /**
+     * Enables bulk mode with the given number of ids per statement. Must
+     * be called before {@link #run()}.
+     *
+     * @see GraphState#planChunks(int)
+     */
+    public void setBulkChunkSize(int bulkChunkSize) {
+        this.bulkChunkSize = bulkChunkSize;
+    }
+
     //
     // DeleteHandle. See documentation in slice definition.
     //
@@ -396,11 +416,17 @@ public class DeleteHandleI extends _DeleteHandleDisp implements
                 report.warning = "Object missing.";
                 return;
             }
+            sw.stop("omero.delete.ids." + report.scheduledDeletes);
+
+            if (bulkChunkSize > 0) {
+                chunks(report);
+                return;
+            }
+
             if (report.scheduledDeletes < Integer.MAX_VALUE) {
                 report.stepStarts = new long[(int)report.scheduledDeletes];
                 report.stepStops = new long[(int)report.scheduledDeletes];
             }
-            sw.stop("omero.delete.ids." + report.scheduledDeletes);
 
             // Loop throw all steps
             report.warning = "";
@@ -446,9 +472,44 @@ public class DeleteHandleI extends _DeleteHandleDisp implements
 
     }
 
+    /**
+     * Bulk variant of the step loop in
+     * {@link #steps(SqlAction, Session, Report)}. The timing arrays of the
+     * report hold one entry per chunk and {@link DeleteReport#actualDeletes}
+     * is updated after each chunk so that progress can be followed via
+     * {@link #report(Current)}.
+     */
+    private void chunks(Report report) throws Cancel, GraphException {
+
+        StopWatch sw = new CommonsLogStopWatch();
+        int chunks = report.state.planChunks(bulkChunkSize);
+        sw.stop("omero.delete.chunks." + chunks);
+        report.stepStarts = new long[chunks];
+        report.stepStops = new long[chunks];
+
+        report.warning = "";
+        for (int c = 0; c < chunks; c++) {
+            sw = new CommonsLogStopWatch();
+            try {
+                if (!state.compareAndSet(State.READY, State.RUNNING)) {
+                    throw new Cancel("Not ready");
+                }
+                report.warning += report.state.executeChunk(c);
+                report.actualDeletes = report.state.getTotalProcessedCount();
+            } finally {
+                sw.stop("omero.delete.chunk." + c);
+                report.stepStarts[c] = sw.getStartTime();
+                report.stepStops[c] = sw.getStartTime() + sw.getElapsedTime();
+                state.compareAndSet(State.RUNNING, State.READY);
+            }
+        }
+        report.actualDeletes = report.state.getTotalProcessedCount();
+    }
+
     /**
      * For each Report use the map of tables to deleted ids to remove the files
-     * under Files, Pixels and Thumbnails if the ids no longer exist in the db.
+     * under Files, Pixels, Thumbnails and RenderedTiles if the ids no longer
+     * exist in the db.
      * Create a map of failed ids (not yet passed back to client).
       */
     private void deleteFiles() {
@@ -487,6 +548,20 @@ public class DeleteHandleI extends _DeleteHandleDisp implements
                                 filesFailed++;
                                 bytesFailed += pyrFile.length();
                             }
+                            // Any saved digest of the pixels file
+                            File sha1File = new File(filePath + RomioPixelBuffer.SHA1_SUFFIX);
+                            if(!deleteSingleFile(sha1File)) {
+                                failedMap.get(fileType).add(id);
+                                filesFailed++;
+                                bytesFailed += sha1File.length();
+                            }
+                            // Any tiles cached by the rendering engines
+                            File tilesDir = new File(afs.getRenderedTilesPath(id));
+                            if(!deleteDirectory(tilesDir)) {
+                                failedMap.get(fileType).add(id);
+                                filesFailed++;
+                                bytesFailed += FileUtils.sizeOfDirectory(tilesDir);
+                            }
                             File dir = file.getParentFile();
                             // Now any lock file
                             File lockFile = new File(dir, "." + id + PixelsService.PYRAMID_SUFFIX
@@ -560,6 +635,25 @@ public class DeleteHandleI extends _DeleteHandleDisp implements
         return true;
     }
 
+    /**
+     * Helper to delete a directory and its contents and log
+     */
+    private boolean deleteDirectory(File dir)
+    {
+        if (dir.exists()) {
+            try {
+                FileUtils.deleteDirectory(dir);
+                log.debug("DELETED: " + dir.getAbsolutePath());
+            } catch (IOException e) {
+                log.debug("Failed to delete " + dir.getAbsolutePath(), e);
+                return false;
+            }
+        } else {
+            log.debug("Directory " + dir.getAbsolutePath() + " does not exist.");
+        }
+        return true;
+    }
+
     /**
      * Signals that {@link DeleteHandleI#run()} has noticed that
      * {@link DeleteHandleI#state} wants a cancallation.
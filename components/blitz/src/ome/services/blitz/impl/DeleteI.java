@@ -62,6 +62,8 @@ public class DeleteI extends AbstractAmdServant implements _IDeleteOperations,
 
     private/* final */ServiceFactoryI sf;
 
+    private int bulkChunkSize = 0;
+
     public DeleteI(IDelete service, BlitzExecutor be, ThreadPool threadPool, int cancelTimeoutMs, String omeroDataDir) {
         super(service, be);
         this.threadPool = threadPool;
@@ -73,6 +75,15 @@ public class DeleteI extends AbstractAmdServant implements _IDeleteOperations,
         this.sf = sf;
     }
 
+    /**
+     * Sets the maximum number of ids deleted per statement by the
+     * {@link DeleteHandleI} instances created by this servant. 0 disables
+     * bulk deletion.
+     */
+    public void setBulkChunkSize(int bulkChunkSize) {
+        this.bulkChunkSize = bulkChunkSize;
+    }
+
     // Interface methods
     // =========================================================================
 
@@ -187,12 +198,14 @@ public class DeleteI extends AbstractAmdServant implements _IDeleteOperations,
 
     public DeleteHandleI makeAndLaunchHandle(final Ice.Identity id, final DeleteCommand...commands) {
         DeleteHandleI handle = new DeleteHandleI(loadSpecs(), id, sf, afs, commands, cancelTimeoutMs);
+        handle.setBulkChunkSize(bulkChunkSize);
         threadPool.getExecutor().execute(handle);
         return handle;
     }
 
     public void makeAndRun(final Ice.Identity id, final DeleteCommand...commands) {
         DeleteHandleI handle = new DeleteHandleI(loadSpecs(), id, sf, afs, commands, cancelTimeoutMs);
+        handle.setBulkChunkSize(bulkChunkSize);
         handle.run();
     }
 
@@ -91,15 +91,22 @@ public class MetadataStoreI extends AbstractAmdServant implements
 
     protected final String omeroDataDir;
 
+    /**
+     * Number of plane infos inserted per JDBC batch by
+     * {@link OMEROMetadataStore#saveToDB()}. 0 saves them through Hibernate.
+     */
+    protected final int bulkInsertBatch;
+
     public MetadataStoreI(final BlitzExecutor be, PopulateRoiJob popRoi,
             SqlAction sql, OriginalFilesService filesService,
-            String omeroDataDir) throws Exception {
+            String omeroDataDir, int bulkInsertBatch) throws Exception {
         super(null, be);
         this.popRoi = popRoi;
         this.sql = sql;
         this.filesService = filesService;
         this.omeroDataDir =
             new File(omeroDataDir).getAbsolutePath() + File.separator;
+        this.bulkInsertBatch = bulkInsertBatch;
     }
 
     public void setServiceFactory(ServiceFactoryI sf) throws ServerError {
@@ -109,7 +116,8 @@ public class MetadataStoreI extends AbstractAmdServant implements
     @Override
     public void onSetOmeroContext(final OmeroContext ctx) throws Exception {
         ServiceFactory sf = new InternalServiceFactory(ctx);
-        this.store = new OMEROMetadataStore(sf);
+        this.store = new OMEROMetadataStore(sf, ctx, sql,
+                bulkInsertBatch);
     }
 
     @SuppressWarnings("unchecked")
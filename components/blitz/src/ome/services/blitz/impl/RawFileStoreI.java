@@ -20,6 +20,7 @@ import ome.util.SqlAction;
 import omero.ServerError;
 import omero.api.AMD_RawFileStore_exists;
 import omero.api.AMD_RawFileStore_read;
+import omero.api.AMD_RawFileStore_readMany;
 import omero.api.AMD_RawFileStore_save;
 import omero.api.AMD_RawFileStore_setFileId;
 import omero.api.AMD_RawFileStore_size;
@@ -81,6 +82,12 @@ _RawFileStoreOperations, ServiceFactoryAware, TieAware {
 
     }
 
+    public void readMany_async(AMD_RawFileStore_readMany __cb,
+            long[] positions, int[] lengths, Current __current)
+            throws ServerError {
+        callInvokerOnRawArgs(__cb, __current, positions, lengths);
+    }
+
     public void setFileId_async(AMD_RawFileStore_setFileId __cb, long fileId,
             Current __current) throws ServerError {
 
@@ -191,6 +198,16 @@ _RawFileStoreOperations, ServiceFactoryAware, TieAware {
             });
         }
 
+        public void readMany_async(AMD_RawFileStore_readMany __cb,
+                final long[] positions, final int[] lengths,
+                Current __current) throws ServerError {
+            safeRunnableCall(__current, __cb, false, new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return prx.readMany(positions, lengths);
+                }
+            });
+        }
+
         public void size_async(AMD_RawFileStore_size __cb, Current __current)
                 throws ServerError {
             safeRunnableCall(__current, __cb, false, new Callable<Long>() {
@@ -49,6 +49,8 @@ import omero.api.AMD_RenderingEngine_renderAsPackedIntAsRGBA;
 import omero.api.AMD_RenderingEngine_renderCompressed;
 import omero.api.AMD_RenderingEngine_renderProjectedAsPackedInt;
 import omero.api.AMD_RenderingEngine_renderProjectedCompressed;
+import omero.api.AMD_RenderingEngine_renderRegionsAsPackedInt;
+import omero.api.AMD_RenderingEngine_renderRegionsCompressed;
 import omero.api.AMD_RenderingEngine_resetDefaults;
 import omero.api.AMD_RenderingEngine_resetDefaultsNoSave;
 import omero.api.AMD_RenderingEngine_saveCurrentSettings;
@@ -344,6 +346,20 @@ public class RenderingEngineI extends AbstractPyramidServant implements
         callInvokerOnRawArgs(__cb, __current, def);
     }
 
+    public void renderRegionsAsPackedInt_async(
+            AMD_RenderingEngine_renderRegionsAsPackedInt __cb, PlaneDef def,
+            int[] regions, Current __current) throws ServerError {
+        callInvokerOnRawArgs(__cb, __current, def, regions);
+    }
+
+    public void renderRegionsCompressed_async(
+            AMD_RenderingEngine_renderRegionsCompressed __cb, PlaneDef def,
+            int[] regions, Current __current) throws ServerError {
+        // byte[][] is not known to the mapper
+        callInvokerOnMappedArgs(new IceMapper(IceMapper.UNMAPPED), __cb,
+                __current, def, regions);
+    }
+
     public void renderProjectedAsPackedInt_async(
             AMD_RenderingEngine_renderProjectedAsPackedInt __cb, 
             ProjectionType algorithm, int timepoint, int stepping, int start, 
@@ -47,6 +47,8 @@ import omero.api.AMD_RenderingEngine_renderAsPackedIntAsRGBA;
 import omero.api.AMD_RenderingEngine_renderCompressed;
 import omero.api.AMD_RenderingEngine_renderProjectedAsPackedInt;
 import omero.api.AMD_RenderingEngine_renderProjectedCompressed;
+import omero.api.AMD_RenderingEngine_renderRegionsAsPackedInt;
+import omero.api.AMD_RenderingEngine_renderRegionsCompressed;
 import omero.api.AMD_RenderingEngine_resetDefaults;
 import omero.api.AMD_RenderingEngine_resetDefaultsNoSave;
 import omero.api.AMD_RenderingEngine_saveCurrentSettings;
@@ -282,6 +284,20 @@ public class BfRenderingEngineI extends _RenderingEngineDisp {
 
     }
 
+    public void renderRegionsAsPackedInt_async(
+            AMD_RenderingEngine_renderRegionsAsPackedInt __cb, PlaneDef def,
+            int[] regions, Current __current) throws ServerError {
+        // TODO Auto-generated method stub
+
+    }
+
+    public void renderRegionsCompressed_async(
+            AMD_RenderingEngine_renderRegionsCompressed __cb, PlaneDef def,
+            int[] regions, Current __current) throws ServerError {
+        // TODO Auto-generated method stub
+
+    }
+
     public void renderProjectedAsPackedInt_async(
             AMD_RenderingEngine_renderProjectedAsPackedInt __cb,
             ProjectionType algorithm, int timepoint, int stepping, int start,
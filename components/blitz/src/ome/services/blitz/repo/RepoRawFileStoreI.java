@@ -19,6 +19,7 @@ import ome.services.blitz.impl.AbstractAmdServant;
 import omero.ServerError;
 import omero.api.AMD_RawFileStore_exists;
 import omero.api.AMD_RawFileStore_read;
+import omero.api.AMD_RawFileStore_readMany;
 import omero.api.AMD_RawFileStore_save;
 import omero.api.AMD_RawFileStore_setFileId;
 import omero.api.AMD_RawFileStore_size;
@@ -97,6 +98,47 @@ _RawFileStoreOperations {
 
     }
 
+    public void readMany_async(AMD_RawFileStore_readMany __cb,
+            long[] positions, int[] lengths, Current __current)
+            throws ServerError {
+
+        if (positions.length != lengths.length) {
+            __cb.ice_exception(new omero.ApiUsageException(null, null,
+                    "positions and lengths must be of the same size."));
+            return; // EARLY EXIT!
+        }
+
+        long total = 0;
+        for (int length : lengths) {
+            if (length < 0) {
+                __cb.ice_exception(new omero.ApiUsageException(null, null,
+                        "Negative length: " + length));
+                return; // EARLY EXIT!
+            }
+            total += length;
+        }
+        if (total > 64 * 1000 * 1000) {
+            __cb.ice_exception(new omero.ApiUsageException(null, null,
+                    "Too big: " + total));
+            return; // EARLY EXIT!
+        }
+
+        try {
+            final byte[] array = new byte[(int) total];
+            final FileChannel channel = this.rafile.getChannel();
+            int offset = 0;
+            for (int i = 0; i < positions.length; i++) {
+                channel.read(ByteBuffer.wrap(array, offset, lengths[i]),
+                        positions[i]);
+                offset += lengths[i];
+            }
+            __cb.ice_response(array);
+        } catch (Throwable t) {
+            __cb.ice_exception(convert(t));
+        }
+
+    }
+
 
     public void size_async(AMD_RawFileStore_size __cb, Current __current)
             throws ServerError {
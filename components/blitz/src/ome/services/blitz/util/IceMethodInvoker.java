@@ -72,6 +72,12 @@ public class IceMethodInvoker {
 
     private final Class<?> serviceClass;
 
+    /**
+     * The entry of {@link #staticmap} for {@link #serviceClass}, bound once
+     * at construction rather than looked up on each call.
+     */
+    private final Map<String, Info> methods;
+
     private OmeroContext ctx;
 
     /**
@@ -113,6 +119,12 @@ public class IceMethodInvoker {
                     Method[] ms = this.serviceClass.getMethods();
                     for (Method m : ms) {
                         Info i = new Info();
+                        try {
+                            // Skips the access checks on each invocation.
+                            m.setAccessible(true);
+                        } catch (SecurityException se) {
+                            log.debug("Cannot suppress access checks on " + m);
+                        }
                         i.method = m;
                         i.params = m.getParameterTypes();
                         i.retType = m.getReturnType();
@@ -122,10 +134,13 @@ public class IceMethodInvoker {
                 }
             }
         }
+        synchronized (staticmap) {
+            this.methods = staticmap.get(this.serviceClass);
+        }
     }
 
     Map<String, Info> map() {
-        return staticmap.get(serviceClass);
+        return methods;
     }
 
     /**
@@ -10,10 +10,7 @@ import static omero.rtypes.rlong;
 import static omero.rtypes.rstring;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -44,6 +41,7 @@ import omero.model.OriginalFile;
 import omero.model.OriginalFileI;
 import omero.model.PermissionsI;
 import omero.util.ObjectFactoryRegistrar;
+import omero.util.RawFileTransfer;
 import omero.util.Resources;
 import omero.util.Resources.Entry;
 import Glacier2.CannotCreateSessionException;
@@ -896,11 +894,17 @@ public class client {
     }
 
     public OriginalFile upload(File file, OriginalFile fileObject) throws ServerError, IOException {
-        return upload(file, fileObject, 262144);
+        return upload(file, fileObject, RawFileTransfer.DEFAULT_BLOCK_SIZE);
+    }
+
+    public OriginalFile upload(File file, OriginalFile fileObject, Integer blockSize) throws ServerError, IOException {
+        return upload(file, fileObject, blockSize, 1);
     }
 
     /**
-     * Utility method to upload a file to the server
+     * Utility method to upload a file to the server. The SHA-1 of the file
+     * is stored with the original file and checked against the SHA-1 of the
+     * blocks sent. An original file created by a failed upload is deleted.
      * 
      * @param file
      *            Cannot be null.
@@ -908,9 +912,14 @@ public class client {
      *            Can be null.
      * @param blockSize
      *            Can be null.
+     * @param streams
+     *            Number of {@link RawFileStorePrx} instances writing disjoint
+     *            ranges of the file concurrently. Only worthwhile for very
+     *            large files. See {@link RawFileTransfer}.
      * @throws IOException
      */
-    public OriginalFile upload(File file, OriginalFile fileObject, Integer blockSize) throws ServerError, IOException {
+    public OriginalFile upload(File file, OriginalFile fileObject, Integer blockSize,
+            int streams) throws ServerError, IOException {
         ServiceFactoryPrx sf = getSession();
         if (file == null) {
             throw new ClientError("Non-null file must be provided");
@@ -921,12 +930,12 @@ public class client {
         }
 
         if (blockSize == null) {
-            blockSize = 262144;
+            blockSize = RawFileTransfer.DEFAULT_BLOCK_SIZE;
         }
 
         long size = file.length();
         if (blockSize > size) {
-            blockSize = (int) size;
+            blockSize = (int) Math.max(size, 1);
         }
 
         if (fileObject == null) {
@@ -951,59 +960,92 @@ public class client {
         }
 
         IUpdatePrx up = sf.getUpdateService();
+        boolean created = fileObject.getId() == null;
         fileObject = (OriginalFile) up.saveAndReturnObject(fileObject);
 
-        byte[] buf = new byte[blockSize];
-        RawFileStorePrx rfs = sf.createRawFileStore();
-        FileInputStream stream = null;
+        RawFileTransfer transfer = new RawFileTransfer(sf, blockSize, streams);
+        boolean uploaded = false;
         try {
-            rfs.setFileId(fileObject.getId().getValue());
-            stream = new FileInputStream(file);
-            long pos = 0;
-            int rlen;
-            ByteBuffer bbuf;
-            while ((rlen = stream.read(buf)) > 0) {
-                rfs.write(buf, pos, rlen);
-                pos += rlen;
-                bbuf = ByteBuffer.wrap(buf);
-                bbuf.limit(rlen);
+            RawFileStorePrx rfs = sf.createRawFileStore();
+            try {
+                String sha1 = transfer.upload(rfs,
+                        fileObject.getId().getValue(), file);
+                if (!sha1.equals(fileObject.getSha1().getValue())) {
+                    throw new ClientError("File changed during upload: "
+                            + file.getAbsolutePath());
+                }
+                OriginalFile saved = rfs.save();
+                if (saved == null) {
+                    uploaded = true;
+                    return fileObject;
+                }
+                if (saved.getSha1() != null
+                        && !sha1.equals(saved.getSha1().getValue())) {
+                    throw new ClientError("SHA-1 mismatch for "
+                            + file.getAbsolutePath()
+                            + ": sent " + sha1 + " but server has "
+                            + saved.getSha1().getValue());
+                }
+                uploaded = true;
+                return saved;
+            } finally {
+                rfs.close();
             }
-            return rfs.save();
         } finally {
-            Utils.closeQuietly(stream);
-            if (rfs != null) {
-                rfs.close();
+            if (!uploaded && created) {
+                discard(up, fileObject.getId().getValue());
             }
         }
     }
 
+    /**
+     * Deletes the original file created by a failed upload so that it is not
+     * left with partial contents. Failures are only logged so that the
+     * reason of the failed upload is reported.
+     */
+    private void discard(IUpdatePrx up, long fileId) {
+        try {
+            up.deleteObject(new OriginalFileI(fileId, false));
+        } catch (Exception e) {
+            getCommunicator().getLogger().warning(
+                    "Could not delete OriginalFile:" + fileId
+                    + " after a failed upload: " + e);
+        }
+    }
+
     public void download(long fileId, File file) throws ServerError, IOException {
-        download(fileId, file, 262144);
+        download(fileId, file, RawFileTransfer.DEFAULT_BLOCK_SIZE);
     }
 
     public void download(long fileId, File file, int blockSize) throws ServerError, IOException  {
+        download(fileId, file, blockSize, 1);
+    }
+
+    /**
+     * Utility method to download a file from the server.
+     *
+     * @param fileId
+     *            Id of the original file.
+     * @param file
+     *            Local file to write. Replaced if it exists.
+     * @param blockSize
+     *            Size of each read.
+     * @param streams
+     *            Number of {@link RawFileStorePrx} instances reading disjoint
+     *            ranges of the file concurrently. See {@link RawFileTransfer}.
+     */
+    public void download(long fileId, File file, int blockSize, int streams)
+            throws ServerError, IOException {
         final ServiceFactoryPrx sf = getSession();
         final OriginalFile obj = (OriginalFile) sf.getQueryService().get("OriginalFile", fileId);
         final RawFileStorePrx store = sf.createRawFileStore();
-        final FileOutputStream stream = new FileOutputStream(file);
-
         final long size = obj.getSize().getValue();
-
-        int offset = 0;
-        int length = (int) size;
-
-        store.setFileId(fileId);
         try {
-            for (offset = 0; (offset+blockSize) < size;) {
-                stream.write(store.read(offset, blockSize));
-                offset += blockSize;
-            }
-            stream.write(store.read(offset, length-offset));
+            new RawFileTransfer(sf, blockSize, streams).download(store,
+                    fileId, size, file);
         } finally {
-            Utils.closeQuietly(stream);
             store.close();
         }
-
     }
 
     // Environment methods
@@ -968,6 +968,16 @@ public class IceMapper extends ome.util.ModelMapper implements
         return IceMap.OMEtoOMERO;
     }
 
+    /**
+     * Uses the generated {@link IceMap#create(Class)} rather than
+     * {@link Class#newInstance()}. Hibernate proxies are not known to
+     * {@link IceMap} and so fall back to the reflective lookup.
+     */
+    @Override
+    protected Object createTarget(Class currentType) {
+        return IceMap.create(currentType);
+    }
+
     private void fillTarget(Filterable source, ModelBased target) {
         if (source != null && target != null) {
             target.copyObject(source, this);
@@ -978,7 +988,8 @@ public class IceMapper extends ome.util.ModelMapper implements
     public Filterable filter(String fieldId, Filterable source) {
         // Filterable o = super.filter(fieldId,source);
         // Can't call super here!!
-        if (hasntSeen(source)) {
+        final boolean unseen = hasntSeen(source);
+        if (unseen) {
             // log.info("Haven't seen. Stepping into "+f);
             enter(source);
             addSeen(source);
@@ -987,7 +998,11 @@ public class IceMapper extends ome.util.ModelMapper implements
         }
 
         Object target = findTarget(source);
-        fillTarget(source, (ModelBased) target); // FIXME cast
+        if (unseen) {
+            // Objects referenced many times in a graph, e.g. the owner in
+            // every Details, are only copied once.
+            fillTarget(source, (ModelBased) target); // FIXME cast
+        }
         return source;
     }
 
@@ -0,0 +1,400 @@
+/*
+ * omero.util.RawFileTransfer
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ome.util.Utils;
+import omero.ClientError;
+import omero.ServerError;
+import omero.api.AMI_RawFileStore_read;
+import omero.api.AMI_RawFileStore_write;
+import omero.api.RawFileStorePrx;
+import omero.api.ServiceFactoryPrx;
+import Ice.LocalException;
+import Ice.UserException;
+
+/**
+ * Moves the contents of a file to or from a {@link RawFileStorePrx} with
+ * asynchronous requests, so that the local file is read or written while
+ * the blocks are in transit. Uploads read the local file once, computing
+ * its SHA-1 while the blocks are sent.
+ *
+ * A stateful service must not be called by two threads at once, so each
+ * {@link RawFileStorePrx} has at most one request outstanding. Transfers
+ * are pipelined by spreading them over several streams, i.e. additional
+ * {@link RawFileStorePrx} instances created for the duration of the
+ * transfer. Each block is sent on the first stream which is idle, so that
+ * each stream moves a disjoint set of ranges. Note that when uploading over
+ * more than one stream, the server can no longer compute the checksum as
+ * the blocks arrive and reads the file back when each stream is closed.
+ *
+ * Instances are immutable and may be shared between threads.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class RawFileTransfer {
+
+    private final static Logger log = Logger.getLogger(RawFileTransfer.class
+            .getName());
+
+    /** Default size, in bytes, of the blocks. */
+    public final static int DEFAULT_BLOCK_SIZE = 262144;
+
+    private final ServiceFactoryPrx sf;
+
+    private final int blockSize;
+
+    private final int streams;
+
+    /**
+     * Creates an instance using a single stream.
+     */
+    public RawFileTransfer(ServiceFactoryPrx sf, int blockSize) {
+        this(sf, blockSize, 1);
+    }
+
+    /**
+     * @param sf
+     *            Used to create the additional streams. Cannot be null.
+     * @param blockSize
+     *            Size, in bytes, of each request. Must be positive.
+     * @param streams
+     *            Number of {@link RawFileStorePrx} instances used, including
+     *            the one passed to {@link #upload(RawFileStorePrx, long, File)}
+     *            or {@link #download(RawFileStorePrx, long, long, File)}. Must
+     *            be positive.
+     */
+    public RawFileTransfer(ServiceFactoryPrx sf, int blockSize, int streams) {
+        if (sf == null) {
+            throw new ClientError("Non-null session must be provided");
+        }
+        if (blockSize < 1 || streams < 1) {
+            throw new ClientError("Block size and streams must be positive");
+        }
+        this.sf = sf;
+        this.blockSize = blockSize;
+        this.streams = streams;
+    }
+
+    /**
+     * Writes the contents of the given file to the given original file.
+     * The store is left open without being saved.
+     *
+     * @param store
+     *            The store to write with. Its file id is set to
+     *            <code>fileId</code>.
+     * @param fileId
+     *            The id of the original file.
+     * @param file
+     *            The local file to read.
+     * @return The hexadecimal SHA-1 of the contents sent.
+     */
+    public String upload(RawFileStorePrx store, long fileId, File file)
+            throws ServerError, IOException {
+        final MessageDigest md = newDigest();
+        final Window window = new Window(streams);
+        final RawFileStorePrx[] stores = open(store, fileId);
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(file);
+            byte[] buf = new byte[blockSize];
+            long position = 0;
+            int index;
+            int rlen;
+            while ((rlen = stream.read(buf)) > 0) {
+                md.update(buf, 0, rlen);
+                index = window.acquire();
+                // The arguments are marshalled before write_async returns
+                // so the buffer can be filled again straight away.
+                stores[index].write_async(new WriteCallback(window, index),
+                        buf, position, rlen);
+                position += rlen;
+            }
+            window.await();
+            window.check();
+        } finally {
+            window.await();
+            Utils.closeQuietly(stream);
+            close(stores);
+        }
+        return Utils.bytesToHex(md.digest());
+    }
+
+    /**
+     * Writes the first <code>size</code> bytes of the given original file
+     * to the given local file, replacing its contents. The store is left
+     * open.
+     *
+     * @param store
+     *            The store to read with. Its file id is set to
+     *            <code>fileId</code>.
+     * @param fileId
+     *            The id of the original file.
+     * @param size
+     *            The number of bytes to read.
+     * @param file
+     *            The local file to write.
+     */
+    public void download(RawFileStorePrx store, long fileId, long size,
+            File file) throws ServerError, IOException {
+        final Window window = new Window(streams);
+        final RawFileStorePrx[] stores = open(store, fileId);
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(file, "rw");
+            out.setLength(size);
+            final FileChannel channel = out.getChannel();
+            long position = 0;
+            int index;
+            int length;
+            while (position < size) {
+                length = (int) Math.min(blockSize, size - position);
+                index = window.acquire();
+                stores[index].read_async(new ReadCallback(window, index,
+                        channel, position, length), position, length);
+                position += length;
+            }
+            window.await();
+            window.check();
+        } finally {
+            window.await();
+            Utils.closeQuietly(out);
+            close(stores);
+        }
+    }
+
+    /**
+     * Returns the streams to use, the first being the passed store.
+     */
+    private RawFileStorePrx[] open(RawFileStorePrx store, long fileId)
+            throws ServerError {
+        RawFileStorePrx[] stores = new RawFileStorePrx[streams];
+        stores[0] = store;
+        store.setFileId(fileId);
+        boolean opened = false;
+        try {
+            for (int i = 1; i < streams; i++) {
+                stores[i] = sf.createRawFileStore();
+                stores[i].setFileId(fileId);
+            }
+            opened = true;
+        } finally {
+            if (!opened) {
+                close(stores);
+            }
+        }
+        return stores;
+    }
+
+    /**
+     * Closes the streams created by {@link #open(RawFileStorePrx, long)}.
+     */
+    private void close(RawFileStorePrx[] stores) {
+        for (int i = 1; i < stores.length; i++) {
+            if (stores[i] != null) {
+                try {
+                    stores[i].close();
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Failed to close stream", e);
+                }
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(
+                    "Required SHA-1 message digest algorithm unavailable.");
+        }
+    }
+
+    /**
+     * Tracks the streams awaiting a reply and keeps the first failure.
+     */
+    private static class Window {
+
+        private final boolean[] busy;
+
+        private int pending = 0;
+
+        private Exception failure;
+
+        Window(int streams) {
+            this.busy = new boolean[streams];
+        }
+
+        /**
+         * Waits for a stream without any request outstanding and reserves
+         * it. Throws the first failure reported instead, if any.
+         *
+         * @return The index of the stream.
+         */
+        synchronized int acquire() throws ServerError, IOException {
+            while (pending >= busy.length && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException("Transfer interrupted");
+                }
+            }
+            check();
+            int index = 0;
+            while (busy[index]) {
+                index++;
+            }
+            busy[index] = true;
+            pending++;
+            return index;
+        }
+
+        /**
+         * Records the reply to the request sent on a stream.
+         *
+         * @param index
+         *            The index of the stream.
+         * @param e
+         *            The failure or null if the request succeeded.
+         */
+        synchronized void done(int index, Exception e) {
+            if (e != null && failure == null) {
+                failure = e;
+            }
+            busy[index] = false;
+            pending--;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the replies to all the requests. Interrupts are
+         * deferred since the streams cannot be closed while in use.
+         */
+        synchronized void await() {
+            boolean interrupted = false;
+            while (pending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Throws the first failure reported, if any.
+         */
+        synchronized void check() throws ServerError, IOException {
+            if (failure instanceof ServerError) {
+                throw (ServerError) failure;
+            } else if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new ClientError("Transfer failed: " + failure);
+            }
+        }
+
+    }
+
+    private static class WriteCallback extends AMI_RawFileStore_write {
+
+        private final Window window;
+
+        private final int index;
+
+        WriteCallback(Window window, int index) {
+            this.window = window;
+            this.index = index;
+        }
+
+        @Override
+        public void ice_response() {
+            window.done(index, null);
+        }
+
+        @Override
+        public void ice_exception(LocalException ex) {
+            window.done(index, ex);
+        }
+
+        @Override
+        public void ice_exception(UserException ex) {
+            window.done(index, ex);
+        }
+
+    }
+
+    private static class ReadCallback extends AMI_RawFileStore_read {
+
+        private final Window window;
+
+        private final int index;
+
+        private final FileChannel channel;
+
+        private final long position;
+
+        private final int length;
+
+        ReadCallback(Window window, int index, FileChannel channel,
+                long position, int length) {
+            this.window = window;
+            this.index = index;
+            this.channel = channel;
+            this.position = position;
+            this.length = length;
+        }
+
+        @Override
+        public void ice_response(byte[] __ret) {
+            if (__ret.length != length) {
+                window.done(index, new ClientError("Read " + __ret.length
+                        + " bytes instead of " + length + " at " + position));
+                return;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(__ret);
+            long offset = position;
+            try {
+                while (buf.hasRemaining()) {
+                    offset += channel.write(buf, offset);
+                }
+                window.done(index, null);
+            } catch (IOException e) {
+                window.done(index, e);
+            }
+        }
+
+        @Override
+        public void ice_exception(LocalException ex) {
+            window.done(index, ex);
+        }
+
+        @Override
+        public void ice_exception(UserException ex) {
+            window.done(index, ex);
+        }
+
+    }
+
+}
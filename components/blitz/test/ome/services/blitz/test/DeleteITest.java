@@ -34,9 +34,11 @@ import omero.model.DatasetI;
 import omero.model.FileAnnotation;
 import omero.model.FileAnnotationI;
 import omero.model.IObject;
+import omero.model.Image;
 import omero.model.ImageAnnotationLink;
 import omero.model.ImageAnnotationLinkI;
 import omero.model.ImageI;
+import omero.model.InstrumentI;
 import omero.model.Plate;
 import omero.model.PlateI;
 import omero.model.Project;
@@ -55,6 +57,8 @@ import omero.model.WellSample;
 import omero.model.WellSampleI;
 import omero.sys.ParametersI;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.hibernate.Session;
 import org.jmock.Mock;
 import org.jmock.core.Invocation;
@@ -74,6 +78,8 @@ import org.testng.annotations.Test;
 @Test(groups = { "integration", "delete" })
 public class DeleteITest extends AbstractServantTest {
 
+    private static Log log = LogFactory.getLog(DeleteITest.class);
+
     Mock adapterMock;
     AbstractFileSystemService afs;
 
@@ -350,6 +356,133 @@ public class DeleteITest extends AbstractServantTest {
 
     }
 
+    /**
+     * Deletes the same multi-well plate graph once step by step and once in
+     * bulk, and checks that both leave nothing behind. Each image has an
+     * instrument and an annotation so that the graph contains SOFT
+     * containers, which are still executed step by step in bulk mode. The
+     * times of both are logged for comparison.
+     */
+    @SuppressWarnings("rawtypes")
+    public void testBulkPlate() throws Exception {
+
+        int wells = 4;
+        long[] pids = new long[2];
+        long[][] iids = new long[2][wells];
+        for (int i = 0; i < 2; i++) {
+            for (int w = 0; w < wells; w++) {
+                iids[i][w] = makeImageWithInstrumentAndAnnotation();
+            }
+            Plate p = createPlate(iids[i]);
+            p = assertSaveAndReturn(p);
+            pids[i] = p.getId().getValue();
+        }
+
+        long start = System.currentTimeMillis();
+        DeleteHandleI handle = doDelete(0,
+                new DeleteCommand("/Plate", pids[0], null));
+        long stepwise = System.currentTimeMillis() - start;
+        DeleteReport report = handle.report()[0];
+        assertEquals(report.scheduledDeletes, report.stepStarts.length);
+
+        start = System.currentTimeMillis();
+        handle = doDelete(100, new DeleteCommand("/Plate", pids[1], null));
+        long bulk = System.currentTimeMillis() - start;
+        log.info(String.format("Plate with %s wells deleted in %s ms step "
+                + "by step, in %s ms in bulk", wells, stepwise, bulk));
+        report = handle.report()[0];
+        assertTrue(report.actualDeletes > 0);
+        // One timing per chunk as planned by GraphState.planChunks
+        assertTrue(report.stepStarts.length > 0);
+        assertTrue(report.stepStarts.length < report.scheduledDeletes);
+
+        for (int i = 0; i < 2; i++) {
+            List l;
+            l = assertProjection("select p.id from Plate p where p.id = "
+                    + pids[i], null);
+            assertEquals(0, l.size());
+            l = assertProjection("select w.id from Well w where w.plate.id = "
+                    + pids[i], null);
+            assertEquals(0, l.size());
+            for (int w = 0; w < wells; w++) {
+                l = assertProjection("select i.id from Image i where i.id = "
+                        + iids[i][w], null);
+                assertEquals(0, l.size());
+            }
+            l = assertProjection("select l.id from ImageAnnotationLink l "
+                    + "where l.parent.id in (:ids)",
+                    new ParametersI().addIds(asList(iids[i])));
+            assertEquals(0, l.size());
+        }
+    }
+
+    /**
+     * Benchmark comparing bulk and step-by-step deletion of the same large
+     * screen/plate/well/image hierarchy. Every eighth image has an
+     * instrument and an annotation, i.e. SOFT containers. The plates are
+     * deleted one command each, then the screen, since the plates of a
+     * "/Screen" are SOFT and would be deleted step by step in bulk mode too
+     * (see {@link GraphState#planChunks(int)}). Both runs must delete the
+     * same number of rows and leave none of the hierarchy behind.
+     */
+    @Test(groups = "longrunning")
+    public void testBulkScreenBenchmark() throws Exception {
+
+        int plates = 4;
+        int wells = 96;
+        long[] sids = new long[2];
+        long[][] pids = new long[2][plates];
+        long[][] iids = new long[2][plates * wells];
+        for (int s = 0; s < 2; s++) {
+            Screen screen = new ScreenI();
+            screen.setName(omero.rtypes.rstring("screen"));
+            for (int p = 0; p < plates; p++) {
+                long[] plateImages = new long[wells];
+                for (int w = 0; w < wells; w++) {
+                    if (w % 8 == 0) {
+                        plateImages[w] = makeImageWithInstrumentAndAnnotation();
+                    } else {
+                        plateImages[w] = makeImage();
+                    }
+                    iids[s][p * wells + w] = plateImages[w];
+                }
+                Plate plate = assertSaveAndReturn(createPlate(plateImages));
+                pids[s][p] = plate.getId().getValue();
+                screen.linkPlate(new PlateI(pids[s][p], false));
+            }
+            screen = assertSaveAndReturn(screen);
+            sids[s] = screen.getId().getValue();
+        }
+
+        long[] deletes = new long[2];
+        long[] times = new long[2];
+        for (int s = 0; s < 2; s++) {
+            List<Long> instruments = ids(assertProjection(
+                    "select i.instrument.id from Image i where i.id in (:ids)",
+                    new ParametersI().addIds(asList(iids[s]))));
+            assertEquals(wells / 8 * plates, instruments.size());
+            int chunkSize = s == 0 ? 0 : 100;
+            DeleteCommand[] dcs = new DeleteCommand[plates];
+            for (int p = 0; p < plates; p++) {
+                dcs[p] = new DeleteCommand("/Plate", pids[s][p], null);
+            }
+            long start = System.currentTimeMillis();
+            DeleteHandleI handle = doDelete(chunkSize, dcs);
+            DeleteHandleI screenHandle = doDelete(chunkSize,
+                    new DeleteCommand("/Screen", sids[s], null));
+            times[s] = System.currentTimeMillis() - start;
+            for (DeleteReport report : handle.report()) {
+                deletes[s] += report.actualDeletes;
+            }
+            deletes[s] += screenHandle.report()[0].actualDeletes;
+            assertHierarchyDeleted(sids[s], pids[s], iids[s], instruments);
+        }
+        log.info(String.format("Screen with %s plates of %s wells deleted "
+                + "in %s ms step by step, in %s ms in bulk (%s rows)",
+                plates, wells, times[0], times[1], deletes[0]));
+        assertEquals(deletes[0], deletes[1]);
+    }
+
     /**
      * Deletes a very simple image/annotation graph, to guarantee that the
      * basic options are working
@@ -719,9 +852,15 @@ public class DeleteITest extends AbstractServantTest {
     }
 
     private DeleteHandleI doDelete(DeleteCommand... dc) throws Exception {
+        return doDelete(0, dc);
+    }
+
+    private DeleteHandleI doDelete(int bulkChunkSize, DeleteCommand... dc)
+            throws Exception {
         Ice.Identity id = new Ice.Identity("handle", "delete");
         //DeleteSpecFactory factory = specFactory();
         DeleteHandleI handle = new DeleteHandleI(user_delete.loadSpecs(), id, user_sf, afs, dc, 1000);
+        handle.setBulkChunkSize(bulkChunkSize);
         handle.run();
         assertEquals(handle.report().toString(), 0, handle.errors());
         return handle;
@@ -798,18 +937,102 @@ public class DeleteITest extends AbstractServantTest {
     }
 
     Plate createPlate(long imageId) throws Exception {
+        return createPlate(new long[] { imageId });
+    }
+
+    /**
+     * Creates a plate with a single row of wells, one per image.
+     */
+    Plate createPlate(long[] imageIds) throws Exception {
         Plate p = new PlateI();
         p.setRows(omero.rtypes.rint(1));
-        p.setColumns(omero.rtypes.rint(1));
+        p.setColumns(omero.rtypes.rint(imageIds.length));
         p.setName(omero.rtypes.rstring("plate"));
         // now make wells
-        Well well = new WellI();
-        well.setRow(omero.rtypes.rint(0));
-        well.setColumn(omero.rtypes.rint(0));
-        WellSample sample = new WellSampleI();
-        sample.setImage(new ImageI(imageId, false));
-        well.addWellSample(sample);
-        p.addWell(well);
+        for (int i = 0; i < imageIds.length; i++) {
+            Well well = new WellI();
+            well.setRow(omero.rtypes.rint(0));
+            well.setColumn(omero.rtypes.rint(i));
+            WellSample sample = new WellSampleI();
+            sample.setImage(new ImageI(imageIds[i], false));
+            well.addWellSample(sample);
+            p.addWell(well);
+        }
         return p;
     }
+
+    /**
+     * Creates an image with its own instrument and a tag, which are both
+     * SOFT containers of the /Image graph.
+     */
+    private long makeImageWithInstrumentAndAnnotation() throws Exception {
+        long iid = makeImage();
+        Image image = (Image) user_sf.getQueryService().findByQuery(
+                "select i from Image i where i.id = " + iid, null);
+        image.setInstrument(new InstrumentI());
+        assertSaveAndReturn(image);
+        ImageAnnotationLink link = new ImageAnnotationLinkI();
+        link.link(new ImageI(iid, false), new TagAnnotationI());
+        assertSaveAndReturn(link);
+        return iid;
+    }
+
+    /**
+     * Checks that no row of a hierarchy created by
+     * {@link #testBulkScreenBenchmark()} is left.
+     */
+    @SuppressWarnings("rawtypes")
+    private void assertHierarchyDeleted(long sid, long[] pids, long[] iids,
+            List<Long> instruments) throws Exception {
+        List l;
+        l = assertProjection("select s.id from Screen s where s.id = " + sid,
+                null);
+        assertEquals(0, l.size());
+        ParametersI plates = new ParametersI().addIds(asList(pids));
+        ParametersI images = new ParametersI().addIds(asList(iids));
+        l = assertProjection("select l.id from ScreenPlateLink l "
+                + "where l.parent.id = " + sid, null);
+        assertEquals(0, l.size());
+        l = assertProjection("select p.id from Plate p where p.id in (:ids)",
+                plates);
+        assertEquals(0, l.size());
+        l = assertProjection("select w.id from Well w "
+                + "where w.plate.id in (:ids)", plates);
+        assertEquals(0, l.size());
+        l = assertProjection("select ws.id from WellSample ws "
+                + "where ws.well.plate.id in (:ids)", plates);
+        assertEquals(0, l.size());
+        l = assertProjection("select i.id from Image i where i.id in (:ids)",
+                images);
+        assertEquals(0, l.size());
+        l = assertProjection("select p.id from Pixels p "
+                + "where p.image.id in (:ids)", images);
+        assertEquals(0, l.size());
+        l = assertProjection("select l.id from ImageAnnotationLink l "
+                + "where l.parent.id in (:ids)", images);
+        assertEquals(0, l.size());
+        ParametersI ids = new ParametersI().addIds(instruments);
+        l = assertProjection("select i.id from Instrument i "
+                + "where i.id in (:ids)", ids);
+        assertEquals(0, l.size());
+    }
+
+    /**
+     * Returns the ids of a projection of a single id column.
+     */
+    private static List<Long> ids(List<List<RType>> rows) {
+        List<Long> ids = new ArrayList<Long>(rows.size());
+        for (List<RType> row : rows) {
+            ids.add(((RLong) row.get(0)).getValue());
+        }
+        return ids;
+    }
+
+    private static List<Long> asList(long[] ids) {
+        List<Long> list = new ArrayList<Long>(ids.length);
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
 }
@@ -0,0 +1,205 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.blitz.test.utests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import ome.model.containers.Dataset;
+import ome.model.containers.Project;
+import ome.model.core.Image;
+import ome.model.meta.Experimenter;
+import ome.model.meta.ExperimenterGroup;
+import omero.model.DatasetI;
+import omero.model.Details;
+import omero.model.IObject;
+import omero.model.ImageI;
+import omero.model.ProjectI;
+import omero.util.IceMapper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the time needed by {@link IceMapper} to map a graph of about
+ * 100,000 objects, as returned by a large IQuery.findAllByQuery, with the
+ * generated instantiation of omero.model objects and with the reflective
+ * one it replaced. Both variants must produce the same graph. Warm-up runs
+ * are discarded before the measured runs, and the mean time per run is
+ * logged for each variant. The size of the graph
+ * can be changed via the "omero.perf.objects" system property.
+ *
+ * @since OMERO-Beta4.3
+ */
+@Test(groups = "perf")
+public class IceMapperBenchmarkTest extends TestCase {
+
+    private static Log log = LogFactory.getLog(IceMapperBenchmarkTest.class);
+
+    static final int WARMUP = 3;
+
+    static final int RUNS = 5;
+
+    /**
+     * Reverts to the {@link Class#newInstance()} lookup of
+     * {@link ome.util.ModelMapper}.
+     */
+    static class ReflectiveIceMapper extends IceMapper {
+        @Override
+        protected Object createTarget(Class currentType) {
+            return null;
+        }
+    }
+
+    interface MapperFactory {
+        IceMapper create();
+    }
+
+    /**
+     * One project with datasets of 1000 images each. All objects share the
+     * same owner and group, as is the case for query results.
+     */
+    List<Project> graph(int objects) {
+        Experimenter owner = new Experimenter(1L, true);
+        owner.setOmeName("owner");
+        ExperimenterGroup group = new ExperimenterGroup(1L, true);
+        group.setName("group");
+
+        long id = 0;
+        Project p = new Project(id++, true);
+        p.setName("p");
+        p.getDetails().setOwner(owner);
+        p.getDetails().setGroup(group);
+        // Each image comes with its link
+        int datasets = Math.max(1, objects / 2000);
+        for (int d = 0; d < datasets; d++) {
+            Dataset ds = new Dataset(id++, true);
+            ds.setName("d" + d);
+            ds.getDetails().setOwner(owner);
+            ds.getDetails().setGroup(group);
+            p.linkDataset(ds);
+            for (int i = 0; i < 1000; i++) {
+                Image img = new Image(id++, true);
+                img.setName("i" + i);
+                img.setAcquisitionDate(new java.sql.Timestamp(0L));
+                img.getDetails().setOwner(owner);
+                img.getDetails().setGroup(group);
+                ds.linkImage(img);
+            }
+        }
+        List<Project> rv = new ArrayList<Project>();
+        rv.add(p);
+        return rv;
+    }
+
+    long time(List<Project> graph, MapperFactory factory) {
+        long start = System.nanoTime();
+        List mapped = (List) factory.create().map(graph);
+        long elapsed = System.nanoTime() - start;
+        ProjectI p = (ProjectI) mapped.get(0);
+        DatasetI d = (DatasetI) p.linkedDatasetList().get(0);
+        assertEquals(1000, d.sizeOfImageLinks());
+        assertTrue(d.linkedImageList().get(0) instanceof ImageI);
+        return elapsed;
+    }
+
+    ProjectI map(List<Project> graph, MapperFactory factory) {
+        List mapped = (List) factory.create().map(graph);
+        assertEquals(1, mapped.size());
+        return (ProjectI) mapped.get(0);
+    }
+
+    /**
+     * Asserts that both graphs have the same objects with the same fields,
+     * owners and groups. Links are compared by the ids of their children.
+     */
+    void assertSameGraph(ProjectI expected, ProjectI actual) {
+        assertSameObject(expected, actual);
+        assertEquals(expected.getName().getValue(), actual.getName()
+                .getValue());
+        Map<Long, DatasetI> datasets = new HashMap<Long, DatasetI>();
+        for (Object o : actual.linkedDatasetList()) {
+            DatasetI d = (DatasetI) o;
+            datasets.put(d.getId().getValue(), d);
+        }
+        assertEquals(expected.sizeOfDatasetLinks(), datasets.size());
+        for (Object o : expected.linkedDatasetList()) {
+            DatasetI e = (DatasetI) o;
+            DatasetI a = datasets.get(e.getId().getValue());
+            assertSameObject(e, a);
+            assertEquals(e.getName().getValue(), a.getName().getValue());
+            Map<Long, ImageI> images = new HashMap<Long, ImageI>();
+            for (Object i : a.linkedImageList()) {
+                ImageI img = (ImageI) i;
+                images.put(img.getId().getValue(), img);
+            }
+            assertEquals(e.sizeOfImageLinks(), images.size());
+            for (Object i : e.linkedImageList()) {
+                ImageI ei = (ImageI) i;
+                ImageI ai = images.get(ei.getId().getValue());
+                assertSameObject(ei, ai);
+                assertEquals(ei.getName().getValue(), ai.getName().getValue());
+                assertEquals(ei.getAcquisitionDate().getValue(), ai
+                        .getAcquisitionDate().getValue());
+            }
+        }
+    }
+
+    void assertSameObject(IObject expected, IObject actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getId().getValue(), actual.getId().getValue());
+        assertEquals(expected.isLoaded(), actual.isLoaded());
+        Details ed = expected.getDetails();
+        Details ad = actual.getDetails();
+        assertEquals(ed.getOwner().getId().getValue(), ad.getOwner().getId()
+                .getValue());
+        assertEquals(ed.getOwner().getOmeName().getValue(), ad.getOwner()
+                .getOmeName().getValue());
+        assertEquals(ed.getGroup().getId().getValue(), ad.getGroup().getId()
+                .getValue());
+        assertEquals(ed.getGroup().getName().getValue(), ad.getGroup()
+                .getName().getValue());
+    }
+
+    double mean(List<Project> graph, MapperFactory factory) {
+        for (int i = 0; i < WARMUP; i++) {
+            time(graph, factory);
+        }
+        long total = 0;
+        for (int i = 0; i < RUNS; i++) {
+            total += time(graph, factory);
+        }
+        return total / (RUNS * 1000000.0);
+    }
+
+    public void testMapLargeGraph() throws Exception {
+        int objects = Integer.getInteger("omero.perf.objects", 100000);
+        MapperFactory generated = new MapperFactory() {
+            public IceMapper create() {
+                return new IceMapper();
+            }
+        };
+        MapperFactory reflective = new MapperFactory() {
+            public IceMapper create() {
+                return new ReflectiveIceMapper();
+            }
+        };
+        List<Project> graph = graph(objects);
+        assertSameGraph(map(graph, reflective), map(graph, generated));
+
+        double before = mean(graph, reflective);
+        double after = mean(graph, generated);
+        log.info(String.format(
+                "IceMapper %s objects: reflective %.1f ms/op, "
+                        + "generated %.1f ms/op", objects, before, after));
+    }
+}
@@ -22,6 +22,7 @@ import ome.model.meta.ExperimenterGroup;
 import omero.model.ArcI;
 import omero.model.DatasetI;
 import omero.model.DatasetImageLink;
+import omero.model.DetailsI;
 import omero.model.Event;
 import omero.model.EventI;
 import omero.model.ExperimenterGroupI;
@@ -29,6 +30,7 @@ import omero.model.ExperimenterI;
 import omero.model.ImageI;
 import omero.model.PixelsI;
 import omero.model.ProjectI;
+import omero.util.IceMap;
 import omero.util.IceMapper;
 
 import org.testng.annotations.Test;
@@ -56,6 +58,19 @@ public class ModelTest extends TestCase {
 
     }
 
+    @Test
+    public void testGeneratedCreateMatchesIceMap() throws Exception {
+        for (Map.Entry<Class, Class> entry : IceMap.OMEtoOMERO.entrySet()) {
+            Object target = IceMap.create(entry.getKey());
+            if (target != null) {
+                assertEquals(entry.getKey().getName(), entry.getValue(),
+                        target.getClass());
+            }
+        }
+        assertTrue(IceMap.create(Image.class) instanceof ImageI);
+        assertTrue(IceMap.create(Image.Details.class) instanceof DetailsI);
+    }
+
     @Test
     public void testCopyObject() throws Exception {
         Experimenter e = new Experimenter();
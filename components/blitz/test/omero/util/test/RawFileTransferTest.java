@@ -0,0 +1,398 @@
+/*
+ * omero.util.test.RawFileTransferTest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero.util.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import ome.util.Utils;
+import omero.ClientError;
+import omero.InternalException;
+import omero.api.AMI_RawFileStore_read;
+import omero.api.AMI_RawFileStore_write;
+import omero.api.RawFileStorePrx;
+import omero.api.RawFileStorePrxHelper;
+import omero.api.ServiceFactoryPrxHelper;
+import omero.util.RawFileTransfer;
+import omero.util.TempFileManager;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link RawFileTransfer} against stores which reply from another
+ * thread and in the reverse order of the requests, as the replies to
+ * asynchronous requests can arrive in any order. The stores fail if they
+ * are sent a request while another one is outstanding, as stateful
+ * services are not re-entrant.
+ *
+ * @since OMERO-Beta4.3
+ */
+@Test(groups = "unit")
+public class RawFileTransferTest extends TestCase {
+
+    private final static int BLOCK = 1000;
+
+    private final static long FILE_ID = 5L;
+
+    private ScheduledExecutorService replies;
+
+    private Session sf;
+
+    private Store store;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        replies = Executors.newScheduledThreadPool(4);
+        sf = new Session();
+        store = sf.newStore();
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        replies.shutdownNow();
+    }
+
+    @Test
+    public void testUploadWritesEachBlockAtItsOffset() throws Exception {
+        byte[] data = data(10 * BLOCK + 17);
+        File file = file(data);
+        RawFileTransfer transfer = new RawFileTransfer(sf, BLOCK);
+        transfer.upload(store, FILE_ID, file);
+        assertTrue(Arrays.equals(data, sf.contents(data.length)));
+        assertEquals(1, sf.maxPending);
+        assertFalse(sf.reentered);
+        assertEquals(11, store.positions.size());
+        for (int i = 0; i < store.positions.size(); i++) {
+            assertEquals(Long.valueOf(i * BLOCK), store.positions.get(i));
+        }
+        assertEquals(FILE_ID, store.fileId);
+        assertFalse("Passed store must be left open", store.closed);
+    }
+
+    @Test
+    public void testUploadReturnsSha1OfFile() throws Exception {
+        byte[] data = data(3 * BLOCK + 1);
+        File file = file(data);
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        String expected = Utils.bytesToHex(md.digest(data));
+        RawFileTransfer transfer = new RawFileTransfer(sf, BLOCK, 2);
+        assertEquals(expected, transfer.upload(store, FILE_ID, file));
+        assertFalse(sf.reentered);
+    }
+
+    @Test
+    public void testUploadOfEmptyFile() throws Exception {
+        File file = file(new byte[0]);
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        String expected = Utils.bytesToHex(md.digest());
+        RawFileTransfer transfer = new RawFileTransfer(sf, BLOCK);
+        assertEquals(expected, transfer.upload(store, FILE_ID, file));
+        assertTrue(store.positions.isEmpty());
+    }
+
+    @Test
+    public void testUploadOverSeveralStreams() throws Exception {
+        byte[] data = data(9 * BLOCK);
+        File file = file(data);
+        RawFileTransfer transfer = new RawFileTransfer(sf, BLOCK, 3);
+        transfer.upload(store, FILE_ID, file);
+        assertTrue(Arrays.equals(data, sf.contents(data.length)));
+        assertEquals(3, sf.stores.size());
+        assertTrue(sf.maxPending > 1);
+        assertEquals(9, positions());
+        assertFalse(store.closed);
+        assertTrue(sf.stores.get(1).closed);
+        assertTrue(sf.stores.get(2).closed);
+    }
+
+    @Test
+    public void testUploadFailurePropagates() throws Exception {
+        File file = file(data(10 * BLOCK));
+        sf.failAt = 4 * BLOCK;
+        RawFileTransfer transfer = new RawFileTransfer(sf, BLOCK, 2);
+        try {
+            transfer.upload(store, FILE_ID, file);
+            fail("Failed write must be reported.");
+        } catch (InternalException e) {
+            // Expected.
+        }
+        assertEquals(0, sf.pending);
+        assertTrue(sf.stores.get(1).closed);
+        assertFalse(store.closed);
+    }
+
+    @Test
+    public void testDownloadOverSeveralStreams() throws Exception {
+        byte[] data = data(10 * BLOCK + 3);
+        sf.contents = data.clone();
+        File file = file(new byte[20 * BLOCK]);
+        RawFileTransfer transfer = new RawFileTransfer(sf, BLOCK, 3);
+        transfer.download(store, FILE_ID, data.length, file);
+        assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(file)));
+        assertEquals(3, sf.stores.size());
+        assertTrue(sf.maxPending > 1);
+        assertEquals(11, positions());
+        assertFalse(store.closed);
+        assertTrue(sf.stores.get(1).closed);
+        assertTrue(sf.stores.get(2).closed);
+    }
+
+    @Test
+    public void testDownloadFailurePropagates() throws Exception {
+        sf.contents = data(10 * BLOCK);
+        sf.failAt = 7 * BLOCK;
+        File file = file(new byte[0]);
+        RawFileTransfer transfer = new RawFileTransfer(sf, BLOCK, 2);
+        try {
+            transfer.download(store, FILE_ID, sf.contents.length, file);
+            fail("Failed read must be reported.");
+        } catch (InternalException e) {
+            // Expected.
+        }
+        assertEquals(0, sf.pending);
+        assertTrue(sf.stores.get(1).closed);
+    }
+
+    @Test
+    public void testShortReadFails() throws Exception {
+        sf.contents = data(5 * BLOCK);
+        File file = file(new byte[0]);
+        RawFileTransfer transfer = new RawFileTransfer(sf, BLOCK);
+        try {
+            transfer.download(store, FILE_ID, 6 * BLOCK, file);
+            fail("Short read must be reported.");
+        } catch (ClientError e) {
+            // Expected.
+        }
+        assertEquals(0, sf.pending);
+    }
+
+    /**
+     * Checks that each block was requested once, on a store opened on the
+     * file and without another request outstanding, and returns the number
+     * of blocks.
+     */
+    private int positions() {
+        assertFalse("Concurrent call on a stateful service", sf.reentered);
+        List<Long> all = new ArrayList<Long>();
+        for (Store s : sf.stores) {
+            assertEquals(FILE_ID, s.fileId);
+            assertFalse(s.positions.isEmpty());
+            all.addAll(s.positions);
+        }
+        Collections.sort(all);
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(Long.valueOf(i * BLOCK), all.get(i));
+        }
+        return all.size();
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static File file(byte[] data) throws IOException {
+        File file = TempFileManager.create_path("transfer", ".bin");
+        FileUtils.writeByteArrayToFile(file, data);
+        return file;
+    }
+
+    /**
+     * Creates the additional stores and holds the remote file shared by all
+     * the stores.
+     */
+    private class Session extends ServiceFactoryPrxHelper {
+
+        private static final long serialVersionUID = 1L;
+
+        final List<Store> stores = new ArrayList<Store>();
+
+        byte[] contents = new byte[0];
+
+        long failAt = -1;
+
+        int pending = 0;
+
+        int maxPending = 0;
+
+        volatile boolean reentered = false;
+
+        Store newStore() {
+            Store s = new Store(this);
+            stores.add(s);
+            return s;
+        }
+
+        @Override
+        public RawFileStorePrx createRawFileStore() {
+            return newStore();
+        }
+
+        synchronized byte[] contents(int length) {
+            byte[] copy = new byte[length];
+            System.arraycopy(contents, 0, copy, 0, Math.min(length,
+                    contents.length));
+            return copy;
+        }
+
+        synchronized void write(byte[] buf, long position, int length) {
+            int end = (int) position + length;
+            if (end > contents.length) {
+                byte[] grown = new byte[end];
+                System.arraycopy(contents, 0, grown, 0, contents.length);
+                contents = grown;
+            }
+            System.arraycopy(buf, 0, contents, (int) position, length);
+        }
+
+        synchronized byte[] read(long position, int length) {
+            int start = (int) Math.min(position, contents.length);
+            int end = (int) Math.min(position + length, contents.length);
+            byte[] buf = new byte[end - start];
+            System.arraycopy(contents, start, buf, 0, buf.length);
+            return buf;
+        }
+
+        synchronized void sent() {
+            pending++;
+            maxPending = Math.max(pending, maxPending);
+        }
+
+        synchronized void replied() {
+            pending--;
+        }
+
+        /**
+         * Replies after a delay which decreases with each request so that
+         * the later requests of a window are answered first.
+         */
+        void reply(final Store store, long position, final Runnable reply) {
+            sent();
+            long delay = 10 - (position / BLOCK) % 10;
+            replies.schedule(new Runnable() {
+                public void run() {
+                    replied();
+                    store.replied();
+                    reply.run();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+    }
+
+    /**
+     * Records the offsets of the requests it receives. The data written
+     * is copied when the request is made, as the arguments of a remote
+     * call are marshalled before it returns. A request sent before the
+     * reply to the previous one is recorded.
+     */
+    private static class Store extends RawFileStorePrxHelper {
+
+        private static final long serialVersionUID = 1L;
+
+        final Session sf;
+
+        final List<Long> positions = new ArrayList<Long>();
+
+        long fileId = -1;
+
+        boolean closed = false;
+
+        private boolean outstanding = false;
+
+        Store(Session sf) {
+            this.sf = sf;
+        }
+
+        synchronized void sent() {
+            if (outstanding) {
+                sf.reentered = true;
+            }
+            outstanding = true;
+        }
+
+        synchronized void replied() {
+            outstanding = false;
+        }
+
+        @Override
+        public void setFileId(long fileId) {
+            this.fileId = fileId;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean write_async(final AMI_RawFileStore_write cb,
+                byte[] buf, final long position, int length) {
+            assertFalse(closed);
+            sent();
+            positions.add(position);
+            if (position == sf.failAt) {
+                sf.reply(this, position, new Runnable() {
+                    public void run() {
+                        cb.ice_exception(new InternalException());
+                    }
+                });
+                return false;
+            }
+            sf.write(buf, position, length);
+            sf.reply(this, position, new Runnable() {
+                public void run() {
+                    cb.ice_response();
+                }
+            });
+            return false;
+        }
+
+        @Override
+        public boolean read_async(final AMI_RawFileStore_read cb,
+                final long position, int length) {
+            assertFalse(closed);
+            sent();
+            positions.add(position);
+            if (position == sf.failAt) {
+                sf.reply(this, position, new Runnable() {
+                    public void run() {
+                        cb.ice_exception(new InternalException());
+                    }
+                });
+                return false;
+            }
+            final byte[] buf = sf.read(position, length);
+            sf.reply(this, position, new Runnable() {
+                public void run() {
+                    cb.ice_response(buf);
+                }
+            });
+            return false;
+        }
+
+    }
+
+}
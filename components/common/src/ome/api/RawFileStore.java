@@ -46,6 +46,22 @@ public interface RawFileStore extends StatefulServiceInterface {
      */
     public byte[] read(long position, int length);
 
+    /**
+     * Reads several ranges of the file in one call. The ranges are returned
+     * one after the other in the order requested, each padded with zeros
+     * like {@link #read(long, int)} if it extends beyond the end of the
+     * file. Reading the ranges of a large file in order lets the server
+     * read ahead.
+     *
+     * @param positions
+     *            the start of each range.
+     * @param lengths
+     *            the length of each range. Must be of the same size as
+     *            positions.
+     * @return the concatenated ranges, whose length is the sum of lengths.
+     */
+    public byte[] readMany(long[] positions, int[] lengths);
+
     /**
      * Returns the size of the file on disk (not as stored in the database since
      * that value will only be updated on {@link #save()}.
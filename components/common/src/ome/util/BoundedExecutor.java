@@ -0,0 +1,164 @@
+/*
+ * ome.util.BoundedExecutor
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Fixed size thread pool backed by a bounded queue, shared by all the
+ * services of a process which split their work into parallel tasks, e.g.
+ * the rendering engines, the thumbnail services or the projection services.
+ * Each use is configured with its own instance (see <code>services.xml</code>)
+ * so that the number of threads working for one kind of request is bounded
+ * for the whole process rather than per request.
+ * <p>
+ * When the queue is full, a task is either executed by the submitting
+ * thread, which throttles the callers rather than spawning new threads, or
+ * rejected with a {@link RejectedExecutionException} for callers which do
+ * the work themselves anyway. Once the executor has been shut down, tasks
+ * are always rejected so that no caller waits for a result which will never
+ * be computed.
+ * </p>
+ * <p>
+ * The threads are named daemon threads so that the pool never prevents the
+ * virtual machine from exiting.
+ * </p>
+ *
+ * @since OMERO-Beta4.3
+ */
+public class BoundedExecutor extends ThreadPoolExecutor {
+
+    /** The logger for this particular class */
+    private static Log log = LogFactory.getLog(BoundedExecutor.class);
+
+    /** The prefix of the names of the threads. */
+    private final String name;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name
+     *            The prefix of the names of the threads, e.g.
+     *            <code>RenderingExecutor</code>.
+     * @param threads
+     *            The number of threads. A value less than or equal to
+     *            <code>0</code> selects the number of available processors.
+     * @param queueSize
+     *            The maximum number of tasks waiting for a thread. A value
+     *            less than or equal to <code>0</code> selects
+     *            <code>queueFactor</code> tasks per thread.
+     * @param queueFactor
+     *            The number of queued tasks per thread if no queue size is
+     *            given.
+     * @param callerRuns
+     *            Whether a task which cannot be queued is executed by the
+     *            submitting thread rather than rejected.
+     */
+    public BoundedExecutor(String name, int threads, int queueSize,
+            int queueFactor, boolean callerRuns) {
+        super(threads(threads), threads(threads), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize(threads, queueSize,
+                        queueFactor)), new NamedThreadFactory(name),
+                callerRuns ? new CallerRunsUnlessShutdown(name)
+                        : new ThreadPoolExecutor.AbortPolicy());
+        this.name = name;
+        log.info(String.format("%s created with %d threads, queue size %d",
+                name, getCorePoolSize(), getQueue().remainingCapacity()));
+    }
+
+    private static int threads(int threads) {
+        return threads > 0 ? threads : Runtime.getRuntime()
+                .availableProcessors();
+    }
+
+    private static int queueSize(int threads, int queueSize, int queueFactor) {
+        return queueSize > 0 ? queueSize : threads(threads)
+                * Math.max(1, queueFactor);
+    }
+
+    /**
+     * Returns the prefix of the names of the threads.
+     *
+     * @return See above.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of threads of the pool. This is the maximum number
+     * of tasks a request should divide its work into.
+     *
+     * @return See above.
+     */
+    public int getParallelism() {
+        return getCorePoolSize();
+    }
+
+    /**
+     * Returns the number of tasks currently waiting for a thread.
+     *
+     * @return See above.
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * Executes a task which could not be queued in the submitting thread,
+     * like {@link ThreadPoolExecutor.CallerRunsPolicy}, but throws rather
+     * than silently discarding the task once the pool has been shut down.
+     */
+    private static class CallerRunsUnlessShutdown
+        implements RejectedExecutionHandler {
+
+        private final String name;
+
+        CallerRunsUnlessShutdown(String name) {
+            this.name = name;
+        }
+
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            if (e.isShutdown()) {
+                throw new RejectedExecutionException(name
+                        + " has been shut down.");
+            }
+            r.run();
+        }
+    }
+
+    /**
+     * Creates daemon threads named after the executor.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        /** Index of the next thread to be created. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -129,7 +129,46 @@ public interface RenderingEngine extends StatefulServiceInterface {
      * @see renderAsPackedInt()
      */
     public byte[] renderCompressed(PlaneDef pd);
-    
+
+    /**
+     * Renders several regions of the <i>XY</i>-plane selected by
+     * <code>pd</code> with the same rendering settings, saving one call
+     * per region, e.g. when loading the tiles of a big image. Each region is
+     * clipped to the image as for {@link #renderAsPackedInt(PlaneDef)}.
+     *
+     * @param pd
+     *            Selects an <i>XY</i>-plane. Its region, if any, is ignored.
+     * @param regions
+     *            The regions to render as consecutive <code>x, y, width,
+     *            height</code> values.
+     * @return The packed-integer <i>RGBA</i> images of the regions, one
+     *         after the other in the order of <code>regions</code>.
+     * @throws ValidationException
+     *             If <code>pd</code> is <code>null</code> or not an
+     *             <i>XY</i>-plane or <code>regions</code> is not made of
+     *             groups of four values.
+     */
+    public int[] renderRegionsAsPackedInt(PlaneDef pd, int[] regions);
+
+    /**
+     * Renders and compresses several regions of the <i>XY</i>-plane selected
+     * by <code>pd</code> with the same rendering settings.
+     *
+     * @param pd
+     *            Selects an <i>XY</i>-plane. Its region, if any, is ignored.
+     * @param regions
+     *            The regions to render as consecutive <code>x, y, width,
+     *            height</code> values.
+     * @return One compressed RGBA JPEG per region, in the order of
+     *         <code>regions</code>.
+     * @throws ValidationException
+     *             If <code>pd</code> is <code>null</code> or not an
+     *             <i>XY</i>-plane or <code>regions</code> is not made of
+     *             groups of four values.
+     * @see #renderCompressed(PlaneDef)
+     */
+    public byte[][] renderRegionsCompressed(PlaneDef pd, int[] regions);
+
     
     /**
      * Performs a projection through selected optical sections of a particular 
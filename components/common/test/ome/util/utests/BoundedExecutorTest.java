@@ -0,0 +1,134 @@
+/*
+ * ome.util.utests.BoundedExecutorTest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.util.utests;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import ome.util.BoundedExecutor;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the bounds of the {@link BoundedExecutor}: tasks which do not fit in
+ * the pool and its queue are either rejected or run by the caller, and all
+ * tasks are rejected after shutdown.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class BoundedExecutorTest extends TestCase {
+
+    private BoundedExecutor executor;
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDefaultSizing() {
+        executor = new BoundedExecutor("Test", 0, 0, 4, false);
+        int processors = Runtime.getRuntime().availableProcessors();
+        assertEquals(processors, executor.getParallelism());
+        assertEquals(processors * 4, executor.getQueue().remainingCapacity());
+    }
+
+    @Test
+    public void testSaturatedPoolRejects() throws Exception {
+        executor = new BoundedExecutor("Test", 1, 1, 4, false);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Future<?> running = executor.submit(blocking);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<?> queued = executor.submit(blocking);
+        try {
+            executor.submit(blocking);
+            fail("Task beyond the queue must be rejected.");
+        } catch (RejectedExecutionException e) {
+            // Expected.
+        }
+        release.countDown();
+        running.get(10, TimeUnit.SECONDS);
+        queued.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testSaturatedPoolRunsInCaller() throws Exception {
+        executor = new BoundedExecutor("Test", 1, 1, 4, true);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        executor.submit(blocking);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        executor.submit(blocking);
+        final Thread[] ran = new Thread[1];
+        executor.submit(new Runnable() {
+            public void run() {
+                ran[0] = Thread.currentThread();
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertSame(Thread.currentThread(), ran[0]);
+        release.countDown();
+    }
+
+    @Test
+    public void testThreadsAreNamedDaemons() throws Exception {
+        executor = new BoundedExecutor("Test", 1, 1, 4, true);
+        final Thread[] ran = new Thread[1];
+        executor.submit(new Runnable() {
+            public void run() {
+                ran[0] = Thread.currentThread();
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertEquals("Test-1", ran[0].getName());
+        assertTrue(ran[0].isDaemon());
+    }
+
+    @Test
+    public void testSubmitAfterShutdownRejects() {
+        for (boolean callerRuns : new boolean[] { false, true }) {
+            executor = new BoundedExecutor("Test", 1, 1, 4, callerRuns);
+            executor.shutdown();
+            try {
+                executor.submit(new Runnable() {
+                    public void run() {
+                    }
+                });
+                fail("Task submitted after shutdown must be rejected.");
+            } catch (RejectedExecutionException e) {
+                // Expected.
+            }
+        }
+    }
+}
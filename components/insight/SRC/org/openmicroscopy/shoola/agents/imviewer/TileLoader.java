@@ -25,6 +25,7 @@ package org.openmicroscopy.shoola.agents.imviewer;
 
 //Java imports
 import java.util.Collection;
+import java.util.Iterator;
 
 //Third-party libraries
 
@@ -141,10 +142,13 @@ public class TileLoader
             status = (percDone == 100) ? "" :  //Else
                                      ""; //Description wasn't available.   
         viewer.setStatus(status, percDone);
-        Tile tile = (Tile) fe.getPartialResult();
-        if (tile != null) {
-        	count++;
-        	viewer.setTile(tile, count == tiles.size());
+        Collection<Tile> loaded = (Collection<Tile>) fe.getPartialResult();
+        if (loaded != null) {
+        	Iterator<Tile> i = loaded.iterator();
+        	while (i.hasNext()) {
+        		count++;
+        		viewer.setTile(i.next(), count == tiles.size());
+			}
         } 
     }
 
@@ -3229,7 +3229,7 @@ class ImViewerComponent
 		}
     	model.clearTileImages(toClear);
 		if (l.size() > 0) {
-			model.fireTileLoading(l);
+			model.fireTileLoading(l, region);
 			fireStateChange();
 		}
 	}
@@ -134,6 +134,9 @@ class ImViewerModel
 	/** Index of the <code>RenderingControlLoader</code> loader. */
 	private static final int	RND = 1;
 	
+	/** Index of the <code>TileLoader</code> loader. */
+	private static final int	TILES = 2;
+	
 	/** The image to view. */
 	private DataObject 					image; 
 
@@ -366,19 +369,36 @@ class ImViewerModel
 	}
 
     /**
-     * Sorts the tiles by index.
+     * Sorts the tiles by distance to the center of the passed region so that
+     * the tiles in the middle of the viewport are loaded first.
+     * Tiles at the same distance are sorted by index.
      * 
-     * @param tiles The tiles to sort.
+     * @param tiles 	The tiles to sort.
+     * @param region	The visible region.
      */
-    private void sortTilesByIndex(List<Tile> tiles)
+    private void sortTilesByDistance(List<Tile> tiles, Rectangle region)
     {
     	 if (tiles == null || tiles.size() == 0) return;
+    	 final long cx = region.x+region.width/2;
+    	 final long cy = region.y+region.height/2;
          Comparator c = new Comparator() {
+        	 private long distance(Tile t)
+        	 {
+        		 Region r = t.getRegion();
+        		 long dx = r.getX()+r.getWidth()/2-cx;
+        		 long dy = r.getY()+r.getHeight()/2-cy;
+        		 return dx*dx+dy*dy;
+        	 }
+        	 
              public int compare(Object o1, Object o2)
              {
-                 int n1 = ((Tile) o1).getIndex(), n2 = ((Tile) o2).getIndex();
+            	 Tile t1 = (Tile) o1, t2 = (Tile) o2;
+            	 long d1 = distance(t1), d2 = distance(t2);
+            	 int n1 = t1.getIndex(), n2 = t2.getIndex();
                  int v = 0;
-                 if (n1 < n2) v = -1;
+                 if (d1 < d2) v = -1;
+                 else if (d1 > d2) v = 1;
+                 else if (n1 < n2) v = -1;
                  else if (n1 > n2) v = 1;
                  return v;
              }
@@ -2561,11 +2581,15 @@ class ImViewerModel
     Map<Integer, Tile> getTiles() { return tiles; }
 
     /** 
-     * Fires an asynchronous call to load the tiles.
+     * Fires an asynchronous call to load the tiles. The tiles closest to the
+     * center of the visible region are loaded first. Any previous tile
+     * loading is cancelled as the tiles it has not yet loaded are either
+     * in the passed selection or no longer visible.
      * 
      * @param selection The collection of tiles to load.
+     * @param region	The visible region.
      */
-    void fireTileLoading(List<Tile> selection)
+    void fireTileLoading(List<Tile> selection, Rectangle region)
     {
     	Renderer rnd = metadataViewer.getRenderer();
 		if (rnd == null || selection == null) return;
@@ -2573,13 +2597,15 @@ class ImViewerModel
 		pDef.t = getDefaultT();
 		pDef.z = getDefaultZ();
 		pDef.slice = omero.romio.XY.value;
-		List<Tile> list;
-		list = selection;
-		sortTilesByIndex(list);
+		List<Tile> list = new ArrayList<Tile>(selection);
+		sortTilesByDistance(list, region);
 		state = ImViewer.LOADING_TILES;
 		TileLoader loader = new TileLoader(component, currentPixelsID, pDef, 
 				list);
 		loader.load();
+		if (loaders.get(TILES) != null)
+			loaders.get(TILES).cancel();
+		loaders.put(TILES, loader);
     }
     
     /** Resets the tiles.*/
@@ -157,6 +157,13 @@ public class LookupNames
 	public static final String THUMBNAIL_FETCH_MEDIUM_SPEED = 
 									"/services/Thumbnailing/fetchMediumSpeed";
 	
+	/** 
+	 * Field to access the maximum size, in Mb, of the thumbnails cached
+	 * on the user's machine.
+	 */
+	public static final String THUMBNAIL_DISK_CACHE_SZ = 
+									"/services/Thumbnailing/diskCacheSz";
+	
 	/** Field to access the <code>Cache on</code> information. */
 	public static final String CACHE_ON = "/services/CACHE/on";
 	
@@ -168,8 +175,26 @@ public class LookupNames
 
     public static final String RE_MAX_PRE_FETCH = "/services/RE/maxPreFetch";
     
+    /** Field to access the <code>local rendering</code> flag. */
+    public static final String RE_LOCAL_RENDERING = 
+    								"/services/RE/localRendering";
+    
     public static final String CMD_PROCESSOR = "/services/CmdProcessor";
     
+    /** 
+     * Field to access the maximum number of threads used to execute the
+     * asynchronous calls.
+     */
+    public static final String CMD_PROCESSOR_MAX_THREADS = 
+    								"/services/CmdProcessor/maxThreads";
+    
+    /** 
+     * Field to access the maximum number of asynchronous calls of an agent
+     * executed at the same time.
+     */
+    public static final String CMD_PROCESSOR_MAX_PER_AGENT = 
+    								"/services/CmdProcessor/maxPerAgent";
+    
     public static final String MONITOR_FACTORY = 
                                           "/services/data/views/MonitorFactory";
     
@@ -0,0 +1,274 @@
+/*
+ * org.openmicroscopy.shoola.env.cache.DiskCache
+ *
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2006-2011 University of Dundee. All rights reserved.
+ *
+ *
+ * 	This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package org.openmicroscopy.shoola.env.cache;
+
+
+//Java imports
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+//Third-party libraries
+
+//Application-internal dependencies
+
+/**
+ * Persistent cache storing byte arrays, e.g. compressed thumbnails, in a
+ * directory on the user's machine so that they survive a restart.
+ * Each entry is stored in its own file named after the key, so keys
+ * must be valid file names. The total size of the entries is capped and
+ * the least recently used entries are removed first. The last modification
+ * time of the files records the last access so that the order is kept
+ * across restarts.
+ * It is up to the caller to build keys that change when the cached value
+ * is no longer valid.
+ *
+ * @version 3.0
+ * <small>
+ * (<b>Internal version:</b> $Revision: $Date: $)
+ * </small>
+ * @since 3.0-Beta4
+ */
+public class DiskCache
+{
+
+	/** The extension of the files hosting the entries. */
+	private static final String EXTENSION = ".cache";
+
+	/** The extension of the files written before being renamed. */
+	private static final String TMP_EXTENSION = ".tmp";
+
+	/** The directory hosting the entries. */
+	private final File directory;
+
+	/** The maximum size, in bytes, of the entries. */
+	private final long maxSize;
+
+	/**
+	 * The size of each entry, in access order.
+	 * The first entry is the least recently used.
+	 */
+	private final LinkedHashMap<String, Long> entries;
+
+	/** The current size, in bytes, of the entries. */
+	private long size;
+
+	/**
+	 * Returns the file hosting the entry with the specified key.
+	 *
+	 * @param key The key of the entry.
+	 * @return See above.
+	 */
+	private File getFile(String key)
+	{
+		return new File(directory, key+EXTENSION);
+	}
+
+	/** Removes the least recently used entries until the size is valid. */
+	private void evict()
+	{
+		Iterator<Entry<String, Long>> i = entries.entrySet().iterator();
+		Entry<String, Long> e;
+		while (size > maxSize && i.hasNext()) {
+			e = i.next();
+			size -= e.getValue().longValue();
+			i.remove();
+			getFile(e.getKey()).delete();
+		}
+	}
+
+	/**
+	 * Reads the entries already in the directory. The files left by an
+	 * interrupted write and the empty entries are deleted.
+	 */
+	private void load()
+	{
+		File[] files = directory.listFiles();
+		if (files == null) return;
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2)
+			{
+				long t1 = f1.lastModified(), t2 = f2.lastModified();
+				int v = 0;
+				if (t1 < t2) v = -1;
+				else if (t1 > t2) v = 1;
+				return v;
+			}
+		});
+		String name;
+		long length;
+		for (int i = 0; i < files.length; i++) {
+			if (!files[i].isFile()) continue;
+			name = files[i].getName();
+			length = files[i].length();
+			if (name.endsWith(TMP_EXTENSION)) {
+				files[i].delete();
+			} else if (name.endsWith(EXTENSION)) {
+				if (length == 0) {
+					files[i].delete();
+					continue;
+				}
+				name = name.substring(0, name.length()-EXTENSION.length());
+				entries.put(name, Long.valueOf(length));
+				size += length;
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param directory	The directory hosting the entries.
+	 * 					Created if it does not exist.
+	 * @param maxSize	The maximum size, in bytes, of the entries.
+	 */
+	public DiskCache(File directory, long maxSize)
+	{
+		if (directory == null)
+			throw new IllegalArgumentException("No directory specified.");
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Size not valid.");
+		this.directory = directory;
+		this.maxSize = maxSize;
+		entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		if (!directory.exists()) directory.mkdirs();
+		load();
+	}
+
+	/**
+	 * Returns the value of the entry with the specified key or
+	 * <code>null</code> if the entry is not in the cache.
+	 *
+	 * @param key The key of the entry.
+	 * @return See above.
+	 */
+	public synchronized byte[] get(String key)
+	{
+		Long length = entries.get(key);
+		if (length == null) return null;
+		File f = getFile(key);
+		byte[] values = new byte[length.intValue()];
+		FileInputStream stream = null;
+		try {
+			stream = new FileInputStream(f);
+			int offset = 0;
+			int n;
+			while (offset < values.length) {
+				n = stream.read(values, offset, values.length-offset);
+				if (n < 0) throw new IOException("Entry truncated: "+key);
+				offset += n;
+			}
+		} catch (IOException e) {
+			remove(key);
+			return null;
+		} finally {
+			try {
+				if (stream != null) stream.close();
+			} catch (IOException e) {}
+		}
+		f.setLastModified(System.currentTimeMillis());
+		return values;
+	}
+
+	/**
+	 * Adds the passed entry to the cache, replacing the entry with the same
+	 * key if any. The least recently used entries are removed if the
+	 * cache is full.
+	 *
+	 * @param key		The key of the entry.
+	 * @param values	The value of the entry.
+	 */
+	public synchronized void put(String key, byte[] values)
+	{
+		if (key == null || values == null || values.length == 0 ||
+				values.length > maxSize) return;
+		remove(key);
+		File f = getFile(key);
+		File tmp = new File(directory, key+EXTENSION+TMP_EXTENSION);
+		FileOutputStream stream = null;
+		try {
+			stream = new FileOutputStream(tmp);
+			stream.write(values);
+			stream.close();
+			stream = null;
+			if (!tmp.renameTo(f)) {
+				tmp.delete();
+				return;
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			return;
+		} finally {
+			try {
+				if (stream != null) stream.close();
+			} catch (IOException e) {}
+		}
+		entries.put(key, Long.valueOf(values.length));
+		size += values.length;
+		evict();
+	}
+
+	/**
+	 * Removes the entry with the specified key, e.g. if its value cannot
+	 * be decoded.
+	 *
+	 * @param key The key of the entry.
+	 */
+	public synchronized void remove(String key)
+	{
+		Long length = entries.remove(key);
+		if (length != null) size -= length.longValue();
+		getFile(key).delete();
+	}
+
+	/** Removes all the entries. */
+	public synchronized void clear()
+	{
+		Iterator<String> i = new LinkedHashMap<String, Long>(
+				entries).keySet().iterator();
+		while (i.hasNext())
+			remove(i.next());
+	}
+
+	/**
+	 * Returns the current size, in bytes, of the entries.
+	 *
+	 * @return See above.
+	 */
+	public synchronized long getSize() { return size; }
+
+	/**
+	 * Returns the number of entries.
+	 *
+	 * @return See above.
+	 */
+	public synchronized int getEntries() { return entries.size(); }
+
+}
@@ -3124,6 +3124,46 @@ class OMEROGateway
 			throw new RenderingServiceException("Cannot get thumbnail", t);
 		}
 	}
+	
+	/**
+	 * Returns the id of the last event modifying the rendering settings of
+	 * each of the specified pixels sets. The key of the returned map is 
+	 * the id of the pixels set. Pixels sets without rendering settings are 
+	 * not in the map.
+	 * 
+	 * @param pixelsID The collection of pixels set ids.
+	 * @return See above.
+	 * @throws DSOutOfServiceException If the connection is broken, or logged in
+	 * @throws DSAccessException If an error occurred while trying to 
+	 * retrieve data from OMERO service. 
+	 */
+	Map<Long, Long> getRenderingSettingsEvents(List<Long> pixelsID)
+		throws DSOutOfServiceException, DSAccessException
+	{
+		isSessionAlive();
+		Map<Long, Long> events = new HashMap<Long, Long>();
+		try {
+			IQueryPrx service = getQueryService();
+			if (service == null) service = getQueryService();
+			ParametersI p = new ParametersI();
+			p.addIds(pixelsID);
+			String sql = "select rd.pixels.id, max(rd.details.updateEvent.id) "
+				+"from RenderingDef as rd where rd.pixels.id in (:ids) "
+				+"group by rd.pixels.id";
+			List<List<RType>> rows = service.projection(sql, p);
+			Iterator<List<RType>> i = rows.iterator();
+			List<RType> row;
+			while (i.hasNext()) {
+				row = i.next();
+				events.put(((RLong) row.get(0)).getValue(), 
+						((RLong) row.get(1)).getValue());
+			}
+		} catch (Throwable t) {
+			handleException(t, "Cannot retrieve the rendering settings " +
+					"events for pixelsID: "+pixelsID);
+		}
+		return events;
+	}
 
 	/**
 	 * Retrieves the thumbnail for the passed set of pixels.
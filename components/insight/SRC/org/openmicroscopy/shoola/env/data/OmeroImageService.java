@@ -48,6 +48,7 @@ import org.openmicroscopy.shoola.env.data.model.ScriptObject;
 import org.openmicroscopy.shoola.env.rnd.RenderingControl;
 import org.openmicroscopy.shoola.env.rnd.RenderingServiceException;
 import org.openmicroscopy.shoola.env.rnd.RndProxyDef;
+import org.openmicroscopy.shoola.env.rnd.data.Tile;
 import pojos.DataObject;
 import pojos.ImageData;
 import pojos.PixelsData;
@@ -143,6 +144,21 @@ public interface OmeroImageService
 			boolean largeImage)
 		throws RenderingServiceException;
 
+	/**
+	 * Renders the passed tiles of the specified 2D-plane in one call
+	 * and sets the image of each tile.
+	 * 
+	 * @param pixelsID  The ID of the pixels set.
+	 * @param pd        The plane to render.
+	 * @param tiles		The tiles to render.
+	 * @param asTexture	Pass <code>true</code> to create textures,
+	 * 					<code>false</code> to create buffered images.
+	 * @throws RenderingServiceException If the server cannot render the tiles.
+	 */
+	public void renderTiles(long pixelsID, PlaneDef pd, List<Tile> tiles,
+			boolean asTexture)
+		throws RenderingServiceException;
+
 	/**
 	 * Shuts downs the rendering service attached to the specified 
 	 * pixels set.
@@ -60,6 +60,7 @@ import omero.model.TagAnnotation;
 import omero.romio.PlaneDef;
 import omero.sys.Parameters;
 import org.openmicroscopy.shoola.env.LookupNames;
+import org.openmicroscopy.shoola.env.cache.DiskCache;
 import org.openmicroscopy.shoola.env.config.Registry;
 import org.openmicroscopy.shoola.env.data.login.UserCredentials;
 import org.openmicroscopy.shoola.env.data.model.ImportableFile;
@@ -78,6 +79,7 @@ import org.openmicroscopy.shoola.env.rnd.RenderingControl;
 import org.openmicroscopy.shoola.env.rnd.RenderingServiceException;
 import org.openmicroscopy.shoola.env.rnd.PixelsServicesFactory;
 import org.openmicroscopy.shoola.env.rnd.RndProxyDef;
+import org.openmicroscopy.shoola.env.rnd.data.Tile;
 import org.openmicroscopy.shoola.util.image.geom.Factory;
 import org.openmicroscopy.shoola.util.image.io.WriterImage;
 import pojos.ChannelData;
@@ -118,6 +120,12 @@ class OmeroImageServiceImpl
 	/** Reference to the entry point to access the <i>OMERO</i> services. */
 	private OMEROGateway            gateway;
 	
+	/** The thumbnails kept on the user's machine. */
+	private DiskCache				thumbnailCache;
+	
+	/** The server the {@link #thumbnailCache} is for. */
+	private String					thumbnailCacheHost;
+	
 	/**
 	 * Imports the specified candidates.
 	 * 
@@ -306,6 +314,69 @@ class OmeroImageServiceImpl
 		return b.booleanValue();
 	}
 	
+	/**
+	 * Returns the cache hosting the thumbnails on the user's machine for the
+	 * current server or <code>null</code> if the thumbnails are not cached
+	 * on disk.
+	 * 
+	 * @return See above.
+	 */
+	private synchronized DiskCache getThumbnailCache()
+	{
+		Integer size = (Integer) context.lookup(
+				LookupNames.THUMBNAIL_DISK_CACHE_SZ);
+		String home = (String) context.lookup(LookupNames.USER_HOME_OMERO);
+		UserCredentials uc = (UserCredentials) context.lookup(
+				LookupNames.USER_CREDENTIALS);
+		if (size == null || size.intValue() <= 0 || home == null || 
+				uc == null || uc.getHostName() == null) return null;
+		String host = uc.getHostName().replaceAll("[^\\w.-]", "_");
+		if (thumbnailCache == null || !host.equals(thumbnailCacheHost)) {
+			try {
+				File dir = new File(new File(home, "thumbnails"), host);
+				thumbnailCache = new DiskCache(dir, 
+						size.longValue()*1024*1024);
+				thumbnailCacheHost = host;
+			} catch (Exception e) {
+				context.getLogger().warn(this, 
+						"Cannot create the thumbnail cache: "+e.getMessage());
+				return null;
+			}
+		}
+		return thumbnailCache;
+	}
+	
+	/**
+	 * Returns the keys of the thumbnails of the specified pixels sets in 
+	 * the thumbnail cache. A key changes when the rendering settings of the
+	 * pixels set are modified. The pixels sets without rendering settings
+	 * are not in the returned map as their thumbnails cannot be validated.
+	 * 
+	 * @param pixelsID	The collection of pixels set ids.
+	 * @param max		The maximum length of the thumbnails.
+	 * @return See above.
+	 * @throws DSOutOfServiceException If the connection is broken, or logged
+	 *                                  in.
+	 * @throws DSAccessException        If an error occurred while trying to 
+	 *                                  retrieve data from OMEDS service.
+	 */
+	private Map<Long, String> getThumbnailKeys(List<Long> pixelsID, int max)
+		throws DSOutOfServiceException, DSAccessException
+	{
+		ExperimenterData exp = (ExperimenterData) context.lookup(
+				LookupNames.CURRENT_USER_DETAILS);
+		Map<Long, String> keys = new HashMap<Long, String>();
+		Map<Long, Long> events = gateway.getRenderingSettingsEvents(pixelsID);
+		Iterator<Entry<Long, Long>> i = events.entrySet().iterator();
+		Entry<Long, Long> e;
+		while (i.hasNext()) {
+			e = i.next();
+			keys.put(e.getKey(), exp.getId()+"_"+e.getKey()+"_"+e.getValue()+
+					"_"+max);
+		}
+		return keys;
+	}
+	
 	/**
 	 * Creates a <code>BufferedImage</code> from the passed array of bytes.
 	 * 
@@ -464,6 +535,22 @@ class OmeroImageServiceImpl
 		}
 	}
 	
+	/** 
+	 * Implemented as specified by {@link OmeroImageService}. 
+	 * @see OmeroImageService#renderTiles(long, PlaneDef, List, boolean)
+	 */
+	public void renderTiles(long pixelsID, PlaneDef pDef, List<Tile> tiles,
+			boolean asTexture)
+		throws RenderingServiceException
+	{
+		try {
+			PixelsServicesFactory.renderTiles(context, 
+					Long.valueOf(pixelsID), pDef, tiles, asTexture);
+		} catch (Exception e) {
+			throw new RenderingServiceException("RenderTiles", e);
+		}
+	}
+	
 	/** 
 	 * Implemented as specified by {@link OmeroImageService}. 
 	 * @see OmeroImageService#shutDown(long)
@@ -518,6 +605,35 @@ class OmeroImageServiceImpl
 				}
 				return r;
 			}
+			//Serve the thumbnails still valid from the disk cache.
+			DiskCache cache = getThumbnailCache();
+			Map<Long, String> keys = null;
+			byte[] values;
+			BufferedImage image;
+			if (cache != null) {
+				keys = getThumbnailKeys(pixelsID, max);
+				List<Long> toFetch = new ArrayList<Long>();
+				String key;
+				while (j.hasNext()) {
+					id = (Long) j.next();
+					key = keys.get(id);
+					values = null;
+					if (key != null) values = cache.get(key);
+					image = null;
+					if (values != null) {
+						try {
+							image = createImage(values);
+						} catch (Exception e) {}
+						//Corrupted entry, fetch the thumbnail again.
+						if (image == null) cache.remove(key);
+					}
+					if (image == null) toFetch.add(id);
+					else r.put(id, image);
+				}
+				if (toFetch.size() == 0) return r;
+				pixelsID = toFetch;
+				j = pixelsID.iterator();
+			}
 			List blocks = new ArrayList();
 			int index = 0;
 			List l = null;
@@ -551,7 +667,6 @@ class OmeroImageServiceImpl
 			}
 			i = m.keySet().iterator();
 			
-			byte[] values;
 			while (i.hasNext()) {
 				id = (Long) i.next();
 				values = (byte[]) m.get(id);
@@ -560,7 +675,11 @@ class OmeroImageServiceImpl
 					r.put(id, null);
 				else {
 					try {
-						r.put(id, createImage(values));
+						image = createImage(values);
+						r.put(id, image);
+						if (image != null && keys != null &&
+								keys.get(id) != null)
+							cache.put(keys.get(id), values);
 					} catch (Exception e) {
 						r.put(id, null);
 					}
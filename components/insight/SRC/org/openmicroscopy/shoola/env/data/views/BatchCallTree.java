@@ -61,6 +61,10 @@ import org.openmicroscopy.shoola.util.concur.tasks.ExecMonitor;
  */
 public abstract class BatchCallTree
 {
+    
+    /** The package hosting the agents. */
+    private static final String AGENTS_PACKAGE = 
+                                    "org.openmicroscopy.shoola.agents.";
 
     /**
      * Tells whether the {@link #exec(AgentEventListener) exec} method has
@@ -148,10 +152,39 @@ public abstract class BatchCallTree
         
         //Only one thread will ever make it here b/c hasExecuted is sync.
         buildTree();
-        ExecHandle handle = getProcessor().exec(root, getMonitor(observer));
+        ExecHandle handle = getProcessor().exec(root, null, 
+                getMonitor(observer), getPriority(), getGroup(observer));
         return new CallHandle(handle);
     }
     
+    /**
+     * Returns the priority of this call tree, one of the constants defined
+     * by {@link CmdProcessor}.
+     * Subclasses override this method to run ahead of, or behind, the 
+     * other calls when the processor is busy.  This implementation returns 
+     * {@link CmdProcessor#NORMAL_PRIORITY}.
+     * 
+     * @return See above.
+     */
+    protected int getPriority() { return CmdProcessor.NORMAL_PRIORITY; }
+    
+    /**
+     * Returns the group this call tree belongs to, that is, the agent the
+     * <code>observer</code> belongs to, so that the processor can limit the
+     * number of calls an agent runs at the same time.
+     * 
+     * @param observer The observer of the execution.
+     * @return See above.
+     */
+    protected Object getGroup(AgentEventListener observer)
+    {
+        String name = observer.getClass().getName();
+        if (!name.startsWith(AGENTS_PACKAGE)) return name;
+        int index = name.indexOf('.', AGENTS_PACKAGE.length());
+        if (index < 0) return name;
+        return name.substring(0, index);
+    }
+    
     /**
      * Returns a concrete {@link CmdProcessor} to 
      * {@link #exec(AgentEventListener) execute} the call tree.
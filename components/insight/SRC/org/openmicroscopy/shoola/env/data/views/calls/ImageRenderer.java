@@ -36,6 +36,7 @@ import omero.romio.PlaneDef;
 import org.openmicroscopy.shoola.env.data.OmeroImageService;
 import org.openmicroscopy.shoola.env.data.views.BatchCall;
 import org.openmicroscopy.shoola.env.data.views.BatchCallTree;
+import org.openmicroscopy.shoola.util.concur.tasks.CmdProcessor;
 
 /** 
  * Renders an image.s
@@ -98,6 +99,13 @@ public class ImageRenderer
      * @see BatchCallTree#getResult()
      */
     protected Object getResult() { return result; }
+    
+    /**
+     * Returns {@link CmdProcessor#HIGH_PRIORITY}, the viewer is waiting
+     * for the rendered plane.
+     * @see BatchCallTree#getPriority()
+     */
+    protected int getPriority() { return CmdProcessor.HIGH_PRIORITY; }
 
     /**
      * Creates a new instance.
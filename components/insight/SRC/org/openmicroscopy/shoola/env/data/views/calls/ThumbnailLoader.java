@@ -39,6 +39,7 @@ import org.openmicroscopy.shoola.env.data.OmeroImageService;
 import org.openmicroscopy.shoola.env.data.model.ThumbnailData;
 import org.openmicroscopy.shoola.env.data.views.BatchCall;
 import org.openmicroscopy.shoola.env.data.views.BatchCallTree;
+import org.openmicroscopy.shoola.util.concur.tasks.CmdProcessor;
 import org.openmicroscopy.shoola.env.rnd.RenderingServiceException;
 import org.openmicroscopy.shoola.util.image.geom.Factory;
 
@@ -221,6 +222,12 @@ public class ThumbnailLoader
      */
     protected Object getResult() { return null; }
     
+    /**
+     * Returns {@link CmdProcessor#LOW_PRIORITY}.
+     * @see BatchCallTree#getPriority()
+     */
+    protected int getPriority() { return CmdProcessor.LOW_PRIORITY; }
+    
     /**
      * Creates a new instance.
      * If bad arguments are passed, we throw a runtime exception so to fail
@@ -43,6 +43,7 @@ import org.openmicroscopy.shoola.env.data.login.UserCredentials;
 import org.openmicroscopy.shoola.env.data.model.ThumbnailData;
 import org.openmicroscopy.shoola.env.data.views.BatchCall;
 import org.openmicroscopy.shoola.env.data.views.BatchCallTree;
+import org.openmicroscopy.shoola.util.concur.tasks.CmdProcessor;
 import org.openmicroscopy.shoola.env.rnd.RenderingServiceException;
 import org.openmicroscopy.shoola.util.image.geom.Factory;
 import pojos.DataObject;
@@ -354,6 +355,13 @@ public class ThumbnailSetLoader
      */
     protected Object getResult() { return null; }
     
+    /**
+     * Returns {@link CmdProcessor#LOW_PRIORITY}. Thumbnails can wait for
+     * the calls the user is waiting for, e.g. rendering a plane.
+     * @see BatchCallTree#getPriority()
+     */
+    protected int getPriority() { return CmdProcessor.LOW_PRIORITY; }
+    
     /**
      * Creates a new instance.
      * 
@@ -24,23 +24,27 @@ package org.openmicroscopy.shoola.env.data.views.calls;
 
 
 //Java imports
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 //Third-party libraries
 
 //Application-internal dependencies
 import omero.romio.PlaneDef;
-import omero.romio.RegionDef;
 import org.openmicroscopy.shoola.env.data.OmeroImageService;
 import org.openmicroscopy.shoola.env.data.views.BatchCall;
 import org.openmicroscopy.shoola.env.data.views.BatchCallTree;
+import org.openmicroscopy.shoola.util.concur.tasks.CmdProcessor;
 import org.openmicroscopy.shoola.env.rnd.data.Region;
 import org.openmicroscopy.shoola.env.rnd.data.Tile;
 import org.openmicroscopy.shoola.util.image.geom.Factory;
 
 /** 
- * Loads the tiles.
+ * Loads the tiles. The tiles are rendered in batches of at most
+ * {@link #MAX_TILES} tiles, one call to the server per batch, in the order
+ * they were passed so that a cancellation takes effect between batches.
  *
  * @author Jean-Marie Burel &nbsp;&nbsp;&nbsp;&nbsp;
  * <a href="mailto:j.burel@dundee.ac.uk">j.burel@dundee.ac.uk</a>
@@ -56,11 +60,14 @@ public class TileLoader
 	extends BatchCallTree
 {
 
+	/** The maximum number of tiles rendered in one call. */
+	static final int MAX_TILES = 8;
+	
     /** Helper reference to the image service. */
     private OmeroImageService		service;
     
-	/** The lastly retrieve tile. */
-    private Object	currentTile;
+	/** The lastly retrieved tiles. */
+    private Object	currentTiles;
     
     /** The id of the pixels set. */
     private long pixelsID;
@@ -75,32 +82,36 @@ public class TileLoader
     private PlaneDef pDef;
     
     /**
-     * Loads the tile.
+     * Loads the tiles.
      * 
-     * @param tile The tile to load.
+     * @param batch The tiles to load.
      */
-    private void loadTile(Tile tile) 
+    private void loadTiles(List<Tile> batch) 
     {
-    	Region rt = tile.getRegion();
     	try {
-    		pDef.region = new RegionDef(rt.getX(), rt.getY(), 
-    				rt.getWidth(), rt.getHeight());
-        	tile.setImage(service.renderImage(pixelsID, pDef, asTexture, false));
+    		service.renderTiles(pixelsID, pDef, batch, asTexture);
 		} catch (Exception e) {
-			tile.setImage(Factory.createDefaultImageThumbnail(rt.getWidth(), 
-					rt.getHeight()));
+			Iterator<Tile> i = batch.iterator();
+			Tile tile;
+			Region rt;
+			while (i.hasNext()) {
+				tile = i.next();
+				rt = tile.getRegion();
+				tile.setImage(Factory.createDefaultImageThumbnail(
+						rt.getWidth(), rt.getHeight()));
+			}
 		}
-    	currentTile = tile;
+    	currentTiles = batch;
     }
     
     /**
-     * Returns the lastly retrieved tile.
+     * Returns the lastly retrieved tiles.
      * This will be packed by the framework into a feedback event and
      * sent to the provided call observer, if any.
      * 
-     * @return A Map containing the index of the tile and the associated image.
+     * @return A collection of tiles.
      */
-    protected Object getPartialResult() { return currentTile; }
+    protected Object getPartialResult() { return currentTiles; }
     
     /**
      * Returns <code>null</code> as there's no final result.
@@ -110,23 +121,33 @@ public class TileLoader
     protected Object getResult() { return null; }
     
     /**
-     * Adds a {@link BatchCall} to the tree for each tile to retrieve.
-     * The batch call simply invokes {@link #loadTile(Tile)}.
+     * Returns {@link CmdProcessor#HIGH_PRIORITY} so that the visible tiles
+     * are loaded ahead of the background calls.
+     * @see BatchCallTree#getPriority()
+     */
+    protected int getPriority() { return CmdProcessor.HIGH_PRIORITY; }
+    
+    /**
+     * Adds a {@link BatchCall} to the tree for each batch of tiles to 
+     * retrieve. The batch call simply invokes {@link #loadTiles(List)}.
      * @see BatchCallTree#buildTree()
      */
     protected void buildTree()
     {
     	Iterator<Tile> i = tiles.iterator();
-    	String description = "Loading tile";
-    	Tile tile;
+    	String description = "Loading tiles";
+    	List<Tile> batch = new ArrayList<Tile>();
     	while (i.hasNext()) {
-			tile = i.next();
-			final Tile t = tile;
-			add(new BatchCall(description) {
-        		public void doCall() { 
-        			loadTile(t);
-        		}
-        	});  
+    		batch.add(i.next());
+    		if (batch.size() == MAX_TILES || !i.hasNext()) {
+    			final List<Tile> l = batch;
+    			add(new BatchCall(description) {
+    				public void doCall() { 
+    					loadTiles(l);
+    				}
+    			});
+    			batch = new ArrayList<Tile>();
+    		}
 		}
     }
     
@@ -135,7 +156,7 @@ public class TileLoader
      * 
      * @param pixelsID 	The id of the pixels set.
      * @param pDef The plane to render.
-	 * @param tiles	The tiles.
+	 * @param tiles	The tiles, in the order they should be loaded.
 	 * @param asTexture	Pass <code>true</code> to return a texture,
 	 * 					<code>false</code> to return a buffered image.
      */
@@ -31,8 +31,8 @@ package org.openmicroscopy.shoola.env.init;
 //Application-internal dependencies
 import org.openmicroscopy.shoola.env.LookupNames;
 import org.openmicroscopy.shoola.env.config.Registry;
-import org.openmicroscopy.shoola.util.concur.tasks.AsyncProcessor;
 import org.openmicroscopy.shoola.util.concur.tasks.CmdProcessor;
+import org.openmicroscopy.shoola.util.concur.tasks.PooledProcessor;
 
 /** 
  * This task intializes the {@link CmdProcessor} the container will use
@@ -53,6 +53,29 @@ public final class CmdProcessorInit
     extends InitializationTask
 {
     
+    /** The default maximum number of threads. */
+    private static final int    MAX_THREADS = 16;
+    
+    /** The default maximum number of calls of an agent running at once. */
+    private static final int    MAX_PER_AGENT = 6;
+    
+    /**
+     * Returns the positive integer bound to the specified name in the 
+     * registry or the passed default value.
+     * 
+     * @param reg   The registry.
+     * @param name  The name of the entry.
+     * @param value The default value.
+     * @return See above.
+     */
+    private int lookup(Registry reg, String name, int value)
+    {
+        Object v = reg.lookup(name);
+        if (v instanceof Integer && ((Integer) v).intValue() > 0)
+            return ((Integer) v).intValue();
+        return value;
+    }
+    
     /** Constructor required by superclass. */
     CmdProcessorInit() {}
 
@@ -74,9 +97,11 @@ public final class CmdProcessorInit
      */
     void execute()
     {
-        //TODO: What processor to use should be externalized in cfg.
-        CmdProcessor processor = new AsyncProcessor();
         Registry reg = container.getRegistry();
+        CmdProcessor processor = new PooledProcessor(
+                lookup(reg, LookupNames.CMD_PROCESSOR_MAX_THREADS, MAX_THREADS),
+                lookup(reg, LookupNames.CMD_PROCESSOR_MAX_PER_AGENT, 
+                        MAX_PER_AGENT));
         reg.bind(LookupNames.CMD_PROCESSOR, processor);
     }
 
@@ -0,0 +1,345 @@
+/*
+ * org.openmicroscopy.shoola.env.rnd.LocalRenderer
+ *
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2006-2011 University of Dundee. All rights reserved.
+ *
+ *
+ * 	This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package org.openmicroscopy.shoola.env.rnd;
+
+
+//Java imports
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Third-party libraries
+
+//Application-internal dependencies
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import omeis.providers.re.ColorsFactory;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.quantum.QuantumFactory;
+import omeis.providers.re.quantum.QuantumStrategy;
+import org.openmicroscopy.shoola.env.config.Registry;
+import org.openmicroscopy.shoola.env.data.OmeroImageService;
+import pojos.ChannelData;
+
+/**
+ * Renders XY-planes on the client from the raw pixels data, using the
+ * local copy of the rendering settings. The raw planes of the current
+ * z-section and timepoint are retrieved once and kept in memory, so that
+ * changing the rendering settings does not require any call to the server.
+ * The planes are quantized by the {@link QuantumStrategy} returned by the
+ * server's {@link QuantumFactory} and the channels are blended as the
+ * <code>HSBStrategy</code> does, so that the image matches the one
+ * rendered by the server.
+ *
+ * @version 3.0
+ * <small>
+ * (<b>Internal version:</b> $Revision: $Date: $)
+ * </small>
+ * @since Beta4.3
+ */
+class LocalRenderer
+{
+
+	/**
+	 * The number of bits used for each color component while the
+	 * channels are added up.
+	 */
+	private static final int	LANE = 10;
+
+	/** The mask of a color component while the channels are added up. */
+	private static final int	LANE_MASK = (1 << LANE)-1;
+
+	/** 
+	 * The number of channels which can be added up before a color 
+	 * component overflows.
+	 */
+	private static final int	CHANNELS_PER_LANE = 
+		LANE_MASK/QuantumStrategy.MAX;
+
+	/** Helper reference to the registry. */
+	private Registry		context;
+
+	/** The id of the pixels set. */
+	private long			pixelsID;
+
+	/** The type of pixels e.g. <code>uint16</code>. */
+	private PixelsType		pixelsType;
+
+	/** The number of pixels along the X-axis. */
+	private int				sizeX;
+
+	/** The number of pixels along the Y-axis. */
+	private int				sizeY;
+
+	/** The channel metadata. */
+	private ChannelData[]	metadata;
+
+	/** Creates the quantum strategy of each channel. */
+	private QuantumFactory	factory;
+
+	/** The z-section of the cached planes. */
+	private int				z;
+
+	/** The timepoint of the cached planes. */
+	private int				t;
+
+	/** The raw planes of the selected z-section and timepoint. */
+	private PixelData[]		planes;
+
+	/** The quantized values of the channel being rendered. */
+	private byte[]			values;
+
+	/**
+	 * The rendered image. While the channels are added up, each color
+	 * component uses {@link #LANE} bits so that the three components
+	 * are added at once.
+	 */
+	private int[]			buffer;
+
+	/**
+	 * Returns the families supported by the {@link QuantumFactory}.
+	 *
+	 * @return See above.
+	 */
+	private static List<Family> getFamilies()
+	{
+		String[] values = {QuantumFactory.LINEAR, QuantumFactory.POLYNOMIAL,
+				QuantumFactory.EXPONENTIAL, QuantumFactory.LOGARITHMIC};
+		List<Family> families = new ArrayList<Family>(values.length);
+		Family family;
+		for (int i = 0; i < values.length; i++) {
+			family = new Family();
+			family.setValue(values[i]);
+			families.add(family);
+		}
+		return families;
+	}
+
+	/**
+	 * Returns the raw plane for the specified channel, retrieving it
+	 * if it has not been already.
+	 *
+	 * @param w The index of the channel.
+	 * @return See above.
+	 * @throws Exception If the plane cannot be retrieved.
+	 */
+	private PixelData getPlane(int w)
+		throws Exception
+	{
+		if (planes[w] == null)
+			planes[w] = new PixelData(pixelsType.getValue(), 
+					ByteBuffer.wrap(loadPlane(w)));
+		return planes[w];
+	}
+
+	/**
+	 * Retrieves the raw plane of the specified channel for the current
+	 * z-section and timepoint.
+	 *
+	 * @param w The index of the channel.
+	 * @return The bytes of the plane, in big-endian order.
+	 * @throws Exception If the plane cannot be retrieved.
+	 */
+	byte[] loadPlane(int w)
+		throws Exception
+	{
+		OmeroImageService svc = context.getImageService();
+		return svc.getPlane(pixelsID, z, t, w);
+	}
+
+	/**
+	 * Creates the quantum strategy of the specified channel, as the
+	 * <code>QuantumManager</code> of the server does.
+	 *
+	 * @param def	The rendering settings.
+	 * @param w		The index of the channel.
+	 * @return See above.
+	 */
+	private QuantumStrategy createStrategy(RndProxyDef def, int w)
+	{
+		ChannelBindingsProxy cb = def.getChannel(w);
+		QuantumDef qd = new QuantumDef();
+		qd.setCdStart(def.getCdStart());
+		qd.setCdEnd(def.getCdEnd());
+		qd.setBitResolution(def.getBitResolution());
+		QuantumStrategy qs = factory.getStrategy(qd, pixelsType);
+		qs.setExtent(metadata[w].getGlobalMin(), metadata[w].getGlobalMax());
+		qs.setMapping(factory.getFamily(cb.getFamily()),
+				cb.getCurveCoefficient(), cb.isNoiseReduction());
+		qs.setWindow(cb.getInputStart(), cb.getInputEnd());
+		return qs;
+	}
+
+	/**
+	 * Returns the packed color components of the specified channel for each
+	 * quantized value, each component using {@link #LANE} bits.
+	 * The value is mapped by the codomain chain then the components are 
+	 * computed as in the <code>HSBStrategy</code>: the value is scaled by 
+	 * the color component then multiplied by the alpha component, 
+	 * truncating each time. In the greyscale model, the value is used for
+	 * the three components.
+	 *
+	 * @param cb	 The channel to handle.
+	 * @param cc	 The codomain chain.
+	 * @param grey	 Pass <code>true</code> for the greyscale model.
+	 * @return See above.
+	 */
+	private int[] colorTable(ChannelBindingsProxy cb, CodomainChain cc,
+			boolean grey)
+	{
+		int[] table = new int[QuantumStrategy.MAX+1];
+		int[] rgba = cb.getRGBA();
+		double red = rgba[ColorsFactory.RED_INDEX]/255.0;
+		double green = rgba[ColorsFactory.GREEN_INDEX]/255.0;
+		double blue = rgba[ColorsFactory.BLUE_INDEX]/255.0;
+		float alpha = rgba[ColorsFactory.ALPHA_INDEX]/255f;
+		int v, r, g, b;
+		for (int i = 0; i < table.length; i++) {
+			v = cc.transform(i);
+			if (grey) {
+				table[i] = v << 2*LANE | v << LANE | v;
+			} else {
+				r = (int) ((int) (red*v)*alpha);
+				g = (int) ((int) (green*v)*alpha);
+				b = (int) ((int) (blue*v)*alpha);
+				table[i] = r << 2*LANE | g << LANE | b;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param context	Helper reference to the registry.
+	 * @param pixelsID	The id of the pixels set.
+	 * @param pixelsType The type of the pixels.
+	 * @param sizeX		The number of pixels along the X-axis.
+	 * @param sizeY		The number of pixels along the Y-axis.
+	 * @param metadata	The channel metadata.
+	 */
+	LocalRenderer(Registry context, long pixelsID, String pixelsType,
+			int sizeX, int sizeY, ChannelData[] metadata)
+	{
+		this.context = context;
+		this.pixelsID = pixelsID;
+		this.pixelsType = new PixelsType();
+		this.pixelsType.setValue(pixelsType);
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.metadata = metadata;
+		factory = new QuantumFactory(getFamilies());
+		z = -1;
+		t = -1;
+		planes = new PixelData[metadata.length];
+	}
+
+	/** Releases the cached planes. */
+	void clear()
+	{
+		planes = new PixelData[planes.length];
+		values = null;
+		buffer = null;
+		z = -1;
+		t = -1;
+	}
+
+	/**
+	 * Limits each color component of the accumulated values to
+	 * {@link QuantumStrategy#MAX}. If <code>pack</code> is <code>true</code>
+	 * the components are packed into <code>ARGB</code> values.
+	 *
+	 * @param pack Pass <code>true</code> to pack the values.
+	 */
+	private void saturate(boolean pack)
+	{
+		int max = QuantumStrategy.MAX;
+		int v, r, g, b;
+		for (int i = 0; i < buffer.length; i++) {
+			v = buffer[i];
+			r = (v >>> 2*LANE) & LANE_MASK;
+			g = (v >>> LANE) & LANE_MASK;
+			b = v & LANE_MASK;
+			if (r > max) r = max;
+			if (g > max) g = max;
+			if (b > max) b = max;
+			if (pack) buffer[i] = 0xFF000000 | r << 16 | g << 8 | b;
+			else buffer[i] = r << 2*LANE | g << LANE | b;
+		}
+	}
+
+	/**
+	 * Renders the specified XY-plane using the passed rendering settings.
+	 * The returned array is reused by the next call.
+	 *
+	 * @param z		The z-section to render.
+	 * @param t		The timepoint to render.
+	 * @param def	The rendering settings.
+	 * @return The packed <code>ARGB</code> values.
+	 * @throws Exception If the raw data cannot be retrieved or quantized.
+	 */
+	int[] render(int z, int t, RndProxyDef def)
+		throws Exception
+	{
+		if (z != this.z || t != this.t) {
+			planes = new PixelData[planes.length];
+			this.z = z;
+			this.t = t;
+		}
+		int n = sizeX*sizeY;
+		if (buffer == null) {
+			buffer = new int[n];
+			values = new byte[n];
+		}
+		Arrays.fill(buffer, 0);
+		boolean grey = RenderingControl.GREY_SCALE.equals(
+				def.getColorModel());
+		CodomainChain cc = new CodomainChain(def.getCdStart(), 
+				def.getCdEnd());
+		//The number of channels added up since the last saturation.
+		int count = 0;
+		ChannelBindingsProxy cb;
+		int[] table;
+		for (int w = 0; w < planes.length; w++) {
+			cb = def.getChannel(w);
+			if (cb == null || !cb.isActive()) continue;
+			if (count == CHANNELS_PER_LANE) {
+				saturate(false);
+				count = 1;
+			}
+			table = colorTable(cb, cc, grey);
+			createStrategy(def, w).quantize(getPlane(w), 0, n, values, 0);
+			for (int i = 0; i < n; i++)
+				buffer[i] += table[values[i] & 0xFF];
+			count++;
+			//Only the first active channel is rendered in greyscale.
+			if (grey) break;
+		}
+		saturate(true);
+		return buffer;
+	}
+
+}
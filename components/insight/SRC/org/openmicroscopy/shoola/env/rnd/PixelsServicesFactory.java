@@ -54,6 +54,7 @@ import org.openmicroscopy.shoola.env.LookupNames;
 import org.openmicroscopy.shoola.env.config.Registry;
 import org.openmicroscopy.shoola.env.data.DSOutOfServiceException;
 import org.openmicroscopy.shoola.env.rnd.data.DataSink;
+import org.openmicroscopy.shoola.env.rnd.data.Tile;
 
 import com.sun.opengl.util.texture.TextureData;
 
@@ -482,6 +483,36 @@ public class PixelsServicesFactory
 		if (asTexture) return proxy.renderAsTexture(pDef);
 		return proxy.render(pDef);
 	}
+	
+	/**
+	 * Renders the passed tiles of the specified {@link PlaneDef 2D-plane}
+	 * in one call and sets the image of each tile.
+	 * 
+	 * @param context   Reference to the registry. To ensure that agents cannot
+	 *                  call the method. It must be a reference to the
+	 *                  container's registry.
+	 * @param pixelsID  The id of the pixels set.
+	 * @param pDef      The plane to render.
+	 * @param tiles		The tiles to render.
+	 * @param asTexture	Pass <code>true</code> to create textures,
+	 * 					<code>false</code> to create buffered images.
+     * @throws RenderingServiceException 	If an error occurred while setting 
+     * 										the value.
+     * @throws DSOutOfServiceException  	If the connection is broken.
+	 */
+	public static void renderTiles(Registry context, Long pixelsID, 
+			PlaneDef pDef, List<Tile> tiles, boolean asTexture)
+		throws RenderingServiceException, DSOutOfServiceException
+	{
+		if (!(context.equals(registry)))
+			throw new IllegalArgumentException("Not allow to access method.");
+		RenderingControlProxy proxy = 
+			(RenderingControlProxy) singleton.rndSvcProxies.get(pixelsID);
+		if (proxy == null) 
+			throw new RuntimeException("No rendering service " +
+			"initialized for the specified pixels set.");
+		proxy.renderTiles(pDef, tiles, asTexture);
+	}
 
 	/**
 	 * Renders the specified {@link PlaneDef 2D-plane}.
@@ -37,6 +37,7 @@ import com.sun.opengl.util.texture.TextureData;
 //Application-internal dependencies
 import omero.romio.PlaneDef;
 import org.openmicroscopy.shoola.env.data.DSOutOfServiceException;
+import org.openmicroscopy.shoola.env.rnd.data.Tile;
 import pojos.ChannelData;
 import pojos.PixelsData;
 
@@ -773,6 +774,21 @@ public interface RenderingControl
 	public TextureData renderAsTexture(PlaneDef pDef)
 		throws RenderingServiceException, DSOutOfServiceException;
 
+	/**
+	 * Renders the regions of the passed tiles in one call to the server and 
+	 * sets the image of each tile.
+	 * 
+	 * @param pDef		Information about the plane to render.
+	 * @param tiles		The tiles to render.
+	 * @param asTexture	Pass <code>true</code> to create textures,
+	 * 					<code>false</code> to create buffered images.
+	 * @throws RenderingServiceException 	If an error occurred while setting 
+     * 										the value.
+     * @throws DSOutOfServiceException  	If the connection is broken.
+	 */
+	public void renderTiles(PlaneDef pDef, List<Tile> tiles, boolean asTexture)
+		throws RenderingServiceException, DSOutOfServiceException;
+
 	/**
 	 * Returns the list of settings previously saved.
 	 * 
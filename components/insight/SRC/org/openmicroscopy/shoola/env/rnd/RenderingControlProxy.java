@@ -53,11 +53,14 @@ import omero.model.Pixels;
 import omero.model.QuantumDef;
 import omero.model.RenderingModel;
 import omero.romio.PlaneDef;
+import org.openmicroscopy.shoola.env.LookupNames;
 import org.openmicroscopy.shoola.env.cache.CacheService;
 import org.openmicroscopy.shoola.env.config.Registry;
 import org.openmicroscopy.shoola.env.data.DSOutOfServiceException;
 import org.openmicroscopy.shoola.env.data.DataServicesFactory;
 import org.openmicroscopy.shoola.env.data.model.ProjectionParam;
+import org.openmicroscopy.shoola.env.rnd.data.Region;
+import org.openmicroscopy.shoola.env.rnd.data.Tile;
 import org.openmicroscopy.shoola.util.image.geom.Factory;
 import org.openmicroscopy.shoola.util.image.io.WriterImage;
 import pojos.ChannelData;
@@ -148,6 +151,18 @@ class RenderingControlProxy
     /** Flag indicating that the image is a big image or not.*/
     private Boolean bigImage;
     
+    /** 
+     * Renders the planes on the client or <code>null</code> if the planes
+     * are rendered by the server.
+     */
+    private LocalRenderer localRenderer;
+    
+    /** 
+     * Flag indicating that the settings have been modified locally and
+     * not yet passed to the rendering engine.
+     */
+    private boolean settingsChanged;
+    
     /**
      * Maps the color channel Red to {@link #RED_INDEX}, Blue to 
      * {@link #BLUE_INDEX}, Green to {@link #GREEN_INDEX} and
@@ -289,6 +304,42 @@ class RenderingControlProxy
     	if (cacheID >= 0) context.getCacheService().clearCache(cacheID);
     }
     
+    /**
+     * Returns <code>true</code> if the planes are rendered on the client,
+     * <code>false</code> otherwise. Big images are always rendered by the
+     * server.
+     * 
+     * @return See above.
+     */
+    private boolean isLocalRendering()
+    {
+    	return localRenderer != null && !isBigImage();
+    }
+    
+    /** 
+     * Records that the settings have been modified locally only and clears
+     * the cache.
+     */
+    private void localSettingsChanged()
+    {
+    	settingsChanged = true;
+    	invalidateCache();
+    }
+    
+    /**
+     * Passes the settings modified locally to the rendering engine.
+     * 
+     * @throws RenderingServiceException	If an error occurred while setting 
+     * 										the value.
+     * @throws DSOutOfServiceException  	If the connection is broken.
+     */
+    private void synchronizeSettings()
+    	throws RenderingServiceException, DSOutOfServiceException
+    {
+    	if (!settingsChanged) return;
+    	applySettings();
+    }
+    
     /** Clears the cache and releases memory. */
     private void eraseCache()
     {
@@ -492,6 +543,12 @@ class RenderingControlProxy
     	throws RenderingServiceException, DSOutOfServiceException
     {
     	try {
+    		if (isLocalRendering()) {
+    			rndDef.getChannel(w).setRGBA(rgba[0], rgba[1], rgba[2], 
+    					rgba[3]);
+    			localSettingsChanged();
+    			return;
+    		}
     		servant.setRGBA(w, rgba[0], rgba[1], rgba[2], rgba[3]);
     		rndDef.getChannel(w).setRGBA(rgba[0], rgba[1], rgba[2], rgba[3]);
     		invalidateCache();
@@ -525,6 +582,30 @@ class RenderingControlProxy
 		return null;
 	}
 	
+	/**
+	 * Renders the XY-plane on the client.
+	 * 
+	 * @param pDef The XY-plane to render.
+	 * @return See above.
+	 * @throws RenderingServiceException 	If an error occurred while setting 
+     * 										the value.
+     * @throws DSOutOfServiceException  	If the connection is broken.
+	 */
+	private BufferedImage renderLocal(PlaneDef pDef)
+		throws RenderingServiceException, DSOutOfServiceException
+	{
+		BufferedImage img = null;
+		try {
+			int[] buf = localRenderer.render(pDef.z, pDef.t, rndDef);
+			Point p = getSize(pDef);
+			imageSize = 3*buf.length;
+			img = Factory.createImage(buf, 32, p.x, p.y);
+		} catch (Throwable e) {
+			handleException(e, ERROR+"cannot render the plane.");
+		}
+		return img;
+	}
+	
 	/**
 	 * Renders the image without compression.
 	 * 
@@ -803,6 +884,19 @@ class RenderingControlProxy
             tmpSolutionForNoiseReduction();
 		} catch (Exception e) {
 		}
+		Boolean local = (Boolean) context.lookup(
+				LookupNames.RE_LOCAL_RENDERING);
+		if (local != null && local.booleanValue()) {
+			try {
+				localRenderer = new LocalRenderer(context, 
+						pixs.getId().getValue(), 
+						pixs.getPixelsType().getValue().getValue(), 
+						pixs.getSizeX().getValue(), pixs.getSizeY().getValue(), 
+						metadata);
+			} catch (Exception e) {
+				//the planes are rendered by the server.
+			}
+		}
     }
 
     /**
@@ -857,6 +951,20 @@ class RenderingControlProxy
     	this.servant = servant;
     	
     	// reset default of the rendering engine.
+    	applySettings();
+    }
+    
+    /**
+     * Passes the local copy of the rendering settings to the rendering 
+     * engine.
+     * 
+     * @throws RenderingServiceException	If an error occurred while setting 
+     * 										the value.
+     * @throws DSOutOfServiceException  	If the connection is broken.
+     */
+    private void applySettings()
+    	throws RenderingServiceException, DSOutOfServiceException
+    {
     	if (rndDef == null) return;
     	try {
     		servant.setDefaultZ(rndDef.getDefaultZ());
@@ -895,6 +1003,7 @@ class RenderingControlProxy
                 rgba = cb.getRGBA();
                 servant.setRGBA(i, rgba[0], rgba[1], rgba[2], rgba[3]);
             }
+            settingsChanged = false;
 		} catch (Exception e) {
 			handleException(e, "Cannot reset the rendering engine.");
 		}
@@ -903,6 +1012,7 @@ class RenderingControlProxy
     /** Shuts down the service. */
     void shutDown()
     { 
+    	if (localRenderer != null) localRenderer.clear();
     	try {
     		servant.close();
     		//remove the cache.
@@ -929,6 +1039,11 @@ class RenderingControlProxy
     	throws RenderingServiceException, DSOutOfServiceException
     { 
     	isSessionAlive();
+    	if (isLocalRendering()) {
+    		rndDef.setColorModel(value);
+    		localSettingsChanged();
+    		return;
+    	}
     	try {
     		Iterator i = models.iterator();
             RenderingModel model;
@@ -976,6 +1091,11 @@ class RenderingControlProxy
     		int maxZ = getPixelsDimensionsZ();
     		if (z < 0) z = 0;
     		if (z >= maxZ) z = maxZ-1;
+    		if (isLocalRendering()) {
+    			rndDef.setDefaultZ(z);
+    			settingsChanged = true;
+    			return;
+    		}
     		servant.setDefaultZ(z);
             rndDef.setDefaultZ(z);
 		} catch (Exception e) {
@@ -996,6 +1116,11 @@ class RenderingControlProxy
     		int maxT = getPixelsDimensionsT();
     		if (t < 0) t = 0;
     		if (t >= maxT) t = maxT-1;
+    		if (isLocalRendering()) {
+    			rndDef.setDefaultT(t);
+    			settingsChanged = true;
+    			return;
+    		}
     		servant.setDefaultT(t);
             rndDef.setDefaultT(t);
 		} catch (Exception e) {
@@ -1015,6 +1140,11 @@ class RenderingControlProxy
     	isSessionAlive();
     	try {
     		checkBitResolution(bitResolution);
+    		if (isLocalRendering()) {
+    			rndDef.setBitResolution(bitResolution);
+    			localSettingsChanged();
+    			return;
+    		}
             servant.setQuantumStrategy(bitResolution);
             rndDef.setBitResolution(bitResolution);
             invalidateCache();
@@ -1033,6 +1163,11 @@ class RenderingControlProxy
     {
     	isSessionAlive();
     	try {
+    		if (isLocalRendering()) {
+    			rndDef.setCodomain(start, end);
+    			localSettingsChanged();
+    			return;
+    		}
     		servant.setCodomainInterval(start, end);
             rndDef.setCodomain(start, end);
             invalidateCache();
@@ -1052,6 +1187,12 @@ class RenderingControlProxy
     {
     	isSessionAlive();
     	try {
+    		if (isLocalRendering()) {
+    			rndDef.getChannel(w).setQuantization(value, coefficient, 
+                        noiseReduction);
+    			localSettingsChanged();
+    			return;
+    		}
     		List list = servant.getAvailableFamilies();
             Iterator i = list.iterator();
             Family family;
@@ -1114,6 +1255,11 @@ class RenderingControlProxy
     {
     	isSessionAlive();
     	try {
+    		if (isLocalRendering()) {
+    			rndDef.getChannel(w).setInterval(start, end);
+    			localSettingsChanged();
+    			return;
+    		}
     		servant.setChannelWindow(w, start, end);
             rndDef.getChannel(w).setInterval(start, end);
             invalidateCache();
@@ -1154,6 +1300,12 @@ class RenderingControlProxy
     {
     	isSessionAlive();
     	try {
+    		if (isLocalRendering()) {
+    			rndDef.getChannel(w).setRGBA(c.getRed(), c.getGreen(), 
+    					c.getBlue(), c.getAlpha());
+    			localSettingsChanged();
+    			return;
+    		}
     		servant.setRGBA(w, c.getRed(), c.getGreen(), c.getBlue(), 
     						c.getAlpha());
     		rndDef.getChannel(w).setRGBA(c.getRed(), c.getGreen(), c.getBlue(),
@@ -1185,6 +1337,11 @@ class RenderingControlProxy
     { 
     	isSessionAlive();
     	try {
+    		if (isLocalRendering()) {
+    			rndDef.getChannel(w).setActive(active);
+    			localSettingsChanged();
+    			return;
+    		}
     		servant.setActive(w, active);
             rndDef.getChannel(w).setActive(active);
             invalidateCache();
@@ -1262,6 +1419,7 @@ class RenderingControlProxy
     { 
     	isSessionAlive();
     	try {
+    		synchronizeSettings();
     		servant.saveCurrentSettings();
 			return rndDef.copy();
 		} catch (Throwable e) {
@@ -1282,6 +1440,7 @@ class RenderingControlProxy
     		 servant.resetDefaultsNoSave();
     		 invalidateCache();
     		 initialize();
+    		 settingsChanged = false;
 		} catch (Throwable e) {
 			handleException(e, ERROR+"default settings.");
 		}
@@ -1541,6 +1700,10 @@ class RenderingControlProxy
     	isSessionAlive();
     	if (pDef == null) 
              throw new IllegalArgumentException("Plane def cannot be null.");
+    	if (isLocalRendering() && pDef.slice == omero.romio.XY.value &&
+    			pDef.region == null && pDef.stride == 0)
+    		return renderLocal(pDef);
+    	synchronizeSettings();
     	if (value != compression) setCompression(value);
     	BufferedImage img;
         if (isCompressed()) img = renderCompressedBI(pDef);
@@ -1614,6 +1777,9 @@ class RenderingControlProxy
 
     		invalidateCache();
     		initialize();
+    		//The model is only set locally when rendering on the client.
+    		if (isLocalRendering() && getPixelsDimensionsC() > 1)
+    			rndDef.setColorModel(RGB);
 		} catch (Throwable e) {
 			handleException(e, ERROR+"default settings.");
 		}
@@ -1635,6 +1801,7 @@ class RenderingControlProxy
 		Iterator<Integer> j = channels.iterator();
 		while (j.hasNext()) 
 			setActive(j.next(), true);
+		synchronizeSettings();
 		BufferedImage img;
 
         if (isCompressed()) 
@@ -1663,6 +1830,7 @@ class RenderingControlProxy
 		Iterator<Integer> j = channels.iterator();
 		while (j.hasNext()) 
 			setActive(j.next(), true);
+		synchronizeSettings();
 		TextureData img;
 
         if (isCompressed()) 
@@ -1807,11 +1975,77 @@ class RenderingControlProxy
 		if (pDef == null) 
 			throw new IllegalArgumentException("Plane def cannot be null.");
 		//DataServicesFactory.isSessionAlive(context);
+		synchronizeSettings();
 		if (isCompressed()) 
 			return renderCompressedAsTexture(pDef);
 	     return renderUncompressedAsTexture(pDef);
 	}
 
+	/** 
+	 * Implemented as specified by {@link RenderingControl}. 
+	 * @see RenderingControl#renderTiles(PlaneDef, List, boolean)
+	 */
+	public void renderTiles(PlaneDef pDef, List<Tile> tiles, boolean asTexture)
+		throws RenderingServiceException, DSOutOfServiceException
+	{
+		isSessionAlive();
+		if (pDef == null) 
+			throw new IllegalArgumentException("Plane def cannot be null.");
+		if (tiles == null || tiles.size() == 0) return;
+		synchronizeSettings();
+		int[] regions = new int[4*tiles.size()];
+		Iterator<Tile> i = tiles.iterator();
+		Region r;
+		int index = 0;
+		while (i.hasNext()) {
+			r = i.next().getRegion();
+			regions[index++] = r.getX();
+			regions[index++] = r.getY();
+			regions[index++] = r.getWidth();
+			regions[index++] = r.getHeight();
+		}
+		pDef.region = null;
+		try {
+			Tile tile;
+			i = tiles.iterator();
+			if (isCompressed()) {
+				byte[][] values = servant.renderRegionsCompressed(pDef, 
+						regions);
+				index = 0;
+				while (i.hasNext()) {
+					tile = i.next();
+					r = tile.getRegion();
+					if (asTexture)
+						tile.setImage(PixelsServicesFactory.createTexture(
+							WriterImage.bytesToBytes(values[index]), 
+							r.getWidth(), r.getHeight()));
+					else 
+						tile.setImage(WriterImage.bytesToImage(values[index]));
+					index++;
+				}
+			} else {
+				int[] buf = servant.renderRegionsAsPackedInt(pDef, regions);
+				int offset = 0;
+				int[] values;
+				while (i.hasNext()) {
+					tile = i.next();
+					r = tile.getRegion();
+					values = new int[r.getWidth()*r.getHeight()];
+					System.arraycopy(buf, offset, values, 0, values.length);
+					offset += values.length;
+					if (asTexture)
+						tile.setImage(createTexture(values, r.getWidth(), 
+								r.getHeight()));
+					else 
+						tile.setImage(Factory.createImage(values, 32, 
+								r.getWidth(), r.getHeight()));
+				}
+			}
+		} catch (Throwable e) {
+			handleException(e, ERROR+"cannot render the tiles.");
+		}
+	}
+	
 	/** 
 	 * Implemented as specified by {@link RenderingControl}. 
 	 * @see RenderingControl#isActiveImageRGB(List)
@@ -45,6 +45,7 @@ import org.openmicroscopy.shoola.svc.SvcRegistry;
 import org.openmicroscopy.shoola.svc.communicator.Communicator;
 import org.openmicroscopy.shoola.svc.communicator.CommunicatorDescriptor;
 import org.openmicroscopy.shoola.svc.transport.HttpChannel;
+import org.openmicroscopy.shoola.util.concur.tasks.PooledProcessor;
 import org.openmicroscopy.shoola.util.ui.MessengerDetails;
 import org.openmicroscopy.shoola.util.ui.MessengerDialog;
 import org.openmicroscopy.shoola.util.ui.UIUtilities;
@@ -153,6 +154,13 @@ class UserNotifierManager
 		boolean bug = true;
 		String error = details.getError();
 		if (error == null || error.length() == 0) bug = false;
+		else {
+			//Add the state of the threads running the calls to the server.
+			Object processor = reg.lookup(LookupNames.CMD_PROCESSOR);
+			if (processor instanceof PooledProcessor)
+				error += "\nCommand processor: "+
+					((PooledProcessor) processor).getStatistics();
+		}
 		String url = (String) reg.lookup(LookupNames.TOKEN_URL);
 		String appName; 
 		if (bug) 
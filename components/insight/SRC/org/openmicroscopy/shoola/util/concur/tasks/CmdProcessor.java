@@ -63,6 +63,15 @@ package org.openmicroscopy.shoola.util.concur.tasks;
 public abstract class CmdProcessor
 {
     
+    /** Priority of the services the user is waiting for, e.g. a viewer. */
+    public static final int     HIGH_PRIORITY = 0;
+    
+    /** Default priority of the services. */
+    public static final int     NORMAL_PRIORITY = 1;
+    
+    /** Priority of the background services, e.g. thumbnails loading. */
+    public static final int     LOW_PRIORITY = 2;
+    
     /**
      * Subclasses have to implement this method in order to execute the
      * service.
@@ -80,6 +89,25 @@ public abstract class CmdProcessor
      */
     protected abstract void doExec(Runnable cmd);
     
+    /**
+     * Transfers the service for execution with the specified priority and
+     * in the specified group.
+     * Subclasses that limit the resources available to the services 
+     * override this method to run the higher priority services first and
+     * to limit the number of services of a given group running at the same
+     * time. This implementation ignores both and calls 
+     * {@link #doExec(Runnable)}.
+     * 
+     * @param cmd       Enapsulates the service workflow.
+     * @param priority  One of the constants defined by this class.
+     * @param group     The group the service belongs to or 
+     *                  <code>null</code> if none.
+     */
+    protected void doExec(Runnable cmd, int priority, Object group)
+    {
+        doExec(cmd);
+    }
+    
     /**
      * Executes the specified <code>task</code>.
      *   
@@ -367,4 +395,39 @@ public abstract class CmdProcessor
         return future;
     }
 
+    /**
+     * Executes the specified multi-step <code>task</code> with the specified
+     * priority and in the specified group.
+     * Which resources are allocated to a given priority or group depends 
+     * on the concrete processor.
+     *   
+     * @param task  The multi-step task to execute.  Mustn't be 
+     *              <code>null</code>.
+     * @param rAsm  To provide a specific way to assemble the computatation 
+     *              results from partial results.
+     * @param observer  To get feedback about the execution progress.
+     * @param priority  One of the constants defined by this class.
+     * @param group The group the task belongs to, e.g. the agent which
+     *              requested it, or <code>null</code> if none.
+     * @return A {@link Future} to collect the result of the invocation.
+     * @see #exec(MultiStepTask, ResultAssembler, ExecMonitor)
+     */
+    public Future exec(MultiStepTask task, ResultAssembler rAsm, 
+                        ExecMonitor observer, int priority, Object group)
+    {
+        if (task == null) throw new NullPointerException("No task.");
+        if (rAsm == null) rAsm = new ListAssembler();
+        if (observer == null) observer = new NullExecMonitor();
+        Future future = new Future();  //Not in a legal state yet.
+        ExecCommand cmd = 
+            new ExecCommand(task, rAsm, future, observer);
+        future.setCommand(cmd);  //OK, init completed now (two-step init).
+        
+        //Transfer command.
+        doExec(cmd, priority, group);
+        
+        //Allow client to retrieve result and cancel execution.
+        return future;
+    }
+
 }
@@ -263,6 +263,16 @@ class ExecCommand
         }
     }
     
+    /**
+     * Tells whether this command has been cancelled.
+     * A processor that queues commands uses this method to discard the
+     * cancelled ones without running them.
+     *
+     * @return <code>true</code> if the state is {@link #CANCELLED},
+     *          <code>false</code> otherwise.
+     */
+    synchronized boolean isCancelled() { return state == CANCELLED; }
+
     /**
      * Executes the service.
      */
@@ -0,0 +1,453 @@
+/*
+ * org.openmicroscopy.shoola.util.concur.tasks.PooledProcessor
+ *
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2006-2011 University of Dundee. All rights reserved.
+ *
+ *
+ * 	This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+
+package org.openmicroscopy.shoola.util.concur.tasks;
+
+
+//Java imports
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+//Third-party libraries
+
+//Application-internal dependencies
+
+/**
+ * A concrete {@link CmdProcessor} that executes services in a bounded pool
+ * of threads.
+ * Services are queued in one lane per priority and a free thread always
+ * takes the oldest service of the highest priority lane.  Services can be
+ * assigned to a group, e.g. the agent that requested them, and at most
+ * <code>maxPerGroup</code> services of the same group run at the same time,
+ * so that one group can't take up all the threads.  Threads are created
+ * on demand, up to <code>maxThreads</code>, and exit after being idle for
+ * {@link #KEEP_ALIVE} milliseconds.
+ * <p>A service cancelled while queued is discarded without being run.  A
+ * running service is interrupted, which normally stops it before its next
+ * step.  The interrupted status is cleared before the thread takes the next
+ * service.</p>
+ * <p>Unlike the {@link AsyncProcessor}, services wait for a free thread, so
+ * a service must never wait for the completion of another service
+ * submitted to the same processor.</p>
+ *
+ * @version 3.0
+ * <small>
+ * (<b>Internal version:</b> $Revision: $Date: $)
+ * </small>
+ * @since 3.0-Beta4
+ */
+public class PooledProcessor
+    extends CmdProcessor
+{
+
+    /** Milliseconds an idle thread waits for a service before exiting. */
+    static final long   KEEP_ALIVE = 30000;
+
+    /** The number of priority lanes. */
+    private static final int    LANES = LOW_PRIORITY+1;
+
+    /** A queued service. */
+    private static class Entry
+    {
+        final ExecCommand   cmd;
+        final Object        group;
+        Entry(ExecCommand cmd, Object group)
+        {
+            this.cmd = cmd;
+            this.group = group;
+        }
+    }
+
+    /**
+     * The run loop of the pooled threads.
+     * We take the next service, run it, trap any uncaught exceptions (and
+     * call the <code>uncaughtExcHandler</code>, if one was provided), and
+     * then notify the enclosing <code>PooledProcessor</code>.
+     */
+    private class Worker
+        implements Runnable
+    {
+        public void run()
+        {
+            Entry e;
+            while ((e = take()) != null) {
+                try {
+                    e.cmd.run();
+                } catch (Throwable t) {
+                    if (uncaughtExcHandler != null)
+                        uncaughtExcHandler.handle(t);
+                    else t.printStackTrace();
+                } finally {  //Make sure we notify in any case.
+                    Thread.interrupted();  //Don't leak a cancellation.
+                    notifyDone(e);
+                }
+            }
+        }
+    }
+
+    /** The maximum number of threads. */
+    private final int           maxThreads;
+
+    /** The maximum number of services of a group running at once. */
+    private final int           maxPerGroup;
+
+    /** Custom handler used in the case of uncaught exceptions. */
+    private final UncaughtExcHandler uncaughtExcHandler;
+
+    /** The queued services, one list per priority. */
+    private final LinkedList[]  lanes;
+
+    /** The running services. */
+    private final List<Entry>   running;
+
+    /** Maps a group onto the number of its running services. */
+    private final Map<Object, Integer>  runningPerGroup;
+
+    /** The pooled threads. */
+    private final List<Thread>  threads;
+
+    /** The number of threads waiting for a service. */
+    private int                 idle;
+
+    /** The number of threads created so far. */
+    private int                 created;
+
+    /** The number of services executed so far. */
+    private long                completed;
+
+    /** The largest number of queued services so far. */
+    private int                 maxQueued;
+
+    /**
+     * Tells whether the processor will accept and run new commands.
+     * Latches to <code>true</code> when the {@link #terminate(long)
+     * terminate} method is called.
+     */
+    private boolean             terminated;
+
+    /**
+     * Returns <code>true</code> if a service of the passed group can start.
+     *
+     * @param group The group of the service.
+     * @return See above.
+     */
+    private boolean canStart(Object group)
+    {
+        if (group == null) return true;
+        Integer n = runningPerGroup.get(group);
+        return n == null || n.intValue() < maxPerGroup;
+    }
+
+    /**
+     * Removes and returns the next service that can start, discarding the
+     * cancelled ones, or <code>null</code> if none.
+     *
+     * @return See above.
+     */
+    private Entry poll()
+    {
+        Iterator i;
+        Entry e;
+        for (int k = 0; k < lanes.length; k++) {
+            i = lanes[k].iterator();
+            while (i.hasNext()) {
+                e = (Entry) i.next();
+                if (e.cmd.isCancelled()) i.remove();
+                else if (canStart(e.group)) {
+                    i.remove();
+                    return e;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of queued services.
+     *
+     * @return See above.
+     */
+    private int countQueued()
+    {
+        int n = 0;
+        for (int k = 0; k < lanes.length; k++)
+            n += lanes[k].size();
+        return n;
+    }
+
+    /**
+     * Called by a {@link Worker} to wait for the next service.
+     * Returns <code>null</code> if the thread has to exit, that is, if the
+     * processor has been terminated or no service came along in the
+     * {@link #KEEP_ALIVE} period.
+     *
+     * @return See above.
+     */
+    private synchronized Entry take()
+    {
+        long deadline = System.currentTimeMillis()+KEEP_ALIVE;
+        long wait;
+        Entry e;
+        while (!terminated) {
+            e = poll();
+            if (e != null) {
+                running.add(e);
+                if (e.group != null) {
+                    Integer n = runningPerGroup.get(e.group);
+                    runningPerGroup.put(e.group,
+                            Integer.valueOf(n == null ? 1 : n.intValue()+1));
+                }
+                return e;
+            }
+            wait = deadline-System.currentTimeMillis();
+            if (wait <= 0) break;
+            idle++;
+            try {
+                wait(wait);
+            } catch (InterruptedException ie) {
+                //Ignore, the deadline is checked anyway.
+            } finally {
+                idle--;
+            }
+        }
+        threads.remove(Thread.currentThread());
+        return null;
+    }
+
+    /**
+     * Callback used by a {@link Worker} when a service exits.
+     *
+     * @param e The service that exited.
+     */
+    private synchronized void notifyDone(Entry e)
+    {
+        running.remove(e);
+        completed++;
+        if (e.group != null) {
+            int n = runningPerGroup.get(e.group).intValue()-1;
+            if (n == 0) runningPerGroup.remove(e.group);
+            else runningPerGroup.put(e.group, Integer.valueOf(n));
+            //A queued service of that group may now start.
+            notifyAll();
+        }
+    }
+
+    /**
+     * Queues a command with the default priority.
+     *
+     * @param cmd The command to run.
+     * @see CmdProcessor#doExec(Runnable)
+     */
+    protected void doExec(Runnable cmd)
+    {
+        doExec(cmd, NORMAL_PRIORITY, null);
+    }
+
+    /**
+     * Queues a command in the lane of the specified priority.
+     *
+     * @param cmd       The command to run.
+     * @param priority  The priority of the command.
+     * @param group     The group of the command or <code>null</code>.
+     * @see CmdProcessor#doExec(Runnable, int, Object)
+     */
+    protected void doExec(Runnable cmd, int priority, Object group)
+    {
+        ExecCommand srv = (ExecCommand) cmd;
+        if (priority < 0) priority = 0;
+        if (priority >= LANES) priority = LANES-1;
+        Thread t = null;
+        boolean accepted;
+        synchronized (this) {
+            accepted = !terminated;
+            if (accepted) {
+                lanes[priority].add(new Entry(srv, group));
+                int queued = countQueued();
+                if (queued > maxQueued) maxQueued = queued;
+                if (idle < queued && threads.size() < maxThreads) {
+                    t = new Thread(new Worker(), 
+                            "PooledProcessor-"+(++created));
+                    t.setDaemon(true);
+                    threads.add(t);
+                }
+                notify();
+            }
+        }
+        if (!accepted) srv.cancel();
+        else if (t != null) t.start();
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxThreads    The maximum number of threads. Must be positive.
+     * @param maxPerGroup   The maximum number of services of the same group
+     *                      running at the same time. Must be positive.
+     */
+    public PooledProcessor(int maxThreads, int maxPerGroup)
+    {
+        this(maxThreads, maxPerGroup, null);
+    }
+
+    /**
+     * Creates a new instance.
+     * Registers the passed <code>handler</code> to handle all uncaught
+     * exceptions that occurred during the execution of a service.
+     *
+     * @param maxThreads    The maximum number of threads. Must be positive.
+     * @param maxPerGroup   The maximum number of services of the same group
+     *                      running at the same time. Must be positive.
+     * @param handler       Handles uncaught exceptions or <code>null</code>
+     *                      to print the stack trace.
+     */
+    public PooledProcessor(int maxThreads, int maxPerGroup,
+                            UncaughtExcHandler handler)
+    {
+        if (maxThreads <= 0)
+            throw new IllegalArgumentException("Non-positive maxThreads.");
+        if (maxPerGroup <= 0)
+            throw new IllegalArgumentException("Non-positive maxPerGroup.");
+        this.maxThreads = maxThreads;
+        this.maxPerGroup = maxPerGroup;
+        uncaughtExcHandler = handler;
+        lanes = new LinkedList[LANES];
+        for (int k = 0; k < LANES; k++)
+            lanes[k] = new LinkedList();
+        running = new ArrayList<Entry>();
+        runningPerGroup = new HashMap<Object, Integer>();
+        threads = new ArrayList<Thread>();
+        terminated = false;
+    }
+
+    /**
+     * Cancels all queued and running services.
+     * This is equivalent to calling the
+     * {@link ExecHandle#cancelExecution() cancelExecution} method on each
+     * {@link ExecHandle} of those services.
+     */
+    public void cancelAll()
+    {
+        List<ExecCommand> cmds = new ArrayList<ExecCommand>();
+        synchronized (this) {  //Take snapshot.
+            Iterator i;
+            for (int k = 0; k < lanes.length; k++) {
+                i = lanes[k].iterator();
+                while (i.hasNext())
+                    cmds.add(((Entry) i.next()).cmd);
+                lanes[k].clear();
+            }
+            Iterator<Entry> j = running.iterator();
+            while (j.hasNext())
+                cmds.add(j.next().cmd);
+        }
+        Iterator<ExecCommand> i = cmds.iterator();
+        while (i.hasNext())
+            i.next().cancel();  //Won't hurt if no longer running.
+    }
+
+    /**
+     * Cancels all queued and running services and disallows execution of
+     * new ones.
+     * Waits at most <code>maxWait</code> milliseconds for each thread to exit
+     * and returns <code>true</code> only if all threads have died.
+     *
+     * @param maxWait Maximum amount of milliseconds to wait for each
+     *                thread to exit.
+     * @return <code>true</code> no service is still running,
+     *          <code>false</code> otherwise.
+     */
+    public boolean terminate(long maxWait)
+    {
+        Thread[] workers;
+        synchronized (this) {
+            terminated = true;  //Disable processor forever.
+            cancelAll();  //Sync, so re-entrant.
+            notifyAll();  //Wake up the idle threads so they exit.
+            workers = threads.toArray(new Thread[threads.size()]);
+        }
+        boolean anyThreadStillRunning = false;
+        for (int i = 0; i < workers.length; ++i) {
+            try {
+                workers[i].join(maxWait);
+            } catch (InterruptedException ie) {
+                //Ignore.  This whole loop is a bounded wait.
+            }
+            if (workers[i].isAlive()) anyThreadStillRunning = true;
+        }
+        return !anyThreadStillRunning;
+    }
+
+    /**
+     * Returns the number of pooled threads.
+     *
+     * @return See above.
+     */
+    public synchronized int getThreadCount() { return threads.size(); }
+
+    /**
+     * Returns the number of services currently running.
+     *
+     * @return See above.
+     */
+    public synchronized int getRunningCount() { return running.size(); }
+
+    /**
+     * Returns the number of services waiting for a thread.
+     *
+     * @return See above.
+     */
+    public synchronized int getQueuedCount() { return countQueued(); }
+
+    /**
+     * Returns the number of services executed so far.
+     *
+     * @return See above.
+     */
+    public synchronized long getCompletedCount() { return completed; }
+
+    /**
+     * Returns a description of the threads and queues of the processor,
+     * e.g. to attach to a bug report.
+     *
+     * @return See above.
+     */
+    public synchronized String getStatistics()
+    {
+        StringBuffer buf = new StringBuffer();
+        buf.append("Threads: "+threads.size()+"/"+maxThreads);
+        buf.append(" (idle: "+idle+")");
+        buf.append(", running: "+running.size());
+        buf.append(", completed: "+completed);
+        buf.append(", queued:");
+        for (int k = 0; k < lanes.length; k++)
+            buf.append(" "+lanes[k].size());
+        buf.append(" (max: "+maxQueued+")");
+        buf.append(", running per group: "+runningPerGroup);
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * org.openmicroscopy.shoola.env.cache.TestDiskCache
+ *
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2006-2011 University of Dundee. All rights reserved.
+ *
+ *
+ * 	This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+
+package org.openmicroscopy.shoola.env.cache;
+
+
+//Java imports
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+//Third-party libraries
+import junit.framework.TestCase;
+
+//Application-internal dependencies
+
+/**
+ * Unit test for {@link DiskCache}.
+ * Verifies the eviction of the least recently used entries when the size
+ * is capped, the order of the entries when the cache is reloaded and the
+ * handling of the files left by an interrupted session.
+ *
+ * @version 3.0
+ * <small>
+ * (<b>Internal version:</b> $Revision: $Date: $)
+ * </small>
+ * @since 3.0-Beta4
+ */
+public class TestDiskCache
+    extends TestCase
+{
+
+    /** The size of the values stored. */
+    private static final int    SIZE = 100;
+
+    /** The directory hosting the entries. */
+    private File                directory;
+
+    /**
+     * Returns a value of {@link #SIZE} bytes.
+     *
+     * @param b The byte used to fill the value.
+     * @return See above.
+     */
+    private byte[] value(int b)
+    {
+        byte[] values = new byte[SIZE];
+        Arrays.fill(values, (byte) b);
+        return values;
+    }
+
+    /**
+     * Returns the file hosting the entry with the specified key.
+     *
+     * @param key The key of the entry.
+     * @return See above.
+     */
+    private File getFile(String key)
+    {
+        return new File(directory, key+".cache");
+    }
+
+    /**
+     * Sets the time of the last access of the specified entry, as if it had
+     * been read in a previous session.
+     *
+     * @param key       The key of the entry.
+     * @param seconds   The time of the access.
+     */
+    private void setAccessTime(String key, long seconds)
+    {
+        assertTrue(getFile(key).setLastModified(seconds*1000));
+    }
+
+    /**
+     * Creates a file in the directory.
+     *
+     * @param name      The name of the file.
+     * @param length    The length of the file.
+     * @return See above.
+     * @throws IOException If the file cannot be written.
+     */
+    private File createFile(String name, int length)
+        throws IOException
+    {
+        File f = new File(directory, name);
+        FileOutputStream stream = new FileOutputStream(f);
+        try {
+            stream.write(new byte[length]);
+        } finally {
+            stream.close();
+        }
+        return f;
+    }
+
+    /**
+     * Creates an empty directory.
+     * @see TestCase#setUp()
+     */
+    protected void setUp()
+        throws IOException
+    {
+        directory = File.createTempFile("diskcache", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    /**
+     * Deletes the directory.
+     * @see TestCase#tearDown()
+     */
+    protected void tearDown()
+    {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++)
+                files[i].delete();
+        }
+        directory.delete();
+    }
+
+    /** Tests that the entries are returned as stored. */
+    public void testPutAndGet()
+    {
+        DiskCache cache = new DiskCache(directory, 10*SIZE);
+        cache.put("a", value(1));
+        cache.put("b", value(2));
+        assertTrue(Arrays.equals(value(1), cache.get("a")));
+        assertTrue(Arrays.equals(value(2), cache.get("b")));
+        assertNull(cache.get("c"));
+        cache.put("a", value(3));
+        assertTrue(Arrays.equals(value(3), cache.get("a")));
+        assertEquals(2, cache.getEntries());
+        assertEquals(2*SIZE, cache.getSize());
+    }
+
+    /**
+     * Tests that the least recently used entries are removed when the size
+     * is capped.
+     */
+    public void testEvictsLeastRecentlyUsed()
+    {
+        DiskCache cache = new DiskCache(directory, 3*SIZE);
+        cache.put("a", value(1));
+        cache.put("b", value(2));
+        cache.put("c", value(3));
+        assertEquals(3*SIZE, cache.getSize());
+        assertNotNull(cache.get("a"));
+        cache.put("d", value(4));
+        assertEquals(3, cache.getEntries());
+        assertEquals(3*SIZE, cache.getSize());
+        assertNull(cache.get("b"));
+        assertFalse(getFile("b").exists());
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        cache.put("e", value(5));
+        assertNull(cache.get("a"));
+        assertFalse(getFile("a").exists());
+    }
+
+    /** Tests that an entry larger than the cache is not stored. */
+    public void testEntryLargerThanCap()
+    {
+        DiskCache cache = new DiskCache(directory, SIZE);
+        cache.put("a", value(1));
+        cache.put("b", new byte[SIZE+1]);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(SIZE, cache.getSize());
+    }
+
+    /** Tests that the entries are kept when the cache is reloaded. */
+    public void testEntriesKeptAcrossRestarts()
+    {
+        DiskCache cache = new DiskCache(directory, 10*SIZE);
+        cache.put("a", value(1));
+        cache.put("b", value(2));
+        cache = new DiskCache(directory, 10*SIZE);
+        assertEquals(2, cache.getEntries());
+        assertEquals(2*SIZE, cache.getSize());
+        assertTrue(Arrays.equals(value(1), cache.get("a")));
+        assertTrue(Arrays.equals(value(2), cache.get("b")));
+    }
+
+    /**
+     * Tests that the least recently used entries of the previous sessions
+     * are removed first when the cache is reloaded with a smaller cap.
+     */
+    public void testReloadKeepsAccessOrder()
+    {
+        DiskCache cache = new DiskCache(directory, 10*SIZE);
+        cache.put("a", value(1));
+        cache.put("b", value(2));
+        cache.put("c", value(3));
+        setAccessTime("a", 3000);
+        setAccessTime("b", 1000);
+        setAccessTime("c", 2000);
+        cache = new DiskCache(directory, 2*SIZE);
+        assertEquals(2, cache.getEntries());
+        assertEquals(2*SIZE, cache.getSize());
+        assertFalse(getFile("b").exists());
+        //The order is kept for the next evictions.
+        cache.put("d", value(4));
+        assertFalse(getFile("c").exists());
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("d"));
+    }
+
+    /** Tests that reading an entry is recorded for the next session. */
+    public void testAccessRecordedAcrossRestarts()
+    {
+        DiskCache cache = new DiskCache(directory, 10*SIZE);
+        cache.put("a", value(1));
+        cache.put("b", value(2));
+        setAccessTime("a", 1000);
+        setAccessTime("b", 2000);
+        cache = new DiskCache(directory, 10*SIZE);
+        assertNotNull(cache.get("a"));
+        cache = new DiskCache(directory, SIZE);
+        assertEquals(1, cache.getEntries());
+        assertNotNull(cache.get("a"));
+        assertFalse(getFile("b").exists());
+    }
+
+    /**
+     * Tests that an entry truncated after being loaded is removed when it
+     * is read.
+     * @throws IOException If the file cannot be truncated.
+     */
+    public void testTruncatedEntry()
+        throws IOException
+    {
+        DiskCache cache = new DiskCache(directory, 10*SIZE);
+        cache.put("a", value(1));
+        cache.put("b", value(2));
+        RandomAccessFile f = new RandomAccessFile(getFile("a"), "rw");
+        try {
+            f.setLength(SIZE/2);
+        } finally {
+            f.close();
+        }
+        assertNull(cache.get("a"));
+        assertFalse(getFile("a").exists());
+        assertEquals(1, cache.getEntries());
+        assertEquals(SIZE, cache.getSize());
+        assertNotNull(cache.get("b"));
+    }
+
+    /**
+     * Tests that an entry removed by the caller, e.g. because it cannot be
+     * decoded, is deleted.
+     */
+    public void testRemoveCorruptedEntry()
+    {
+        DiskCache cache = new DiskCache(directory, 10*SIZE);
+        cache.put("a", value(1));
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertFalse(getFile("a").exists());
+        assertEquals(0, cache.getSize());
+        cache = new DiskCache(directory, 10*SIZE);
+        assertEquals(0, cache.getEntries());
+    }
+
+    /**
+     * Tests that the files left by an interrupted session are deleted when
+     * the cache is loaded: temporary files and empty entries.
+     * @throws IOException If the files cannot be written.
+     */
+    public void testLeftOverFilesDeleted()
+        throws IOException
+    {
+        File tmp = createFile("a.cache.tmp", SIZE);
+        File empty = createFile("b.cache", 0);
+        File entry = createFile("c.cache", SIZE);
+        DiskCache cache = new DiskCache(directory, 10*SIZE);
+        assertFalse(tmp.exists());
+        assertFalse(empty.exists());
+        assertTrue(entry.exists());
+        assertEquals(1, cache.getEntries());
+        assertEquals(SIZE, cache.getSize());
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    /** Tests that the cache removes all its entries. */
+    public void testClear()
+    {
+        DiskCache cache = new DiskCache(directory, 10*SIZE);
+        cache.put("a", value(1));
+        cache.put("b", value(2));
+        cache.clear();
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getSize());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+}
@@ -53,6 +53,7 @@ import org.openmicroscopy.shoola.env.data.model.ScriptObject;
 import org.openmicroscopy.shoola.env.rnd.RenderingControl;
 import org.openmicroscopy.shoola.env.rnd.RenderingServiceException;
 import org.openmicroscopy.shoola.env.rnd.RndProxyDef;
+import org.openmicroscopy.shoola.env.rnd.data.Tile;
 import pojos.DataObject;
 import pojos.ImageData;
 import pojos.PixelsData;
@@ -100,6 +101,16 @@ public class NullRenderingService
         return null;
     }
 
+    /**
+     * No-op implementation
+     * @see OmeroImageService#renderTiles(long, PlaneDef, List, boolean)
+     */
+    public void renderTiles(long pixelsID, PlaneDef pd, List<Tile> tiles,
+    		boolean asTexture)
+            throws RenderingServiceException
+    {
+    }
+
     /**
      * No-op implementation
      * @see OmeroImageService#shutDown(long)
@@ -0,0 +1,535 @@
+/*
+ * org.openmicroscopy.shoola.env.rnd.TestLocalRenderer
+ *
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2006-2011 University of Dundee. All rights reserved.
+ *
+ *
+ * 	This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+
+package org.openmicroscopy.shoola.env.rnd;
+
+
+//Java imports
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+//Third-party libraries
+import junit.framework.TestCase;
+
+//Application-internal dependencies
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+import omeis.providers.re.quantum.QuantumStrategy;
+import omero.rtypes;
+import omero.model.ChannelI;
+import omero.model.StatsInfoI;
+import pojos.ChannelData;
+
+/**
+ * Compares, pixel for pixel, the planes rendered by the
+ * {@link LocalRenderer} with the planes rendered by the server.
+ * The expected values are quantized by the server's
+ * <code>Quantization_8_16_bit</code> strategy and combined as in the
+ * <code>RenderHSBRegionTask</code> and the <code>GreyScaleStrategy</code>
+ * when the planes are rendered as packed integers.
+ * Only the color components are compared, the server sets the alpha
+ * component of a greyscale image to the alpha of the channel.
+ *
+ * @version 3.0
+ * <small>
+ * (<b>Internal version:</b> $Revision: $Date: $)
+ * </small>
+ * @since Beta4.3
+ */
+public class TestLocalRenderer
+    extends TestCase
+{
+
+    /** The number of pixels along the X-axis. */
+    private static final int        SIZE_X = 64;
+
+    /** The number of pixels along the Y-axis. */
+    private static final int        SIZE_Y = 32;
+
+    /** The colors of the channels, some of them blended. */
+    private static final int[][]    COLORS = {
+        {255, 0, 0, 255}, {0, 255, 0, 255}, {0, 0, 255, 255},
+        {255, 255, 0, 128}, {0, 255, 255, 200}, {255, 0, 255, 64},
+        {128, 64, 255, 255}, {200, 100, 50, 150}, {90, 180, 255, 77}};
+
+    /** Generates the pixel values. */
+    private Random      random;
+
+    /**
+     * Returns the number of bytes per pixel of the specified type.
+     *
+     * @param type The type of pixels.
+     * @return See above.
+     */
+    private int getBytesPerPixel(String type)
+    {
+        if (type.endsWith("int8")) return 1;
+        if (type.endsWith("int16")) return 2;
+        if ("double".equals(type)) return 8;
+        return 4;
+    }
+
+    /**
+     * Creates a plane of random values between the specified bounds,
+     * in big-endian order as returned by the server.
+     *
+     * @param type  The type of pixels.
+     * @param min   The smallest value.
+     * @param max   The largest value.
+     * @return See above.
+     */
+    private byte[] createPlane(String type, double min, double max)
+    {
+        int n = SIZE_X*SIZE_Y;
+        ByteBuffer buf = ByteBuffer.allocate(n*getBytesPerPixel(type));
+        double v;
+        for (int i = 0; i < n; i++) {
+            v = min+random.nextDouble()*(max-min);
+            if ("float".equals(type)) buf.putFloat((float) v);
+            else if ("double".equals(type)) buf.putDouble(v);
+            else if (type.endsWith("int8")) buf.put((byte) (long) v);
+            else if (type.endsWith("int16")) buf.putShort((short) (long) v);
+            else buf.putInt((int) (long) v);
+        }
+        return buf.array();
+    }
+
+    /**
+     * Creates the rendering settings with the specified number of active
+     * channels and a linear map.
+     *
+     * @param channels  The number of channels.
+     * @param model     The color model.
+     * @return See above.
+     */
+    private RndProxyDef createSettings(int channels, String model)
+    {
+        RndProxyDef def = new RndProxyDef();
+        def.setColorModel(model);
+        def.setBitResolution(RenderingControl.DEPTH_8BIT);
+        def.setCodomain(0, 255);
+        ChannelBindingsProxy cb;
+        for (int w = 0; w < channels; w++) {
+            cb = new ChannelBindingsProxy();
+            cb.setActive(true);
+            cb.setRGBA(COLORS[w%COLORS.length]);
+            cb.setQuantization(RenderingControl.LINEAR, 1.0, false);
+            def.setChannel(w, cb);
+        }
+        return def;
+    }
+
+    /**
+     * Sets the input window of all the channels.
+     *
+     * @param def   The rendering settings.
+     * @param start The start of the window.
+     * @param end   The end of the window.
+     */
+    private void setWindow(RndProxyDef def, double start, double end)
+    {
+        for (int w = 0; w < def.getNumberOfChannels(); w++)
+            def.getChannel(w).setInterval(start, end);
+    }
+
+    /**
+     * Creates the quantum strategy of the server for the specified channel,
+     * as the <code>QuantumManager</code> does.
+     *
+     * @param def   The rendering settings.
+     * @param cb    The settings of the channel.
+     * @param type  The type of pixels.
+     * @param range The global minimum and maximum of the channel.
+     * @return See above.
+     */
+    private QuantumStrategy createStrategy(RndProxyDef def,
+            ChannelBindingsProxy cb, PixelsType type, double[] range)
+    {
+        QuantumDef qd = new QuantumDef();
+        qd.setCdStart(def.getCdStart());
+        qd.setCdEnd(def.getCdEnd());
+        qd.setBitResolution(def.getBitResolution());
+        Family family = new Family();
+        family.setValue(cb.getFamily());
+        QuantumStrategy qs = new Quantization_8_16_bit(qd, type);
+        qs.setExtent(range[0], range[1]);
+        qs.setMapping(family, cb.getCurveCoefficient(),
+                cb.isNoiseReduction());
+        qs.setWindow(cb.getInputStart(), cb.getInputEnd());
+        return qs;
+    }
+
+    /**
+     * Returns the smallest and largest values of the passed plane.
+     *
+     * @param data The plane to handle.
+     * @return See above.
+     */
+    private double[] getRange(PixelData data)
+    {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double v;
+        for (int i = 0; i < data.size(); i++) {
+            v = data.getPixelValue(i);
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        return new double[] {min, max};
+    }
+
+    /**
+     * Creates the metadata of a channel.
+     *
+     * @param w     The index of the channel.
+     * @param range The global minimum and maximum of the channel.
+     * @return See above.
+     */
+    private ChannelData createChannel(int w, double[] range)
+    {
+        StatsInfoI stats = new StatsInfoI();
+        stats.setGlobalMin(rtypes.rdouble(range[0]));
+        stats.setGlobalMax(rtypes.rdouble(range[1]));
+        ChannelI channel = new ChannelI();
+        channel.setStatsInfo(stats);
+        return new ChannelData(w, channel);
+    }
+
+    /**
+     * Adds the quantized values of a channel to the image, as the
+     * <code>RenderHSBRegionTask</code> does. The alphaless and primary
+     * color optimizations of the server give the same values.
+     *
+     * @param values    The quantized values.
+     * @param color     The color of the channel.
+     * @param buf       The image.
+     */
+    private void renderHSB(byte[] values, int[] color, int[] buf)
+    {
+        double redRatio = color[0] > 0 ? color[0]/255.0 : 0.0;
+        double greenRatio = color[1] > 0 ? color[1]/255.0 : 0.0;
+        double blueRatio = color[2] > 0 ? color[2]/255.0 : 0.0;
+        float alpha = new Integer(color[3]).floatValue()/255;
+        int discreteValue, newRValue, newGValue, newBValue;
+        int rValue, gValue, bValue;
+        for (int i = 0; i < buf.length; i++) {
+            discreteValue = values[i] & 0xFF;
+            newRValue = (int) (redRatio*discreteValue);
+            newGValue = (int) (greenRatio*discreteValue);
+            newBValue = (int) (blueRatio*discreteValue);
+            newRValue *= alpha;
+            newGValue *= alpha;
+            newBValue *= alpha;
+            rValue = ((buf[i] & 0x00FF0000) >> 16)+newRValue;
+            gValue = ((buf[i] & 0x0000FF00) >> 8)+newGValue;
+            bValue = (buf[i] & 0x000000FF)+newBValue;
+            if (rValue > 255) rValue = 255;
+            if (gValue > 255) gValue = 255;
+            if (bValue > 255) bValue = 255;
+            buf[i] = 0xFF000000 | rValue << 16 | gValue << 8 | bValue;
+        }
+    }
+
+    /**
+     * Writes the quantized values of a channel into the image, as the
+     * <code>GreyScaleStrategy</code> does.
+     *
+     * @param values    The quantized values.
+     * @param alpha     The alpha component of the channel.
+     * @param buf       The image.
+     */
+    private void renderGreyScale(byte[] values, int alpha, int[] buf)
+    {
+        int discreteValue;
+        for (int i = 0; i < buf.length; i++) {
+            discreteValue = values[i] & 0xFF;
+            buf[i] = alpha << 24 | discreteValue << 16 | discreteValue << 8
+                    | discreteValue;
+        }
+    }
+
+    /**
+     * Renders the planes with the server's algorithm and with the
+     * {@link LocalRenderer} and checks that the images are the same.
+     *
+     * @param type      The type of pixels.
+     * @param planes    The raw planes, one per channel.
+     * @param def       The rendering settings.
+     * @throws Exception If an error occurred while rendering.
+     */
+    private void assertSameImage(String type, final byte[][] planes,
+            RndProxyDef def)
+        throws Exception
+    {
+        int n = SIZE_X*SIZE_Y;
+        PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue(type);
+        boolean grey = RenderingControl.GREY_SCALE.equals(
+                def.getColorModel());
+        ChannelData[] metadata = new ChannelData[planes.length];
+        int[] expected = new int[n];
+        byte[] values = new byte[n];
+        boolean rendered = false;
+        PixelData data;
+        double[] range;
+        ChannelBindingsProxy cb;
+        QuantumStrategy qs;
+        for (int w = 0; w < planes.length; w++) {
+            data = new PixelData(type, ByteBuffer.wrap(planes[w]));
+            range = getRange(data);
+            metadata[w] = createChannel(w, range);
+            cb = def.getChannel(w);
+            qs = createStrategy(def, cb, pixelsType, range);
+            if (!cb.isActive() || (grey && rendered)) continue;
+            qs.quantize(data, 0, n, values, 0);
+            if (grey) renderGreyScale(values, cb.getRGBA()[3], expected);
+            else renderHSB(values, cb.getRGBA(), expected);
+            rendered = true;
+        }
+        LocalRenderer renderer = new LocalRenderer(null, 1L, type, SIZE_X,
+                SIZE_Y, metadata) {
+            byte[] loadPlane(int w) { return planes[w]; }
+        };
+        int[] actual = renderer.render(0, 0, def);
+        for (int i = 0; i < n; i++)
+            assertEquals(type+" pixel ("+i%SIZE_X+", "+i/SIZE_X+")",
+                    Integer.toHexString(expected[i] & 0xFFFFFF),
+                    Integer.toHexString(actual[i] & 0xFFFFFF));
+    }
+
+    /**
+     * Renders planes of the specified type with values between the passed
+     * bounds, using the passed window and a window covering a part of it.
+     * The window must be supported by the server i.e. must fit in the
+     * range of the type.
+     *
+     * @param type  The type of pixels.
+     * @param min   The smallest value.
+     * @param max   The largest value.
+     * @param start The start of the window.
+     * @param end   The end of the window.
+     * @throws Exception If an error occurred while rendering.
+     */
+    private void assertSameImages(String type, double min, double max,
+            double start, double end)
+        throws Exception
+    {
+        byte[][] planes = new byte[3][];
+        for (int w = 0; w < planes.length; w++)
+            planes[w] = createPlane(type, min, max);
+        RndProxyDef def = createSettings(planes.length, RenderingControl.RGB);
+        setWindow(def, start, end);
+        assertSameImage(type, planes, def);
+        double range = end-start;
+        setWindow(def, start+range/4, end-range/3);
+        assertSameImage(type, planes, def);
+    }
+
+    /**
+     * Sets the seed of the random values so that the tests are repeatable.
+     * @see TestCase#setUp()
+     */
+    protected void setUp()
+    {
+        random = new Random(0);
+    }
+
+    /**
+     * Tests the unsigned types. The 32-bit values of the last plane do
+     * not fit in the lookup table.
+     * @throws Exception If an error occurred while rendering.
+     */
+    public void testUnsignedTypes()
+        throws Exception
+    {
+        assertSameImages("uint8", 0, 255, 0, 255);
+        assertSameImages("uint8", 20, 90, 10, 100);
+        assertSameImages("uint16", 0, 65535, 0, 65535);
+        assertSameImages("uint16", 1000, 4000, 500, 5000);
+        assertSameImages("uint32", 0, 60000, 0, 65535);
+        assertSameImages("uint32", 0, 4000000000.0, 0, 65535);
+    }
+
+    /**
+     * Tests the signed types with negative and positive values. The 32-bit
+     * values of the last plane do not fit in the lookup table.
+     * @throws Exception If an error occurred while rendering.
+     */
+    public void testSignedTypes()
+        throws Exception
+    {
+        assertSameImages("int8", -128, 127, -128, 127);
+        assertSameImages("int8", -60, 10, -100, 50);
+        assertSameImages("int16", -32768, 32767, -32768, 32767);
+        assertSameImages("int16", -3000, -500, -4000, 0);
+        assertSameImages("int32", -30000, 30000, -32768, 32767);
+        assertSameImages("int32", -2000000000, 2000000000, -32768, 32767);
+    }
+
+    /**
+     * Tests the floating point types. The values of the last plane of each
+     * type do not fit in the lookup table.
+     * @throws Exception If an error occurred while rendering.
+     */
+    public void testFloatingPointTypes()
+        throws Exception
+    {
+        assertSameImages("float", 0, 1, 0, 1);
+        assertSameImages("float", -100.5, 5000.25, -200, 6000);
+        assertSameImages("float", -1000000, 1000000, 0, 32767);
+        assertSameImages("double", 0.5, 60000, 0, 65535);
+        assertSameImages("double", -20.75, 300.5, -50, 400);
+        assertSameImages("double", -1e9, 1e9, 0, 32767);
+    }
+
+    /**
+     * Tests more than four channels: the channels are added up in several
+     * passes and the colors overflow.
+     * @throws Exception If an error occurred while rendering.
+     */
+    public void testMoreThanFourChannels()
+        throws Exception
+    {
+        byte[][] planes = new byte[COLORS.length][];
+        for (int w = 0; w < planes.length; w++)
+            planes[w] = createPlane("uint16", 0, 4095);
+        RndProxyDef def = createSettings(planes.length, RenderingControl.RGB);
+        setWindow(def, 0, 1000);
+        assertSameImage("uint16", planes, def);
+        setWindow(def, 0, 4095);
+        assertSameImage("uint16", planes, def);
+        for (int w = 0; w < planes.length; w++)
+            def.getChannel(w).setRGBA(255, 255, 255, 255);
+        assertSameImage("uint16", planes, def);
+        def.getChannel(2).setActive(false);
+        def.getChannel(5).setActive(false);
+        assertSameImage("uint16", planes, def);
+    }
+
+    /**
+     * Tests the mapping families.
+     * @throws Exception If an error occurred while rendering.
+     */
+    public void testFamilies()
+        throws Exception
+    {
+        byte[][] planes = new byte[3][];
+        for (int w = 0; w < planes.length; w++)
+            planes[w] = createPlane("uint16", 100, 3000);
+        RndProxyDef def = createSettings(planes.length, RenderingControl.RGB);
+        setWindow(def, 200, 2500);
+        String[] families = {RenderingControl.LINEAR,
+                RenderingControl.POLYNOMIAL, RenderingControl.EXPONENTIAL,
+                RenderingControl.LOGARITHMIC};
+        double[] coefficients = {0.5, 1.0, 2.0};
+        for (int i = 0; i < families.length; i++) {
+            for (int j = 0; j < coefficients.length; j++) {
+                for (int w = 0; w < planes.length; w++)
+                    def.getChannel(w).setQuantization(families[i],
+                            coefficients[j], false);
+                assertSameImage("uint16", planes, def);
+            }
+        }
+    }
+
+    /**
+     * Tests the noise reduction with windows inside and outside of the
+     * deciles.
+     * @throws Exception If an error occurred while rendering.
+     */
+    public void testNoiseReduction()
+        throws Exception
+    {
+        byte[][] planes = new byte[3][];
+        for (int w = 0; w < planes.length; w++)
+            planes[w] = createPlane("int16", -1000, 1000);
+        RndProxyDef def = createSettings(planes.length, RenderingControl.RGB);
+        for (int w = 0; w < planes.length; w++)
+            def.getChannel(w).setQuantization(RenderingControl.LINEAR, 1.0,
+                    true);
+        double[][] windows = {{-1000, 1000}, {-500, 500}, {-950, 0},
+                {0, 950}, {-2000, 2000}};
+        for (int i = 0; i < windows.length; i++) {
+            setWindow(def, windows[i][0], windows[i][1]);
+            assertSameImage("int16", planes, def);
+        }
+    }
+
+    /**
+     * Tests a codomain interval and bit resolutions other than the default.
+     * @throws Exception If an error occurred while rendering.
+     */
+    public void testCodomainAndBitResolution()
+        throws Exception
+    {
+        byte[][] planes = new byte[3][];
+        for (int w = 0; w < planes.length; w++)
+            planes[w] = createPlane("uint8", 0, 255);
+        RndProxyDef def = createSettings(planes.length, RenderingControl.RGB);
+        setWindow(def, 10, 240);
+        def.setCodomain(20, 200);
+        assertSameImage("uint8", planes, def);
+        def.setBitResolution(RenderingControl.DEPTH_4BIT);
+        assertSameImage("uint8", planes, def);
+        def.setCodomain(0, 255);
+        def.setBitResolution(RenderingControl.DEPTH_2BIT);
+        assertSameImage("uint8", planes, def);
+    }
+
+    /**
+     * Tests the greyscale model: only the first active channel is rendered.
+     * @throws Exception If an error occurred while rendering.
+     */
+    public void testGreyScale()
+        throws Exception
+    {
+        byte[][] planes = new byte[3][];
+        for (int w = 0; w < planes.length; w++)
+            planes[w] = createPlane("int16", -5000, 5000);
+        RndProxyDef def = createSettings(planes.length,
+                RenderingControl.GREY_SCALE);
+        setWindow(def, -4000, 3000);
+        assertSameImage("int16", planes, def);
+        def.getChannel(0).setActive(false);
+        def.getChannel(1).setRGBA(255, 0, 0, 100);
+        assertSameImage("int16", planes, def);
+    }
+
+    /**
+     * Tests an image without active channels.
+     * @throws Exception If an error occurred while rendering.
+     */
+    public void testNoActiveChannel()
+        throws Exception
+    {
+        byte[][] planes = {createPlane("uint8", 0, 255)};
+        RndProxyDef def = createSettings(planes.length, RenderingControl.RGB);
+        setWindow(def, 0, 255);
+        def.getChannel(0).setActive(false);
+        assertSameImage("uint8", planes, def);
+    }
+
+}
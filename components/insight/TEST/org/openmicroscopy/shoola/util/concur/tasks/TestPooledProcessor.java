@@ -0,0 +1,233 @@
+/*
+ * org.openmicroscopy.shoola.util.concur.tasks.TestPooledProcessor
+ *
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2006-2011 University of Dundee. All rights reserved.
+ *
+ *
+ * 	This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+
+package org.openmicroscopy.shoola.util.concur.tasks;
+
+
+//Java imports
+import java.util.ArrayList;
+import java.util.List;
+
+//Third-party libraries
+import junit.framework.TestCase;
+
+//Application-internal dependencies
+
+/**
+ * Verifies that {@link PooledProcessor} bounds the number of threads and
+ * of running services per group, runs the higher priority services first
+ * and discards the services cancelled while queued.
+ *
+ * @version 3.0
+ * <small>
+ * (<b>Internal version:</b> $Revision: $Date: $)
+ * </small>
+ * @since 3.0-Beta4
+ */
+public class TestPooledProcessor
+    extends TestCase
+{
+
+    /** Maximum time, in milliseconds, to wait for a service. */
+    private static final long   TIMEOUT = 5000;
+
+    private PooledProcessor     target;  //Object to test.
+
+    private List<String>        started;  //Names of the started services.
+
+    private Object              gate;  //Blocking services wait on it.
+
+    private boolean             open;  //Tells if the gate is open.
+
+    /** A service which records its start and waits for the gate to open. */
+    private class Service
+        implements Runnable
+    {
+        private final String name;
+        Service(String name) { this.name = name; }
+        public void run()
+        {
+            synchronized (started) {
+                started.add(name);
+                started.notifyAll();
+            }
+            synchronized (gate) {
+                long end = System.currentTimeMillis()+TIMEOUT;
+                while (!open && System.currentTimeMillis() < end) {
+                    try {
+                        gate.wait(end-System.currentTimeMillis());
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private Future exec(String name, int priority, Object group)
+    {
+        return target.exec(new TaskAdapter(new Service(name)), null, null,
+                            priority, group);
+    }
+
+    private void waitForStarted(int n)
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis()+TIMEOUT;
+        synchronized (started) {
+            while (started.size() < n && System.currentTimeMillis() < end)
+                started.wait(end-System.currentTimeMillis());
+        }
+        assertEquals("Wrong number of started services.", n, started.size());
+    }
+
+    private void openGate()
+    {
+        synchronized (gate) {
+            open = true;
+            gate.notifyAll();
+        }
+    }
+
+    private void waitForCompleted(long n)
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis()+TIMEOUT;
+        while (target.getCompletedCount() < n &&
+                System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        assertEquals("Wrong number of completed services.", n,
+                    target.getCompletedCount());
+    }
+
+    public void setUp()
+    {
+        started = new ArrayList<String>();
+        gate = new Object();
+        open = false;
+    }
+
+    public void tearDown()
+    {
+        openGate();
+        if (target != null) target.terminate(TIMEOUT);
+    }
+
+    public void testMaxThreads()
+        throws Exception
+    {
+        target = new PooledProcessor(2, 10);
+        for (int i = 0; i < 5; i++)
+            exec("s"+i, CmdProcessor.NORMAL_PRIORITY, null);
+        waitForStarted(2);
+        Thread.sleep(100);
+        assertEquals("Should only have 2 threads.", 2,
+                    target.getThreadCount());
+        assertEquals("Only 2 services should have started.", 2,
+                    started.size());
+        assertEquals(3, target.getQueuedCount());
+        openGate();
+        waitForCompleted(5);
+        assertEquals(5, started.size());
+    }
+
+    public void testMaxPerGroup()
+        throws Exception
+    {
+        target = new PooledProcessor(4, 1);
+        exec("a1", CmdProcessor.NORMAL_PRIORITY, "a");
+        exec("a2", CmdProcessor.NORMAL_PRIORITY, "a");
+        exec("b1", CmdProcessor.NORMAL_PRIORITY, "b");
+        waitForStarted(2);
+        Thread.sleep(100);
+        assertEquals(2, started.size());
+        assertTrue("Other groups should not wait.", started.contains("b1"));
+        assertFalse("Only one service per group.", started.contains("a2"));
+        openGate();
+        waitForCompleted(3);
+        assertTrue(started.contains("a2"));
+    }
+
+    public void testPriority()
+        throws Exception
+    {
+        target = new PooledProcessor(1, 10);
+        exec("first", CmdProcessor.NORMAL_PRIORITY, null);
+        waitForStarted(1);
+        exec("low", CmdProcessor.LOW_PRIORITY, null);
+        exec("normal", CmdProcessor.NORMAL_PRIORITY, null);
+        exec("high", CmdProcessor.HIGH_PRIORITY, null);
+        openGate();
+        waitForCompleted(4);
+        assertEquals("high", started.get(1));
+        assertEquals("normal", started.get(2));
+        assertEquals("low", started.get(3));
+    }
+
+    public void testCancelQueued()
+        throws Exception
+    {
+        target = new PooledProcessor(1, 10);
+        exec("first", CmdProcessor.NORMAL_PRIORITY, null);
+        waitForStarted(1);
+        Future queued = exec("queued", CmdProcessor.NORMAL_PRIORITY, null);
+        queued.cancelExecution();
+        assertNull("Cancelled service has no result.", queued.getResult());
+        exec("last", CmdProcessor.NORMAL_PRIORITY, null);
+        openGate();
+        waitForCompleted(2);
+        assertFalse("Cancelled service should not run.",
+                    started.contains("queued"));
+        assertTrue(started.contains("last"));
+    }
+
+    public void testCancelRunning()
+        throws Exception
+    {
+        target = new PooledProcessor(1, 10);
+        Future running = exec("running", CmdProcessor.NORMAL_PRIORITY, null);
+        waitForStarted(1);
+        running.cancelExecution();
+        waitForCompleted(1);
+        //The thread is reused and must not be left interrupted.
+        openGate();
+        Future next = exec("next", CmdProcessor.NORMAL_PRIORITY, null);
+        waitForCompleted(2);
+        assertTrue(started.contains("next"));
+        assertNotNull("Next service should have completed.",
+                    next.getResult());
+    }
+
+    public void testTerminate()
+        throws Exception
+    {
+        target = new PooledProcessor(2, 10);
+        exec("s", CmdProcessor.NORMAL_PRIORITY, null);
+        waitForStarted(1);
+        assertTrue("Threads should have exited.", target.terminate(TIMEOUT));
+        Future rejected = exec("rejected", CmdProcessor.NORMAL_PRIORITY, null);
+        assertNull(rejected.getResult());
+        assertFalse(started.contains("rejected"));
+    }
+
+}
@@ -35,9 +35,11 @@ public class LSID
 	
 	/** 
 	 * The collator that we use to alphabetically sort by class name
-	 * within a given level of the OME-XML hierarchy.
+	 * within a given level of the OME-XML hierarchy. Shared by all
+	 * instances as it is costly to create and imports build one LSID per
+	 * reference; its compare method is synchronized.
 	 */
-	private final RuleBasedCollator stringComparator = 
+	private static final RuleBasedCollator stringComparator = 
 		(RuleBasedCollator) Collator.getInstance(Locale.ENGLISH);
 	
 	/**
@@ -180,7 +182,9 @@ public class LSID
 			Class comparatorClass = comparator.getJavaClass();
 			if (comparatorClass == null || klass == null)
 			{
-				return stringComparator.compare(asString, obj.toString()) == 0;
+				String other = obj.toString();
+				return asString.equals(other)
+					|| stringComparator.compare(asString, other) == 0;
 			}
 			if (comparatorClass.equals(klass))
 			{
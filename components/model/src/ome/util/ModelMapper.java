@@ -145,18 +145,23 @@ public abstract class ModelMapper extends ContextFilter {
                 }
 
             } else {
-                targetType = findClass(currentType);
+                target = createTarget(currentType);
 
-                if (null == targetType) {
-                    throw new InternalException("Cannot handle type:" + current);
-                }
+                if (null == target) {
+                    targetType = findClass(currentType);
 
-                try {
-                    target = targetType.newInstance();
-                } catch (Exception e) {
-                    log.error("Error creating new instance of target type"
-                            + current, e);
-                    throwOnNewInstanceException(current, targetType, e);
+                    if (null == targetType) {
+                        throw new InternalException("Cannot handle type:"
+                                + current);
+                    }
+
+                    try {
+                        target = targetType.newInstance();
+                    } catch (Exception e) {
+                        log.error("Error creating new instance of target type"
+                                + current, e);
+                        throwOnNewInstanceException(current, targetType, e);
+                    }
                 }
 
             }
@@ -165,6 +170,16 @@ public abstract class ModelMapper extends ContextFilter {
         return target;
     }
 
+    /**
+     * extension point which subclasses can override to instantiate the
+     * target for a non-array source type without reflection, e.g. from
+     * generated code. If null is returned, the class found via {@link #c2c()}
+     * is instantiated reflectively.
+     */
+    protected Object createTarget(Class currentType) {
+        return null;
+    }
+
     public Collection findCollection(Collection source) {
         if (source == null) {
             return null;
@@ -9,6 +9,7 @@ package ome.util;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -18,6 +19,8 @@ import java.util.Set;
 
 import ome.conditions.InternalException;
 import ome.model.core.Channel;
+import ome.model.core.Pixels;
+import ome.model.core.PlaneInfo;
 import ome.model.internal.Details;
 import ome.model.stats.StatsInfo;
 
@@ -45,6 +48,11 @@ import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
  */
 public interface SqlAction {
 
+    /**
+     * Name of the channel notified when event logs are inserted.
+     */
+    public final static String EVENTLOG_CHANNEL = "eventlog";
+
     public static class IdRowMapper implements RowMapper<Long> {
         public Long mapRow(ResultSet rs, int rowNum) throws SQLException {
             return rs.getLong(1);
@@ -179,6 +187,11 @@ public interface SqlAction {
 
     long currValue(String segmentName);
 
+    /**
+     * Inserts the given event logs and notifies the processes listening on
+     * the {@link #EVENTLOG_CHANNEL} channel once the current transaction
+     * commits.
+     */
     void insertLogs(List<Object[]> batchData);
 
     List<Map<String, Object>> roiByImageAndNs(final long imageId,
@@ -207,6 +220,17 @@ public interface SqlAction {
 
     long setStatsInfo(Channel ch, StatsInfo si);
 
+    /**
+     * Inserts the given new plane infos with JDBC batches, bypassing
+     * Hibernate. Each must be linked to a saved {@link Pixels} set whose
+     * details it takes, as it would have if saved along with the Pixels.
+     * The ids are taken from seq_planeinfo as a single block and set on
+     * the instances. No {@link ome.model.meta.EventLog} is created.
+     *
+     * @return the ids of the new rows, in the order of the list.
+     */
+    List<Long> insertPlaneInfos(List<PlaneInfo> planeInfos);
+
     // TODO this should probably return an iterator.
     List<Long> getDeletedIds(String entityType);
 
@@ -394,6 +418,43 @@ public interface SqlAction {
             return id;
         }
 
+        /**
+         * SQL types of the columns of insert_plane_infos, several of which
+         * may be null.
+         */
+        private final int[] planeInfoTypes = new int[] { Types.BIGINT,
+                Types.BIGINT, Types.DOUBLE, Types.DOUBLE, Types.DOUBLE,
+                Types.DOUBLE, Types.DOUBLE, Types.INTEGER, Types.INTEGER,
+                Types.INTEGER, Types.BIGINT, Types.BIGINT, Types.BIGINT,
+                Types.BIGINT, Types.BIGINT };
+
+        public List<Long> insertPlaneInfos(List<PlaneInfo> planeInfos) {
+            final int count = planeInfos.size();
+            final List<Long> ids = new ArrayList<Long>(count);
+            if (count == 0) {
+                return ids;
+            }
+            long id = nextValue("seq_planeinfo", count) - count + 1;
+            final List<Object[]> batchData = new ArrayList<Object[]>(count);
+            for (PlaneInfo pi : planeInfos) {
+                final Pixels p = pi.getPixels();
+                final Details d = p.getDetails();
+                pi.setId(id);
+                ids.add(id);
+                batchData.add(new Object[] { id++,
+                        Utils.internalForm(d.getPermissions()),
+                        pi.getDeltaT(), pi.getExposureTime(),
+                        pi.getPositionX(), pi.getPositionY(),
+                        pi.getPositionZ(), pi.getTheC(), pi.getTheT(),
+                        pi.getTheZ(), d.getCreationEvent().getId(),
+                        d.getGroup().getId(), d.getOwner().getId(),
+                        d.getUpdateEvent().getId(), p.getId() });
+            }
+            _jdbc().batchUpdate(_lookup("insert_plane_infos"), //$NON-NLS-1$
+                    batchData, planeInfoTypes);
+            return ids;
+        }
+
 
         //
         // CONFIGURATION
@@ -9,6 +9,12 @@ package ome.util;
 
 import java.io.Serializable;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -23,18 +29,65 @@ import org.hibernate.type.Type;
  * OMERO-specific id generation strategy. Combines both {@link TableGenerator}
  * and {@link OptimizerFactory.PooledOptimizer} into a single class because of
  * weirdness in their implementation. Instead, uses our own ome_nextval(?,?)
- * method to keep the Hibernate sequence values ({@link #hiValue}) in sync with
- * the database values.
+ * method to keep the Hibernate sequence values in sync with the database
+ * values.
+ *
+ * Ids are handed out from the current {@link Block} without locking, so that
+ * parallel imports only contend on the generator when a block is used up.
+ * The size of the blocks defaults to the increment size of the mapping and
+ * can be changed via {@link #setBlockSize(int)}. If an {@link Executor} is
+ * set via {@link #setPrefetcher(Executor)}, the next block is loaded in the
+ * background once half of the current block has been used. Such a block is
+ * loaded outside of any transaction and so cannot be rolled back.
  */
 public class TableIdGenerator extends TableGenerator {
 
     private final static Log log = LogFactory.getLog(TableIdGenerator.class);
 
-    long value;
+    /**
+     * Range of ids returned by a single call to ome_nextval.
+     */
+    static class Block {
+
+        final AtomicLong next;
+
+        final long last;
+
+        /**
+         * Id whose generation triggers the prefetch of the next block.
+         */
+        final long prefetchAt;
+
+        Block(long hiValue, int size) {
+            this.last = hiValue;
+            this.next = new AtomicLong(hiValue - size + 1);
+            this.prefetchAt = hiValue - size / 2;
+        }
+
+    }
+
+    /**
+     * Guards the loading of new blocks and {@link #prefetched}.
+     */
+    private final Object lock = new Object();
+
+    private volatile Block block;
+
+    private FutureTask<Block> prefetched;
+
+    private volatile int blockSize = 0;
+
+    private volatile Executor prefetcher;
 
-    long hiValue = -1;
+    private volatile SqlAction sql = null;
 
-    private SqlAction sql = null;
+    private final AtomicLong generated = new AtomicLong();
+
+    private final AtomicLong blocks = new AtomicLong();
+
+    private final AtomicLong waits = new AtomicLong();
+
+    private final AtomicLong waitTime = new AtomicLong();
 
     @Override
     public void configure(Type type, Properties params, Dialect dialect)
@@ -46,19 +99,162 @@ public class TableIdGenerator extends TableGenerator {
         this.sql = sql;
     }
 
-    public synchronized Serializable generate(final SessionImplementor session,
+    /**
+     * Sets the number of ids fetched from the database at once. A value
+     * less than 1 uses the increment size of the mapping. Takes effect with
+     * the next block.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public int getBlockSize() {
+        int size = blockSize;
+        return size > 0 ? size : getIncrementSize();
+    }
+
+    /**
+     * Sets the {@link Executor} used to load the next block in the
+     * background. Null, the default, disables prefetching.
+     */
+    public void setPrefetcher(Executor prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    public Serializable generate(final SessionImplementor session,
             Object obj) {
 
-        if (hiValue < 0 || value >= hiValue) {
-            hiValue = sql.nextValue(getSegmentValue(), getIncrementSize());
-            if (log.isDebugEnabled()) {
-                log.debug("Loaded new hiValue " + hiValue + " for "
-                        + getSegmentValue());
+        generated.incrementAndGet();
+        Block current = block;
+        while (true) {
+            if (current != null) {
+                long value = current.next.getAndIncrement();
+                if (value <= current.last) {
+                    if (value == current.prefetchAt) {
+                        prefetch();
+                    }
+                    return value;
+                }
             }
-            value = hiValue - getIncrementSize();
+            current = refill(current);
+        }
+    }
+
+    //
+    // Statistics
+    //
+
+    /**
+     * Number of ids generated.
+     */
+    public long getGenerated() {
+        return generated.get();
+    }
+
+    /**
+     * Number of blocks loaded from the database, including prefetched ones.
+     */
+    public long getBlocks() {
+        return blocks.get();
+    }
+
+    /**
+     * Number of times a thread found the current block used up and had to
+     * wait for a new one.
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * Total time in nanoseconds threads spent waiting for a new block,
+     * including the time waiting for the lock.
+     */
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Replaces the given block with the prefetched one, or with a newly
+     * loaded one, unless another thread has already done so.
+     */
+    private Block refill(Block exhausted) {
+        final long start = System.nanoTime();
+        try {
+            synchronized (lock) {
+                if (block == exhausted) {
+                    Block next = takePrefetched();
+                    if (next == null) {
+                        next = fetch();
+                    }
+                    block = next;
+                }
+                return block;
+            }
+        } finally {
+            waits.incrementAndGet();
+            waitTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void prefetch() {
+        final Executor executor = prefetcher;
+        if (executor == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (prefetched != null) {
+                return;
+            }
+            FutureTask<Block> task = new FutureTask<Block>(
+                    new Callable<Block>() {
+                        public Block call() throws Exception {
+                            return fetch();
+                        }
+                    });
+            try {
+                executor.execute(task);
+                prefetched = task;
+            } catch (RejectedExecutionException ree) {
+                log.debug("Prefetch rejected for " + getSegmentValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the prefetched block, waiting for it if necessary, or null if
+     * there is none or it could not be loaded. Must hold {@link #lock}.
+     */
+    private Block takePrefetched() {
+        FutureTask<Block> task = prefetched;
+        if (task == null) {
+            return null;
+        }
+        prefetched = null;
+        try {
+            return task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            log.warn("Failed to prefetch ids for " + getSegmentValue(), ee
+                    .getCause());
+        }
+        return null;
+    }
+
+    private Block fetch() {
+        final int size = getBlockSize();
+        final long hiValue = sql.nextValue(getSegmentValue(), size);
+        blocks.incrementAndGet();
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded new hiValue " + hiValue + " for "
+                    + getSegmentValue() + " (block size " + size + ")");
         }
-        value++;
-        return value;
+        return new Block(hiValue, size);
     }
 
 }
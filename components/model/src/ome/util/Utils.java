@@ -198,7 +198,8 @@ public class Utils {
             fis = new FileInputStream(fileName);
             bis = new BufferedInputStream(fis);
             dis = new DigestInputStream(bis,sha1);
-            while (dis.read() != -1);
+            byte[] buf = new byte[65536];
+            while (dis.read(buf) != -1);
             return sha1.digest();
         } catch (IOException io) {
             throw new RuntimeException(io);
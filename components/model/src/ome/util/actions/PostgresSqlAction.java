@@ -262,6 +262,7 @@ public class PostgresSqlAction extends SqlAction.Impl {
 
     public void insertLogs(List<Object[]> batchData) {
         _jdbc().batchUpdate(_lookup("insert_logs"), batchData); //$NON-NLS-1$
+        _jdbc().update(_lookup("notify_logs")); //$NON-NLS-1$
     }
 
     public List<Map<String, Object>> roiByImageAndNs(final long imageId,
@@ -0,0 +1,153 @@
+/*
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.util.utests;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+import ome.util.SqlAction;
+import ome.util.TableIdGenerator;
+
+import org.hibernate.cfg.DefaultNamingStrategy;
+import org.hibernate.cfg.NamingStrategy;
+import org.hibernate.cfg.ObjectNameNormalizer;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.type.LongType;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the block allocation of {@link TableIdGenerator} against an in-memory
+ * version of ome_nextval.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class TableIdGeneratorTest extends TestCase {
+
+    /** Implements ome_nextval for a single sequence. */
+    static class Sequence implements InvocationHandler {
+
+        final AtomicLong nextVal = new AtomicLong(1);
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (!method.getName().equals("nextValue")) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            calls.incrementAndGet();
+            int increment = (Integer) args[1];
+            return nextVal.getAndAdd(increment) + increment - 1;
+        }
+
+        SqlAction proxy() {
+            return (SqlAction) Proxy.newProxyInstance(getClass()
+                    .getClassLoader(), new Class[] { SqlAction.class }, this);
+        }
+    }
+
+    TableIdGenerator generator(Sequence seq, int increment) {
+        Properties params = new Properties();
+        params.put(TableGenerator.SEGMENT_VALUE_PARAM, "seq_test");
+        params.put(TableGenerator.INCREMENT_PARAM, "" + increment);
+        params.put(PersistentIdentifierGenerator.IDENTIFIER_NORMALIZER,
+                new ObjectNameNormalizer() {
+                    protected boolean isUseQuotedIdentifiersGlobally() {
+                        return false;
+                    }
+
+                    protected NamingStrategy getNamingStrategy() {
+                        return DefaultNamingStrategy.INSTANCE;
+                    }
+                });
+        TableIdGenerator gen = new TableIdGenerator();
+        gen.configure(new LongType(), params, new PostgreSQLDialect());
+        gen.setSqlAction(seq.proxy());
+        return gen;
+    }
+
+    long next(TableIdGenerator gen) {
+        return (Long) gen.generate(null, null);
+    }
+
+    @Test
+    public void testIdsAreConsecutive() {
+        Sequence seq = new Sequence();
+        TableIdGenerator gen = generator(seq, 5);
+        for (long i = 1; i <= 12; i++) {
+            assertEquals(i, next(gen));
+        }
+        assertEquals(3, seq.calls.get());
+        assertEquals(12, gen.getGenerated());
+        assertEquals(3, gen.getBlocks());
+    }
+
+    @Test
+    public void testBlockSizeOverridesIncrement() {
+        Sequence seq = new Sequence();
+        TableIdGenerator gen = generator(seq, 5);
+        gen.setBlockSize(100);
+        for (int i = 0; i < 100; i++) {
+            next(gen);
+        }
+        assertEquals(1, seq.calls.get());
+        assertEquals(101, seq.nextVal.get());
+    }
+
+    @Test
+    public void testPrefetchedBlockIsUsed() {
+        Sequence seq = new Sequence();
+        TableIdGenerator gen = generator(seq, 10);
+        final AtomicInteger prefetches = new AtomicInteger();
+        gen.setPrefetcher(new Executor() {
+            public void execute(Runnable command) {
+                prefetches.incrementAndGet();
+                command.run();
+            }
+        });
+        for (long i = 1; i <= 25; i++) {
+            assertEquals(i, next(gen));
+        }
+        // Halfway through the third block its successor was loaded.
+        assertEquals(3, prefetches.get());
+        assertEquals(4, seq.calls.get());
+    }
+
+    @Test
+    public void testConcurrentIdsAreUnique() throws Exception {
+        final Sequence seq = new Sequence();
+        final TableIdGenerator gen = generator(seq, 7);
+        final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            ids.add(next(gen));
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals(8000, ids.size());
+        assertEquals(8000, gen.getGenerated());
+        assertTrue(gen.getWaits() >= gen.getBlocks());
+    }
+}
@@ -85,36 +85,18 @@ class GreyScaleStrategy extends RenderingStrategy {
         byte[] r = buf.getRedBand();
         byte[] g = buf.getBlueBand();
         byte[] b = buf.getGreenBand();
-        if (plane.isXYPlanar())
-        {
-        	int planeSize = sizeX1 * sizeX2;
-            for (int i = 0; i < planeSize; i++)
-            {
-                for (x1 = 0; x1 < sizeX1; ++x1)
-                {
-                    discreteValue = qs.quantize(plane.getPixelValue(i));
-                    discreteValue = cc.transform(discreteValue);
-                    value = (byte) (discreteValue * alpha);
-                    r[i] = value;
-                    g[i] = value;
-                    b[i] = value;
-                }
+        byte[] row = new byte[sizeX1];
+        for (x2 = 0; x2 < sizeX2; ++x2) {
+            quantizeRow(plane, qs, sizeX1, 0, sizeX1, x2, row);
+            pixelIndex = sizeX1 * x2;
+            for (x1 = 0; x1 < sizeX1; ++x1, ++pixelIndex) {
+                discreteValue = cc.transform(row[x1] & 0xFF);
+                value = (byte) (discreteValue * alpha);
+                r[pixelIndex] = value;
+                g[pixelIndex] = value;
+                b[pixelIndex] = value;
             }
         }
-        else
-        {
-        	for (x2 = 0; x2 < sizeX2; ++x2) {
-        		for (x1 = 0; x1 < sizeX1; ++x1) {
-        			pixelIndex = sizeX1 * x2 + x1;
-        			discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-        			discreteValue = cc.transform(discreteValue);
-        			value = (byte) (discreteValue * alpha);
-        			r[pixelIndex] = value;
-        			g[pixelIndex] = value;
-        			b[pixelIndex] = value;
-        		}
-        	}
-        }
         return buf;
     }
     
@@ -166,30 +148,21 @@ class GreyScaleStrategy extends RenderingStrategy {
         int alpha = channelBinding.getAlpha();
         int[] buf = ((RGBIntBuffer) dataBuf).getDataBuffer();
         int x1, x2, discreteValue, pixelIndex;
-        if (plane.isXYPlanar())
-        {
-        	int planeSize = sizeX1 * sizeX2;
-        	for (int i = 0; i < planeSize; i++)
-        	{
-                discreteValue = qs.quantize(plane.getPixelValue(i));
-                // Right now we have no transforms being used so it's safe to
-                // comment this out for the time being.
-                //discreteValue = cc.transform(discreteValue);
-                buf[i] = alpha << 24 | discreteValue << 16
-                        | discreteValue << 8 | discreteValue;            		
-        	}
-        }
-        else
-        {
-        	for (x2 = 0; x2 < sizeX2; ++x2) {
-        		pixelIndex = sizeX1 * x2;
-        		for (x1 = 0; x1 < sizeX1; ++x1) {
-        			discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-        			discreteValue = cc.transform(discreteValue);
-        			buf[pixelIndex + x1] = alpha << 24 | discreteValue << 16
-        			| discreteValue << 8 | discreteValue;
-        		}
-        	}
+        boolean isXYPlanar = plane.isXYPlanar();
+        byte[] row = new byte[sizeX1];
+        for (x2 = 0; x2 < sizeX2; ++x2) {
+            quantizeRow(plane, qs, sizeX1, 0, sizeX1, x2, row);
+            pixelIndex = sizeX1 * x2;
+            for (x1 = 0; x1 < sizeX1; ++x1) {
+                discreteValue = row[x1] & 0xFF;
+                // Right now we have no transforms being used for XY planes
+                // so it's safe to skip this for the time being.
+                if (!isXYPlanar) {
+                    discreteValue = cc.transform(discreteValue);
+                }
+                buf[pixelIndex + x1] = alpha << 24 | discreteValue << 16
+                        | discreteValue << 8 | discreteValue;
+            }
         }
 	    return dataBuf;
 	}
@@ -226,30 +199,21 @@ class GreyScaleStrategy extends RenderingStrategy {
         int alpha = channelBinding.getAlpha();
         int[] buf = ((RGBAIntBuffer) dataBuf).getDataBuffer();
         int x1, x2, discreteValue, pixelIndex;
-        if (plane.isXYPlanar())
-        {
-        	int planeSize = sizeX1 * sizeX2;
-        	for (int i = 0; i < planeSize; i++)
-        	{
-                discreteValue = qs.quantize(plane.getPixelValue(i));
-                // Right now we have no transforms being used so it's safe to
-                // comment this out for the time being.
-                //discreteValue = cc.transform(discreteValue);
-                buf[i] = alpha | discreteValue << 24
-                        | discreteValue << 16 | discreteValue << 8;            		
-        	}
-        }
-        else
-        {
-        	for (x2 = 0; x2 < sizeX2; ++x2) {
-        		pixelIndex = sizeX1 * x2;
-        		for (x1 = 0; x1 < sizeX1; ++x1) {
-        			discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-        			discreteValue = cc.transform(discreteValue);
-        			buf[pixelIndex + x1] = alpha | discreteValue << 24
-        			| discreteValue << 16 | discreteValue << 8;
-        		}
-        	}
+        boolean isXYPlanar = plane.isXYPlanar();
+        byte[] row = new byte[sizeX1];
+        for (x2 = 0; x2 < sizeX2; ++x2) {
+            quantizeRow(plane, qs, sizeX1, 0, sizeX1, x2, row);
+            pixelIndex = sizeX1 * x2;
+            for (x1 = 0; x1 < sizeX1; ++x1) {
+                discreteValue = row[x1] & 0xFF;
+                // Right now we have no transforms being used for XY planes
+                // so it's safe to skip this for the time being.
+                if (!isXYPlanar) {
+                    discreteValue = cc.transform(discreteValue);
+                }
+                buf[pixelIndex + x1] = alpha | discreteValue << 24
+                        | discreteValue << 16 | discreteValue << 8;
+            }
         }
 	    return dataBuf;
 	}
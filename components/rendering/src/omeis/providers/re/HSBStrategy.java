@@ -14,8 +14,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 // Third-party libraries
@@ -44,9 +43,10 @@ import omeis.providers.re.quantum.QuantumStrategy;
  * each wavelength is mapped to a color. All these things are specified by the
  * rendering context.
  * <p>
- * This strategy renders the in "regions", dividing the planar data up based
- * on {@link #maxTasks} and assigning each task to its own thread. This should
- * result in parallel rendering on multi-processor machines.
+ * This strategy renders the in "regions", dividing the planar data up into
+ * bands of rows based on {@link #maxTasks} and submitting each task to the
+ * {@link RenderingExecutor} shared by all renderers. This should result in
+ * parallel rendering on multi-processor machines, even for a single channel.
  * </p>
  * <p>
  * Thread-safety relies on the fact that the rendering context is not going to
@@ -70,18 +70,13 @@ class HSBStrategy extends RenderingStrategy {
     
     /**
      * Retrieves the maximum number of reasonable tasks to schedule based on
-     * image size and <i>maxTasks</i>.
+     * image size and <i>maxTasks</i>. Each task renders at least one row.
      * 
      * @param size The width along the X2 axis.
      * @return the number of tasks to schedule.
      */
     private int numTasks(int size) {
-        for (int i = maxTasks; i > 0; i--) {
-            if (size % i == 0) {
-                return i;
-            }
-        }
-        return 1;
+        return Math.max(1, Math.min(maxTasks, size));
     }
 
     /**
@@ -216,16 +211,17 @@ class HSBStrategy extends RenderingStrategy {
         List<Plane2D> wData = getWavelengthData(def);
         List<int[]> colors = getColors();
         List<QuantumStrategy> strategies = getStrategies();
-        // Create a number of rendering tasks.
+        // Create a number of rendering tasks, each one of them rendering a
+        // band of rows for all the wavelengths. The rows which do not divide
+        // evenly are spread across the bands.
         int taskCount = numTasks(sizeX2);
-        int delta = sizeX2/taskCount;
         int x1Start = 0;
         int x1End = sizeX1;
         int x2Start, x2End;
-        log.info("taskCount: "+taskCount+" delta: "+delta);
+        log.info("taskCount: "+taskCount+" sizeX2: "+sizeX2);
         for (int i = 0; i < taskCount; i++) {
-            x2Start = i*delta;
-            x2End = (i+1)*delta;
+            x2Start = (int) ((long) i * sizeX2 / taskCount);
+            x2End = (int) ((long) (i + 1) * sizeX2 / taskCount);
             tasks.add(new RenderHSBRegionTask(buf, wData, strategies, cc,
             		colors, renderer.getOptimizations(),
             		x1Start, x1End, x2Start, x2End));
@@ -305,17 +301,18 @@ class HSBStrategy extends RenderingStrategy {
     private void render(RGBBuffer buf, PlaneDef planeDef) throws IOException,
             QuantizationException {
         RenderingStats performanceStats = renderer.getStats();
-        // Process each active wavelength. If their number N > 1, then
-        // process N-1 async and one in the current thread. If N = 1,
-        // just use the current thread.
+        RenderingExecutor executor = renderer.getExecutor();
+        maxTasks = executor.getParallelism();
+        // Process each region. If their number N > 1, then process N-1 on
+        // the shared rendering executor and one in the current thread. If
+        // N = 1, just use the current thread.
         RenderingTask[] tasks = makeRenderingTasks(planeDef, buf);
         performanceStats.startRendering();
         int n = tasks.length;
-        Future[] rndTskFutures = new Future[n]; // [0] unused.
-        ExecutorService processor = Executors.newCachedThreadPool();
+        List<Future<Object>> rndTskFutures = new ArrayList<Future<Object>>(n);
 
         while (0 < --n) {
-            rndTskFutures[n] = processor.submit(tasks[n]);
+            rndTskFutures.add(executor.submit(performanceStats, tasks[n]));
         }
 
         // Call the task in the current thread.
@@ -324,20 +321,20 @@ class HSBStrategy extends RenderingStrategy {
         }
 
         // Wait for all forked tasks (if any) to complete.
-        for (n = 1; n < rndTskFutures.length; ++n) {
+        for (Future<Object> future : rndTskFutures) {
             try {
-                rndTskFutures[n].get();
-            } catch (Exception e) {
-                if (e instanceof QuantizationException) {
-                    throw (QuantizationException) e;
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable t = e.getCause();
+                if (t instanceof QuantizationException) {
+                    throw (QuantizationException) t;
                 }
+                throw new RuntimeException(t);
+            } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
         }
 
-        // Shutdown the task processor
-        processor.shutdown();
-
         // End the performance metrics for this rendering event.
         performanceStats.endRendering();
     }
@@ -13,7 +13,6 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 // Application-internal dependencies
-import ome.util.PixelData;
 import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.data.Plane2D;
 import omeis.providers.re.quantum.BinaryMaskQuantizer;
@@ -139,10 +138,12 @@ class RenderHSBRegionTask implements RenderingTask {
         float v;
 
         int width = x1End - x1Start;
+        int sizeX1 = dataBuffer.getSizeX1();
         int i = 0;
         byte[] r = dataBuffer.getRedBand();
         byte[] g = dataBuffer.getGreenBand();
         byte[] b = dataBuffer.getBlueBand();
+        byte[] row = new byte[width];
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
             QuantumStrategy qs = strategies.get(i);
@@ -153,9 +154,11 @@ class RenderHSBRegionTask implements RenderingTask {
             float alpha = new Float(
             		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 65025;// 255*255
             for (int x2 = x2Start; x2 < x2End; ++x2) {
+                RenderingStrategy.quantizeRow(
+                        plane, qs, sizeX1, x1Start, x1End, x2, row);
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
+                    discreteValue = row[x1 - x1Start] & 0xFF;
                     discreteValue = cc.transform(discreteValue);
 
                     // Pre-multiply the alpha component and add the existing
@@ -202,10 +205,12 @@ class RenderHSBRegionTask implements RenderingTask {
         int colorOffset = 24;  // Only used when we're doing primary color.
 
         int width = x1End - x1Start;
+        int sizeX1 = dataBuffer.getSizeX1();
         int i = 0;
         int[] buf = ((RGBIntBuffer) dataBuffer).getDataBuffer();
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
         boolean isAlphaless = optimizations.isAlphalessRendering();
+        byte[] row = new byte[width];
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
             QuantumStrategy qs = strategies.get(i);
@@ -216,9 +221,6 @@ class RenderHSBRegionTask implements RenderingTask {
             		color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
             blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
             		color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
 
             // Get our color offset if we've got the primary color optimization
             // enabled.
@@ -228,16 +230,12 @@ class RenderHSBRegionTask implements RenderingTask {
             float alpha = new Integer(
             		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
             for (int x2 = x2Start; x2 < x2End; ++x2) {
+                RenderingStrategy.quantizeRow(
+                        plane, qs, sizeX1, x1Start, x1End, x2, row);
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    if (isXYPlanar)
-                    	discreteValue = 
-                    		qs.quantize(
-                    			data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                    	discreteValue = 
-                    		qs.quantize(plane.getPixelValue(x1, x2));
-                    
+                    discreteValue = row[x1 - x1Start] & 0xFF;
+
                     // Right now we have no transforms being used so it's safe to
                     // comment this out for the time being.
                     //discreteValue = cc.transform(discreteValue);
@@ -324,10 +322,12 @@ class RenderHSBRegionTask implements RenderingTask {
         int colorOffset = 32;  // Only used when we're doing primary color.
 
         int width = x1End - x1Start;
+        int sizeX1 = dataBuffer.getSizeX1();
         int i = 0;
         int[] buf = ((RGBAIntBuffer) dataBuffer).getDataBuffer();
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
         boolean isAlphaless = optimizations.isAlphalessRendering();
+        byte[] row = new byte[width];
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
             QuantumStrategy qs = strategies.get(i);
@@ -337,9 +337,6 @@ class RenderHSBRegionTask implements RenderingTask {
             		color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
             blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
             		color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
 
             // Get our color offset if we've got the primary color optimization
             // enabled.
@@ -348,15 +345,11 @@ class RenderHSBRegionTask implements RenderingTask {
 
             float alpha = new Integer(color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
             for (int x2 = x2Start; x2 < x2End; ++x2) {
+                RenderingStrategy.quantizeRow(
+                        plane, qs, sizeX1, x1Start, x1End, x2, row);
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    if (isXYPlanar)
-                    	discreteValue = 
-                    		qs.quantize(
-                    			data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                    	discreteValue = 
-                    		qs.quantize(plane.getPixelValue(x1, x2));
+                    discreteValue = row[x1 - x1Start] & 0xFF;
                     // Right now we have no transforms being used so it's safe to
                     // comment this out for the time being.
                     //discreteValue = cc.transform(discreteValue);
@@ -138,6 +138,9 @@ public class Renderer {
     /** Map of overlays we've currently been told to render. */
     private Map<byte[], Integer> overlays;
 
+    /** The thread pool executing the rendering tasks. */
+    private RenderingExecutor executor;
+
     /**
      * Returns a copy of a list of channel bindings with one element removed;
      * the so called "other" channel bindings for the image.
@@ -332,9 +335,30 @@ public class Renderer {
     public Renderer(QuantumFactory quantumFactory,
     		List<RenderingModel> renderingModels, Pixels pixelsObj,
             RenderingDef renderingDefObj, PixelBuffer bufferObj) {
+        this(quantumFactory, renderingModels, pixelsObj, renderingDefObj,
+                bufferObj, RenderingExecutor.getDefault());
+    }
+
+    /**
+     * Creates a new instance to render the specified pixels set and get this
+     * new instance ready for rendering.
+     * 
+     * @param quantumFactory a populated quantum factory.
+     * @param renderingModels an enumerated list of all rendering models.
+     * @param pixelsObj Pixels object.
+     * @param renderingDefObj Rendering definition object.
+     * @param bufferObj PixelBuffer object.
+     * @param executorObj The thread pool used to execute rendering tasks.
+     * @throws NullPointerException If <code>null</code> parameters are passed.
+     */
+    public Renderer(QuantumFactory quantumFactory,
+    		List<RenderingModel> renderingModels, Pixels pixelsObj,
+            RenderingDef renderingDefObj, PixelBuffer bufferObj,
+            RenderingExecutor executorObj) {
         metadata = pixelsObj;
         rndDef = renderingDefObj;
         buffer = bufferObj;
+        executor = executorObj;
 
         if (metadata == null) {
             throw new NullPointerException("Expecting not null metadata");
@@ -342,6 +366,8 @@ public class Renderer {
             throw new NullPointerException("Expecting not null rndDef");
         } else if (buffer == null) {
             throw new NullPointerException("Expecting not null buffer");
+        } else if (executor == null) {
+            throw new NullPointerException("Expecting not null executor");
         }
 
    
@@ -713,6 +739,16 @@ public class Renderer {
         return stats;
     }
 
+    /**
+     * Returns the thread pool that the rendering strategy uses to execute
+     * its {@link RenderingTask}s.
+     * 
+     * @return See above.
+     */
+    public RenderingExecutor getExecutor() {
+        return executor;
+    }
+
    
 
     //
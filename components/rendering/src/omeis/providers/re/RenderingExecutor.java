@@ -0,0 +1,229 @@
+/*
+ * omeis.providers.re.RenderingExecutor
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+// Java imports
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Application-internal dependencies
+import ome.util.BoundedExecutor;
+
+/**
+ * Executes the {@link RenderingTask}s of all the {@link Renderer} instances
+ * of a process on a shared {@link BoundedExecutor} and keeps statistics
+ * about them. When the queue of the pool is full, the thread submitting a
+ * task executes it itself which throttles rendering requests rather than
+ * spawning new threads. Once the executor has been
+ * {@link #shutdown() shut down}, tasks are rejected with a
+ * {@link RejectedExecutionException}.
+ * <p>
+ * A single instance is meant to be created by the server (see
+ * <code>services.xml</code>) and handed to the rendering engines. Clients
+ * of the rendering library which do not provide an instance make use of
+ * the lazily created {@link #getDefault() default} executor.
+ * </p>
+ *
+ * @since OMERO-Beta4.3
+ */
+public class RenderingExecutor {
+
+    /** The number of queued tasks per thread if no queue size is given. */
+    public static final int DEFAULT_QUEUE_FACTOR = 32;
+
+    /** The executor used when none has been provided to the renderer. */
+    private static RenderingExecutor defaultExecutor;
+
+    /** The underlying thread pool. */
+    private final BoundedExecutor pool;
+
+    /** The total number of tasks which have been executed. */
+    private final AtomicLong taskCount = new AtomicLong();
+
+    /**
+     * The total time, in milliseconds, tasks have spent in the queue before
+     * being executed.
+     */
+    private final AtomicLong taskWaitTime = new AtomicLong();
+
+    /** The total time, in milliseconds, tasks have spent executing. */
+    private final AtomicLong taskTime = new AtomicLong();
+
+    /**
+     * Returns the executor shared by all the renderers which have not been
+     * given one explicitly. The executor is created upon first invocation.
+     *
+     * @return See above.
+     */
+    public static synchronized RenderingExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new RenderingExecutor();
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Creates a new instance sized to the number of available processors.
+     */
+    public RenderingExecutor() {
+        this(0, 0);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threads
+     *            The number of rendering threads. A value less than or equal
+     *            to <code>0</code> selects the number of available
+     *            processors.
+     * @param queueSize
+     *            The maximum number of tasks waiting for a thread. A value
+     *            less than or equal to <code>0</code> selects
+     *            {@link #DEFAULT_QUEUE_FACTOR} tasks per thread.
+     */
+    public RenderingExecutor(int threads, int queueSize) {
+        this(new BoundedExecutor("RenderingExecutor", threads, queueSize,
+                DEFAULT_QUEUE_FACTOR, true));
+    }
+
+    /**
+     * Creates a new instance executing the tasks on the given pool, which
+     * must run the tasks it cannot queue in the submitting thread.
+     *
+     * @param pool
+     *            The pool shared by the renderers.
+     */
+    public RenderingExecutor(BoundedExecutor pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Submits a task for asynchronous execution. If the queue is full the
+     * task is executed in the calling thread.
+     *
+     * @param stats
+     *            The stats object of the current rendering event which is
+     *            notified of the queue depth and latency of the task. May be
+     *            <code>null</code>.
+     * @param task
+     *            The task to execute.
+     * @return The pending result of the task.
+     * @throws RejectedExecutionException
+     *             If the executor has been shut down.
+     */
+    public Future<Object> submit(RenderingStats stats, RenderingTask task) {
+        if (stats != null) {
+            stats.taskQueued(pool.getQueueDepth());
+        }
+        return pool.submit(new TimedTask(stats, task));
+    }
+
+    /**
+     * Returns the number of threads used to execute tasks. This is the
+     * maximum number of tasks a rendering strategy should divide its work
+     * into.
+     *
+     * @return See above.
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Returns the number of tasks currently waiting for a thread.
+     *
+     * @return See above.
+     */
+    public int getQueueDepth() {
+        return pool.getQueueDepth();
+    }
+
+    /**
+     * Returns the number of threads currently executing tasks.
+     *
+     * @return See above.
+     */
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Returns the total number of tasks executed by this instance.
+     *
+     * @return See above.
+     */
+    public long getTaskCount() {
+        return taskCount.get();
+    }
+
+    /**
+     * Returns the total time, in milliseconds, tasks have spent waiting in
+     * the queue.
+     *
+     * @return See above.
+     */
+    public long getTaskWaitTime() {
+        return taskWaitTime.get();
+    }
+
+    /**
+     * Returns the total time, in milliseconds, tasks have spent executing.
+     *
+     * @return See above.
+     */
+    public long getTaskTime() {
+        return taskTime.get();
+    }
+
+    /**
+     * Stops the executor. Already submitted tasks are still executed, tasks
+     * submitted afterwards are rejected.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Wraps a {@link RenderingTask} in order to measure how long it waited
+     * for a thread and how long it took to execute.
+     */
+    private class TimedTask implements Callable<Object> {
+
+        /** The stats object of the current rendering event. */
+        private final RenderingStats stats;
+
+        /** The wrapped task. */
+        private final RenderingTask task;
+
+        /** The time at which the task was submitted. */
+        private final long submitted = System.currentTimeMillis();
+
+        TimedTask(RenderingStats stats, RenderingTask task) {
+            this.stats = stats;
+            this.task = task;
+        }
+
+        public Object call() throws Exception {
+            long start = System.currentTimeMillis();
+            try {
+                return task.call();
+            } finally {
+                long wait = start - submitted;
+                long time = System.currentTimeMillis() - start;
+                taskCount.incrementAndGet();
+                taskWaitTime.addAndGet(wait);
+                taskTime.addAndGet(time);
+                if (stats != null) {
+                    stats.taskCompleted(wait, time);
+                }
+            }
+        }
+    }
+}
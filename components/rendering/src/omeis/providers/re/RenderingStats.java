@@ -57,6 +57,21 @@ public class RenderingStats
     /** The total time a call to the <code>render</code> method takes. */
     private long totalTime;
 
+    /** The number of tasks submitted to the {@link RenderingExecutor}. */
+    private int taskCount;
+
+    /**
+     * The largest number of tasks found waiting in the queue of the
+     * {@link RenderingExecutor} when a task was submitted.
+     */
+    private int queueDepth;
+
+    /** The time that the submitted tasks spent waiting for a thread. */
+    private long taskWaitTime;
+
+    /** The time that the submitted tasks took to execute. */
+    private long taskTime;
+
     /**
      * Helper method to build a string containing the I/O stats.
      * 
@@ -174,6 +189,77 @@ public class RenderingStats
         renderingTime = System.currentTimeMillis() - renderingTime;
     }
 
+    /**
+     * Notifies the submission of a rendering task to the
+     * {@link RenderingExecutor}. This method may be called from several
+     * threads.
+     * 
+     * @param depth
+     *            The number of tasks waiting in the queue at the time of
+     *            submission.
+     * @see #taskCompleted(long, long)
+     */
+    public synchronized void taskQueued(int depth) {
+        taskCount++;
+        if (depth > queueDepth) {
+            queueDepth = depth;
+        }
+    }
+
+    /**
+     * Notifies the completion of a rendering task submitted to the
+     * {@link RenderingExecutor}. This method may be called from several
+     * threads.
+     * 
+     * @param wait
+     *            The time, in milliseconds, the task waited for a thread.
+     * @param time
+     *            The time, in milliseconds, the task took to execute.
+     * @see #taskQueued(int)
+     */
+    public synchronized void taskCompleted(long wait, long time) {
+        taskWaitTime += wait;
+        taskTime += time;
+    }
+
+    /**
+     * Returns the number of tasks submitted to the {@link RenderingExecutor}.
+     * 
+     * @return See above.
+     */
+    public synchronized int getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * Returns the largest number of tasks found waiting in the queue of the
+     * {@link RenderingExecutor} when a task was submitted.
+     * 
+     * @return See above.
+     */
+    public synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the time, in milliseconds, submitted tasks spent waiting for a
+     * thread.
+     * 
+     * @return See above.
+     */
+    public synchronized long getTaskWaitTime() {
+        return taskWaitTime;
+    }
+
+    /**
+     * Returns the time, in milliseconds, submitted tasks took to execute.
+     * 
+     * @return See above.
+     */
+    public synchronized long getTaskTime() {
+        return taskTime;
+    }
+
     /**
      * Notifies this object that the rendering process has finished. The total
      * rendering time is computed. That is, the time the <code>render</code>
@@ -216,6 +302,13 @@ public class RenderingStats
     				getIoTimeString(),
     				renderingTime,
     				totalTime);
+    	a += String.format(
+    			"TASKS ---- Submitted: %d Max Queue Depth: %d " +
+    			"Wait (ms): %d Execution (ms): %d\n",
+    				getTaskCount(),
+    				getQueueDepth(),
+    				getTaskWaitTime(),
+    				getTaskTime());
     	a += "-----------------------------------------------";
     	return a;
     }
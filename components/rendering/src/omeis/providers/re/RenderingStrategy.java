@@ -17,9 +17,11 @@ import org.apache.commons.logging.LogFactory;
 // Application-internal dependencies
 import ome.model.core.Pixels;
 import ome.model.enums.RenderingModel;
+import omeis.providers.re.data.Plane2D;
 import omeis.providers.re.data.PlaneDef;
 import omeis.providers.re.data.RegionDef;
 import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.QuantumStrategy;
 
 /**
  * Defines how to encapsulate a specific rendering algorithm.
@@ -206,6 +208,44 @@ abstract class RenderingStrategy {
     	return buf;
     }
 
+    /**
+     * Quantizes a row of a plane. Rows of <i>XY</i> planes are read in bulk
+     * from the underlying pixel data by
+     * {@link QuantumStrategy#quantize(ome.util.PixelData, int, int, byte[], int)}.
+     * 
+     * @param plane
+     *            The wavelength data.
+     * @param qs
+     *            How to quantize a pixel intensity value.
+     * @param sizeX1
+     *            The number of pixels along the <i>X1</i>-axis of the plane,
+     *            i.e. the distance between two rows.
+     * @param x1Start
+     *            The <i>X1</i>-axis start.
+     * @param x1End
+     *            The <i>X1</i>-axis end.
+     * @param x2
+     *            The <i>X2</i>-axis index of the row.
+     * @param row
+     *            The array to write the quantized values to, starting at
+     *            index <code>0</code>.
+     * @throws QuantizationException
+     *             If an error occurred while quantizing the pixels raw data.
+     */
+    static void quantizeRow(Plane2D plane, QuantumStrategy qs, int sizeX1,
+            int x1Start, int x1End, int x2, byte[] row)
+        throws QuantizationException {
+        if (plane.isXYPlanar()) {
+            qs.quantize(plane.getData(), sizeX1 * x2 + x1Start,
+                    x1End - x1Start, row, 0);
+        } else {
+            for (int x1 = x1Start; x1 < x1End; ++x1) {
+                row[x1 - x1Start] =
+                    (byte) qs.quantize(plane.getPixelValue(x1, x2));
+            }
+        }
+    }
+
     /**
      * Factory method to retrieve a concrete strategy. The strategy is selected
      * according to the model that dictates how transformed raw data is to be
@@ -0,0 +1,299 @@
+/*
+ * omeis.providers.re.metadata.ChannelHistogram
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.metadata;
+
+// Java imports
+import java.nio.ByteBuffer;
+
+// Third-party libraries
+
+// Application-internal dependencies
+import ome.util.PixelData;
+
+/**
+ * Histogram of the intensities of one channel of a plane. The interval
+ * between the global minimum and maximum of the channel is divided into
+ * bins of equal width; values equal to the global maximum are counted in
+ * the last bin and values outside of the interval are only counted in the
+ * total. The observed minimum and maximum of all the values are also kept.
+ * <p>
+ * Histograms are built by the {@link HistogramEngine} and read by the
+ * {@link StatsFactory}. Once built they are not modified and may be shared.
+ * </p>
+ *
+ * @since OMERO-Beta4.3
+ */
+public class ChannelHistogram {
+
+    /**
+     * The default number of bins: a multiple of the number of bins used by
+     * the {@link StatsFactory} so that they can be summed exactly.
+     */
+    public static final int DEFAULT_BIN_COUNT = 128 * StatsFactory.NB_BIN;
+
+    /** The index of the channel. */
+    private final int channel;
+
+    /** The global minimum of the channel, the start of the first bin. */
+    private final double globalMin;
+
+    /** The global maximum of the channel, the end of the last bin. */
+    private final double globalMax;
+
+    /** The resolution level the histogram was computed at. */
+    private final int resolutionLevel;
+
+    /** The number of values in each bin. */
+    private final long[] bins;
+
+    /** The number of values, binned or not. */
+    private long count;
+
+    /** The smallest value seen. */
+    private double min = Double.POSITIVE_INFINITY;
+
+    /** The largest value seen. */
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates a new empty histogram.
+     *
+     * @param channel The index of the channel.
+     * @param globalMin The global minimum of the channel.
+     * @param globalMax The global maximum of the channel.
+     * @param resolutionLevel The resolution level of the plane or
+     * <code>-1</code> if the pixel buffer has a single level.
+     * @param binCount The number of bins.
+     */
+    public ChannelHistogram(int channel, double globalMin, double globalMax,
+            int resolutionLevel, int binCount) {
+        if (binCount <= 0) {
+            throw new IllegalArgumentException("No bins: " + binCount);
+        }
+        this.channel = channel;
+        this.globalMin = globalMin;
+        this.globalMax = globalMax;
+        this.resolutionLevel = resolutionLevel;
+        this.bins = new long[binCount];
+    }
+
+    /**
+     * Returns the index of the channel.
+     *
+     * @return See above.
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the global minimum of the channel.
+     *
+     * @return See above.
+     */
+    public double getGlobalMin() {
+        return globalMin;
+    }
+
+    /**
+     * Returns the global maximum of the channel.
+     *
+     * @return See above.
+     */
+    public double getGlobalMax() {
+        return globalMax;
+    }
+
+    /**
+     * Returns the resolution level the histogram was computed at or
+     * <code>-1</code> if the pixel buffer has a single level.
+     *
+     * @return See above.
+     */
+    public int getResolutionLevel() {
+        return resolutionLevel;
+    }
+
+    /**
+     * Returns the number of bins.
+     *
+     * @return See above.
+     */
+    public int getBinCount() {
+        return bins.length;
+    }
+
+    /**
+     * Returns the number of values in a bin.
+     *
+     * @param bin The index of the bin.
+     * @return See above.
+     */
+    public long getBin(int bin) {
+        return bins[bin];
+    }
+
+    /**
+     * Returns the number of values, including those outside of the interval
+     * between the global minimum and maximum.
+     *
+     * @return See above.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest value seen.
+     *
+     * @return See above.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value seen.
+     *
+     * @return See above.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Sums the bins into fewer, wider ones.
+     *
+     * @param n The number of bins to return. Must divide the number of bins
+     * of this histogram.
+     * @return See above.
+     */
+    public long[] getTotals(int n) {
+        if (n <= 0 || bins.length % n != 0) {
+            throw new IllegalArgumentException(
+                    n + " does not divide " + bins.length + " bins.");
+        }
+        int width = bins.length / n;
+        long[] totals = new long[n];
+        for (int i = 0; i < bins.length; i++) {
+            totals[i / width] += bins[i];
+        }
+        return totals;
+    }
+
+    /**
+     * Returns the upper bound of the bin holding the value below which the
+     * passed fraction of the binned values falls, for instance
+     * <code>0.99</code> for the 99th percentile.
+     *
+     * @param fraction A value between <code>0</code> and <code>1</code>.
+     * @return See above.
+     */
+    public double getPercentile(double fraction) {
+        long binned = 0;
+        for (long bin : bins) {
+            binned += bin;
+        }
+        double width = (globalMax - globalMin) / bins.length;
+        double threshold = fraction * binned;
+        long sum = 0;
+        for (int i = 0; i < bins.length; i++) {
+            sum += bins[i];
+            if (sum >= threshold && sum > 0) {
+                return globalMin + (i + 1) * width;
+            }
+        }
+        return globalMax;
+    }
+
+    /**
+     * Adds the values of a tile to the histogram.
+     *
+     * @param tile The tile.
+     * @param size The number of values of the tile.
+     */
+    void add(PixelData tile, int size) {
+        ByteBuffer data = tile.getData();
+        boolean signed = tile.isSigned();
+        double scale = globalMax > globalMin ?
+                bins.length / (globalMax - globalMin) : 0;
+        double v;
+        switch (tile.javaType()) {
+            case PixelData.BYTE:
+                for (int i = 0; i < size; i++) {
+                    v = signed ? data.get(i) : data.get(i) & 0xFF;
+                    add(v, scale);
+                }
+                break;
+            case PixelData.SHORT:
+                for (int i = 0; i < size; i++) {
+                    v = signed ? data.getShort(i * 2)
+                            : data.getShort(i * 2) & 0xFFFF;
+                    add(v, scale);
+                }
+                break;
+            case PixelData.INT:
+                for (int i = 0; i < size; i++) {
+                    v = signed ? data.getInt(i * 4)
+                            : data.getInt(i * 4) & 0xFFFFFFFFL;
+                    add(v, scale);
+                }
+                break;
+            case PixelData.FLOAT:
+                for (int i = 0; i < size; i++) {
+                    add(data.getFloat(i * 4), scale);
+                }
+                break;
+            case PixelData.DOUBLE:
+                for (int i = 0; i < size; i++) {
+                    add(data.getDouble(i * 8), scale);
+                }
+                break;
+            default:
+                for (int i = 0; i < size; i++) {
+                    add(tile.getPixelValue(i), scale);
+                }
+        }
+    }
+
+    /**
+     * Adds a value to the histogram.
+     *
+     * @param v The value.
+     * @param scale The number of bins per unit of intensity.
+     */
+    private void add(double v, double scale) {
+        count++;
+        if (v < min) {
+            min = v;
+        }
+        if (v > max) {
+            max = v;
+        }
+        if (v < globalMin || v > globalMax) {
+            return;
+        }
+        int bin = (int) ((v - globalMin) * scale);
+        bins[bin < bins.length ? bin : bins.length - 1]++;
+    }
+
+    /**
+     * Adds the values of another histogram of the same channel and
+     * interval to this one.
+     *
+     * @param other The histogram to add.
+     */
+    void merge(ChannelHistogram other) {
+        for (int i = 0; i < bins.length; i++) {
+            bins[i] += other.bins[i];
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * omeis.providers.re.metadata.HistogramEngine
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.metadata;
+
+// Java imports
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Third-party libraries
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+// Application-internal dependencies
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.RenderingTask;
+
+/**
+ * Computes the {@link ChannelHistogram}s of several channels of a plane in
+ * a single pass over its tiles. When the pixel buffer has a pyramid, the
+ * smallest resolution level holding at least a minimum number of pixels is
+ * used rather than the full resolution plane.
+ * <p>
+ * The tiles are shared out between one thread per pixel buffer passed to
+ * {@link #compute(List, int, int, int, int[], double[], double[])}: the
+ * calling thread reads with the first buffer and a helper is submitted to
+ * the shared {@link RenderingExecutor} for each of the others. Helpers which
+ * have not started by the time the calling thread has read all the tiles are
+ * skipped. Every thread accumulates into histograms of its own which are
+ * merged at the end.
+ * </p>
+ *
+ * @since OMERO-Beta4.3
+ */
+public class HistogramEngine {
+
+    /** The logger for this particular class */
+    private static Log log = LogFactory.getLog(HistogramEngine.class);
+
+    /**
+     * The default minimum number of pixels of the resolution level used:
+     * 1024 x 1024.
+     */
+    public static final long DEFAULT_MINIMUM_PIXELS = 1024L * 1024L;
+
+    /** The number of bins of the histograms. */
+    private final int binCount;
+
+    /** The minimum number of pixels of the resolution level used. */
+    private final long minimumPixels;
+
+    /** The executor running the helpers or <code>null</code>. */
+    private final RenderingExecutor executor;
+
+    /**
+     * Creates a new instance with {@link ChannelHistogram#DEFAULT_BIN_COUNT}
+     * bins and {@link #DEFAULT_MINIMUM_PIXELS}.
+     */
+    public HistogramEngine() {
+        this(ChannelHistogram.DEFAULT_BIN_COUNT, DEFAULT_MINIMUM_PIXELS);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param binCount The number of bins of the histograms.
+     * @param minimumPixels The minimum number of pixels of the resolution
+     * level used when the pixel buffer has a pyramid. A value less than or
+     * equal to <code>0</code> always uses the full resolution plane.
+     */
+    public HistogramEngine(int binCount, long minimumPixels) {
+        this(binCount, minimumPixels, null);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param binCount The number of bins of the histograms.
+     * @param minimumPixels The minimum number of pixels of the resolution
+     * level used when the pixel buffer has a pyramid. A value less than or
+     * equal to <code>0</code> always uses the full resolution plane.
+     * @param executor The executor to run the helpers on or
+     * <code>null</code> to use the {@link RenderingExecutor#getDefault()
+     * default} one.
+     */
+    public HistogramEngine(int binCount, long minimumPixels,
+            RenderingExecutor executor) {
+        this.binCount = binCount;
+        this.minimumPixels = minimumPixels;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the resolution level histograms of the passed pixel buffer are
+     * computed at: the smallest level holding at least the minimum number of
+     * pixels, or the full resolution level if none does.
+     *
+     * @param buffer The pixel buffer.
+     * @return The resolution level or <code>-1</code> if the pixel buffer
+     * has a single level.
+     */
+    public int selectResolutionLevel(PixelBuffer buffer) {
+        int levels = buffer.getResolutionLevels();
+        if (levels <= 1) {
+            return -1;
+        }
+        // The last level is the full resolution one.
+        int level = levels - 1;
+        if (minimumPixels > 0) {
+            for (int i = 0; i < levels - 1; i++) {
+                buffer.setResolutionLevel(i);
+                long pixels = (long) buffer.getSizeX() * buffer.getSizeY();
+                if (pixels >= minimumPixels) {
+                    level = i;
+                    break;
+                }
+            }
+        }
+        buffer.setResolutionLevel(level);
+        return level;
+    }
+
+    /**
+     * Returns the number of tiles of a plane at the current resolution
+     * level of the passed pixel buffer, which is the maximum number of
+     * buffers worth passing to
+     * {@link #compute(List, int, int, int, int[], double[], double[])}.
+     *
+     * @param buffer The pixel buffer.
+     * @return See above.
+     */
+    public int countTiles(PixelBuffer buffer) {
+        int sizeX = buffer.getSizeX();
+        int sizeY = buffer.getSizeY();
+        Dimension tileSize = buffer.getTileSize();
+        int tileWidth = Math.max(1, Math.min(sizeX,
+                (int) tileSize.getWidth()));
+        int tileHeight = Math.max(1, Math.min(sizeY,
+                (int) tileSize.getHeight()));
+        return ((sizeX + tileWidth - 1) / tileWidth)
+            * ((sizeY + tileHeight - 1) / tileHeight);
+    }
+
+    /**
+     * Computes the histograms of the passed channels of a plane.
+     *
+     * @param buffers The pixel buffers of the Pixels set, one per thread.
+     * The first one is used by the calling thread. Must not be empty.
+     * @param resolutionLevel The resolution level as returned by
+     * {@link #selectResolutionLevel(PixelBuffer)}.
+     * @param z The optical section of the plane.
+     * @param t The timepoint of the plane.
+     * @param channels The indexes of the channels.
+     * @param globalMin The global minimum of each channel, in the same order
+     * as <code>channels</code>.
+     * @param globalMax The global maximum of each channel, in the same order
+     * as <code>channels</code>.
+     * @return The histograms, in the same order as <code>channels</code>.
+     * @throws IOException If a tile cannot be read.
+     */
+    public ChannelHistogram[] compute(List<PixelBuffer> buffers,
+            int resolutionLevel, int z, int t, int[] channels,
+            double[] globalMin, double[] globalMax) throws IOException {
+        PixelBuffer first = buffers.get(0);
+        if (resolutionLevel >= 0) {
+            for (PixelBuffer buffer : buffers) {
+                buffer.setResolutionLevel(resolutionLevel);
+            }
+        }
+        int sizeX = first.getSizeX();
+        int sizeY = first.getSizeY();
+        Dimension tileSize = first.getTileSize();
+        int tileWidth = Math.max(1, Math.min(sizeX,
+                (int) tileSize.getWidth()));
+        int tileHeight = Math.max(1, Math.min(sizeY,
+                (int) tileSize.getHeight()));
+        int columns = (sizeX + tileWidth - 1) / tileWidth;
+        int rows = (sizeY + tileHeight - 1) / tileHeight;
+
+        ChannelHistogram[] histograms = newHistograms(resolutionLevel,
+                channels, globalMin, globalMax);
+        Pass pass = new Pass(z, t, channels, sizeX, sizeY, tileWidth,
+                tileHeight, columns, columns * rows, histograms);
+        List<Helper> helpers = new ArrayList<Helper>();
+        int threads = 1;
+        try {
+            RenderingExecutor e = buffers.size() < 2 ? null
+                    : executor != null ? executor
+                    : RenderingExecutor.getDefault();
+            for (int i = 1; i < buffers.size(); i++) {
+                Helper helper = new Helper(pass, buffers.get(i));
+                try {
+                    helper.future = e.submit(null, helper);
+                } catch (RejectedExecutionException ex) {
+                    // The executor is shutting down, carry on without it.
+                    break;
+                }
+                helpers.add(helper);
+            }
+            pass.run(first, newHistograms(histograms));
+        } finally {
+            for (Helper helper : helpers) {
+                if (helper.await()) {
+                    threads++;
+                }
+            }
+        }
+        synchronized (pass) {
+            if (pass.failure instanceof IOException) {
+                throw (IOException) pass.failure;
+            }
+            if (pass.failure instanceof RuntimeException) {
+                throw (RuntimeException) pass.failure;
+            }
+            if (pass.failure instanceof Error) {
+                throw (Error) pass.failure;
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(String.format(
+                    "Histograms of %d channels computed from %d tiles "
+                    + "of %dx%d at level %d with %d threads",
+                    channels.length, pass.tileCount, tileWidth, tileHeight,
+                    resolutionLevel, threads));
+        }
+        return histograms;
+    }
+
+    /**
+     * Creates empty histograms.
+     *
+     * @param resolutionLevel The resolution level.
+     * @param channels The indexes of the channels.
+     * @param globalMin The global minimum of each channel.
+     * @param globalMax The global maximum of each channel.
+     * @return See above.
+     */
+    private ChannelHistogram[] newHistograms(int resolutionLevel,
+            int[] channels, double[] globalMin, double[] globalMax) {
+        ChannelHistogram[] histograms = new ChannelHistogram[channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            histograms[i] = new ChannelHistogram(channels[i], globalMin[i],
+                    globalMax[i], resolutionLevel, binCount);
+        }
+        return histograms;
+    }
+
+    /**
+     * Creates empty histograms with the same channels and intervals as the
+     * passed ones.
+     *
+     * @param like The histograms to copy.
+     * @return See above.
+     */
+    private ChannelHistogram[] newHistograms(ChannelHistogram[] like) {
+        ChannelHistogram[] histograms = new ChannelHistogram[like.length];
+        for (int i = 0; i < like.length; i++) {
+            histograms[i] = new ChannelHistogram(like[i].getChannel(),
+                    like[i].getGlobalMin(), like[i].getGlobalMax(),
+                    like[i].getResolutionLevel(), binCount);
+        }
+        return histograms;
+    }
+
+    /**
+     * Takes part in a pass with a pixel buffer of its own unless the pass no
+     * longer needs it by the time it is executed.
+     */
+    private class Helper implements RenderingTask {
+
+        /** Set once the helper either started or was skipped. */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        /** The pass to take part in. */
+        private final Pass pass;
+
+        /** The pixel buffer of the helper. */
+        private final PixelBuffer buffer;
+
+        /** The pending completion of the helper. */
+        Future<Object> future;
+
+        Helper(Pass pass, PixelBuffer buffer) {
+            this.pass = pass;
+            this.buffer = buffer;
+        }
+
+        public Object call() {
+            if (claimed.compareAndSet(false, true)) {
+                pass.run(buffer, newHistograms(pass.histograms));
+            }
+            return null;
+        }
+
+        /**
+         * Skips the helper if it has not started yet or waits for it to
+         * complete otherwise, so that its buffer can be closed.
+         *
+         * @return <code>true</code> if the helper took part in the pass,
+         * <code>false</code> if it was skipped.
+         */
+        boolean await() {
+            if (claimed.compareAndSet(false, true)) {
+                return false;
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // Failures are recorded by the pass itself.
+                    break;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The state of a pass over the tiles of a plane shared by the threads.
+     */
+    private static class Pass {
+
+        final int z;
+
+        final int t;
+
+        final int[] channels;
+
+        final int sizeX;
+
+        final int sizeY;
+
+        final int tileWidth;
+
+        final int tileHeight;
+
+        final int columns;
+
+        final int tileCount;
+
+        /** The histograms the threads merge into. */
+        final ChannelHistogram[] histograms;
+
+        /** The index of the next tile to read. */
+        final AtomicInteger next = new AtomicInteger();
+
+        /** The first failure, guarded by this instance. */
+        Throwable failure;
+
+        Pass(int z, int t, int[] channels, int sizeX, int sizeY,
+                int tileWidth, int tileHeight, int columns, int tileCount,
+                ChannelHistogram[] histograms) {
+            this.z = z;
+            this.t = t;
+            this.channels = channels;
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            this.columns = columns;
+            this.tileCount = tileCount;
+            this.histograms = histograms;
+        }
+
+        /**
+         * Reads the tiles which have not been claimed yet until none is left
+         * or a thread failed, then merges the local histograms.
+         *
+         * @param buffer The pixel buffer of the calling thread.
+         * @param local The histograms of the calling thread.
+         */
+        void run(PixelBuffer buffer, ChannelHistogram[] local) {
+            int index;
+            try {
+                while ((index = next.getAndIncrement()) < tileCount) {
+                    synchronized (this) {
+                        if (failure != null) {
+                            return;
+                        }
+                    }
+                    int x = (index % columns) * tileWidth;
+                    int y = (index / columns) * tileHeight;
+                    int w = Math.min(tileWidth, sizeX - x);
+                    int h = Math.min(tileHeight, sizeY - y);
+                    for (int i = 0; i < channels.length; i++) {
+                        PixelData tile = buffer.getTile(
+                                z, channels[i], t, x, y, w, h);
+                        local[i].add(tile, w * h);
+                    }
+                }
+            } catch (Throwable e) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+                return;
+            }
+            synchronized (this) {
+                for (int i = 0; i < histograms.length; i++) {
+                    histograms[i].merge(local[i]);
+                }
+            }
+        }
+    }
+}
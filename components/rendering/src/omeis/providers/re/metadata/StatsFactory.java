@@ -12,23 +12,18 @@ package omeis.providers.re.metadata;
 // Third-party libraries
 
 // Application-internal dependencies
-import java.awt.Dimension;
+import java.io.IOException;
+import java.util.Collections;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import ome.conditions.ResourceError;
 import ome.io.nio.PixelBuffer;
-import ome.io.nio.TileLoopIteration;
-import ome.io.nio.Utils;
 import ome.model.core.Channel;
 import ome.model.core.Pixels;
 import ome.model.stats.StatsInfo;
-import omeis.providers.re.Renderer;
-import omeis.providers.re.data.Plane2D;
 import omeis.providers.re.data.PlaneDef;
-import omeis.providers.re.data.PlaneFactory;
-import omeis.providers.re.data.RegionDef;
 import omeis.providers.re.quantum.QuantumStrategy;
 
 /**
@@ -36,6 +31,11 @@ import omeis.providers.re.quantum.QuantumStrategy;
  * location stats determine the location of the pixels' values in order to set
  * the inputWindow and the noiseReduction flag. This flag will then be used when
  * we map the pixels intensity values onto the device space.
+ * <p>
+ * The location stats are derived from the {@link ChannelHistogram} of the
+ * whole plane, computed in a single pass over its tiles by the
+ * {@link HistogramEngine}.
+ * </p>
  * 
  * @author Jean-Marie Burel &nbsp;&nbsp;&nbsp;&nbsp; <a
  *         href="mailto:j.burel@dundee.ac.uk">j.burel@dundee.ac.uk</a>
@@ -55,7 +55,7 @@ public class StatsFactory {
 	private static final int RANGE_RGB = 255;
 	
 	/** The number of bins. */
-    private static final int NB_BIN = 2 * QuantumStrategy.DECILE;
+    static final int NB_BIN = 2 * QuantumStrategy.DECILE;
 
     /** The default size of a bin. */
     private static final int BIN = 2;
@@ -88,93 +88,23 @@ public class StatsFactory {
     private double epsilon;
     
     /**
-     * For the specified {@link Plane2D}, computes the bins, determines the
-     * inputWindow and the noiseReduction flag.
+     * Returns the statistics of a channel.
      * 
-     * @param p2D 	 The selected plane2d.
-     * @param stats  The statistics for the selected channel.
-     * @param sizeX2 The size along one axis.
-     * @param sizeX1 The size along the other axis.
+     * @param metadata The pixels set.
+     * @param index The channel index.
+     * @return See above.
+     * @throws ResourceError If the channel has no statistics.
      */
-    private void computeBins(Plane2D p2D, StatsInfo stats, int sizeX2,
-            int sizeX1) {
-    	double gMin = stats.getGlobalMin().doubleValue();
-        int[] totals = new int[NB_BIN];
-        /*
-         * Segment[] segments = new Segment[NB_BIN]; for (int i = 0; i < NB_BIN;
-         * i++) { segments[i] = new Segment( gMin + i * sizeBin, 0, gMin + (i +
-         * 1) * sizeBin, 0); }
-         */
-        BasicSegment[] segments = new BasicSegment[NB_BIN];
-        for (int i = 0; i < NB_BIN; i++) {
-            segments[i] = new BasicSegment(gMin + i * sizeBin, gMin + (i + 1)
-                    * sizeBin);
-        }
-
-        // check segment [o,e[
-        double v;
-        BasicSegment segment;
-        if (p2D.isXYPlanar()) {
-            // modified code
-            int size = sizeX1 * sizeX2;
-            for (int j = 0; j < size; j++) {
-                v = p2D.getPixelValue(j);
-                for (int i = 0; i < segments.length; i++) {
-                    segment = segments[i];
-                    if (v >= segment.x1 && v < segment.x2) {
-                        totals[i]++;
-                        break;
-                    }
-                } // end i
-            }
-        } else {
-            for (int x2 = 0; x2 < sizeX2; ++x2) {
-                for (int x1 = 0; x1 < sizeX1; ++x1) {
-                    v = p2D.getPixelValue(x1, x2);
-                    for (int i = 0; i < segments.length; i++) {
-                        segment = segments[i];
-                        if (v >= segment.x1 && v < segment.x2) {
-                            totals[i]++;
-                            break;
-                        }
-                        /*
-                         * if (!segments[i].equals(1, pointX1, pointX2) &&
-                         * segments[i].lies(pointX1, pointX2)) { totals[i]++;
-                         * break; }
-                         */
-                    } // end i
-                } // end x1
-            }// end x2
-        }
-
-        double total = sizeX2 * sizeX1;
-        for (int i = 0; i < totals.length; i++) {
-            locationStats[i] += totals[i] / total;
-        }
-        // Default, we assume that we have at least 3 sub-intervals.
-        /*
-        inputStart = segments[0].x2;// segments[0].getPoint(1).x1;
-        inputEnd = segments[NB_BIN - 1].x2;// segments[NB_BIN -
-                                            // 1].getPoint(1).x1;
-        total = total - totals[0] - totals[NB_BIN - 1];
-        if (totals[0] >= totals[NB_BIN - 1]) {
-            inputEnd = accumulateCloseToMin(totals, segments, total, epsilon);
-        } else {
-            inputStart = accumulateCloseToMax(totals, segments, total, epsilon);
-        }
-        
-        */
-        double s = segments[0].x2;
-        double end = segments[NB_BIN - 1].x2;
-        total = total - totals[0] - totals[NB_BIN - 1];
-        if (totals[0] >= totals[NB_BIN - 1]) {
-            end = accumulateCloseToMin(totals, segments, total, epsilon);
-        } else {
-            s = accumulateCloseToMax(totals, segments, total, epsilon);
+    public static StatsInfo getStatsInfo(Pixels metadata, int index) {
+        Channel channel = metadata.getChannel(index);
+        StatsInfo stats = channel.getStatsInfo();
+        if (stats == null)
+        {
+        	throw new ResourceError("Pixels set is missing statistics for " +
+        			"channel '" + index + "'. This suggests an image import " +
+        			"error or failed image import.");
         }
-        if (s < inputStart) inputStart = s;
-        if (end > inputEnd) inputEnd = end;
-        noiseReduction = noiseReduction();
+        return stats;
     }
 
     /** Determines the value of the noiseReduction flag. */
@@ -199,17 +129,17 @@ public class StatsFactory {
      * closed to the minimum.
      * 
      * @param totals The accumulated values.
-     * @param segments The segments to analyze.
+     * @param gMin The start of the first bin.
      * @param total The total value.
      * @param epsilon The error value.
      */
-    private double accumulateCloseToMin(int[] totals, BasicSegment[] segments,
+    private double accumulateCloseToMin(long[] totals, double gMin,
             double total, double epsilon) {
-        double e = segments[NB_BIN - 1].x2, sum = 0;
+        double e = gMin + NB_BIN * sizeBin, sum = 0;
         for (int i = 1; i < totals.length - 1; i++) {
             sum += totals[i];
             if (sum / total > THRESHOLD) {
-                e = segments[i].x1 + epsilon;
+                e = gMin + i * sizeBin + epsilon;
                 break;
             }
         }
@@ -221,17 +151,17 @@ public class StatsFactory {
      * closed to the max.
      * 
      * @param totals The accumulated values.
-     * @param segments The segments to analyze.
+     * @param gMin The start of the first bin.
      * @param total The total value.
      * @param epsilon The error value.
      */
-    private double accumulateCloseToMax(int[] totals, BasicSegment[] segments,
+    private double accumulateCloseToMax(long[] totals, double gMin,
             double total, double epsilon) {
-        double s = segments[0].x2, sum = 0;
+        double s = gMin + sizeBin, sum = 0;
         for (int i = totals.length - 2; i > 0; i--) {
             sum += totals[i];
             if (sum / total > THRESHOLD) {
-                s = segments[i].x2 - epsilon;
+                s = gMin + (i + 1) * sizeBin - epsilon;
                 break;
             }
         }
@@ -241,29 +171,62 @@ public class StatsFactory {
     /**
      * Helper object to determine the location of the pixels' values, the
      * inputWindow i.e. <code>inputStart</code> and <code>inputEnd</code>
-     * and to initialize the <code>noiseReduction</code> flag.
+     * and to initialize the <code>noiseReduction</code> flag. The histogram
+     * of the plane is computed on the calling thread, see
+     * {@link HistogramEngine} to compute the histograms of several channels
+     * at once.
      * 
      * @param metadata The pixels to parse.
      * @param pixelsData The buffer.
-     * @param pd The plane to handle.
+     * @param pd The plane to handle. Only <i>XY</i> planes are supported.
      * @param index The channel index.
      * @throws PixMetadataException
      */
     public void computeLocationStats(final Pixels metadata,
             final PixelBuffer pixelsData, final PlaneDef pd, final int index) {
         log.debug("Computing location stats for Pixels:" + metadata.getId());
-        Channel channel = metadata.getChannel(index);
-        final StatsInfo stats = channel.getStatsInfo();
-        if (stats == null)
-        {
-        	throw new ResourceError("Pixels set is missing statistics for " +
-        			"channel '" + index + "'. This suggests an image import " +
-        			"error or failed image import.");
+        if (pd.getSlice() != PlaneDef.XY) {
+            throw new IllegalArgumentException(
+                    "Location stats are only computed for XY planes.");
         }
+        StatsInfo stats = getStatsInfo(metadata, index);
         double gMin = stats.getGlobalMin().doubleValue();
         double gMax = stats.getGlobalMax().doubleValue();
-        Dimension tileSize = pixelsData.getTileSize();
+        if (gMax - gMin <= RANGE_RGB) {
+            computeLocationStats(new ChannelHistogram(
+                    index, gMin, gMax, -1, NB_BIN));
+            return;
+        }
+        HistogramEngine engine = new HistogramEngine();
+        try {
+            int level = engine.selectResolutionLevel(pixelsData);
+            ChannelHistogram[] histograms = engine.compute(
+                    Collections.singletonList(pixelsData), level,
+                    pd.getZ(), pd.getT(), new int[] { index },
+                    new double[] { gMin }, new double[] { gMax });
+            computeLocationStats(histograms[0]);
+        } catch (IOException e) {
+            ResourceError re = new ResourceError(
+                    "IO error while computing location stats: "
+                    + e.getMessage());
+            re.initCause(e);
+            throw re;
+        }
+    }
+
+    /**
+     * Determines the inputWindow i.e. <code>inputStart</code> and
+     * <code>inputEnd</code> and the <code>noiseReduction</code> flag from
+     * the histogram of a channel.
+     * 
+     * @param histogram The histogram of the plane of the channel, whose
+     * number of bins must be a multiple of {@link #NB_BIN}.
+     */
+    public void computeLocationStats(ChannelHistogram histogram) {
+        double gMin = histogram.getGlobalMin();
+        double gMax = histogram.getGlobalMax();
         double range = gMax-gMin;
+        noiseReduction = false;
         if (range <= RANGE_RGB) {
             inputEnd = gMax;
             inputStart = gMin;
@@ -271,32 +234,23 @@ public class StatsFactory {
         }
         sizeBin = range / NB_BIN;
         epsilon = sizeBin / EPSILON;
-        if (locationStats == null) {
-            locationStats = new double[NB_BIN];
+        long[] totals = histogram.getTotals(NB_BIN);
+        double total = histogram.getCount();
+        locationStats = new double[NB_BIN];
+        for (int i = 0; i < totals.length; i++) {
+            locationStats[i] = totals[i] / total;
         }
-        //value will be reset when calculating data.
-        inputStart = gMax;
-        inputEnd = gMin;
-        Utils.forEachTile(new TileLoopIteration() {
-            public void run(int z, int c, int t, int x, int y, int tileWidth,
-                    int tileHeight, int tileCount)
-            {
-                if (z == 1 || c == 1 || t == 1)
-                {
-                    // We're not going through the entire pixel buffer
-                    return;
-                }
-                RegionDef regionDef = new RegionDef();
-                regionDef.setX(x);
-                regionDef.setY(y);
-                regionDef.setWidth(tileWidth);
-                regionDef.setHeight(tileHeight);
-                pd.setRegion(regionDef);
-                Plane2D plane2D = PlaneFactory.createPlane(pd, index, metadata,
-                        pixelsData);
-                computeBins(plane2D, stats, tileHeight, tileWidth);
-            }
-        }, pixelsData, (int) tileSize.getWidth(), (int) tileSize.getHeight());
+        double s = gMin + sizeBin;
+        double end = gMin + NB_BIN * sizeBin;
+        total = total - totals[0] - totals[NB_BIN - 1];
+        if (totals[0] >= totals[NB_BIN - 1]) {
+            end = accumulateCloseToMin(totals, gMin, total, epsilon);
+        } else {
+            s = accumulateCloseToMax(totals, gMin, total, epsilon);
+        }
+        inputStart = s;
+        inputEnd = end;
+        noiseReduction = noiseReduction();
     }
 
     /**
@@ -336,31 +290,4 @@ public class StatsFactory {
         return inputEnd;
     }
 
-    // inner class
-    class BasicSegment {
-
-        /** Left bound of the segment. */
-        double x1;
-
-        /** Right bound of the segment. */
-        double x2;
-
-        /**
-         * Creates a new instance.
-         * 
-         * @param x1
-         *            The left bound of the segment.
-         * @param x2
-         *            The right bound of the segment.
-         */
-        BasicSegment(double x1, double x2) {
-            if (x2 < x1) {
-                throw new IllegalArgumentException("Segment not valid.");
-            }
-            this.x2 = x2;
-            this.x1 = x1;
-        }
-
-    }
-
 }
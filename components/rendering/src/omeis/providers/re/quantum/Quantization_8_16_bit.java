@@ -8,6 +8,7 @@
 package omeis.providers.re.quantum;
 
 // Java imports
+import java.nio.ByteBuffer;
 
 // Third-party libraries
 import org.apache.commons.logging.Log;
@@ -16,6 +17,7 @@ import org.apache.commons.logging.LogFactory;
 // Application-internal dependencies
 import ome.model.display.QuantumDef;
 import ome.model.enums.PixelsType;
+import ome.util.PixelData;
 
 /**
  * Quantization process. In charge of building a look-up table for each active
@@ -339,4 +341,66 @@ public class Quantization_8_16_bit extends QuantumStrategy {
         return i & 0xFF; // assumed x in [min, max]
     }
 
+    /**
+     * Implemented as specified in {@link QuantumStrategy}. The
+     * <code>uint8</code>, <code>int8</code>, <code>uint16</code>,
+     * <code>int16</code> and <code>float</code> pixels types read the
+     * values directly from the underlying buffer and index the look-up table
+     * without going through {@link #quantize(double)}, unless a value falls
+     * outside of the table.
+     * 
+     * @see QuantumStrategy#quantize(PixelData, int, int, byte[], int)
+     */
+    @Override
+    public void quantize(PixelData data, int offset, int length, byte[] out,
+            int outOffset) throws QuantizationException {
+        ByteBuffer buf = data.getData();
+        byte[] lut = LUT;
+        int lo = lutMin;
+        int hi = lutMax;
+        int end = offset + length;
+        int x, j = outOffset;
+        switch (data.javaType()) {
+            case PixelData.BYTE:
+                if (data.isSigned()) {
+                    for (int i = offset; i < end; i++, j++) {
+                        x = buf.get(i);
+                        out[j] = x >= lo && x <= hi?
+                                lut[x - lo] : (byte) quantize(x);
+                    }
+                } else {
+                    for (int i = offset; i < end; i++, j++) {
+                        x = buf.get(i) & 0xFF;
+                        out[j] = x >= lo && x <= hi?
+                                lut[x - lo] : (byte) quantize(x);
+                    }
+                }
+                break;
+            case PixelData.SHORT:
+                if (data.isSigned()) {
+                    for (int i = offset; i < end; i++, j++) {
+                        x = buf.getShort(i << 1);
+                        out[j] = x >= lo && x <= hi?
+                                lut[x - lo] : (byte) quantize(x);
+                    }
+                } else {
+                    for (int i = offset; i < end; i++, j++) {
+                        x = buf.getShort(i << 1) & 0xFFFF;
+                        out[j] = x >= lo && x <= hi?
+                                lut[x - lo] : (byte) quantize(x);
+                    }
+                }
+                break;
+            case PixelData.FLOAT:
+                for (int i = offset; i < end; i++, j++) {
+                    x = (int) buf.getFloat(i << 2);
+                    out[j] = x >= lo && x <= hi?
+                            lut[x - lo] : (byte) quantize(x);
+                }
+                break;
+            default:
+                super.quantize(data, offset, length, out, outOffset);
+        }
+    }
+
 }
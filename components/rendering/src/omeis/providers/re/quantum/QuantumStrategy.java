@@ -15,6 +15,7 @@ package omeis.providers.re.quantum;
 import ome.model.display.QuantumDef;
 import ome.model.enums.Family;
 import ome.model.enums.PixelsType;
+import ome.util.PixelData;
 import omeis.providers.re.data.PlaneFactory;
 
 /**
@@ -487,4 +488,32 @@ public abstract class QuantumStrategy {
      */
     public abstract int quantize(double value) throws QuantizationException;
 
+    /**
+     * Maps a run of contiguous pixel intensity values to values in the
+     * codomain interval. This is equivalent to calling
+     * {@link #quantize(double)} for each value but allows subclasses to
+     * avoid the per pixel type dispatch of {@link PixelData}.
+     * 
+     * @param data
+     *            The pixel data to read the intensity values from.
+     * @param offset
+     *            The index, in pixels, of the first value to quantize.
+     * @param length
+     *            The number of values to quantize.
+     * @param out
+     *            The array to write the values in the codomain interval to,
+     *            i.e. sub-interval of [0, 255] stored as <code>byte</code>.
+     * @param outOffset
+     *            The index in <code>out</code> of the first value written.
+     * @throws QuantizationException
+     *             If one of the values cannot be quantized.
+     */
+    public void quantize(PixelData data, int offset, int length, byte[] out,
+            int outOffset) throws QuantizationException {
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] =
+                (byte) quantize(data.getPixelValue(offset + i));
+        }
+    }
+
 }
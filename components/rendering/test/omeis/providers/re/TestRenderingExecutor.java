@@ -0,0 +1,150 @@
+/*
+ * omeis.providers.re.TestRenderingExecutor
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Third-party libraries
+import org.testng.annotations.*;
+import junit.framework.TestCase;
+
+// Application-internal dependencies
+import omeis.providers.re.quantum.QuantizationException;
+
+/**
+ * Routine unit test for {@link RenderingExecutor}. Verifies that tasks are
+ * executed on the bounded pool, that a full queue pushes work back onto the
+ * calling thread, that tasks are rejected after shutdown and that task
+ * latency is reported.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class TestRenderingExecutor extends TestCase {
+
+    private RenderingExecutor executor; // Object under test.
+
+    @Override
+    @Configuration(beforeTestMethod = true)
+    protected void setUp() {
+        executor = new RenderingExecutor(2, 1);
+    }
+
+    @Override
+    @Configuration(afterTestMethod = true)
+    protected void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testDefaultSizing() {
+        RenderingExecutor e = new RenderingExecutor();
+        try {
+            assertEquals(Runtime.getRuntime().availableProcessors(),
+                    e.getParallelism());
+        } finally {
+            e.shutdown();
+        }
+        assertSame(RenderingExecutor.getDefault(),
+                RenderingExecutor.getDefault());
+    }
+
+    @Test
+    public void testTasksRunOnPool() throws Exception {
+        final List<String> names = new ArrayList<String>();
+        Future<Object> f = executor.submit(null, new RenderingTask() {
+            public Object call() throws QuantizationException {
+                names.add(Thread.currentThread().getName());
+                return null;
+            }
+        });
+        f.get(10, TimeUnit.SECONDS);
+        assertEquals(1, names.size());
+        assertTrue(names.get(0).startsWith("RenderingExecutor-"));
+        assertEquals(1, executor.getTaskCount());
+    }
+
+    @Test
+    public void testFullQueueRunsInCaller() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        RenderingTask blocking = new RenderingTask() {
+            public Object call() throws QuantizationException {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        };
+        // Two threads busy and one task queued.
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        futures.add(executor.submit(null, blocking));
+        futures.add(executor.submit(null, blocking));
+        while (executor.getActiveCount() < 2) {
+            Thread.sleep(10);
+        }
+        futures.add(executor.submit(null, blocking));
+        assertEquals(1, executor.getQueueDepth());
+
+        // The next task cannot be queued and is run by the caller.
+        final Thread caller = Thread.currentThread();
+        final boolean[] ranInCaller = new boolean[1];
+        executor.submit(null, new RenderingTask() {
+            public Object call() throws QuantizationException {
+                ranInCaller[0] = Thread.currentThread() == caller;
+                return null;
+            }
+        });
+        assertTrue(ranInCaller[0]);
+        release.countDown();
+        for (Future<Object> f : futures) {
+            f.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSubmitAfterShutdownIsRejected() {
+        executor.shutdown();
+        try {
+            executor.submit(null, new RenderingTask() {
+                public Object call() throws QuantizationException {
+                    return null;
+                }
+            });
+            fail("Task submitted after shutdown must be rejected.");
+        } catch (RejectedExecutionException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testStatsNotified() throws Exception {
+        RenderingStats stats = new RenderingStats(null, null);
+        Future<Object> f = executor.submit(stats, new RenderingTask() {
+            public Object call() throws QuantizationException {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        });
+        f.get(10, TimeUnit.SECONDS);
+        assertEquals(1, stats.getTaskCount());
+        assertEquals(0, stats.getQueueDepth());
+        assertTrue(stats.getTaskTime() >= 10);
+        assertTrue(executor.getTaskTime() >= 10);
+    }
+}
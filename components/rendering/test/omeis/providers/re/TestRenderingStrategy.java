@@ -0,0 +1,88 @@
+/*
+ * omeis.providers.re.TestRenderingStrategy
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+// Java imports
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Third-party libraries
+import org.testng.annotations.*;
+import junit.framework.TestCase;
+
+// Application-internal dependencies
+import ome.model.core.Pixels;
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.data.Plane2D;
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+import omeis.providers.re.quantum.QuantumFactory;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+/**
+ * Routine unit test for {@link RenderingStrategy#quantizeRow}. Verifies that
+ * a part of a row which does not start at the left edge of the plane is read
+ * from the row of the plane it belongs to.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class TestRenderingStrategy extends TestCase {
+
+    private static final int SIZE_X = 16;
+
+    private static final int SIZE_Y = 8;
+
+    private QuantumStrategy createStrategy(PixelsType type) {
+        QuantumDef qd = new QuantumDef();
+        qd.setCdStart(0);
+        qd.setCdEnd(255);
+        qd.setBitResolution(QuantumFactory.DEPTH_8BIT);
+        Family family = new Family();
+        family.setValue(QuantumFactory.LINEAR);
+        QuantumStrategy qs = new Quantization_8_16_bit(qd, type);
+        qs.setExtent(0, 65535);
+        qs.setMapping(family, 1.0, false);
+        qs.setWindow(1000, 40000);
+        return qs;
+    }
+
+    private Plane2D createPlane(PixelsType type) {
+        Pixels pixels = new Pixels();
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setPixelsType(type);
+        byte[] bytes = new byte[SIZE_X * SIZE_Y * 2];
+        new Random(0).nextBytes(bytes);
+        PixelData data = new PixelData("uint16", ByteBuffer.wrap(bytes));
+        return new Plane2D(new PlaneDef(PlaneDef.XY, 0), pixels, data);
+    }
+
+    @Test
+    public void testPartialRow() throws QuantizationException {
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        QuantumStrategy qs = createStrategy(type);
+        Plane2D plane = createPlane(type);
+        int x1Start = 5;
+        int x1End = 12;
+        byte[] row = new byte[x1End - x1Start];
+        for (int x2 = 0; x2 < SIZE_Y; x2++) {
+            RenderingStrategy.quantizeRow(
+                    plane, qs, SIZE_X, x1Start, x1End, x2, row);
+            for (int x1 = x1Start; x1 < x1End; x1++) {
+                assertEquals("Pixel " + x1 + "," + x2,
+                        qs.quantize(plane.getPixelValue(x1, x2)),
+                        row[x1 - x1Start] & 0xFF);
+            }
+        }
+    }
+}
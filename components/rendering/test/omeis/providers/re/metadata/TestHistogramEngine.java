@@ -0,0 +1,256 @@
+/*
+ * omeis.providers.re.metadata.TestHistogramEngine
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.metadata;
+
+// Java imports
+import java.awt.Dimension;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Third-party libraries
+import org.testng.annotations.*;
+import junit.framework.TestCase;
+
+// Application-internal dependencies
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+import omeis.providers.re.RenderingExecutor;
+
+/**
+ * Routine unit test for {@link HistogramEngine}. Verifies that the
+ * histograms computed on several threads match those computed on the calling
+ * thread, that the helpers run on the shared executor, that a lower resolution level is selected for pyramids and that
+ * the {@link StatsFactory} derives the input window from a histogram.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class TestHistogramEngine extends TestCase {
+
+    /** The width of the full resolution plane. */
+    private static final int SIZE_X = 100;
+
+    /** The height of the full resolution plane. */
+    private static final int SIZE_Y = 70;
+
+    /** The number of values of the full resolution plane. */
+    private static final int SIZE = SIZE_X * SIZE_Y;
+
+    /**
+     * Creates an unsigned 16-bit pixel buffer with 32x32 tiles. Channel
+     * <code>0</code> ramps from <code>0</code> to <code>999</code>, the
+     * other channels are constant. Each level of the pyramid is half the
+     * size of the next one.
+     *
+     * @param levels The number of resolution levels.
+     * @param reads Counts the tiles read, may be <code>null</code>.
+     * @return See above.
+     */
+    private PixelBuffer buffer(final int levels, final List<Thread> reads) {
+        InvocationHandler handler = new InvocationHandler() {
+            int level = levels - 1;
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                int scale = 1 << (levels - 1 - level);
+                if (name.equals("getResolutionLevels")) {
+                    return levels;
+                } else if (name.equals("setResolutionLevel")) {
+                    level = (Integer) args[0];
+                    return null;
+                } else if (name.equals("getSizeX")) {
+                    return SIZE_X / scale;
+                } else if (name.equals("getSizeY")) {
+                    return SIZE_Y / scale;
+                } else if (name.equals("getTileSize")) {
+                    return new Dimension(32, 32);
+                } else if (name.equals("getTile")) {
+                    if (reads != null) {
+                        synchronized (reads) {
+                            reads.add(Thread.currentThread());
+                        }
+                    }
+                    int c = (Integer) args[1];
+                    int x = (Integer) args[3];
+                    int y = (Integer) args[4];
+                    int w = (Integer) args[5];
+                    int h = (Integer) args[6];
+                    ByteBuffer data = ByteBuffer.allocate(w * h * 2);
+                    for (int j = 0; j < h; j++) {
+                        for (int i = 0; i < w; i++) {
+                            int v = c == 0 ?
+                                    ((x + i) + (y + j) * SIZE_X) % 1000 : 5;
+                            data.putShort((j * w + i) * 2, (short) v);
+                        }
+                    }
+                    return new PixelData("uint16", data);
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        };
+        return (PixelBuffer) Proxy.newProxyInstance(
+                PixelBuffer.class.getClassLoader(),
+                new Class[] { PixelBuffer.class }, handler);
+    }
+
+    @Test
+    public void testThreadsMatchCallingThread() throws IOException {
+        HistogramEngine engine = new HistogramEngine();
+        int[] channels = new int[] { 0, 1 };
+        double[] min = new double[] { 0, 0 };
+        double[] max = new double[] { 999, 999 };
+        ChannelHistogram[] single = engine.compute(
+                Collections.singletonList(buffer(1, null)), -1, 0, 0,
+                channels, min, max);
+        List<Thread> reads = new ArrayList<Thread>();
+        List<PixelBuffer> buffers = new ArrayList<PixelBuffer>();
+        for (int i = 0; i < 3; i++) {
+            buffers.add(buffer(1, reads));
+        }
+        ChannelHistogram[] multi = engine.compute(buffers, -1, 0, 0,
+                channels, min, max);
+        // 4 columns, 3 rows, 2 channels.
+        assertEquals(24, reads.size());
+        for (int c = 0; c < channels.length; c++) {
+            assertEquals(SIZE, single[c].getCount());
+            assertEquals(single[c].getCount(), multi[c].getCount());
+            assertEquals(single[c].getMin(), multi[c].getMin());
+            assertEquals(single[c].getMax(), multi[c].getMax());
+            for (int i = 0; i < single[c].getBinCount(); i++) {
+                assertEquals(single[c].getBin(i), multi[c].getBin(i));
+            }
+        }
+        assertEquals(0.0, single[0].getMin());
+        assertEquals(999.0, single[0].getMax());
+        assertEquals((long) SIZE, single[1].getTotals(1)[0]);
+    }
+
+    @Test
+    public void testHelpersRunOnExecutor() throws IOException {
+        RenderingExecutor executor = new RenderingExecutor(2, 4);
+        try {
+            HistogramEngine engine = new HistogramEngine(
+                    ChannelHistogram.DEFAULT_BIN_COUNT, 0, executor);
+            assertEquals(12, engine.countTiles(buffer(1, null)));
+            List<Thread> reads = new ArrayList<Thread>();
+            List<PixelBuffer> buffers = new ArrayList<PixelBuffer>();
+            for (int i = 0; i < 3; i++) {
+                buffers.add(buffer(1, reads));
+            }
+            ChannelHistogram[] h = engine.compute(buffers, -1, 0, 0,
+                    new int[] { 0 }, new double[] { 0 },
+                    new double[] { 999 });
+            assertEquals(SIZE, h[0].getCount());
+            assertEquals(12, reads.size());
+            for (Thread thread : reads) {
+                assertTrue(thread == Thread.currentThread()
+                        || thread.getName().startsWith("RenderingExecutor-"));
+            }
+
+            // Without the executor the calling thread reads every tile.
+            executor.shutdown();
+            reads.clear();
+            h = engine.compute(buffers, -1, 0, 0, new int[] { 0 },
+                    new double[] { 0 }, new double[] { 999 });
+            assertEquals(SIZE, h[0].getCount());
+            for (Thread thread : reads) {
+                assertSame(Thread.currentThread(), thread);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOutOfRangeValuesAreOnlyCounted() throws IOException {
+        HistogramEngine engine = new HistogramEngine(10, 0);
+        ChannelHistogram h = engine.compute(
+                Collections.singletonList(buffer(1, null)), -1, 0, 0,
+                new int[] { 0 }, new double[] { 100 },
+                new double[] { 199 })[0];
+        assertEquals(SIZE, h.getCount());
+        long binned = h.getTotals(1)[0];
+        // Each value between 100 and 199 is seen 7 times.
+        assertEquals(700, binned);
+        // The global maximum falls in the last bin.
+        assertTrue(h.getBin(9) > 0);
+    }
+
+    @Test
+    public void testResolutionLevelSelection() throws IOException {
+        assertEquals(-1, new HistogramEngine().selectResolutionLevel(
+                buffer(1, null)));
+        // 25x17, 50x35 and 100x70.
+        PixelBuffer pyramid = buffer(3, null);
+        assertEquals(1, new HistogramEngine(
+                ChannelHistogram.DEFAULT_BIN_COUNT, 1000)
+                .selectResolutionLevel(pyramid));
+        assertEquals(50, pyramid.getSizeX());
+        assertEquals(2, new HistogramEngine(
+                ChannelHistogram.DEFAULT_BIN_COUNT, 0)
+                .selectResolutionLevel(pyramid));
+        assertEquals(2, new HistogramEngine(
+                ChannelHistogram.DEFAULT_BIN_COUNT, SIZE * 2)
+                .selectResolutionLevel(pyramid));
+        ChannelHistogram h = new HistogramEngine().compute(
+                Collections.singletonList(pyramid), 1, 0, 0,
+                new int[] { 0 }, new double[] { 0 }, new double[] { 999 })[0];
+        assertEquals(1, h.getResolutionLevel());
+        assertEquals(50 * 35, h.getCount());
+    }
+
+    @Test
+    public void testFailureIsRethrown() {
+        PixelBuffer failing = (PixelBuffer) Proxy.newProxyInstance(
+                PixelBuffer.class.getClassLoader(),
+                new Class[] { PixelBuffer.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m,
+                            Object[] args) throws IOException {
+                        throw new IOException("Unreadable");
+                    }
+                });
+        List<PixelBuffer> buffers = new ArrayList<PixelBuffer>();
+        buffers.add(buffer(1, null));
+        buffers.add(failing);
+        try {
+            new HistogramEngine().compute(buffers, -1, 0, 0,
+                    new int[] { 0 }, new double[] { 0 },
+                    new double[] { 999 });
+            fail("Failure not rethrown.");
+        } catch (IOException e) {
+            assertEquals("Unreadable", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLocationStatsFromHistogram() throws IOException {
+        ChannelHistogram h = new HistogramEngine().compute(
+                Collections.singletonList(buffer(1, null)), -1, 0, 0,
+                new int[] { 1 }, new double[] { 0 },
+                new double[] { 1000 })[0];
+        StatsFactory sf = new StatsFactory();
+        sf.computeLocationStats(h);
+        // All the values are 5, in the first bin.
+        double sizeBin = 1000.0 / StatsFactory.NB_BIN;
+        assertEquals(StatsFactory.NB_BIN, sf.getLocationStats().length);
+        assertEquals(1.0, sf.getLocationStats()[0]);
+        assertEquals(sizeBin, sf.getInputStart());
+        assertEquals(1000.0, sf.getInputEnd(), 1e-6);
+
+        // A narrow interval is used as is.
+        sf.computeLocationStats(new ChannelHistogram(0, 10, 20, -1,
+                StatsFactory.NB_BIN));
+        assertEquals(10.0, sf.getInputStart());
+        assertEquals(20.0, sf.getInputEnd());
+        assertFalse(sf.isNoiseReduction());
+    }
+}
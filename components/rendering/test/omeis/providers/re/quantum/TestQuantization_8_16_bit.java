@@ -0,0 +1,117 @@
+/*
+ * omeis.providers.re.quantum.TestQuantization_8_16_bit
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.quantum;
+
+// Java imports
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Third-party libraries
+import org.testng.annotations.*;
+import junit.framework.TestCase;
+
+// Application-internal dependencies
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+/**
+ * Routine unit test for {@link Quantization_8_16_bit}. Verifies that the bulk
+ * quantization of a run of pixels matches the quantization of each of its
+ * values.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class TestQuantization_8_16_bit extends TestCase {
+
+    private Random random = new Random(0);
+
+    private QuantumStrategy createStrategy(String type, double min,
+            double max, double start, double end) {
+        QuantumDef qd = new QuantumDef();
+        qd.setCdStart(0);
+        qd.setCdEnd(255);
+        qd.setBitResolution(QuantumFactory.DEPTH_8BIT);
+        PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue(type);
+        Family family = new Family();
+        family.setValue(QuantumFactory.LINEAR);
+        QuantumStrategy qs = new Quantization_8_16_bit(qd, pixelsType);
+        qs.setExtent(min, max);
+        qs.setMapping(family, 1.0, false);
+        qs.setWindow(start, end);
+        return qs;
+    }
+
+    private void assertBulkMatches(QuantumStrategy qs, PixelData data)
+            throws QuantizationException {
+        int size = data.size();
+        int offset = 3;
+        int length = size - 2 * offset;
+        byte[] out = new byte[length + 1];
+        qs.quantize(data, offset, length, out, 1);
+        for (int i = 0; i < length; i++) {
+            assertEquals("Pixel " + (offset + i),
+                    qs.quantize(data.getPixelValue(offset + i)),
+                    out[i + 1] & 0xFF);
+        }
+    }
+
+    private PixelData createData(String type, int size) {
+        byte[] bytes = new byte[size * PixelData.getBitDepth(type) / 8];
+        random.nextBytes(bytes);
+        return new PixelData(type, ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void testUint8() throws QuantizationException {
+        QuantumStrategy qs = createStrategy("uint8", 0, 255, 20, 200);
+        assertBulkMatches(qs, createData("uint8", 1024));
+    }
+
+    @Test
+    public void testInt8() throws QuantizationException {
+        QuantumStrategy qs = createStrategy("int8", -128, 127, -50, 100);
+        assertBulkMatches(qs, createData("int8", 1024));
+    }
+
+    @Test
+    public void testUint16() throws QuantizationException {
+        QuantumStrategy qs = createStrategy("uint16", 0, 65535, 1000, 40000);
+        assertBulkMatches(qs, createData("uint16", 1024));
+    }
+
+    @Test
+    public void testInt16() throws QuantizationException {
+        QuantumStrategy qs =
+            createStrategy("int16", -32768, 32767, -1000, 20000);
+        assertBulkMatches(qs, createData("int16", 1024));
+    }
+
+    @Test
+    public void testFloat() throws QuantizationException {
+        QuantumStrategy qs = createStrategy("float", 0, 1000, 100, 900);
+        ByteBuffer buf = ByteBuffer.allocate(1024 * 4);
+        for (int i = 0; i < 1024; i++) {
+            // Include values outside of the look-up table.
+            buf.putFloat(i * 4, random.nextFloat() * 1200 - 100);
+        }
+        assertBulkMatches(qs, new PixelData("float", buf));
+    }
+
+    @Test
+    public void testInt32UsesScalarPath() throws QuantizationException {
+        QuantumStrategy qs = createStrategy("int32", 0, 1000, 100, 900);
+        ByteBuffer buf = ByteBuffer.allocate(256 * 4);
+        for (int i = 0; i < 256; i++) {
+            buf.putInt(i * 4, random.nextInt(1000));
+        }
+        assertBulkMatches(qs, new PixelData("int32", buf));
+    }
+}
@@ -33,6 +33,7 @@ import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.TileSizes;
 import ome.model.core.Pixels;
+import ome.util.BoundedExecutor;
 import ome.util.PixelData;
 import ome.xml.model.enums.DimensionOrder;
 import ome.xml.model.enums.EnumerationException;
@@ -122,6 +123,15 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /** The byte order of the compressed pyramid. */
     private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
 
+    /**
+     * The pool decoding the planes of the lower resolution levels when the
+     * writer is closed, if any.
+     */
+    private BoundedExecutor executor;
+
+    /** The maximum number of planes decoded at once on the pool. */
+    private int decoders = 1;
+
     public static final String PYR_LOCK_EXT = ".pyr_lock";
 
     /**
@@ -177,6 +187,36 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             writerFile = File.createTempFile("." + readerFile.getName(), ".tmp", readerDir);
             writerFile.deleteOnExit();
             acquireLock();
+            removeStaleWriterFiles();
+        }
+    }
+
+    /**
+     * Removes the temporary files left behind by writers which did not
+     * complete, for example because the server was stopped while the
+     * pyramid was being generated. Must only be called while holding the
+     * lock, since no other writer can then be using them.
+     */
+    private void removeStaleWriterFiles()
+    {
+        final String prefix = "." + readerFile.getName();
+        File[] files = readerFile.getParentFile().listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        for (File file : files)
+        {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(".tmp")
+                && !file.equals(writerFile))
+            {
+                log.info("Removing incomplete pyramid: " + file);
+                if (!file.delete())
+                {
+                    log.warn("Failed to remove incomplete pyramid: " + file);
+                }
+            }
         }
     }
 
@@ -193,6 +233,21 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
                 : ByteOrder.BIG_ENDIAN;
     }
 
+    /**
+     * Sets the pool on which the planes of the lower resolution levels are
+     * decoded when the pyramid is written. Must be called before the first
+     * tile is written.
+     * @param executor The pool or <code>null</code> to decode on the calling
+     * thread.
+     * @param decoders The maximum number of planes decoded at once.
+     */
+    public synchronized void setExecutor(BoundedExecutor executor,
+                                         int decoders)
+    {
+        this.executor = executor;
+        this.decoders = Math.max(1, decoders);
+    }
+
     /**
      * Initializes the writer. Since the reader location is not present until
      * this instance is closed, other {@link ByPyramidPixelBuffer} instances
@@ -220,6 +275,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             metadata = service.createOMEXMLMetadata();
             addSeries(tileWidth, tileLength);
             writer = new OmeroPixelsPyramidWriter();
+            writer.setExecutor(executor, decoders);
             writer.setMetadataRetrieve(metadata);
             writer.setCompression(compression);
             writer.setWriteSequentially(true);
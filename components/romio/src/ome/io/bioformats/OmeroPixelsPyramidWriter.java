@@ -8,6 +8,17 @@
 package ome.io.bioformats;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import ome.util.BoundedExecutor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -38,6 +49,29 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
     /** TIFF tag we're using to store the Bio-Formats plane number. */
     public static final int IFD_TAG_PLANE_NUMBER = 65001;
 
+    /** The pool decoding the planes during post processing, if any. */
+    private BoundedExecutor executor;
+
+    /** The maximum number of planes decoded at once on the pool. */
+    private int decoders = 1;
+
+    /**
+     * Sets the pool on which the planes of the resolution levels which are
+     * re-compressed are decoded, i.e. downsampled from the JPEG 2000
+     * resolution levels of the source series. Each decoder has a reader of
+     * its own. The planes are still compressed and written in order by the
+     * thread closing the writer, since the TIFF saver compresses each plane
+     * as it appends it to the file.
+     * @param executor The pool or <code>null</code> to decode on the calling
+     * thread.
+     * @param decoders The maximum number of planes decoded at once.
+     */
+    public void setExecutor(BoundedExecutor executor, int decoders)
+    {
+        this.executor = executor;
+        this.decoders = Math.max(1, decoders);
+    }
+
     /* (non-Javadoc)
      * @see loci.formats.out.TiffWriter#close()
      */
@@ -79,52 +113,227 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
      */
     protected void postProcess() throws IOException, FormatException
     {
-        TiffReader reader = new TiffReader();
+        // The readers are all opened here, before anything is appended to
+        // the file, so that none of them parses a partially written IFD.
+        int count = executor == null ? 1 : decoders;
+        List<TiffReader> readers = new ArrayList<TiffReader>();
         try
         {
-            reader.setId(currentId);
+            for (int i = 0; i < count; i++)
+            {
+                TiffReader reader = new TiffReader();
+                readers.add(reader);
+                reader.setId(currentId);
+            }
             // First we want to re-compress resolution level 0 (the source series,
             // with resolution levels exposed, are in reverse order).
-            recompressSeries(reader, 1);
+            recompressSeries(readers, 1);
             // Second we want to re-compress resolution level 1 (the source series,
             // with resolution levels exposed, are in reverse order).
-            recompressSeries(reader, 2);
+            recompressSeries(readers, 2);
         } finally {
-            reader.close();
+            for (TiffReader reader : readers)
+            {
+                reader.close();
+            }
         }
     }
 
     /**
      * Re-compresses a source series, that is JPEG 2000 compressed, via its
-     * resolution level.
-     * @param source Reader created of ourselves.
+     * resolution level. The planes are decoded ahead on the pool, if any,
+     * and compressed and written in order by the calling thread.
+     * @param sources Readers created of ourselves, one per decoder.
      * @param series Target series for the re-compressed data which is the
      * inverse of the source resolution level.
      * @throws FormatException
      * @throws IOException
      */
-    protected void recompressSeries(TiffReader source, int series)
+    protected void recompressSeries(List<TiffReader> sources, int series)
         throws FormatException, IOException
     {
+        TiffReader source = sources.get(0);
         int sourceSeries = source.getSeriesCount() - series;
-        source.setSeries(sourceSeries);
+        for (TiffReader reader : sources)
+        {
+            reader.setSeries(sourceSeries);
+        }
         int imageCount = source.getImageCount();
         setSeries(series);
-        for (int i = 0; i < imageCount; i++)
+        PlaneDecoder planes = new PlaneDecoder(sources, imageCount);
+        try
+        {
+            for (int i = 0; i < imageCount; i++)
+            {
+                byte[] plane = planes.take(i);
+                IFD ifd = new IFD();
+                // Ensure that we're compressing all rows of the image in a single
+                // JPEG 2000 block.
+                ifd.put(IFD.ROWS_PER_STRIP, new long[] { source.getSizeY() });
+                // Set the TIFF image description so that we are able to
+                // differentiate ourselves from basic TIFFs.
+                ifd.put(IFD.IMAGE_DESCRIPTION, IMAGE_DESCRIPTION);
+                // First re-usable TIFF IFD (series)
+                ifd.put(IFD_TAG_SERIES, sourceSeries - 1);
+                // Second re-usable TIFF IFD (plane number)
+                ifd.put(IFD_TAG_PLANE_NUMBER, i);
+                saveBytes(i, plane, ifd);
+            }
+        }
+        finally
+        {
+            planes.stop();
+        }
+    }
+
+    /**
+     * Decodes the planes of a series ahead of the thread writing them, on
+     * the pool if any. A plane which the pool rejects is decoded by the
+     * calling thread. Each decoding borrows one of the readers, which are
+     * not safe for concurrent use.
+     */
+    private class PlaneDecoder
+    {
+
+        /** The readers which are not decoding a plane. */
+        private final List<TiffReader> idle;
+
+        /** The total number of readers. */
+        private final int readerCount;
+
+        /** The number of planes of the series. */
+        private final int imageCount;
+
+        /** The pending planes by index. */
+        private final Map<Integer, Future<byte[]>> pending =
+            new HashMap<Integer, Future<byte[]>>();
+
+        /** The index of the next plane to submit. */
+        private int next;
+
+        PlaneDecoder(List<TiffReader> sources, int imageCount)
+        {
+            this.idle = new ArrayList<TiffReader>(sources);
+            this.readerCount = sources.size();
+            this.imageCount = imageCount;
+        }
+
+        /**
+         * Returns a plane, submitting the following ones.
+         * @param index The index of the plane.
+         * @return See above.
+         */
+        byte[] take(int index) throws FormatException, IOException
         {
-            byte[] plane = source.openBytes(i);
-            IFD ifd = new IFD();
-            // Ensure that we're compressing all rows of the image in a single
-            // JPEG 2000 block.
-            ifd.put(IFD.ROWS_PER_STRIP, new long[] { source.getSizeY() });
-            // Set the TIFF image description so that we are able to
-            // differentiate ourselves from basic TIFFs.
-            ifd.put(IFD.IMAGE_DESCRIPTION, IMAGE_DESCRIPTION);
-            // First re-usable TIFF IFD (series)
-            ifd.put(IFD_TAG_SERIES, sourceSeries - 1);
-            // Second re-usable TIFF IFD (plane number)
-            ifd.put(IFD_TAG_PLANE_NUMBER, i);
-            saveBytes(i, plane, ifd);
+            if (executor == null)
+            {
+                return idle.get(0).openBytes(index);
+            }
+            while (next < imageCount && next < index + readerCount)
+            {
+                pending.put(next, submit(next));
+                next++;
+            }
+            try
+            {
+                return pending.remove(index).get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decoding planes.");
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof FormatException)
+                {
+                    throw (FormatException) cause;
+                }
+                if (cause instanceof IOException)
+                {
+                    throw (IOException) cause;
+                }
+                throw new FormatException("Error decoding plane " + index,
+                                          cause);
+            }
+        }
+
+        /**
+         * Submits the decoding of a plane.
+         * @param index The index of the plane.
+         * @return The pending plane.
+         */
+        private Future<byte[]> submit(final int index)
+        {
+            Callable<byte[]> decode = new Callable<byte[]>() {
+                public byte[] call() throws Exception
+                {
+                    TiffReader reader = acquire();
+                    try
+                    {
+                        return reader.openBytes(index);
+                    }
+                    finally
+                    {
+                        release(reader);
+                    }
+                }
+            };
+            try
+            {
+                return executor.submit(decode);
+            }
+            catch (RejectedExecutionException e)
+            {
+                FutureTask<byte[]> task = new FutureTask<byte[]>(decode);
+                task.run();
+                return task;
+            }
+        }
+
+        private synchronized TiffReader acquire() throws InterruptedException
+        {
+            while (idle.isEmpty())
+            {
+                wait();
+            }
+            return idle.remove(idle.size() - 1);
+        }
+
+        private synchronized void release(TiffReader reader)
+        {
+            idle.add(reader);
+            notifyAll();
+        }
+
+        /**
+         * Discards the planes not taken and waits for the readers to be
+         * returned, so that they can be closed.
+         */
+        synchronized void stop()
+        {
+            for (Future<byte[]> plane : pending.values())
+            {
+                plane.cancel(false);
+            }
+            pending.clear();
+            boolean interrupted = false;
+            while (idle.size() < readerCount)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 }
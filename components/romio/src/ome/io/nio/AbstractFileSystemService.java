@@ -31,6 +31,9 @@ public class AbstractFileSystemService {
 
     public final static String THUMBNAILS_PATH = "Thumbnails" + File.separator;
 
+    public final static String RENDERED_TILES_PATH = "RenderedTiles"
+            + File.separator;
+
     private final String root;
 
     public AbstractFileSystemService(String path) {
@@ -111,6 +114,22 @@ public class AbstractFileSystemService {
         return getPath(THUMBNAILS_PATH, id);
     }
 
+    /**
+     * Returns a numbered path relative to the root of this service, but is
+     * ignorant of FS and similar constructs. For example, given an id of 123456
+     * this will return "ROOT/RenderedTiles/Dir-123/123456". The path is the
+     * directory holding the cached rendered tiles of the Pixels set.
+     *
+     * Should be marked protected in 4.4  because assumptions on the existence
+     * of this file can be dangerous.
+     *
+     * @param id
+     * @return
+     */
+    public /*protected*/ String getRenderedTilesPath(Long id) {
+        return getPath(RENDERED_TILES_PATH, id);
+    }
+
     private String getPath(String prefix, Long id) {
         String suffix = "";
         Long remaining = id;
@@ -0,0 +1,82 @@
+/*
+ * ome.io.nio.DirectBufferPool
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * Pool of direct {@link ByteBuffer} instances of a single size. Direct
+ * buffers are expensive to allocate and are only freed once the garbage
+ * collector finds them, so buffers used for short periods, e.g. by one
+ * {@link FileBuffer} per download, are recycled here instead.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class DirectBufferPool {
+
+    private final int bufferSize;
+
+    private final int maxPooled;
+
+    /** Guarded by this. */
+    private final LinkedList<ByteBuffer> pool = new LinkedList<ByteBuffer>();
+
+    /**
+     * @param bufferSize
+     *            capacity of the buffers handed out.
+     * @param maxPooled
+     *            maximum number of released buffers kept for reuse.
+     */
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns a cleared buffer, allocating one if none is pooled.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            buffer = pool.poll();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer acquired from this pool. The buffer must not be used
+     * afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize) {
+            return;
+        }
+        synchronized (this) {
+            if (pool.size() < maxPooled) {
+                pool.add(buffer);
+            }
+        }
+    }
+
+    /**
+     * Number of buffers currently available for reuse.
+     */
+    public synchronized int getPooled() {
+        return pool.size();
+    }
+
+}
@@ -6,17 +6,22 @@
  */
 package ome.io.nio;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import ome.model.core.OriginalFile;
 
 /**
  * Raw file buffer which provides I/O operations within the OMERO file
- * repository.
+ * repository. Instances are not thread-safe and must only be used by one
+ * thread at a time, as the stateful services owning them are. Several
+ * instances may however be open on the same file, in which case the data
+ * read ahead by one of them is dropped once another one writes to the file.
  * 
  * @author Chris Allan &nbsp;&nbsp;&nbsp;&nbsp; <a
  *         href="mailto:callan@blackcat.ca">callan@blackcat.ca</a>
@@ -31,6 +36,35 @@ public class FileBuffer extends AbstractBuffer {
     /** The file's I/O channel. */
     FileChannel channel;
 
+    /** Digest of the data written in order from the start of the file. */
+    private final IncrementalDigest digest = new IncrementalDigest();
+
+    /** Source of {@link #window}. Null disables read-ahead. */
+    private DirectBufferPool readAhead;
+
+    /**
+     * Data read ahead of sequential reads. Its limit is the number of valid
+     * bytes, which start at {@link #windowStart}.
+     */
+    private ByteBuffer window;
+
+    private long windowStart;
+
+    /** Position following the last read, or -1. */
+    private long expected = -1;
+
+    /**
+     * Write counters shared by the buffers of an {@link OriginalFilesService},
+     * each file using the counter at {@link #stripe()}. Null if not shared.
+     */
+    private AtomicLongArray writes;
+
+    /** Value of the file's write counter when {@link #window} was filled. */
+    private long windowWrites;
+
+    /** Size of the file when {@link #window} was filled. */
+    private long windowFileSize;
+
     /**
      * Default constructor.
      * 
@@ -56,11 +90,32 @@ public class FileBuffer extends AbstractBuffer {
      *             if an I/O error occurs.
      */
     public void close() throws IOException {
+        if (window != null) {
+            readAhead.release(window);
+            window = null;
+        }
         if (channel != null) {
             channel.close();
         }
     }
 
+    /**
+     * Enables read-ahead. Once reads follow each other, each window of the
+     * pool's buffer size is read from the file at once and the following
+     * reads are copied from it.
+     *
+     * @param pool
+     *            Source of the windows. Null disables read-ahead.
+     * @param writes
+     *            Counters incremented by each write through any buffer of
+     *            the same service so that a window is dropped once its file
+     *            is modified by another buffer.
+     */
+    void setReadAhead(DirectBufferPool pool, AtomicLongArray writes) {
+        this.readAhead = pool;
+        this.writes = writes;
+    }
+
     /**
      * Retrieve the NIO channel that corresponds to this file.
      * 
@@ -90,7 +145,18 @@ public class FileBuffer extends AbstractBuffer {
      * @see java.nio.FileChannel#read(java.nio.ByteBuffer, long)
      */
     public int read(ByteBuffer dst, long position) throws IOException {
-        return getFileChannel().read(dst, position);
+        final int length = dst.remaining();
+        final boolean sequential = position == expected;
+        expected = position + length;
+        if (inWindow(position, length)) {
+            return copyFromWindow(dst, position);
+        }
+        if (!sequential || readAhead == null
+                || length >= readAhead.getBufferSize()) {
+            return getFileChannel().read(dst, position);
+        }
+        fillWindow(position);
+        return copyFromWindow(dst, position);
     }
 
     /**
@@ -99,7 +165,13 @@ public class FileBuffer extends AbstractBuffer {
      * @see java.nio.FileChannel#write(java.nio.ByteBuffer, long)
      */
     public int write(ByteBuffer src, long position) throws IOException {
-        return getFileChannel().write(src, position);
+        dropWindow();
+        ByteBuffer written = src.duplicate();
+        int count = getFileChannel().write(src, position);
+        written.limit(written.position() + count);
+        digest.update(written, position);
+        written();
+        return count;
     }
 
     /**
@@ -108,7 +180,15 @@ public class FileBuffer extends AbstractBuffer {
      * @see java.nio.FileChannel#write(java.nio.ByteBuffer)
      */
     public int write(ByteBuffer src) throws IOException {
-        return getFileChannel().write(src);
+        dropWindow();
+        FileChannel channel = getFileChannel();
+        long position = channel.position();
+        ByteBuffer written = src.duplicate();
+        int count = channel.write(src);
+        written.limit(written.position() + count);
+        digest.update(written, position);
+        written();
+        return count;
     }
 
     /**
@@ -134,6 +214,115 @@ public class FileBuffer extends AbstractBuffer {
     }
 
     public void truncate(long size) throws IOException {
+        dropWindow();
         getFileChannel().truncate(size);
+        digest.truncate(size);
+        written();
+    }
+
+    /**
+     * Calculates the SHA-1 digest of the file. If the file has been written
+     * in order from its start through this buffer, the digest is taken from
+     * the written data, otherwise the whole file is read.
+     *
+     * @return the digest.
+     * @throws RuntimeException
+     *             wrapping a {@link FileNotFoundException} if the file has
+     *             been deleted.
+     */
+    public byte[] calculateMessageDigest() {
+        File onDisk = new File(getPath());
+        byte[] hash = null;
+        if (onDisk.exists()) {
+            hash = digest.digest(onDisk.length());
+        }
+        if (hash == null) {
+            hash = ome.util.Utils.pathToSha1(getPath());
+        }
+        return hash;
+    }
+
+    //
+    // Read-ahead
+    //
+
+    /**
+     * Returns true if the window holds the requested data and the file has
+     * neither been written through another buffer nor changed size since
+     * the window was filled.
+     */
+    private boolean inWindow(long position, int length) throws IOException {
+        if (window == null || position < windowStart
+                || position + length > windowStart + window.limit()) {
+            return false;
+        }
+        if (writes != null && writes.get(stripe()) != windowWrites
+                || getFileChannel().size() != windowFileSize) {
+            dropWindow();
+            return false;
+        }
+        return true;
+    }
+
+    private void fillWindow(long position) throws IOException {
+        if (window == null) {
+            window = readAhead.acquire();
+        }
+        window.clear();
+        FileChannel channel = getFileChannel();
+        // Taken before reading so that a concurrent write drops the window.
+        if (writes != null) {
+            windowWrites = writes.get(stripe());
+        }
+        windowFileSize = channel.size();
+        while (window.hasRemaining()) {
+            if (channel.read(window, position + window.position()) < 0) {
+                break;
+            }
+        }
+        window.flip();
+        windowStart = position;
+    }
+
+    /**
+     * Copies as much of the requested data as the window holds, returning
+     * -1 like {@link FileChannel#read(ByteBuffer, long)} at the end of the
+     * file.
+     */
+    private int copyFromWindow(ByteBuffer dst, long position) {
+        int offset = (int) (position - windowStart);
+        int count = Math.min(dst.remaining(), window.limit() - offset);
+        if (count <= 0) {
+            return dst.hasRemaining() ? -1 : 0;
+        }
+        ByteBuffer slice = window.duplicate();
+        slice.position(offset);
+        slice.limit(offset + count);
+        dst.put(slice);
+        return count;
+    }
+
+    private void dropWindow() {
+        if (window != null) {
+            window.limit(0);
+        }
+        expected = -1;
+    }
+
+    /**
+     * Drops the windows of the buffers open on the same file.
+     */
+    private void written() {
+        if (writes != null) {
+            writes.incrementAndGet(stripe());
+        }
+    }
+
+    /**
+     * Returns the index of the counter of this file in {@link #writes}.
+     * Files sharing a counter only drop each other's windows more often.
+     */
+    private int stripe() {
+        return (int) ((getId() & Long.MAX_VALUE) % writes.length());
     }
 }
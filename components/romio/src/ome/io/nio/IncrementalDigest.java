@@ -0,0 +1,160 @@
+/*
+ * ome.io.nio.IncrementalDigest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.TreeMap;
+
+/**
+ * SHA-1 digest of a file which is kept up to date while the file is written
+ * from its start, so that the digest of a newly written file is available
+ * without reading the file back. Writes which arrive ahead of the current
+ * position, as happens when several uploads are in flight at once, are held
+ * in memory up to a limit until the gap before them has been filled. Any
+ * other write, e.g. one which overwrites data already digested, invalidates
+ * the digest and callers must then read the whole file.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class IncrementalDigest {
+
+    /** Default number of bytes held for writes ahead of the position. */
+    public static final int DEFAULT_MAX_PENDING = 16 * 1024 * 1024;
+
+    private final int maxPending;
+
+    /** Writes ahead of {@link #position} by offset. */
+    private final TreeMap<Long, byte[]> pending = new TreeMap<Long, byte[]>();
+
+    private int pendingBytes = 0;
+
+    /** Null once invalidated. */
+    private MessageDigest md;
+
+    /** Number of bytes digested. */
+    private long position = 0;
+
+    public IncrementalDigest() {
+        this(DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param maxPending
+     *            maximum number of bytes held for writes ahead of the
+     *            current position before the digest is invalidated.
+     */
+    public IncrementalDigest(int maxPending) {
+        this.maxPending = maxPending;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(
+                    "Required SHA-1 message digest algorithm unavailable.");
+        }
+    }
+
+    /**
+     * Records that the remaining bytes of the given buffer have been written
+     * at the given offset. The position of the buffer is not changed.
+     */
+    public synchronized void update(ByteBuffer src, long offset) {
+        if (md == null) {
+            return;
+        }
+        int length = src.remaining();
+        if (offset == position) {
+            md.update(src.duplicate());
+            position += length;
+            drain();
+        } else if (offset > position && pendingBytes + length <= maxPending
+                && !pending.containsKey(offset)) {
+            byte[] copy = new byte[length];
+            src.duplicate().get(copy);
+            pending.put(offset, copy);
+            pendingBytes += length;
+        } else {
+            invalidate();
+        }
+    }
+
+    /**
+     * Records that the file has been truncated to the given size.
+     */
+    public synchronized void truncate(long size) {
+        if (md == null) {
+            return;
+        }
+        if (size < position) {
+            invalidate();
+        } else if (!pending.isEmpty()) {
+            long last = pending.lastKey();
+            if (size < last + pending.get(last).length) {
+                invalidate();
+            }
+        }
+    }
+
+    /**
+     * Stops tracking. Further calls to {@link #digest(long)} return null.
+     */
+    public synchronized void invalidate() {
+        md = null;
+        pending.clear();
+        pendingBytes = 0;
+    }
+
+    public synchronized boolean isValid() {
+        return md != null;
+    }
+
+    /**
+     * Number of bytes from the start of the file which have been digested.
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the digest if exactly the given number of bytes have been
+     * written in order, otherwise null. Tracking continues, so later writes
+     * which extend the file are still digested.
+     */
+    public synchronized byte[] digest(long size) {
+        if (md == null || position != size || !pending.isEmpty()) {
+            return null;
+        }
+        try {
+            return ((MessageDigest) md.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Digests the pending writes which have become contiguous.
+     */
+    private void drain() {
+        while (!pending.isEmpty()) {
+            long offset = pending.firstKey();
+            if (offset > position) {
+                return;
+            } else if (offset < position) {
+                // Overlapping writes
+                invalidate();
+                return;
+            }
+            byte[] bytes = pending.remove(offset);
+            pendingBytes -= bytes.length;
+            md.update(bytes);
+            position += bytes.length;
+        }
+    }
+
+}
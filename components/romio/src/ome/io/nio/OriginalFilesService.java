@@ -9,6 +9,7 @@ package ome.io.nio;
 import java.io.File;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,6 +32,24 @@ public class OriginalFilesService extends AbstractFileSystemService {
 	private transient static Log log = LogFactory
 			.getLog(OriginalFilesService.class);
 
+    /** Number of write counters shared by the files. */
+    private static final int WRITE_STRIPES = 64;
+
+    /** Size of the read-ahead windows. 0 disables read-ahead. */
+    private int readAheadSize = 0;
+
+    /** Number of read-ahead windows kept for reuse. */
+    private int readAheadPool = 0;
+
+    /** Created on first use. */
+    private DirectBufferPool pool;
+
+    /**
+     * Counters of the writes through the buffers of this service, see
+     * {@link FileBuffer#setReadAhead(DirectBufferPool, AtomicLongArray)}.
+     */
+    private final AtomicLongArray writes = new AtomicLongArray(WRITE_STRIPES);
+
     /**
      * Constructor
      * @param path
@@ -39,6 +58,25 @@ public class OriginalFilesService extends AbstractFileSystemService {
         super(path);
     }
 
+    /**
+     * Sets the size in bytes of the window read ahead by the returned
+     * {@link FileBuffer} instances when they are read sequentially.
+     * 0 disables read-ahead.
+     */
+    public synchronized void setReadAheadSize(int readAheadSize) {
+        this.readAheadSize = readAheadSize;
+        this.pool = null;
+    }
+
+    /**
+     * Sets the number of read-ahead windows kept for reuse once their
+     * {@link FileBuffer} has been closed.
+     */
+    public synchronized void setReadAheadPool(int readAheadPool) {
+        this.readAheadPool = readAheadPool;
+        this.pool = null;
+    }
+
     /**
      * Returns FileBuffer based on OriginalFile path
      * 
@@ -48,7 +86,16 @@ public class OriginalFilesService extends AbstractFileSystemService {
     public FileBuffer getFileBuffer(OriginalFile file) {
         String path = getFilesPath(file.getId());
         createSubpath(path);
-        return new FileBuffer(path, file);
+        FileBuffer buffer = new FileBuffer(path, file);
+        buffer.setReadAhead(getPool(), writes);
+        return buffer;
+    }
+
+    private synchronized DirectBufferPool getPool() {
+        if (pool == null && readAheadSize > 0) {
+            pool = new DirectBufferPool(readAheadSize, readAheadPool);
+        }
+        return pool;
     }
     
     /**
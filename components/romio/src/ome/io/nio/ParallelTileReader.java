@@ -0,0 +1,379 @@
+/*
+ * ome.io.nio.ParallelTileReader
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.util.BoundedExecutor;
+import ome.util.PixelData;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads every tile of a pixel buffer on the threads of a shared
+ * {@link BoundedExecutor} and hands them to
+ * a {@link TileHandler} on the calling thread in the order of
+ * {@link Utils#forEachTile(TileLoopIteration, PixelBuffer, int, int)}. This
+ * allows a sequential writer, such as the TIFF writer behind a pixels
+ * pyramid, to compress a tile while the following tiles are being read.
+ * <p>
+ * Each reader uses its own pixel buffer since the pixel buffer
+ * implementations are not safe for concurrent use. All the pixel buffers must
+ * be backed by the same pixels set. The number of tiles read ahead of the
+ * handler is bounded to keep the memory usage in check.
+ * </p>
+ * <p>
+ * Readers wait for the handler, so they must not be run by the calling
+ * thread: the executor has to reject the readers it cannot queue. If not a
+ * single reader is accepted, the calling thread reads the tiles itself.
+ * </p>
+ *
+ * @since OMERO-Beta4.3
+ */
+public class ParallelTileReader {
+
+    /** The logger for this particular class */
+    private static Log log = LogFactory.getLog(ParallelTileReader.class);
+
+    /** The number of tiles each reader may read ahead of the handler. */
+    public static final int READ_AHEAD = 4;
+
+    /**
+     * Handles a tile once it has been read.
+     */
+    public interface TileHandler {
+
+        /**
+         * Handles a single tile. Invoked on the thread which called
+         * {@link ParallelTileReader#run(TileHandler)}.
+         * @param tile The pixel data of the tile.
+         * @param z Z section of the tile.
+         * @param c Channel of the tile.
+         * @param t Timepoint of the tile.
+         * @param x X offset of the tile within the plane.
+         * @param y Y offset of the tile within the plane.
+         * @param w Width of the tile.
+         * @param h Height of the tile.
+         * @param tileCount Counter of the tile since the beginning of the
+         * loop.
+         * @throws IOException If the tile cannot be handled. No further tile
+         * is handled.
+         */
+        void handle(PixelData tile, int z, int c, int t, int x, int y,
+                    int w, int h, int tileCount) throws IOException;
+    }
+
+    /** The executor running the readers. */
+    private final BoundedExecutor executor;
+
+    /** The pixel buffers, one per reader. */
+    private final List<PixelBuffer> sources;
+
+    /** The tiles to read in order, as <code>{z, c, t, x, y, w, h}</code>. */
+    private final List<int[]> tiles = new ArrayList<int[]>();
+
+    /** The maximum number of tiles read but not yet handled. */
+    private final int window;
+
+    /** Guards the state shared between the reader threads and the handler. */
+    private final Object lock = new Object();
+
+    /** Tiles which have been read and are waiting to be handled. */
+    private final Map<Integer, PixelData> ready =
+        new HashMap<Integer, PixelData>();
+
+    /** The index of the next tile to be handled. */
+    private int handled;
+
+    /** The first error encountered by a reader thread. */
+    private IOException failure;
+
+    /** Set when the readers must stop, on completion or error. */
+    private boolean stopped;
+
+    /** The number of readers which started and have not returned yet. */
+    private int active;
+
+    /** The index of the next tile to be read. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a new instance.
+     * @param executor The executor running the readers, rejecting the
+     * readers it cannot queue.
+     * @param sources The pixel buffers to read from, one per reader.
+     * Only the first buffer is used when there are fewer tiles than buffers.
+     * The buffers are not closed by this class.
+     * @param tileWidth <b>Maximum</b> width of the tiles to read.
+     * @param tileHeight <b>Maximum</b> height of the tiles to read.
+     */
+    public ParallelTileReader(BoundedExecutor executor,
+                              List<PixelBuffer> sources, int tileWidth,
+                              int tileHeight)
+    {
+        if (sources.isEmpty())
+        {
+            throw new IllegalArgumentException("No pixel buffer to read.");
+        }
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int w, int h,
+                            int tileCount)
+            {
+                tiles.add(new int[] { z, c, t, x, y, w, h });
+            }
+        }, sources.get(0), tileWidth, tileHeight);
+        this.executor = executor;
+        this.sources = sources.subList(
+                0, Math.max(1, Math.min(sources.size(), tiles.size())));
+        this.window = this.sources.size() * READ_AHEAD;
+    }
+
+    /**
+     * Returns the number of tiles which will be read.
+     * @return See above.
+     */
+    public int getTileCount()
+    {
+        return tiles.size();
+    }
+
+    /**
+     * Reads all the tiles and hands them, in order, to the handler.
+     * @param handler The handler to invoke for each tile.
+     * @return The total number of tiles handled.
+     * @throws IOException If a tile cannot be read or handled.
+     */
+    public int run(TileHandler handler) throws IOException
+    {
+        if (tiles.isEmpty())
+        {
+            return 0;
+        }
+        List<Future<?>> readers = new ArrayList<Future<?>>();
+        try
+        {
+            for (PixelBuffer source : sources)
+            {
+                readers.add(executor.submit(new Reader(source)));
+            }
+        }
+        catch (RejectedExecutionException e)
+        {
+            log.debug(String.format("Reading with %d of %d readers, "
+                    + "the executor is saturated.", readers.size(),
+                    sources.size()));
+        }
+        if (readers.isEmpty())
+        {
+            return runSequentially(handler);
+        }
+        try
+        {
+            for (int i = 0; i < tiles.size(); i++)
+            {
+                PixelData tile = take(i);
+                int[] p = tiles.get(i);
+                handler.handle(tile, p[0], p[1], p[2], p[3], p[4], p[5], p[6],
+                               i);
+            }
+            return tiles.size();
+        }
+        finally
+        {
+            boolean interrupted = false;
+            synchronized (lock)
+            {
+                stopped = true;
+                ready.clear();
+                lock.notifyAll();
+                // Readers which have not started never will, the others
+                // return once they notice that they have been stopped.
+                for (Future<?> reader : readers)
+                {
+                    reader.cancel(false);
+                }
+                while (active > 0)
+                {
+                    try
+                    {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reads and handles all the tiles on the calling thread with the first
+     * pixel buffer.
+     * @param handler The handler to invoke for each tile.
+     * @return The total number of tiles handled.
+     * @throws IOException If a tile cannot be read or handled.
+     */
+    private int runSequentially(TileHandler handler) throws IOException
+    {
+        PixelBuffer source = sources.get(0);
+        for (int i = 0; i < tiles.size(); i++)
+        {
+            int[] p = tiles.get(i);
+            PixelData tile =
+                source.getTile(p[0], p[1], p[2], p[3], p[4], p[5], p[6]);
+            handler.handle(tile, p[0], p[1], p[2], p[3], p[4], p[5], p[6], i);
+        }
+        return tiles.size();
+    }
+
+    /**
+     * Waits for a tile to be read.
+     * @param index The index of the tile.
+     * @return See above.
+     * @throws IOException If a reader failed.
+     */
+    private PixelData take(int index) throws IOException
+    {
+        synchronized (lock)
+        {
+            while (!ready.containsKey(index))
+            {
+                if (failure != null)
+                {
+                    throw failure;
+                }
+                try
+                {
+                    lock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading tiles.");
+                }
+            }
+            handled = index + 1;
+            lock.notifyAll();
+            return ready.remove(index);
+        }
+    }
+
+    /**
+     * Reads the tiles claimed by a reader from its own pixel buffer.
+     */
+    private class Reader implements Runnable
+    {
+
+        /** The pixel buffer of the reader. */
+        private final PixelBuffer source;
+
+        Reader(PixelBuffer source)
+        {
+            this.source = source;
+        }
+
+        public void run()
+        {
+            synchronized (lock)
+            {
+                if (stopped)
+                {
+                    return;
+                }
+                active++;
+            }
+            try
+            {
+                read();
+            }
+            finally
+            {
+                synchronized (lock)
+                {
+                    active--;
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        private void read()
+        {
+            int index;
+            while ((index = next.getAndIncrement()) < tiles.size())
+            {
+                synchronized (lock)
+                {
+                    while (!stopped && index >= handled + window)
+                    {
+                        try
+                        {
+                            lock.wait();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            stopped = true;
+                        }
+                    }
+                    if (stopped)
+                    {
+                        return;
+                    }
+                }
+                int[] p = tiles.get(index);
+                PixelData tile;
+                try
+                {
+                    tile = source.getTile(p[0], p[1], p[2], p[3], p[4], p[5],
+                                          p[6]);
+                }
+                catch (Exception e)
+                {
+                    log.error("Error reading tile " + index, e);
+                    synchronized (lock)
+                    {
+                        if (failure == null && e instanceof IOException)
+                        {
+                            failure = (IOException) e;
+                        }
+                        else if (failure == null)
+                        {
+                            failure = new IOException(
+                                    "Error reading tile " + index);
+                            failure.initCause(e);
+                        }
+                        stopped = true;
+                        lock.notifyAll();
+                    }
+                    return;
+                }
+                synchronized (lock)
+                {
+                    if (stopped)
+                    {
+                        return;
+                    }
+                    ready.put(index, tile);
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+}
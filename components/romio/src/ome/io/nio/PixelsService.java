@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +30,7 @@ import ome.io.bioformats.BfPyramidPixelBuffer;
 import ome.io.messages.MissingPyramidMessage;
 import ome.model.core.Pixels;
 import ome.model.stats.StatsInfo;
+import ome.util.BoundedExecutor;
 import ome.util.PixelData;
 
 import org.apache.commons.io.FileUtils;
@@ -61,6 +63,9 @@ public class PixelsService extends AbstractFileSystemService
 	/** Suffix for an the image pyramid of a given pixels set. */
 	public static final String PYRAMID_SUFFIX = "_pyramid";
 
+	/** Default number of threads reading tiles during pyramid creation. */
+	public static final int DEFAULT_PYRAMID_READERS = 2;
+
 	/** Null plane size constant. */
 	public static final int NULL_PLANE_SIZE = 64;
 
@@ -73,6 +78,41 @@ public class PixelsService extends AbstractFileSystemService
 	/** TileSizes implementation for default values */
 	protected TileSizes sizes;
 
+	/** The number of threads reading tiles during pyramid creation. */
+	protected int pyramidReaders = DEFAULT_PYRAMID_READERS;
+
+	/**
+	 * The pool shared by all the pyramids being created to read their tiles
+	 * and to decode the planes of their lower resolution levels. Created
+	 * upon first use if not set.
+	 */
+	protected BoundedExecutor pyramidExecutor;
+
+	/**
+	 * The number of windows kept mapped by read-only ROMIO pixel buffers.
+	 * <code>0</code> disables the mapped read mode.
+	 */
+	protected int mappedWindows = 0;
+
+	/** The size of the windows mapped by read-only ROMIO pixel buffers. */
+	protected int mappedWindowSize =
+	    RomioPixelBuffer.DEFAULT_MAPPED_WINDOW_SIZE;
+
+	/**
+	 * Receives the progress of {@link PixelsService#makePyramid(Pixels,
+	 * PyramidProgress)}.
+	 * @since OMERO-Beta4.3
+	 */
+	public interface PyramidProgress
+	{
+	    /**
+	     * Called after each tile has been written to the pyramid.
+	     * @param tiles The number of tiles written so far.
+	     * @param totalTiles The number of tiles of the full resolution level.
+	     */
+	    void written(int tiles, int totalTiles);
+	}
+
 	/** Null plane byte array. */
 	public static final byte[] nullPlane = new byte[] { -128, 127, -128, 127,
 			-128, 127, -128, 127, -128, 127, // 10
@@ -135,6 +175,74 @@ public class PixelsService extends AbstractFileSystemService
         this.resolver = resolver;
     }
 
+    /**
+     * Sets the number of threads reading tiles from a ROMIO pixels file while
+     * a pyramid is created. Tiles read from original files are always read
+     * by a single thread.
+     * @param pyramidReaders The number of threads. Values less than
+     * <code>1</code> are treated as <code>1</code>.
+     */
+    public void setPyramidReaders(int pyramidReaders)
+    {
+        this.pyramidReaders = Math.max(1, pyramidReaders);
+    }
+
+    /**
+     * Sets the pool shared by all the pyramids being created. It must reject
+     * the tasks it cannot queue, as the tile readers wait for the thread
+     * creating the pyramid.
+     * @param pyramidExecutor The pool.
+     */
+    public synchronized void setPyramidExecutor(
+            BoundedExecutor pyramidExecutor)
+    {
+        this.pyramidExecutor = pyramidExecutor;
+    }
+
+    /**
+     * Returns the pool shared by all the pyramids being created, creating a
+     * pool sized to the number of available processors if none has been
+     * set.
+     * @return See above.
+     */
+    protected synchronized BoundedExecutor getPyramidExecutor()
+    {
+        if (pyramidExecutor == null)
+        {
+            pyramidExecutor = new BoundedExecutor(
+                    "PyramidExecutor", 0, 0, 4, false);
+        }
+        return pyramidExecutor;
+    }
+
+    /**
+     * Sets the number of windows kept mapped by the read-only ROMIO pixel
+     * buffers created by this service.
+     * @param mappedWindows The number of windows. <code>0</code> disables
+     * the mapped read mode.
+     * @see RomioPixelBuffer#setMappedWindows(int, int)
+     */
+    public void setMappedWindows(int mappedWindows)
+    {
+        this.mappedWindows = Math.max(0, mappedWindows);
+    }
+
+    /**
+     * Sets the size of the windows mapped by the read-only ROMIO pixel
+     * buffers created by this service.
+     * @param mappedWindowSize The size of a window in bytes.
+     * @see RomioPixelBuffer#setMappedWindows(int, int)
+     */
+    public void setMappedWindowSize(int mappedWindowSize)
+    {
+        if (mappedWindowSize <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "Window size must be positive: " + mappedWindowSize);
+        }
+        this.mappedWindowSize = mappedWindowSize;
+    }
+
 	/**
 	 * Creates a PixelBuffer for a given pixels set.
 	 * 
@@ -158,6 +266,21 @@ public class PixelsService extends AbstractFileSystemService
      * @since OMERO-Beta4.3
      */
     public StatsInfo[] makePyramid(Pixels pixels)
+    {
+        return makePyramid(pixels, null);
+    }
+
+    /**
+     * Creates a pixels pyramid for a given set of pixels, reporting the
+     * progress as tiles are written.
+     *
+     * @param pixels Pixels set to retrieve a pixel buffer for.
+     * @param progress Receives the number of tiles written. May be
+     * <code>null</code>.
+     * @since OMERO-Beta4.3
+     * @see #makePyramid(Pixels)
+     */
+    public StatsInfo[] makePyramid(Pixels pixels, PyramidProgress progress)
     {
         final String pixelsFilePath = getPixelsPath(pixels.getId());
         final File pixelsFile = new File(pixelsFilePath);
@@ -193,7 +316,7 @@ public class PixelsService extends AbstractFileSystemService
 
             PixelsPyramidMinMaxStore minMaxStore = performWrite(
                     pixels, pixelsPyramidFile, pixelsPyramid,
-                    pixelsFile, pixelsFilePath, originalFilePath);
+                    pixelsFile, pixelsFilePath, originalFilePath, progress);
             if (minMaxStore != null)
             {
                 return minMaxStore.createStatsInfo();
@@ -220,7 +343,8 @@ public class PixelsService extends AbstractFileSystemService
     private PixelsPyramidMinMaxStore performWrite(
             final Pixels pixels,final File pixelsPyramidFile,
             final BfPyramidPixelBuffer pixelsPyramid, final File pixelsFile,
-            final String pixelsFilePath, final String originalFilePath) {
+            final String pixelsFilePath, final String originalFilePath,
+            final PyramidProgress progress) {
 
         final PixelBuffer source;
         final Dimension tileSize;
@@ -280,6 +404,8 @@ public class PixelsService extends AbstractFileSystemService
         }
         log.info("Destination pyramid tile size: " + tileSize);
 
+        final List<PixelBuffer> sources = new ArrayList<PixelBuffer>();
+        sources.add(source);
         try
         {
             final double totalTiles =
@@ -287,41 +413,67 @@ public class PixelsService extends AbstractFileSystemService
                 (Math.ceil(source.getSizeX() / tileSize.getWidth())) *
                 (Math.ceil(source.getSizeY() / tileSize.getHeight()));
             final int tenPercent = Math.max((int) totalTiles / 10, 1);
-            Utils.forEachTile(new TileLoopIteration() {
-                public void run(int z, int c, int t, int x, int y, int w,
-                            int h, int tileCount)
+            // Tiles are read ahead on their own threads while the pyramid
+            // compresses and writes them in order. ROMIO pixel buffers are
+            // cheap to open so each reader gets its own. Bio-Formats readers
+            // are not and their min/max calculation must see every tile so
+            // a single reader is used.
+            if (minMaxStore == null)
             {
-                if (log.isInfoEnabled()
-                    && tileCount % tenPercent == 0)
+                int readers = Math.min(pyramidReaders, (int) totalTiles);
+                for (int i = 1; i < readers; i++)
                 {
-                    log.info(String.format(
-                            "Pyramid creation for Pixels:%d %d/%d (%d%%).",
-                            pixels.getId(), tileCount + 1, (int) totalTiles,
-                            (int) (tileCount / totalTiles * 100)));
+                    sources.add(createRomioPixelBuffer(
+                            pixelsFilePath, pixels, false));
                 }
+            }
+            final BoundedExecutor executor = getPyramidExecutor();
+            // The lower resolution levels are decoded on the same pool
+            // when the pyramid is closed.
+            pixelsPyramid.setExecutor(executor, pyramidReaders);
+            ParallelTileReader tileReader = new ParallelTileReader(executor,
+                    sources, (int) tileSize.getWidth(),
+                    (int) tileSize.getHeight());
+            try
+            {
+                tileReader.run(new ParallelTileReader.TileHandler() {
+                    public void handle(PixelData tile, int z, int c, int t,
+                            int x, int y, int w, int h, int tileCount)
+                        throws IOException
+                    {
+                        if (log.isInfoEnabled()
+                            && tileCount % tenPercent == 0)
+                        {
+                            log.info(String.format(
+                                "Pyramid creation for Pixels:%d %d/%d (%d%%).",
+                                pixels.getId(), tileCount + 1,
+                                (int) totalTiles,
+                                (int) (tileCount / totalTiles * 100)));
+                        }
+                        pixelsPyramid.setTile(
+                                tile.getData().array(), z, c, t, x, y, w, h);
+                        if (progress != null)
+                        {
+                            progress.written(tileCount + 1, (int) totalTiles);
+                        }
+                    }
+                });
+            }
+            catch (IOException e1)
+            {
+                log.error("FAIL -- Error during tile population", e1);
                 try
                 {
-                    PixelData tile = source.getTile(z, c, t, x, y, w, h);
-                    pixelsPyramid.setTile(
-                            tile.getData().array(), z, c, t, x, y, w, h);
+                    pixelsPyramidFile.delete();
+                    FileUtils.touch(pixelsPyramidFile); // ticket:5189
                 }
-                catch (IOException e1)
+                catch (Exception e2)
                 {
-                    log.error("FAIL -- Error during tile population", e1);
-                    try
-                    {
-                        pixelsPyramidFile.delete();
-                        FileUtils.touch(pixelsPyramidFile); // ticket:5189
-                    }
-                    catch (Exception e2)
-                    {
-                        log.warn("Error clearing empty or incomplete pixel " +
-                                 "buffer.", e2);
-                    }
-                    return;
+                    log.warn("Error clearing empty or incomplete pixel " +
+                             "buffer.", e2);
                 }
+                return minMaxStore;
             }
-            }, source, (int) tileSize.getWidth(), (int) tileSize.getHeight());
 
             log.info("SUCCESS -- Pyramid created for pixels id:" + pixels.getId());
 
@@ -329,11 +481,11 @@ public class PixelsService extends AbstractFileSystemService
 
         finally
         {
-            if (source != null)
+            for (PixelBuffer buffer : sources)
             {
                 try
                 {
-                    source.close();
+                    buffer.close();
                 }
                 catch (IOException e)
                 {
@@ -646,7 +798,8 @@ public class PixelsService extends AbstractFileSystemService
     }
 
     /**
-     * Helper method to properlty create a RomioPixelBuffer.
+     * Helper method to properlty create a RomioPixelBuffer. Read-only
+     * buffers use the mapped read mode if {@link #mappedWindows} is set.
      *
      * @param pixelsFilePath
      * @param pixels
@@ -655,7 +808,12 @@ public class PixelsService extends AbstractFileSystemService
      */
     protected PixelBuffer createRomioPixelBuffer(String pixelsFilePath,
         Pixels pixels, boolean allowModification) {
-        return new RomioPixelBuffer(pixelsFilePath, pixels, allowModification);
+        RomioPixelBuffer pixbuf =
+            new RomioPixelBuffer(pixelsFilePath, pixels, allowModification);
+        if (!allowModification && mappedWindows > 0) {
+            pixbuf.setMappedWindows(mappedWindows, mappedWindowSize);
+        }
+        return pixbuf;
     }
 
     /**
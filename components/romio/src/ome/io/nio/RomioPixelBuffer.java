@@ -7,6 +7,7 @@
 package ome.io.nio;
 
 import java.awt.Dimension;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -19,12 +20,16 @@ import java.nio.channels.FileChannel.MapMode;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import ome.conditions.ApiUsageException;
 import ome.model.core.Pixels;
 import ome.util.PixelData;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -46,6 +51,15 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     /** Default maximum buffer size for planar data transfer. (1MB) */
     public static final int MAXIMUM_BUFFER_SIZE = 1048576;
 
+    /** Default size of the windows kept in mapped read mode. (64MB) */
+    public static final int DEFAULT_MAPPED_WINDOW_SIZE = 67108864;
+
+    /**
+     * Suffix of the file next to the pixels file which holds the digest
+     * returned by {@link #calculateMessageDigest()}.
+     */
+    public static final String SHA1_SUFFIX = "_sha1";
+
     /** Reference to the pixels. */
     private Pixels pixels;
 
@@ -78,6 +92,33 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      */
     private final boolean permitModification;
 
+    /**
+     * Maximum number of windows kept mapped. <code>0</code> disables the
+     * mapped read mode.
+     */
+    private int mappedWindowCount;
+
+    /** Nominal size of a mapped window. */
+    private int mappedWindowSize = DEFAULT_MAPPED_WINDOW_SIZE;
+
+    /**
+     * The windows currently mapped keyed by their offset in the file, least
+     * recently used first. Guards itself, {@link #mappedWindowCount} and
+     * {@link #mappedWindowSize}, as the buffer may be read by several threads.
+     */
+    private final LinkedHashMap<Long, MappedByteBuffer> windows =
+        new LinkedHashMap<Long, MappedByteBuffer>(16, 0.75f, true);
+
+    /**
+     * Digest of the data written in order through this buffer. Created,
+     * and the saved digest of the previous contents deleted, by the first
+     * write.
+     */
+    private IncrementalDigest digest;
+
+    /** Whether the digest file has been written since the last write. */
+    private boolean digestSaved = false;
+
     /**
      * Creates a new instance. {@link #permitModification} defaults to false.
      * 
@@ -104,6 +145,43 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         this.permitModification = permitModification;
     }
 
+    /**
+     * Enables or disables the mapped read mode. In this mode the pixels file
+     * is mapped in a few large windows, aligned on plane boundaries and
+     * recycled in least recently used order, and the regions falling within
+     * a window are returned as slices of it rather than being mapped one by
+     * one. The windows are dropped by {@link #close()} but never unmapped
+     * explicitly: a mapping is released once the window and all the
+     * {@link PixelData} sliced from it have been garbage collected, so the
+     * data returned by this buffer remains valid.
+     *
+     * @param count The maximum number of windows kept mapped.
+     * <code>0</code> disables the mapped read mode.
+     * @param size The nominal size of a window in bytes. Windows hold as many
+     * whole planes as fit in this size.
+     */
+    public void setMappedWindows(int count, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException(
+                    "Window size must be positive: " + size);
+        }
+        synchronized (windows) {
+            windows.clear();
+            mappedWindowCount = Math.max(0, count);
+            mappedWindowSize = size;
+        }
+    }
+
+    /**
+     * Returns the number of windows currently mapped.
+     * @return See above.
+     */
+    public int getMappedWindowCount() {
+        synchronized (windows) {
+            return windows.size();
+        }
+    }
+
     private void throwIfReadOnly() {
         if (!permitModification) {
             throw new ApiUsageException("Write-method not permitted.");
@@ -158,6 +236,9 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      *             if an I/O error occurs.
      */
     public void close() throws IOException {
+        synchronized (windows) {
+            windows.clear();
+        }
         if (channel != null) {
             try {
                 channel.close();
@@ -179,6 +260,92 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         }
     }
 
+    /**
+     * Returns the span of a mapped window: as many whole planes as fit in the
+     * window size, or the window size if a plane is larger than it. Called
+     * with {@link #windows} held.
+     */
+    private long getWindowSpan() {
+        long planeSize = getPlaneSize();
+        if (planeSize > mappedWindowSize) {
+            return mappedWindowSize;
+        }
+        return (mappedWindowSize / planeSize) * planeSize;
+    }
+
+    /**
+     * Returns a slice of a mapped window holding a region of the file,
+     * mapping the window if required.
+     * @param size The size of the region.
+     * @param offset The offset of the region in the file.
+     * @return See above or <code>null</code> if the mapped read mode is
+     * disabled or the region is not contained by a single window.
+     * @throws IOException If the window cannot be mapped.
+     */
+    private ByteBuffer getMappedSlice(int size, long offset)
+            throws IOException {
+        long start;
+        MappedByteBuffer window;
+        synchronized (windows) {
+            if (mappedWindowCount <= 0 || size > mappedWindowSize) {
+                return null;
+            }
+            long span = getWindowSpan();
+            start = (offset / span) * span;
+            long length = Math.min(span, (long) getTotalSize() - start);
+            if (offset + size > start + length) {
+                return null;
+            }
+            window = windows.get(start);
+            if (window == null) {
+                window = getFileChannel().map(
+                        MapMode.READ_ONLY, start, length);
+                windows.put(start, window);
+                if (windows.size() > mappedWindowCount) {
+                    // Slices of the eldest window may still be referenced,
+                    // it is left to garbage collection.
+                    Iterator<Map.Entry<Long, MappedByteBuffer>> i =
+                        windows.entrySet().iterator();
+                    i.next();
+                    i.remove();
+                }
+            }
+        }
+        // Each caller gets its own view, the window itself is never read.
+        ByteBuffer slice = window.duplicate();
+        int position = (int) (offset - start);
+        slice.limit(position + size);
+        slice.position(position);
+        return slice.slice();
+    }
+
+    /**
+     * Reads a region of the file into a caller provided buffer without
+     * creating a new mapping. Bytes beyond the end of the file are zeroed.
+     * @param size The size of the region.
+     * @param offset The offset of the region in the file.
+     * @param buffer The buffer to fill.
+     * @param bufferOffset The offset within the buffer to fill from.
+     * @throws IOException If there is an error reading the file.
+     */
+    private void readRegion(int size, long offset, byte[] buffer,
+            int bufferOffset) throws IOException {
+        ByteBuffer slice = getMappedSlice(size, offset);
+        if (slice != null) {
+            slice.get(buffer, bufferOffset, size);
+            return;
+        }
+        FileChannel fileChannel = getFileChannel();
+        ByteBuffer b = ByteBuffer.wrap(buffer, bufferOffset, size);
+        while (b.hasRemaining()) {
+            int read = fileChannel.read(b, offset + b.position() - bufferOffset);
+            if (read < 0) {
+                Arrays.fill(buffer, b.position(), bufferOffset + size, (byte) 0);
+                break;
+            }
+        }
+    }
+
     /**
      * Implemented as specified by {@link PixelBuffer} I/F.
      * @see PixelBuffer#getPlaneSize()
@@ -315,6 +482,11 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
 	 */
     public PixelData getRegion(Integer size, Long offset)
             throws IOException {
+        ByteBuffer slice = getMappedSlice(size, offset);
+        if (slice != null) {
+            return new PixelData(pixels.getPixelsType().getValue(), slice);
+        }
+
         FileChannel fileChannel = getFileChannel();
 
         /*
@@ -335,8 +507,7 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     {
 		if (buffer.length != size)
 			throw new ApiUsageException("Buffer size incorrect.");
-		ByteBuffer b = getRegion(size, offset).getData();
-		b.get(buffer);
+		readRegion(size, offset, buffer, 0);
 		return buffer;
     }
 
@@ -386,8 +557,7 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     {
 		if (buffer.length != getRowSize())
 			throw new ApiUsageException("Buffer size incorrect.");
-		ByteBuffer b = getRow(y, z, c, t).getData();
-		b.get(buffer);
+		readRegion(getRowSize(), getRowOffset(y, z, c, t), buffer, 0);
 		return buffer;
     }
     
@@ -398,6 +568,24 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     public byte[] getColDirect(Integer x, Integer z, Integer c, Integer t, 
             byte[] buffer) throws IOException, DimensionsOutOfBoundsException
     {
+        ByteBuffer slice = getMappedSlice(getPlaneSize(),
+                getPlaneOffset(z, c, t));
+        if (slice != null) {
+            // Copy the bytes of each pixel straight from the window.
+            checkBounds(x, null, null, null, null);
+            int byteWidth = getByteWidth();
+            int rowSize = getRowSize();
+            int sizeY = getSizeY();
+            int position = x * byteWidth;
+            int offset = 0;
+            for (int i = 0; i < sizeY; i++) {
+                for (int j = 0; j < byteWidth; j++) {
+                    buffer[offset++] = slice.get(position + j);
+                }
+                position += rowSize;
+            }
+            return buffer;
+        }
         PixelData plane = getPlane(z, c, t);
         Integer sizeY = getSizeY();
         Integer sizeX = getSizeX();
@@ -452,9 +640,9 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
 			Integer count, Integer offset, byte[] buffer)
 		throws IOException, DimensionsOutOfBoundsException
 	{
-		ByteBuffer b = getPlane(z, c, t).getData();
-		b.position(offset * getByteWidth());
-		b.get(buffer, 0, count * getByteWidth());
+		int byteWidth = getByteWidth();
+		readRegion(count * byteWidth,
+				getPlaneOffset(z, c, t) + (long) offset * byteWidth, buffer, 0);
 		return buffer;
 	}
 
@@ -538,8 +726,7 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     {
 		if (buffer.length != getPlaneSize())
 			throw new ApiUsageException("Buffer size incorrect.");
-		ByteBuffer b = getPlane(z, c, t).getData();
-		b.get(buffer);
+		readRegion(getPlaneSize(), getPlaneOffset(z, c, t), buffer, 0);
 		return buffer;
     }
 
@@ -564,8 +751,7 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     {
 		if (buffer.length != getStackSize())
 			throw new ApiUsageException("Buffer size incorrect.");
-		ByteBuffer b = getStack(c, t).getData();
-		b.get(buffer);
+		readRegion(getStackSize(), getStackOffset(c, t), buffer, 0);
 		return buffer;
     }
 
@@ -590,8 +776,7 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     {
 		if (buffer.length != getTimepointSize())
 			throw new ApiUsageException("Buffer size incorrect.");
-		ByteBuffer b = getTimepoint(t).getData();
-		b.get(buffer);
+		readRegion(getTimepointSize(), getTimepointOffset(t), buffer, 0);
 		return buffer;
     }
 
@@ -615,12 +800,22 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
             throws IOException {
         throwIfReadOnly();
         FileChannel fileChannel = getFileChannel();
+        if (digest == null || digestSaved) {
+            if (digest == null) {
+                digest = new IncrementalDigest();
+            }
+            new File(getPath() + SHA1_SUFFIX).delete();
+            digestSaved = false;
+        }
 
         /*
          * fileChannel should not be "null" as it will throw an exception if
          * there happens to be an error.
          */
+        ByteBuffer written = buffer.duplicate();
         fileChannel.write(buffer, offset);
+        written.limit(buffer.position());
+        digest.update(written, offset);
     }
 
     /**
@@ -727,10 +922,88 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     }
 
     /**
-     * Implemented as specified by {@link PixelBuffer} I/F.
+     * Implemented as specified by {@link PixelBuffer} I/F. If the pixels
+     * file has been written in order through this buffer, the digest is
+     * taken from the written data. Otherwise the digest saved by an earlier
+     * call is returned if the file has not changed since, and the file is
+     * only read if there is none. The digest is then saved next to the
+     * pixels file.
      * @see PixelBuffer#calculateMessageDigest()
 	 */
     public byte[] calculateMessageDigest() throws IOException {
+        byte[] hash = null;
+        if (digest != null) {
+            hash = digest.digest(getTotalSize());
+        } else {
+            hash = readDigest();
+        }
+        if (hash == null) {
+            hash = readMessageDigest();
+        }
+        if (!digestSaved) {
+            digestSaved = saveDigest(hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the digest saved next to the pixels file if the size and
+     * modification time of the pixels file still match, otherwise null.
+     */
+    private byte[] readDigest() {
+        File pixelsFile = new File(getPath());
+        File digestFile = new File(getPath() + SHA1_SUFFIX);
+        if (!digestFile.exists()) {
+            return null;
+        }
+        try {
+            String[] parts = FileUtils.readFileToString(digestFile).trim()
+                    .split(" ");
+            if (parts.length == 3
+                    && Long.parseLong(parts[1]) == pixelsFile.length()
+                    && Long.parseLong(parts[2]) == pixelsFile.lastModified()) {
+                return hexToBytes(parts[0]);
+            }
+        } catch (Exception e) {
+            log.warn("Ignoring unreadable digest file " + digestFile, e);
+        }
+        return null;
+    }
+
+    /**
+     * Saves the digest together with the size and modification time of the
+     * pixels file. Failures are logged since the digest can be recalculated.
+     */
+    private boolean saveDigest(byte[] hash) {
+        File pixelsFile = new File(getPath());
+        File digestFile = new File(getPath() + SHA1_SUFFIX);
+        if (!pixelsFile.exists()) {
+            return false;
+        }
+        try {
+            FileUtils.writeStringToFile(digestFile, String.format(
+                    "%s %d %d%n", ome.util.Utils.bytesToHex(hash),
+                    pixelsFile.length(), pixelsFile.lastModified()));
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not save digest file " + digestFile, e);
+            return false;
+        }
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(
+                    hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the whole pixels file to calculate its digest.
+     */
+    private byte[] readMessageDigest() throws IOException {
         MessageDigest md;
 
         try {
@@ -843,6 +1116,18 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     public PixelData getTile(Integer z, Integer c, Integer t, Integer x,
             Integer y, Integer w, Integer h) throws IOException
     {
+        if (x == 0 && w == getSizeX())
+        {
+            // Full width tiles are contiguous in the file, no need to go
+            // through the whole plane. Callers expect an array backed tile.
+            checkBounds(x, y, z, c, t);
+            checkBounds(x + w - 1, y + h - 1, null, null, null);
+            long offset = getPlaneOffset(z, c, t) + (long) getRowSize() * y;
+            byte[] buffer = new byte[getRowSize() * h];
+            readRegion(buffer.length, offset, buffer, 0);
+            return new PixelData(pixels.getPixelsType().getValue(),
+                    ByteBuffer.wrap(buffer));
+        }
         return getPlaneRegion(x, y, w, h, z, c, t, 0);
     }
 
@@ -10,16 +10,27 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import ome.conditions.ResourceError;
 import ome.model.display.Thumbnail;
+import ome.model.meta.Event;
 import ome.util.Utils;
 
 /**
+ * Stores the compressed thumbnails in the binary repository. Thumbnails read
+ * from disk may also be held in memory, in a least recently used cache
+ * bounded by the total number of bytes (see {@link #setCacheSize(long)}).
+ * Cached thumbnails are keyed by the thumbnail ID and the ID of the update
+ * event of its metadata and are dropped whenever the thumbnail is rewritten
+ * or removed.
+ * 
  * @author callan
  * 
  */
@@ -29,6 +40,34 @@ public class ThumbnailService extends AbstractFileSystemService {
 	private transient static Log log = LogFactory
 			.getLog(ThumbnailService.class);
 
+    /**
+     * The thumbnails held in memory by thumbnail ID, in access order. Only
+     * the most recently read version of a thumbnail is held.
+     */
+    private final LinkedHashMap<Long, CachedThumbnail> cache =
+        new LinkedHashMap<Long, CachedThumbnail>(16, 0.75f, true);
+
+    /** The maximum number of bytes held in memory. */
+    private volatile long cacheSize;
+
+    /** The number of bytes currently held in memory. */
+    private long cacheBytes;
+
+    /** The number of thumbnails served from memory. */
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    /** The number of cacheable thumbnails which had to be read from disk. */
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    /** The number of thumbnails evicted to honor the size bound. */
+    private final AtomicLong cacheEvictions = new AtomicLong();
+
+    /**
+     * The number of invalidations so far. A thumbnail read from disk is only
+     * cached if no thumbnail has been written in the meantime.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
 	/**
 	 * Constructor
 	 * @param path
@@ -37,6 +76,20 @@ public class ThumbnailService extends AbstractFileSystemService {
 		super(path);
 	}
 
+    /**
+     * Sets the maximum number of bytes of thumbnails held in memory. A value
+     * less than or equal to <code>0</code>, the default, disables the cache.
+     * 
+     * @param cacheSize The maximum number of bytes.
+     */
+    public void setCacheSize(long cacheSize) {
+        this.cacheSize = cacheSize;
+        synchronized (cache) {
+            evict();
+        }
+        log.info("Thumbnail memory cache size: " + cacheSize);
+    }
+
 	/**
 	 * Creates thumbnail on disk using byte array
 	 * 
@@ -49,9 +102,14 @@ public class ThumbnailService extends AbstractFileSystemService {
 		String path = getThumbnailPath(thumbnail.getId());
 		createSubpath(path);
 
+		invalidate(thumbnail.getId());
 		FileOutputStream stream = new FileOutputStream(path);
-		stream.write(buf);
-		stream.close();
+		try {
+		    stream.write(buf);
+		} finally {
+		    stream.close();
+		    invalidate(thumbnail.getId());
+		}
 	}
 
 	/**
@@ -73,8 +131,20 @@ public class ThumbnailService extends AbstractFileSystemService {
 	 * @throws IOException
 	 */
 	public byte[] getThumbnail(Thumbnail thumbnail) throws IOException {
+		Long eventId = getUpdateEventId(thumbnail);
+		if (eventId != null) {
+		    byte[] cached = getCached(thumbnail.getId(), eventId);
+		    if (cached != null) {
+		        return cached;
+		    }
+		}
+		long before = invalidations.get();
 		byte[] buf = new byte[(int) getThumbnailLength(thumbnail)];
-		return getThumbnail(thumbnail, buf);
+		getThumbnail(thumbnail, buf);
+		if (eventId != null) {
+		    putCached(thumbnail.getId(), eventId, buf, before);
+		}
+		return buf;
 	}
 
 	/**
@@ -108,7 +178,20 @@ public class ThumbnailService extends AbstractFileSystemService {
 			throws IOException {
 		String path = getThumbnailPath(thumbnail.getId());
 		createSubpath(path);
-		return new FileOutputStream(path);
+		final Long id = thumbnail.getId();
+		invalidate(id);
+		// Readers may cache a partially written thumbnail until the
+		// stream is closed.
+		return new FileOutputStream(path) {
+		    @Override
+		    public void close() throws IOException {
+		        try {
+		            super.close();
+		        } finally {
+		            invalidate(id);
+		        }
+		    }
+		};
 	}
 
     /**
@@ -119,6 +202,12 @@ public class ThumbnailService extends AbstractFileSystemService {
      */
     public boolean getThumbnailExists(Thumbnail thumbnail)
             throws IOException {
+        synchronized (cache) {
+            // Cached thumbnails are dropped when removed from disk.
+            if (cache.containsKey(thumbnail.getId())) {
+                return true;
+            }
+        }
         String path = getThumbnailPath(thumbnail.getId());
         return new File(path).exists();
     }
@@ -137,6 +226,7 @@ public class ThumbnailService extends AbstractFileSystemService {
 
 		for (Long id : thumbnailIds)
 		{
+			invalidate(id);
 			String thumbnailPath = getThumbnailPath(id);
 			file = new File(thumbnailPath);
 			if (file.exists())
@@ -158,4 +248,175 @@ public class ThumbnailService extends AbstractFileSystemService {
 			}
 		}
 	}
+
+    /**
+     * Drops a thumbnail from the memory cache. Invoked whenever a thumbnail
+     * is written or removed.
+     * 
+     * @param thumbnailId The ID of the thumbnail.
+     */
+    public void invalidate(long thumbnailId) {
+        synchronized (cache) {
+            invalidations.incrementAndGet();
+            CachedThumbnail old = cache.remove(thumbnailId);
+            if (old != null) {
+                cacheBytes -= old.data.length;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of thumbnails served from memory.
+     * 
+     * @return See above.
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Returns the number of thumbnails which could have been but were not
+     * served from memory.
+     * 
+     * @return See above.
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Returns the ratio of the thumbnails served from memory to all the
+     * cacheable thumbnails read, or <code>0</code> if none has been read.
+     * 
+     * @return See above.
+     */
+    public double getCacheHitRatio() {
+        long hits = cacheHits.get();
+        long total = hits + cacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the number of thumbnails evicted from memory.
+     * 
+     * @return See above.
+     */
+    public long getCacheEvictions() {
+        return cacheEvictions.get();
+    }
+
+    /**
+     * Returns the number of thumbnails held in memory.
+     * 
+     * @return See above.
+     */
+    public int getCacheCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Returns the number of bytes held in memory.
+     * 
+     * @return See above.
+     */
+    public long getCacheBytes() {
+        synchronized (cache) {
+            return cacheBytes;
+        }
+    }
+
+    /**
+     * Returns the ID of the update event of the thumbnail metadata or
+     * <code>null</code> if the thumbnail cannot be cached.
+     * 
+     * @param thumbnail The thumbnail metadata.
+     * @return See above.
+     */
+    private Long getUpdateEventId(Thumbnail thumbnail) {
+        if (cacheSize <= 0 || thumbnail.getId() == null
+                || thumbnail.getDetails() == null) {
+            return null;
+        }
+        Event event = thumbnail.getDetails().getUpdateEvent();
+        return event == null ? null : event.getId();
+    }
+
+    /**
+     * Returns the thumbnail held in memory for the given update event or
+     * <code>null</code> if none.
+     * 
+     * @param thumbnailId The ID of the thumbnail.
+     * @param eventId The ID of the update event of the thumbnail metadata.
+     * @return See above. The array must not be modified.
+     */
+    private byte[] getCached(long thumbnailId, long eventId) {
+        synchronized (cache) {
+            CachedThumbnail cached = cache.get(thumbnailId);
+            if (cached != null && cached.eventId == eventId) {
+                cacheHits.incrementAndGet();
+                return cached.data;
+            }
+        }
+        cacheMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds a thumbnail read from disk to the memory cache, replacing any
+     * other version of it.
+     * 
+     * @param thumbnailId The ID of the thumbnail.
+     * @param eventId The ID of the update event of the thumbnail metadata.
+     * @param data The compressed thumbnail.
+     * @param before The number of invalidations before the thumbnail was
+     * read.
+     */
+    private void putCached(long thumbnailId, long eventId, byte[] data,
+            long before) {
+        if (data.length > cacheSize) {
+            return;
+        }
+        synchronized (cache) {
+            if (invalidations.get() != before) {
+                return;
+            }
+            CachedThumbnail old = cache.put(thumbnailId,
+                    new CachedThumbnail(eventId, data));
+            if (old != null) {
+                cacheBytes -= old.data.length;
+            }
+            cacheBytes += data.length;
+            evict();
+        }
+    }
+
+    /**
+     * Evicts the least recently used thumbnails until the cache fits in its
+     * bound. Must be invoked with the cache lock held.
+     */
+    private void evict() {
+        Iterator<CachedThumbnail> i = cache.values().iterator();
+        while (cacheBytes > Math.max(cacheSize, 0) && i.hasNext()) {
+            cacheBytes -= i.next().data.length;
+            i.remove();
+            cacheEvictions.incrementAndGet();
+        }
+    }
+
+    /** A compressed thumbnail and the update event it was read for. */
+    private static class CachedThumbnail {
+
+        /** The ID of the update event of the thumbnail metadata. */
+        final long eventId;
+
+        /** The compressed thumbnail. */
+        final byte[] data;
+
+        CachedThumbnail(long eventId, byte[] data) {
+            this.eventId = eventId;
+            this.data = data;
+        }
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import ome.io.nio.FileBuffer;
+import ome.io.nio.OriginalFilesService;
+import ome.model.core.OriginalFile;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that reads through the read-ahead window of {@link FileBuffer}
+ * return the same data as direct reads.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class FileBufferReadAheadUnitTest {
+
+    private static final int window = 1000;
+
+    private String root;
+
+    private OriginalFilesService service;
+
+    private OriginalFile file;
+
+    private byte[] data;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        root = PathUtil.getInstance().getTemporaryDataFilePath();
+        service = new OriginalFilesService(root);
+        service.setReadAheadSize(window);
+        service.setReadAheadPool(1);
+        file = new OriginalFile(1L, true);
+        data = new byte[window * 3 + 500];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + i / 7);
+        }
+        FileBuffer writer = service.getFileBuffer(file);
+        writer.write(ByteBuffer.wrap(data), 0);
+        writer.close();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(root));
+    }
+
+    private byte[] read(FileBuffer buffer, long position, int length)
+            throws IOException {
+        byte[] rv = new byte[length];
+        buffer.read(ByteBuffer.wrap(rv), position);
+        return rv;
+    }
+
+    private byte[] expected(int position, int length) {
+        byte[] rv = new byte[length];
+        if (position < data.length) {
+            System.arraycopy(data, position, rv, 0,
+                    Math.min(length, data.length - position));
+        }
+        return rv;
+    }
+
+    @Test
+    public void testSequentialReads() throws Exception {
+        FileBuffer buffer = service.getFileBuffer(file);
+        int chunk = 300;
+        for (int pos = 0; pos < data.length + chunk; pos += chunk) {
+            assertTrue("at " + pos, Arrays.equals(expected(pos, chunk),
+                    read(buffer, pos, chunk)));
+        }
+        buffer.close();
+    }
+
+    @Test
+    public void testRandomReads() throws Exception {
+        FileBuffer buffer = service.getFileBuffer(file);
+        int[] positions = { 10, 20, 2900, 2950, 100, 3400, 3450, 0 };
+        for (int pos : positions) {
+            assertTrue("at " + pos, Arrays.equals(expected(pos, 50),
+                    read(buffer, pos, 50)));
+        }
+        // Larger than the window
+        assertTrue(Arrays.equals(expected(5, 2500), read(buffer, 5, 2500)));
+        buffer.close();
+    }
+
+    @Test
+    public void testEndOfFile() throws Exception {
+        FileBuffer buffer = service.getFileBuffer(file);
+        read(buffer, 0, 100);
+        ByteBuffer past = ByteBuffer.allocate(100);
+        assertEquals(-1, buffer.read(past, data.length));
+        ByteBuffer partial = ByteBuffer.allocate(100);
+        read(buffer, data.length - 200, 100);
+        assertEquals(100, buffer.read(partial, data.length - 100));
+        buffer.close();
+    }
+
+    @Test
+    public void testWriteIsVisible() throws Exception {
+        FileBuffer buffer = service.getFileBuffer(file);
+        read(buffer, 0, 100);
+        read(buffer, 100, 100);
+        byte[] changed = new byte[] { 1, 2, 3 };
+        buffer.write(ByteBuffer.wrap(changed), 200);
+        byte[] rv = read(buffer, 200, 3);
+        assertTrue(Arrays.equals(changed, rv));
+        buffer.close();
+    }
+
+    @Test
+    public void testWriteThroughOtherBufferIsVisible() throws Exception {
+        FileBuffer reader = service.getFileBuffer(file);
+        FileBuffer writer = service.getFileBuffer(file);
+        read(reader, 0, 100);
+        read(reader, 100, 100);
+        byte[] changed = new byte[] { 1, 2, 3 };
+        writer.write(ByteBuffer.wrap(changed), 250);
+        byte[] rv = read(reader, 200, 100);
+        assertTrue(Arrays.equals(changed, Arrays.copyOfRange(rv, 50, 53)));
+        assertTrue(Arrays.equals(expected(200, 50),
+                Arrays.copyOfRange(rv, 0, 50)));
+        writer.close();
+        reader.close();
+    }
+
+    @Test
+    public void testSizeChangeIsVisible() throws Exception {
+        FileBuffer reader = service.getFileBuffer(file);
+        int end = data.length;
+        read(reader, end - 300, 100);
+        read(reader, end - 200, 100);
+        // Rewritten and extended by another process, e.g. the repository.
+        byte[] changed = new byte[53];
+        Arrays.fill(changed, (byte) 4);
+        RandomAccessFile other = new RandomAccessFile(
+                service.getFilesPath(file.getId()), "rw");
+        other.seek(end - 50);
+        other.write(changed);
+        other.close();
+        byte[] rv = read(reader, end - 100, 100);
+        assertTrue(Arrays.equals(expected(end - 100, 50),
+                Arrays.copyOfRange(rv, 0, 50)));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(changed, 0, 50),
+                Arrays.copyOfRange(rv, 50, 100)));
+        reader.close();
+    }
+
+}
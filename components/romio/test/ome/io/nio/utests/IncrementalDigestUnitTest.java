@@ -0,0 +1,163 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import ome.io.nio.IncrementalDigest;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link IncrementalDigest} and the digest of
+ * {@link RomioPixelBuffer} match the digest of the whole data.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class IncrementalDigestUnitTest {
+
+    private static final int sizeX = 32;
+
+    private static final int sizeY = 16;
+
+    private static final int planeSize = sizeX * sizeY * 2;
+
+    private static final int planes = 6;
+
+    private String root;
+
+    private String path;
+
+    private Pixels pixels;
+
+    private byte[] data;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        root = PathUtil.getInstance().getTemporaryDataFilePath();
+        path = new File(root, "pixels").getAbsolutePath();
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(planes);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+        data = new byte[planeSize * planes];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7 + i / 13);
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(root));
+    }
+
+    private byte[] sha1(byte[] bytes) throws Exception {
+        return MessageDigest.getInstance("SHA-1").digest(bytes);
+    }
+
+    private ByteBuffer region(int offset, int length) {
+        return ByteBuffer.wrap(data, offset, length);
+    }
+
+    @Test
+    public void testInOrder() throws Exception {
+        IncrementalDigest digest = new IncrementalDigest();
+        digest.update(region(0, 100), 0);
+        assertNull(digest.digest(data.length));
+        digest.update(region(100, data.length - 100), 100);
+        assertTrue(Arrays.equals(sha1(data), digest.digest(data.length)));
+    }
+
+    @Test
+    public void testAheadWithinLimit() throws Exception {
+        IncrementalDigest digest = new IncrementalDigest(planeSize * 2);
+        digest.update(region(planeSize * 2, planeSize), planeSize * 2);
+        digest.update(region(planeSize, planeSize), planeSize);
+        assertEquals(0, digest.getPosition());
+        digest.update(region(0, planeSize), 0);
+        assertEquals(planeSize * 3, digest.getPosition());
+        digest.update(region(planeSize * 3, data.length - planeSize * 3),
+                planeSize * 3);
+        assertTrue(Arrays.equals(sha1(data), digest.digest(data.length)));
+    }
+
+    @Test
+    public void testAheadBeyondLimit() throws Exception {
+        IncrementalDigest digest = new IncrementalDigest(planeSize);
+        digest.update(region(planeSize, planeSize), planeSize);
+        digest.update(region(planeSize * 2, planeSize), planeSize * 2);
+        assertFalse(digest.isValid());
+    }
+
+    @Test
+    public void testOverwriteInvalidates() throws Exception {
+        IncrementalDigest digest = new IncrementalDigest();
+        digest.update(region(0, data.length), 0);
+        digest.update(region(0, 10), 0);
+        assertFalse(digest.isValid());
+        assertNull(digest.digest(data.length));
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        IncrementalDigest digest = new IncrementalDigest();
+        digest.update(region(0, 100), 0);
+        digest.truncate(100);
+        assertTrue(digest.isValid());
+        digest.truncate(50);
+        assertFalse(digest.isValid());
+    }
+
+    @Test
+    public void testPixelBufferDigest() throws Exception {
+        RomioPixelBuffer writer = new RomioPixelBuffer(path, pixels, true);
+        for (int z = 0; z < planes; z++) {
+            writer.setPlane(Arrays.copyOfRange(data, z * planeSize,
+                    (z + 1) * planeSize), z, 0, 0);
+        }
+        byte[] incremental = writer.calculateMessageDigest();
+        writer.close();
+        assertTrue(Arrays.equals(sha1(data), incremental));
+        File saved = new File(path + RomioPixelBuffer.SHA1_SUFFIX);
+        assertTrue(saved.exists());
+
+        // The saved digest is returned without reading the pixels
+        String fake = "00" + FileUtils.readFileToString(saved).substring(2);
+        FileUtils.writeStringToFile(saved, fake);
+        RomioPixelBuffer reader = new RomioPixelBuffer(path, pixels, false);
+        byte[] fromFile = reader.calculateMessageDigest();
+        reader.close();
+        assertEquals(0, fromFile[0]);
+
+        // A write removes it again
+        writer = new RomioPixelBuffer(path, pixels, true);
+        writer.setPlane(Arrays.copyOfRange(data, 0, planeSize), 0, 0, 0);
+        assertFalse(saved.exists());
+        assertTrue(Arrays.equals(sha1(data), writer.calculateMessageDigest()));
+        writer.close();
+        assertTrue(saved.exists());
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the mapped read mode of {@link RomioPixelBuffer} returns the
+ * same data as the default mode and keeps the number of mapped windows
+ * bounded.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class MappedPixelBufferUnitTest {
+
+    private static final int sizeX = 64;
+
+    private static final int sizeY = 48;
+
+    private static final int planeSize = sizeX * sizeY * 2;
+
+    private String root;
+
+    private String path;
+
+    private Pixels pixels;
+
+    private RomioPixelBuffer plain;
+
+    private RomioPixelBuffer mapped;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        root = PathUtil.getInstance().getTemporaryDataFilePath();
+        path = new File(root, "pixels").getAbsolutePath();
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(5);
+        pixels.setSizeC(2);
+        pixels.setSizeT(2);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+
+        RomioPixelBuffer writer = new RomioPixelBuffer(path, pixels, true);
+        byte[] plane = new byte[planeSize];
+        for (int t = 0; t < 2; t++) {
+            for (int c = 0; c < 2; c++) {
+                for (int z = 0; z < 5; z++) {
+                    for (int i = 0; i < plane.length; i++) {
+                        plane[i] = (byte) (i * 7 + z * 13 + c * 31 + t * 61);
+                    }
+                    writer.setPlane(plane, z, c, t);
+                }
+            }
+        }
+        writer.close();
+
+        plain = new RomioPixelBuffer(path, pixels, false);
+        mapped = new RomioPixelBuffer(path, pixels, false);
+        // Windows of three planes, at most two of them mapped.
+        mapped.setMappedWindows(2, planeSize * 3 + 10);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        plain.close();
+        mapped.close();
+        FileUtils.deleteDirectory(new File(root));
+    }
+
+    private byte[] bytes(PixelData data) {
+        byte[] b = new byte[data.getData().remaining()];
+        data.getData().duplicate().get(b);
+        return b;
+    }
+
+    @Test
+    public void testPlanesAndRows() throws Exception {
+        for (int t = 0; t < 2; t++) {
+            for (int c = 0; c < 2; c++) {
+                for (int z = 0; z < 5; z++) {
+                    assertTrue(Arrays.equals(bytes(plain.getPlane(z, c, t)),
+                            bytes(mapped.getPlane(z, c, t))));
+                    assertTrue(Arrays.equals(
+                            bytes(plain.getRow(sizeY - 1, z, c, t)),
+                            bytes(mapped.getRow(sizeY - 1, z, c, t))));
+                    assertTrue(mapped.getMappedWindowCount() <= 2);
+                }
+            }
+        }
+        assertEquals(2, mapped.getMappedWindowCount());
+    }
+
+    @Test
+    public void testLargerThanWindow() throws Exception {
+        // A stack spans several windows and is mapped on its own.
+        assertTrue(Arrays.equals(bytes(plain.getStack(1, 1)),
+                bytes(mapped.getStack(1, 1))));
+        assertTrue(Arrays.equals(bytes(plain.getTimepoint(1)),
+                bytes(mapped.getTimepoint(1))));
+    }
+
+    @Test
+    public void testDirectReads() throws Exception {
+        for (RomioPixelBuffer buffer : new RomioPixelBuffer[] { plain, mapped })
+        {
+            byte[] plane = buffer.getPlaneDirect(3, 1, 1, new byte[planeSize]);
+            assertTrue(Arrays.equals(bytes(plain.getPlane(3, 1, 1)), plane));
+
+            byte[] row = buffer.getRowDirect(7, 3, 1, 1, new byte[sizeX * 2]);
+            assertTrue(Arrays.equals(
+                    Arrays.copyOfRange(plane, 7 * sizeX * 2, 8 * sizeX * 2),
+                    row));
+
+            byte[] region = buffer.getPlaneRegionDirect(
+                    3, 1, 1, 10, 100, new byte[20]);
+            assertTrue(Arrays.equals(
+                    Arrays.copyOfRange(plane, 200, 220), region));
+
+            byte[] col = buffer.getColDirect(5, 3, 1, 1, new byte[sizeY * 2]);
+            for (int y = 0; y < sizeY; y++) {
+                assertEquals(plane[y * sizeX * 2 + 10], col[y * 2]);
+                assertEquals(plane[y * sizeX * 2 + 11], col[y * 2 + 1]);
+            }
+
+            byte[] stack = buffer.getStackDirect(
+                    0, 1, new byte[planeSize * 5]);
+            assertTrue(Arrays.equals(bytes(plain.getStack(0, 1)), stack));
+        }
+    }
+
+    @Test
+    public void testCloseReleasesWindows() throws Exception {
+        PixelData plane = mapped.getPlane(0, 0, 0);
+        assertEquals(1, mapped.getMappedWindowCount());
+        mapped.close();
+        assertEquals(0, mapped.getMappedWindowCount());
+        // Data handed out before closing is still readable.
+        assertTrue(Arrays.equals(bytes(plain.getPlane(0, 0, 0)),
+                bytes(plane)));
+        // The buffer remaps on demand after being closed.
+        assertTrue(Arrays.equals(bytes(plain.getPlane(4, 1, 1)),
+                bytes(mapped.getPlane(4, 1, 1))));
+    }
+
+    @Test
+    public void testEvictedWindowStaysReadable() throws Exception {
+        PixelData first = mapped.getPlane(0, 0, 0);
+        // Map the windows of the other timepoint, evicting the first one.
+        for (int z = 0; z < 5; z++) {
+            mapped.getPlane(z, 1, 1);
+        }
+        assertEquals(2, mapped.getMappedWindowCount());
+        assertTrue(Arrays.equals(bytes(plain.getPlane(0, 0, 0)),
+                bytes(first)));
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final byte[][] expected = new byte[20][];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = bytes(plain.getPlane(i % 5, (i / 5) % 2, i / 10));
+        }
+        final List<Throwable> failures =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int first = i * 5;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < 200; n++) {
+                            int p = (first + n) % expected.length;
+                            assertTrue(Arrays.equals(expected[p], bytes(
+                                    mapped.getPlane(p % 5, (p / 5) % 2,
+                                            p / 10))));
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertTrue(mapped.getMappedWindowCount() <= 2);
+    }
+}
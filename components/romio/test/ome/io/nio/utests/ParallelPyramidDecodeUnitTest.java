@@ -0,0 +1,91 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.TileLoopIteration;
+import ome.io.nio.Utils;
+import ome.util.BoundedExecutor;
+import ome.util.PixelData;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that a pyramid whose lower resolution levels are decoded on a pool
+ * holds the same tiles as one decoded by the thread closing it.
+ * @since OMERO-Beta4.3
+ */
+public class ParallelPyramidDecodeUnitTest
+    extends AbstractPyramidPixelBufferUnitTest {
+
+    private BoundedExecutor executor;
+
+    @BeforeClass
+    public void setup() {
+        createService();
+        executor = new BoundedExecutor("Test", 2, 0, 4, false);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        deleteRoot();
+    }
+
+    private List<String> writeAndRead(long id, BoundedExecutor executor,
+            int decoders) throws IOException {
+        pixels.setId(id);
+        pixelBuffer = service.getPixelBuffer(pixels);
+        ((BfPyramidPixelBuffer) pixelBuffer).setExecutor(executor, decoders);
+        writeTiles(new ArrayList<String>());
+        pixelBuffer.close();
+        pixelBuffer = service.getPixelBuffer(pixels);
+        final List<String> digests = new ArrayList<String>();
+        try {
+            for (int level = 0; level < pixelBuffer.getResolutionLevels();
+                 level++) {
+                pixelBuffer.setResolutionLevel(level);
+                Utils.forEachTile(new TileLoopIteration() {
+                    public void run(int z, int c, int t, int x, int y, int w,
+                            int h, int tileCount) {
+                        try {
+                            PixelData tile =
+                                pixelBuffer.getTile(z, c, t, x, y, w, h);
+                            digests.add(ome.util.Utils.bytesToHex(
+                                    ome.util.Utils.calculateMessageDigest(
+                                            tile.getData())));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }, pixelBuffer, tileWidth, tileHeight);
+            }
+        } finally {
+            PixelBuffer closing = pixelBuffer;
+            pixelBuffer = null;
+            closing.close();
+        }
+        return digests;
+    }
+
+    @Test
+    public void testSameTilesAsSequentialDecoding() throws IOException {
+        List<String> sequential = writeAndRead(1L, null, 1);
+        List<String> parallel = writeAndRead(2L, executor, 3);
+        assertEquals(parallel, sequential);
+    }
+
+}
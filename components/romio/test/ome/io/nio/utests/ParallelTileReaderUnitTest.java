@@ -0,0 +1,201 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import ome.io.nio.ParallelTileReader;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.RomioPixelBuffer;
+import ome.io.nio.TileLoopIteration;
+import ome.io.nio.Utils;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.BoundedExecutor;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ParallelTileReader} hands the tiles over in loop order
+ * whatever the number of reader threads, also when the pool cannot take
+ * them, and that read errors are reported.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class ParallelTileReaderUnitTest {
+
+    private static final int sizeX = 100;
+
+    private static final int sizeY = 90;
+
+    private static final int tileSize = 32;
+
+    private String root;
+
+    private String path;
+
+    private Pixels pixels;
+
+    private List<PixelBuffer> sources;
+
+    private BoundedExecutor executor;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        root = PathUtil.getInstance().getTemporaryDataFilePath();
+        path = new File(root, "pixels").getAbsolutePath();
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(2);
+        pixels.setSizeC(3);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+
+        // Each pixel holds its row in the plane, offset by the plane index.
+        RomioPixelBuffer writer = new RomioPixelBuffer(path, pixels, true);
+        byte[] plane = new byte[sizeX * sizeY * 2];
+        for (int c = 0; c < 3; c++) {
+            for (int z = 0; z < 2; z++) {
+                for (int y = 0; y < sizeY; y++) {
+                    int value = (c * 2 + z) * 1000 + y;
+                    for (int x = 0; x < sizeX; x++) {
+                        int i = (y * sizeX + x) * 2;
+                        plane[i] = (byte) (value >> 8);
+                        plane[i + 1] = (byte) value;
+                    }
+                }
+                writer.setPlane(plane, z, c, 0);
+            }
+        }
+        writer.close();
+        sources = new ArrayList<PixelBuffer>();
+        executor = new BoundedExecutor("Test", 4, 0, 4, false);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        for (PixelBuffer source : sources) {
+            source.close();
+        }
+        FileUtils.deleteDirectory(new File(root));
+    }
+
+    private void assertTilesInOrder(int readers) throws IOException {
+        for (int i = 0; i < readers; i++) {
+            sources.add(new RomioPixelBuffer(path, pixels, false));
+        }
+        final List<int[]> expected = new ArrayList<int[]>();
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int w, int h,
+                    int tileCount) {
+                expected.add(new int[] { z, c, t, x, y, w, h });
+            }
+        }, sources.get(0), tileSize, tileSize);
+
+        ParallelTileReader reader =
+            new ParallelTileReader(executor, sources, tileSize, tileSize);
+        assertEquals(expected.size(), reader.getTileCount());
+        final List<int[]> handled = new ArrayList<int[]>();
+        int count = reader.run(new ParallelTileReader.TileHandler() {
+            public void handle(PixelData tile, int z, int c, int t, int x,
+                    int y, int w, int h, int tileCount) throws IOException {
+                assertEquals(handled.size(), tileCount);
+                assertEquals(w * h, tile.size());
+                int plane = c * 2 + z;
+                for (int row = 0; row < h; row++) {
+                    assertEquals(plane * 1000 + y + row,
+                            (int) tile.getPixelValue(row * w));
+                }
+                handled.add(new int[] { z, c, t, x, y, w, h });
+            }
+        });
+        assertEquals(expected.size(), count);
+        for (int i = 0; i < expected.size(); i++) {
+            for (int j = 0; j < 7; j++) {
+                assertEquals(expected.get(i)[j], handled.get(i)[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testSingleReader() throws IOException {
+        assertTilesInOrder(1);
+    }
+
+    @Test
+    public void testSeveralReaders() throws IOException {
+        assertTilesInOrder(4);
+    }
+
+    @Test
+    public void testSequentialWhenPoolSaturated() throws Exception {
+        executor.shutdownNow();
+        executor = new BoundedExecutor("Test", 1, 1, 1, false);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable block = new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        executor.execute(block);
+        executor.execute(block);
+        try {
+            assertTilesInOrder(2);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testSequentialWhenPoolShutDown() throws IOException {
+        executor.shutdown();
+        assertTilesInOrder(2);
+    }
+
+    @Test
+    public void testReadErrorReported() throws IOException {
+        sources.add(new RomioPixelBuffer(path, pixels, false) {
+            @Override
+            public PixelData getTile(Integer z, Integer c, Integer t,
+                    Integer x, Integer y, Integer w, Integer h)
+                    throws IOException {
+                throw new IOException("MOCK");
+            }
+        });
+        ParallelTileReader reader =
+            new ParallelTileReader(executor, sources, tileSize, tileSize);
+        try {
+            reader.run(new ParallelTileReader.TileHandler() {
+                public void handle(PixelData tile, int z, int c, int t,
+                        int x, int y, int w, int h, int tileCount) {
+                }
+            });
+            fail("Read error not reported.");
+        } catch (IOException e) {
+            assertEquals("MOCK", e.getMessage());
+        }
+    }
+}
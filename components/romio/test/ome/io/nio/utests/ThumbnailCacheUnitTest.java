@@ -0,0 +1,137 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import ome.io.nio.ThumbnailService;
+import ome.model.display.Thumbnail;
+import ome.model.meta.Event;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the memory cache of {@link ThumbnailService}.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class ThumbnailCacheUnitTest {
+
+    private String root;
+
+    private ThumbnailService service;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        root = PathUtil.getInstance().getTemporaryDataFilePath();
+        service = new ThumbnailService(root);
+        service.setCacheSize(100);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(root));
+    }
+
+    private Thumbnail thumbnail(long id, long eventId) {
+        Thumbnail thumbnail = new Thumbnail();
+        thumbnail.setId(id);
+        thumbnail.getDetails().setUpdateEvent(new Event(eventId, false));
+        return thumbnail;
+    }
+
+    private byte[] bytes(int length, int value) {
+        byte[] b = new byte[length];
+        java.util.Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    @Test
+    public void testSecondReadIsServedFromMemory() throws Exception {
+        Thumbnail t = thumbnail(1L, 10L);
+        service.createThumbnail(t, bytes(10, 1));
+        byte[] first = service.getThumbnail(t);
+        byte[] second = service.getThumbnail(t);
+        assertSame(first, second);
+        assertEquals(1, service.getCacheHits());
+        assertEquals(1, service.getCacheMisses());
+        assertEquals(0.5, service.getCacheHitRatio());
+        assertEquals(10, service.getCacheBytes());
+        assertEquals(1, service.getCacheCount());
+    }
+
+    @Test
+    public void testNewUpdateEventIsAMiss() throws Exception {
+        service.createThumbnail(thumbnail(1L, 10L), bytes(10, 1));
+        service.getThumbnail(thumbnail(1L, 10L));
+        service.getThumbnail(thumbnail(1L, 11L));
+        assertEquals(0, service.getCacheHits());
+        assertEquals(2, service.getCacheMisses());
+        // Only the latest version is held.
+        assertEquals(1, service.getCacheCount());
+    }
+
+    @Test
+    public void testRewriteInvalidates() throws Exception {
+        Thumbnail t = thumbnail(1L, 10L);
+        service.createThumbnail(t, bytes(10, 1));
+        service.getThumbnail(t);
+        service.createThumbnail(t, bytes(10, 2));
+        assertEquals(2, service.getThumbnail(t)[0]);
+
+        FileOutputStream stream = service.getThumbnailOutputStream(t);
+        stream.write(bytes(10, 3));
+        stream.close();
+        assertEquals(3, service.getThumbnail(t)[0]);
+        assertEquals(0, service.getCacheHits());
+    }
+
+    @Test
+    public void testRemoveInvalidates() throws Exception {
+        Thumbnail t = thumbnail(1L, 10L);
+        service.createThumbnail(t, bytes(10, 1));
+        service.getThumbnail(t);
+        assertTrue(service.getThumbnailExists(t));
+        service.removeThumbnails(Collections.singletonList(1L));
+        assertEquals(0, service.getCacheCount());
+        assertFalse(service.getThumbnailExists(t));
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+        for (long id = 1; id <= 5; id++) {
+            Thumbnail t = thumbnail(id, 10L);
+            service.createThumbnail(t, bytes(40, (int) id));
+            service.getThumbnail(t);
+        }
+        assertEquals(2, service.getCacheCount());
+        assertEquals(80, service.getCacheBytes());
+        assertEquals(3, service.getCacheEvictions());
+        // The most recently read thumbnails are held.
+        service.getThumbnail(thumbnail(5L, 10L));
+        assertEquals(1, service.getCacheHits());
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        service = new ThumbnailService(root);
+        Thumbnail t = thumbnail(1L, 10L);
+        service.createThumbnail(t, bytes(10, 1));
+        service.getThumbnail(t);
+        service.getThumbnail(t);
+        assertEquals(0, service.getCacheCount());
+        assertEquals(0, service.getCacheHits() + service.getCacheMisses());
+    }
+}
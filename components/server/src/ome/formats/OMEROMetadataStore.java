@@ -56,9 +56,13 @@ import ome.model.screen.Well;
 import ome.model.screen.WellSample;
 import ome.model.screen.PlateAcquisition;
 import ome.model.stats.StatsInfo;
+import ome.system.OmeroContext;
 import ome.system.ServiceFactory;
 import ome.conditions.ApiUsageException;
+import ome.conditions.InternalException;
+import ome.services.messages.EventLogMessage;
 import ome.util.LSID;
+import ome.util.SqlAction;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -92,6 +96,18 @@ public class OMEROMetadataStore
     /** OMERO update service */
     private IUpdate iUpdate;
 
+    /**
+     * Used to insert the plane infos with JDBC batches or <code>null</code>
+     * if they are saved through Hibernate with the rest of the graph.
+     */
+    private SqlAction sql;
+
+    /** Maximum number of plane infos inserted per JDBC batch. */
+    private int batchSize;
+
+    /** Used to raise the event logs of the plane infos. */
+    private OmeroContext context;
+
     /** A map of imageIndex vs. Image object ordered by first access. */
     private Map<Integer, Image> imageList = 
     	new LinkedHashMap<Integer, Image>();
@@ -289,10 +305,9 @@ public class OMEROMetadataStore
     {
     	for (String target : referenceCache.keySet())
     	{
+    		IObject targetObject = lsidMap.get(new LSID(target));
     		for (String reference : referenceCache.get(target))
     		{
-    			LSID targetLSID = new LSID(target);
-    			IObject targetObject = lsidMap.get(targetLSID);
     			LSID referenceLSID = new LSID(reference);
     			IObject referenceObject = lsidMap.get(
     					new LSID(stripCustomSuffix(reference)));
@@ -1542,6 +1557,33 @@ public class OMEROMetadataStore
         // Now initialize all our services
         initializeServices(sf);
     }
+
+    /**
+     * Creates a new instance which inserts the plane infos of the graph
+     * with JDBC batches when saving it. Large plates carry hundreds of
+     * thousands of plane infos which would otherwise all go through the
+     * Hibernate session.
+     *
+     * @param factory a non-null, active {@link ServiceFactory}
+     * @param context Used to raise the event logs of the plane infos.
+     * @param sql Used to insert the plane infos.
+     * @param batchSize Maximum number of plane infos per batch. Values
+     * lower than <code>1</code> save the plane infos through Hibernate.
+     * @throws MetadataStoreException if the factory is null or there
+     *             is another error instantiating required services.
+     */
+    public OMEROMetadataStore(ServiceFactory factory, OmeroContext context,
+    		SqlAction sql, int batchSize)
+    	throws Exception
+    {
+        this(factory);
+        if (batchSize > 0)
+        {
+            this.context = context;
+            this.sql = sql;
+            this.batchSize = batchSize;
+        }
+    }
     
     /**
      * Private class used by constructor to initialize the services of the 
@@ -1819,6 +1861,90 @@ public class OMEROMetadataStore
     	return lc;
     }
 
+    /**
+     * Removes the plane infos from the primary Pixels set of each image so
+     * that they are not saved through Hibernate.
+     * @param images Images to be saved.
+     * @return The plane infos removed, by image.
+     */
+    private List<List<PlaneInfo>> detachPlaneInfos(Image[] images)
+    {
+    	List<List<PlaneInfo>> planeInfos =
+    		new ArrayList<List<PlaneInfo>>(images.length);
+    	Pixels pixels;
+    	for (Image image : images)
+    	{
+    		List<PlaneInfo> list = new ArrayList<PlaneInfo>();
+    		if (image.sizeOfPixels() > 0)
+    		{
+    			pixels = image.getPrimaryPixels();
+    			list.addAll(pixels.unmodifiablePlaneInfo());
+    			pixels.clearPlaneInfo();
+    		}
+    		planeInfos.add(list);
+    	}
+    	return planeInfos;
+    }
+
+    /**
+     * Inserts the plane infos removed by {@link #detachPlaneInfos(Image[])}
+     * with JDBC batches and raises the event logs Hibernate would have
+     * created for them.
+     * @param saved The saved images in the order they were passed to
+     * {@link #detachPlaneInfos(Image[])}.
+     * @param planeInfos The plane infos, by image.
+     */
+    private void insertPlaneInfos(IObject[] saved,
+    		List<List<PlaneInfo>> planeInfos)
+    {
+    	List<PlaneInfo> batch = new ArrayList<PlaneInfo>(batchSize);
+    	Pixels pixels;
+    	for (int i = 0; i < saved.length; i++)
+    	{
+    		if (planeInfos.get(i).isEmpty())
+    		{
+    			continue;
+    		}
+    		pixels = ((Image) saved[i]).getPrimaryPixels();
+    		for (PlaneInfo planeInfo : planeInfos.get(i))
+    		{
+    			planeInfo.setPixels(pixels);
+    			batch.add(planeInfo);
+    			if (batch.size() == batchSize)
+    			{
+    				insertPlaneInfoBatch(batch);
+    				batch.clear();
+    			}
+    		}
+    	}
+    	insertPlaneInfoBatch(batch);
+    }
+
+    /**
+     * Inserts a batch of plane infos and raises the matching event logs.
+     * @param batch Plane infos linked to their saved Pixels set.
+     */
+    private void insertPlaneInfoBatch(List<PlaneInfo> batch)
+    {
+    	if (batch.isEmpty())
+    	{
+    		return;
+    	}
+    	List<Long> ids = sql.insertPlaneInfos(batch);
+    	try
+    	{
+    		context.publishMessage(
+    				new EventLogMessage(this, "INSERT", PlaneInfo.class, ids));
+    	}
+    	catch (Throwable t)
+    	{
+    		InternalException ie =
+    			new InternalException("EventLogMessage failed.");
+    		ie.initCause(t);
+    		throw ie;
+    	}
+    }
+
     /**
      * Saves the current object graph to the database.
      * 
@@ -1836,8 +1962,19 @@ public class OMEROMetadataStore
     	StopWatch s1 = new CommonsLogStopWatch("omero.saveImportGraph");
     	Image[] imageArray = 
     		imageList.values().toArray(new Image[imageList.size()]);
+    	List<List<PlaneInfo>> planeInfos = null;
+    	if (sql != null)
+    	{
+    		planeInfos = detachPlaneInfos(imageArray);
+    	}
     	IObject[] saved = iUpdate.saveAndReturnArray(imageArray);
     	s1.stop();
+    	if (planeInfos != null)
+    	{
+    		StopWatch s3 = new CommonsLogStopWatch("omero.insertPlaneInfos");
+    		insertPlaneInfos(saved, planeInfos);
+    		s3.stop();
+    	}
     	
     	// To conform loosely with the method contract, reload a subset of
     	// the original graph so that it may be manipulated by the caller.
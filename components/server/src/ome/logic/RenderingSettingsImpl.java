@@ -56,9 +56,13 @@ import ome.model.screen.Screen;
 import ome.model.screen.Plate;
 import ome.model.stats.StatsInfo;
 import ome.parameters.Parameters;
+import ome.services.HistogramCache;
 import omeis.providers.re.ColorsFactory;
 import omeis.providers.re.Renderer;
 import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.metadata.ChannelHistogram;
+import omeis.providers.re.metadata.HistogramEngine;
 import omeis.providers.re.metadata.StatsFactory;
 import omeis.providers.re.quantum.QuantumFactory;
 import omeis.providers.re.quantum.QuantumStrategy;
@@ -96,6 +100,26 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
     /** Reference to the service used to retrieve the pixels metadata. */
     protected transient IPixels pixelsMetadata;
 
+    /** The histograms computed when resetting the settings. */
+    protected transient HistogramCache histogramCache;
+
+    /** The executor shared with the rendering engines. */
+    protected transient RenderingExecutor renderingExecutor;
+
+    /**
+     * The maximum number of threads, and therefore of pixel buffers,
+     * computing the histograms of a plane. The size of the rendering
+     * executor if <code>0</code>.
+     */
+    protected transient int histogramThreads;
+
+    /**
+     * The minimum number of pixels of the resolution level the histograms
+     * are computed at.
+     */
+    protected transient long histogramMinimumPixels =
+        HistogramEngine.DEFAULT_MINIMUM_PIXELS;
+
     /**
      * Returns the Id of the currently logged in user.
      * @return See above.
@@ -868,6 +892,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         if (planeDef == null) {
             throw new NullPointerException("No plane definition.");
         }
+        ChannelHistogram[] histograms = getHistograms(pixels, planeDef, buf);
         StatsFactory sf = new StatsFactory();
         ChannelBinding cb;
         double min, max;
@@ -880,7 +905,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             // of the channels linked to the pixels set.
         	
             cb = cbs.get(w);
-            sf.computeLocationStats(pixels, buf, planeDef, w);
+            sf.computeLocationStats(histograms[w]);
             cb.setNoiseReduction(sf.isNoiseReduction());
             min = sf.getInputStart();
             max = sf.getInputEnd();
@@ -893,6 +918,96 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             cb.setInputEnd(new Double(max));
         }
     }
+
+    /**
+     * Returns the histograms of all the channels of a plane, from the cache
+     * if possible. The missing histograms are computed in a single pass
+     * over the tiles of the plane, at a lower resolution level if the pixels
+     * set has a pyramid, on up to {@link #histogramThreads} threads of the
+     * rendering executor, each with a pixel buffer of its own, but never
+     * more threads than tiles.
+     * 
+     * @param pixels	The pixels set.
+     * @param planeDef	The 2D-plane.
+     * @param buf		The buffer.
+     * @return See above.
+     */
+    private ChannelHistogram[] getHistograms(Pixels pixels, PlaneDef planeDef,
+            PixelBuffer buf) {
+        int sizeC = pixels.sizeOfChannels();
+        int z = planeDef.getZ();
+        int t = planeDef.getT();
+        HistogramEngine engine = new HistogramEngine(
+                ChannelHistogram.DEFAULT_BIN_COUNT, histogramMinimumPixels,
+                renderingExecutor);
+        int level = engine.selectResolutionLevel(buf);
+        ChannelHistogram[] histograms = new ChannelHistogram[sizeC];
+        double[] gMin = new double[sizeC];
+        double[] gMax = new double[sizeC];
+        List<Integer> missing = new ArrayList<Integer>();
+        for (int w = 0; w < sizeC; w++) {
+            StatsInfo stats = StatsFactory.getStatsInfo(pixels, w);
+            gMin[w] = stats.getGlobalMin().doubleValue();
+            gMax[w] = stats.getGlobalMax().doubleValue();
+            if (histogramCache != null) {
+                histograms[w] = histogramCache.get(pixels.getId(), z, t,
+                        level, w, gMin[w], gMax[w]);
+            }
+            if (histograms[w] == null) {
+                missing.add(w);
+            }
+        }
+        if (missing.size() == 0) {
+            return histograms;
+        }
+
+        int[] channels = new int[missing.size()];
+        double[] mins = new double[missing.size()];
+        double[] maxs = new double[missing.size()];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = missing.get(i);
+            mins[i] = gMin[channels[i]];
+            maxs[i] = gMax[channels[i]];
+        }
+        int parallelism = renderingExecutor == null ? 1
+                : renderingExecutor.getParallelism();
+        int threads = histogramThreads > 0 ?
+                Math.min(histogramThreads, parallelism) : parallelism;
+        threads = Math.min(threads, engine.countTiles(buf));
+        StopWatch s1 = new CommonsLogStopWatch("omero.computeHistograms");
+        List<PixelBuffer> buffers = new ArrayList<PixelBuffer>();
+        buffers.add(buf);
+        try {
+            // Buffers are created on the calling thread as it may have to
+            // look up the original file of the Pixels set.
+            for (int i = 1; i < threads; i++) {
+                buffers.add(pixelsData.getPixelBuffer(pixels, false));
+            }
+            ChannelHistogram[] computed = engine.compute(buffers, level,
+                    z, t, channels, mins, maxs);
+            for (int i = 0; i < channels.length; i++) {
+                histograms[channels[i]] = computed[i];
+                if (histogramCache != null) {
+                    histogramCache.put(pixels.getId(), z, t, computed[i]);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Could not compute histograms of " + pixels.getId(), e);
+            throw new ResourceError(
+                    e.getMessage() + " Please check server log.");
+        } finally {
+            for (int i = 1; i < buffers.size(); i++) {
+                try {
+                    buffers.get(i).close();
+                } catch (IOException e) {
+                    log.error("Buffer did not close successfully: "
+                            + buffers.get(i), e);
+                }
+            }
+        }
+        s1.stop();
+        return histograms;
+    }
     
     /**
      * Creates the default plane definition to use for generation of the very
@@ -1072,6 +1187,52 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         pixelsData = dataService;
     }
 
+    /**
+     * Sets injector. For use during configuration. Can only be called once.
+     * 
+     * @param histogramCache
+     *            The value to set.
+     */
+    public void setHistogramCache(HistogramCache histogramCache) {
+        getBeanHelper().throwIfAlreadySet(this.histogramCache, histogramCache);
+        this.histogramCache = histogramCache;
+    }
+
+    /**
+     * Sets injector. For use during configuration. Can only be called once.
+     * 
+     * @param renderingExecutor
+     *            The value to set.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.renderingExecutor,
+                renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Sets the maximum number of threads computing the histograms of a
+     * plane, each with a pixel buffer of its own. A value less than or equal
+     * to <code>0</code> selects the size of the rendering executor.
+     * 
+     * @param histogramThreads
+     *            The value to set.
+     */
+    public void setHistogramThreads(int histogramThreads) {
+        this.histogramThreads = histogramThreads;
+    }
+
+    /**
+     * Sets the minimum number of pixels of the resolution level the
+     * histograms are computed at when the pixels set has a pyramid.
+     * 
+     * @param histogramMinimumPixels
+     *            The value to set.
+     */
+    public void setHistogramMinimumPixels(long histogramMinimumPixels) {
+        this.histogramMinimumPixels = histogramMinimumPixels;
+    }
+
     /**
      * Returns the interface this implementation is for.
      * @see AbstractLevel2Service#getServiceInterface()
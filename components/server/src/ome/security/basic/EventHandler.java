@@ -17,6 +17,7 @@ import ome.conditions.ApiUsageException;
 import ome.conditions.InternalException;
 import ome.model.meta.Event;
 import ome.model.meta.EventLog;
+import ome.services.messages.EventLogsCommittedMessage;
 import ome.system.EventContext;
 import ome.tools.hibernate.SessionFactory;
 import ome.util.SqlAction;
@@ -27,10 +28,15 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Session;
 import org.hibernate.engine.SessionImplementor;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
 import org.springframework.orm.hibernate3.HibernateTemplate;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.interceptor.TransactionAttribute;
 import org.springframework.transaction.interceptor.TransactionAttributeSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * method interceptor responsible for login and creation of Events. Calls are
@@ -49,7 +55,8 @@ import org.springframework.transaction.interceptor.TransactionAttributeSource;
  *         href="mailto:josh.moore@gmx.de">josh.moore@gmx.de</a>
  * @since 3.0
  */
-public class EventHandler implements MethodInterceptor {
+public class EventHandler implements MethodInterceptor,
+        ApplicationContextAware {
 
     private static Log log = LogFactory.getLog(EventHandler.class);
 
@@ -63,6 +70,8 @@ public class EventHandler implements MethodInterceptor {
 
     protected final boolean readOnly;
 
+    protected ApplicationContext ctx;
+
     /**
      * only public constructor, used for dependency injection. Requires an
      * active {@link HibernateTemplate} and {@link BasicSecuritySystem}.
@@ -89,6 +98,11 @@ public class EventHandler implements MethodInterceptor {
         this.readOnly = readOnly;
     }
 
+    public void setApplicationContext(ApplicationContext ctx)
+            throws BeansException {
+        this.ctx = ctx;
+    }
+
     /**
      * invocation interceptor for prepairing this {@link Thread} for execution
      * and subsequently reseting it.
@@ -261,6 +275,7 @@ public class EventHandler implements MethodInterceptor {
             }
 
             sql.insertLogs(batchData);
+            publishAfterCommit(logs);
 
         } catch (Exception ex) {
             log.error("Error saving event logs: " + logs, ex);
@@ -271,4 +286,30 @@ public class EventHandler implements MethodInterceptor {
         }
 
     }
+
+    /**
+     * Publishes an {@link EventLogsCommittedMessage} for the given logs once
+     * the current transaction has been committed. Nothing is published if
+     * the transaction is rolled back.
+     */
+    void publishAfterCommit(final List<EventLog> logs) {
+        final ApplicationContext context = ctx;
+        if (context == null
+                || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager
+                .registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        try {
+                            context.publishEvent(new EventLogsCommittedMessage(
+                                    EventHandler.this, logs));
+                        } catch (Exception e) {
+                            log.warn("Failed to publish committed event logs",
+                                    e);
+                        }
+                    }
+                });
+    }
 }
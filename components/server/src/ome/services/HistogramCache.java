@@ -0,0 +1,187 @@
+/*
+ * ome.services.HistogramCache
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import omeis.providers.re.metadata.ChannelHistogram;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Cache of the {@link ChannelHistogram}s computed when the rendering
+ * settings of a Pixels set are reset, shared by all the rendering settings
+ * services of the server so that resetting the settings again, for instance
+ * to restore the automatic contrast, does not read the pixel data again.
+ * <p>
+ * Histograms are keyed by the Pixels set, the plane, the resolution level and
+ * the channel, and are only served for the global minimum and maximum of the
+ * channel they were computed with. The cache holds a bounded number of
+ * histograms, the least recently used ones being evicted first. All the
+ * histograms of a Pixels set are dropped by {@link #invalidate(long)}.
+ * </p>
+ *
+ * @since OMERO-Beta4.3
+ */
+public class HistogramCache {
+
+    /** The logger for this particular class */
+    private static Log log = LogFactory.getLog(HistogramCache.class);
+
+    /** The maximum number of histograms held. */
+    private final int maxEntries;
+
+    /** The histograms held, in access order. */
+    private final LinkedHashMap<String, ChannelHistogram> histograms =
+        new LinkedHashMap<String, ChannelHistogram>(16, 0.75f, true);
+
+    /** The number of histograms served from the cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of histograms which had to be computed. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries
+     *            The maximum number of histograms held. A value less than or
+     *            equal to <code>0</code> disables the cache.
+     */
+    public HistogramCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        log.info("Histogram cache created with " + maxEntries + " entries");
+    }
+
+    /**
+     * Returns the histogram of a channel of a plane or <code>null</code> if
+     * none has been computed for the passed interval.
+     *
+     * @param pixelsId
+     *            The id of the Pixels set.
+     * @param z
+     *            The optical section of the plane.
+     * @param t
+     *            The timepoint of the plane.
+     * @param resolutionLevel
+     *            The resolution level of the plane.
+     * @param channel
+     *            The index of the channel.
+     * @param globalMin
+     *            The current global minimum of the channel.
+     * @param globalMax
+     *            The current global maximum of the channel.
+     * @return See above.
+     */
+    public ChannelHistogram get(long pixelsId, int z, int t,
+            int resolutionLevel, int channel, double globalMin,
+            double globalMax) {
+        ChannelHistogram histogram;
+        synchronized (histograms) {
+            histogram = histograms.get(
+                    key(pixelsId, z, t, resolutionLevel, channel));
+        }
+        if (histogram != null && histogram.getGlobalMin() == globalMin
+                && histogram.getGlobalMax() == globalMax) {
+            hits.incrementAndGet();
+            return histogram;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the histogram of a channel of a plane.
+     *
+     * @param pixelsId
+     *            The id of the Pixels set.
+     * @param z
+     *            The optical section of the plane.
+     * @param t
+     *            The timepoint of the plane.
+     * @param histogram
+     *            The histogram, which carries its channel and resolution
+     *            level.
+     */
+    public void put(long pixelsId, int z, int t, ChannelHistogram histogram) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (histograms) {
+            histograms.put(key(pixelsId, z, t,
+                    histogram.getResolutionLevel(), histogram.getChannel()),
+                    histogram);
+            Iterator<ChannelHistogram> i = histograms.values().iterator();
+            while (histograms.size() > maxEntries && i.hasNext()) {
+                i.next();
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all the histograms of the passed Pixels set.
+     *
+     * @param pixelsId
+     *            The id of the Pixels set.
+     */
+    public void invalidate(long pixelsId) {
+        String prefix = pixelsId + ":";
+        synchronized (histograms) {
+            Iterator<Map.Entry<String, ChannelHistogram>> i =
+                histograms.entrySet().iterator();
+            while (i.hasNext()) {
+                if (i.next().getKey().startsWith(prefix)) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of histograms served from the cache.
+     *
+     * @return See above.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of histograms which could not be served.
+     *
+     * @return See above.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of histograms held.
+     *
+     * @return See above.
+     */
+    public int getSize() {
+        synchronized (histograms) {
+            return histograms.size();
+        }
+    }
+
+    /**
+     * Creates the key of a histogram.
+     */
+    private String key(long pixelsId, int z, int t, int resolutionLevel,
+            int channel) {
+        return pixelsId + ":" + z + ":" + t + ":" + resolutionLevel + ":"
+            + channel;
+    }
+}
@@ -141,7 +141,8 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             String path = ioService.getFilesPath(id);
             try {
 
-                byte[] hash = Utils.pathToSha1(path);
+                // Only reads the file if it was not written in order
+                byte[] hash = buffer.calculateMessageDigest();
                 file.setSha1(Utils.bytesToHex(hash));
 
                 long size = new File(path).length();
@@ -287,6 +288,43 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         return rawBuf;
     }
 
+    @RolesAllowed("user")
+    public byte[] readMany(long[] positions, int[] lengths) {
+        errorIfNotLoaded();
+        if (positions == null || lengths == null
+                || positions.length != lengths.length) {
+            throw new ApiUsageException(
+                    "positions and lengths must be of the same size.");
+        }
+        long total = 0;
+        for (int length : lengths) {
+            if (length < 0) {
+                throw new ApiUsageException("Negative length: " + length);
+            }
+            total += length;
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new ApiUsageException("Too big: " + total);
+        }
+        byte[] rawBuf = new byte[(int) total];
+        ByteBuffer buf = ByteBuffer.wrap(rawBuf);
+
+        try {
+            for (int i = 0; i < positions.length; i++) {
+                buf.limit(buf.position() + lengths[i]);
+                ByteBuffer range = buf.slice();
+                buffer.read(range, positions[i]);
+                buf.position(buf.limit());
+            }
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Buffer could not be read.", e);
+            }
+            throw new ResourceError(e.getMessage());
+        }
+        return rawBuf;
+    }
+
     @RolesAllowed("user")
     public boolean truncate(long length) {
         errorIfNotLoaded();
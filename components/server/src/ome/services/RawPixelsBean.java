@@ -96,6 +96,12 @@ public class RawPixelsBean extends AbstractStatefulBean implements
     /** The server's OMERO data directory. */
     private transient String omeroDataDir;
 
+    /** The histograms to drop when the pixel data is modified. */
+    private transient HistogramCache histogramCache;
+
+    /** The rendered tiles to drop when the pixel data is modified. */
+    private transient RenderedTileCache tileCache;
+
     /**
      * default constructor
      */
@@ -147,6 +153,24 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         this.sql = sql;
     }
 
+    /**
+     * Histogram cache Bean injector
+     * @param histogramCache a <code>HistogramCache</code>
+     */
+    public final void setHistogramCache(HistogramCache histogramCache) {
+        getBeanHelper().throwIfAlreadySet(this.histogramCache, histogramCache);
+        this.histogramCache = histogramCache;
+    }
+
+    /**
+     * Rendered tile cache Bean injector
+     * @param tileCache a <code>RenderedTileCache</code>
+     */
+    public final void setTileCache(RenderedTileCache tileCache) {
+        getBeanHelper().throwIfAlreadySet(this.tileCache, tileCache);
+        this.tileCache = tileCache;
+    }
+
     // ~ Lifecycle methods
     // =========================================================================
 
@@ -195,6 +219,12 @@ public class RawPixelsBean extends AbstractStatefulBean implements
             }
 
             iUpdate.flush();
+            if (histogramCache != null) {
+                histogramCache.invalidate(id);
+            }
+            if (tileCache != null && tileCache.isEnabled()) {
+                tileCache.invalidate(id);
+            }
             modified = false;
             return new ShallowCopy().copy(pixelsInstance);
         }
@@ -0,0 +1,614 @@
+/*
+ * ome.services.RenderedTileCache
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ome.io.nio.AbstractFileSystemService;
+import ome.model.display.ChannelBinding;
+import ome.model.display.QuantumDef;
+import ome.model.display.RenderingDef;
+import ome.model.enums.Family;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.data.RegionDef;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Cache of the compressed tiles produced by
+ * {@link RenderingBean#renderCompressed(PlaneDef)} shared by all the rendering
+ * engines of the server. Tiles are keyed by the Pixels set, the resolution
+ * level, the plane and region and a digest of the active rendering settings
+ * (channel bindings, quantum definition, model and codomain chain) so that a
+ * tile is only ever served for the exact settings it was rendered with.
+ * <p>
+ * Tiles are held in memory in a least recently used map bounded by the total
+ * number of bytes. When the disk tier is enabled, tiles are also written
+ * below <code>RenderedTiles</code> in the binary repository and read back on
+ * a memory miss. The disk tier is bounded by a number of bytes as well: the
+ * tiles found in the repository on startup are indexed oldest first and the
+ * least recently used files are deleted when new tiles no longer fit. All
+ * the tiles of a Pixels set are dropped by {@link #invalidate(long)}
+ * whenever its rendering settings are saved or reset or its pixel data is
+ * modified.
+ * </p>
+ *
+ * @since OMERO-Beta4.3
+ */
+public class RenderedTileCache extends AbstractFileSystemService {
+
+    /** The logger for this particular class */
+    private static Log log = LogFactory.getLog(RenderedTileCache.class);
+
+    /** The maximum number of bytes held in memory. */
+    private final long maxBytes;
+
+    /** The maximum number of bytes stored in the binary repository. */
+    private final long diskMaxBytes;
+
+    /** Whether or not tiles are also stored in the binary repository. */
+    private final boolean diskEnabled;
+
+    /** The tiles held in memory, in access order. */
+    private final LinkedHashMap<String, byte[]> tiles =
+        new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    /** The number of bytes currently held in memory. */
+    private long bytes;
+
+    /** The size of the tiles stored on disk, in access order. */
+    private final LinkedHashMap<String, Long> diskTiles =
+        new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /** The number of bytes currently stored on disk. */
+    private long diskBytes;
+
+    /** The number of requests served from the cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of requests served from the disk tier. */
+    private final AtomicLong diskHits = new AtomicLong();
+
+    /** The number of requests which had to be rendered. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The number of tiles evicted from memory to honor the size bound. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** The number of tiles deleted from disk to honor the size bound. */
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param path
+     *            The root of the binary repository.
+     * @param maxBytes
+     *            The maximum number of bytes held in memory. A value less
+     *            than or equal to <code>0</code> disables the memory tier.
+     * @param diskMaxBytes
+     *            The maximum number of bytes stored in the binary repository.
+     *            A value less than or equal to <code>0</code> disables the
+     *            disk tier.
+     */
+    public RenderedTileCache(String path, long maxBytes, long diskMaxBytes) {
+        super(path);
+        this.maxBytes = maxBytes;
+        this.diskMaxBytes = diskMaxBytes;
+        this.diskEnabled = diskMaxBytes > 0;
+        if (diskEnabled) {
+            loadDiskTiles(new File(path, RENDERED_TILES_PATH));
+        }
+        log.info(String.format(
+                "Rendered tile cache created with %d bytes, "
+                + "disk tier %d bytes (%d bytes in use)",
+                maxBytes, diskMaxBytes, diskBytes));
+    }
+
+    /**
+     * Returns <code>true</code> if either tier is enabled,
+     * <code>false</code> otherwise.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0 || diskEnabled;
+    }
+
+    /**
+     * Creates the key of a tile rendered by the passed renderer.
+     *
+     * @param pixelsId
+     *            The id of the Pixels set.
+     * @param resolutionLevel
+     *            The resolution level or <code>null</code> if the default
+     *            level of the renderer is used.
+     * @param pd
+     *            The plane and region rendered.
+     * @param compression
+     *            The compression level of the tile.
+     * @param renderer
+     *            The renderer holding the current settings.
+     * @return See above.
+     */
+    public String createKey(long pixelsId, Integer resolutionLevel,
+            PlaneDef pd, float compression, Renderer renderer) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(resolutionLevel == null ? -1 : resolutionLevel);
+            out.writeInt(pd.getSlice());
+            out.writeInt(pd.getX());
+            out.writeInt(pd.getY());
+            out.writeInt(pd.getZ());
+            out.writeInt(pd.getT());
+            out.writeInt(pd.getStride());
+            RegionDef region = pd.getRegion();
+            if (region != null) {
+                out.writeInt(region.getX());
+                out.writeInt(region.getY());
+                out.writeInt(region.getWidth());
+                out.writeInt(region.getHeight());
+            }
+            out.writeFloat(compression);
+
+            RenderingDef def = renderer.getRenderingDef();
+            out.writeUTF(String.valueOf(def.getModel().getValue()));
+            QuantumDef qDef = def.getQuantization();
+            out.writeInt(qDef.getBitResolution());
+            out.writeInt(qDef.getCdStart());
+            out.writeInt(qDef.getCdEnd());
+            for (ChannelBinding cb : renderer.getChannelBindings()) {
+                out.writeBoolean(cb.getActive());
+                if (!cb.getActive()) {
+                    continue;
+                }
+                Family family = cb.getFamily();
+                out.writeUTF(String.valueOf(family.isLoaded() ?
+                        family.getValue() : family.getId()));
+                out.writeDouble(cb.getCoefficient());
+                out.writeBoolean(cb.getNoiseReduction());
+                out.writeDouble(cb.getInputStart());
+                out.writeDouble(cb.getInputEnd());
+                out.writeInt(cb.getRed());
+                out.writeInt(cb.getGreen());
+                out.writeInt(cb.getBlue());
+                out.writeInt(cb.getAlpha());
+            }
+            // The codomain chain is summarized by its transformation.
+            CodomainChain cc = renderer.getCodomainChain();
+            int start = cc.getIntervalStart();
+            int end = cc.getIntervalEnd();
+            out.writeInt(start);
+            out.writeInt(end);
+            for (int x = start; x <= end; x++) {
+                out.writeInt(cc.transform(x));
+            }
+            out.flush();
+            return pixelsId + ":" + toHex(digest(bos.toByteArray()));
+        } catch (IOException e) {
+            // Cannot happen when writing to memory.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the tile stored under the passed key or <code>null</code> if
+     * none.
+     *
+     * @param key
+     *            The key created by
+     *            {@link #createKey(long, Integer, PlaneDef, float, Renderer)}.
+     * @return See above.
+     */
+    public byte[] get(String key) {
+        byte[] tile;
+        synchronized (tiles) {
+            tile = tiles.get(key);
+        }
+        if (tile != null) {
+            hits.incrementAndGet();
+            return tile;
+        }
+        if (diskEnabled) {
+            tile = read(key);
+            if (tile != null) {
+                synchronized (diskTiles) {
+                    diskTiles.get(key); // Marks the tile as recently used.
+                }
+                hits.incrementAndGet();
+                diskHits.incrementAndGet();
+                putInMemory(key, tile);
+                return tile;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a tile.
+     *
+     * @param key
+     *            The key created by
+     *            {@link #createKey(long, Integer, PlaneDef, float, Renderer)}.
+     * @param tile
+     *            The compressed tile. The array must not be modified
+     *            afterwards.
+     */
+    public void put(String key, byte[] tile) {
+        putInMemory(key, tile);
+        if (diskEnabled && tile.length <= diskMaxBytes && write(key, tile)) {
+            putOnDisk(key, tile.length);
+        }
+    }
+
+    /**
+     * Drops all the tiles of the passed Pixels set from both tiers.
+     *
+     * @param pixelsId
+     *            The id of the Pixels set.
+     */
+    public void invalidate(long pixelsId) {
+        String prefix = pixelsId + ":";
+        synchronized (tiles) {
+            Iterator<Map.Entry<String, byte[]>> i =
+                tiles.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry<String, byte[]> entry = i.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    bytes -= entry.getValue().length;
+                    i.remove();
+                }
+            }
+        }
+        if (diskEnabled) {
+            synchronized (diskTiles) {
+                Iterator<Map.Entry<String, Long>> i =
+                    diskTiles.entrySet().iterator();
+                while (i.hasNext()) {
+                    Map.Entry<String, Long> entry = i.next();
+                    if (entry.getKey().startsWith(prefix)) {
+                        diskBytes -= entry.getValue();
+                        i.remove();
+                    }
+                }
+            }
+            File directory = new File(getRenderedTilesPath(pixelsId));
+            try {
+                FileUtils.deleteDirectory(directory);
+            } catch (IOException e) {
+                log.warn("Could not delete rendered tiles: " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests served from either tier.
+     *
+     * @return See above.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests served from the disk tier.
+     *
+     * @return See above.
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * Returns the number of requests which could not be served.
+     *
+     * @return See above.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of tiles evicted from memory.
+     *
+     * @return See above.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of tiles deleted from disk.
+     *
+     * @return See above.
+     */
+    public long getDiskEvictions() {
+        return diskEvictions.get();
+    }
+
+    /**
+     * Returns the number of bytes stored on disk.
+     *
+     * @return See above.
+     */
+    public long getDiskBytes() {
+        synchronized (diskTiles) {
+            return diskBytes;
+        }
+    }
+
+    /**
+     * Returns the number of tiles held in memory.
+     *
+     * @return See above.
+     */
+    public int getSize() {
+        synchronized (tiles) {
+            return tiles.size();
+        }
+    }
+
+    /**
+     * Returns the number of bytes held in memory.
+     *
+     * @return See above.
+     */
+    public long getBytes() {
+        synchronized (tiles) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Adds a tile to the memory tier, evicting the least recently used tiles
+     * until the tier fits in its bound.
+     *
+     * @param key
+     *            The key of the tile.
+     * @param tile
+     *            The tile.
+     */
+    private void putInMemory(String key, byte[] tile) {
+        if (tile.length > maxBytes) {
+            return;
+        }
+        synchronized (tiles) {
+            byte[] old = tiles.put(key, tile);
+            if (old != null) {
+                bytes -= old.length;
+            }
+            bytes += tile.length;
+            Iterator<byte[]> i = tiles.values().iterator();
+            while (bytes > maxBytes && i.hasNext()) {
+                bytes -= i.next().length;
+                i.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Records a tile written to the disk tier and deletes the least recently
+     * used tiles until the tier fits in its bound.
+     *
+     * @param key
+     *            The key of the tile.
+     * @param length
+     *            The size of the tile in bytes.
+     */
+    private void putOnDisk(String key, long length) {
+        List<String> evicted = new ArrayList<String>();
+        synchronized (diskTiles) {
+            Long old = diskTiles.put(key, length);
+            if (old != null) {
+                diskBytes -= old;
+            }
+            diskBytes += length;
+            Iterator<Map.Entry<String, Long>> i =
+                diskTiles.entrySet().iterator();
+            while (diskBytes > diskMaxBytes && i.hasNext()) {
+                Map.Entry<String, Long> entry = i.next();
+                diskBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                i.remove();
+            }
+        }
+        for (String k : evicted) {
+            File file = getFile(k);
+            if (!file.delete() && file.exists()) {
+                log.warn("Could not delete rendered tile: " + file);
+            }
+            diskEvictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Indexes the tiles left in the binary repository by a previous run,
+     * least recently modified first, deleting partially written tiles and
+     * the tiles which do not fit in the bound of the disk tier.
+     *
+     * @param root
+     *            The <code>RenderedTiles</code> directory.
+     */
+    private void loadDiskTiles(File root) {
+        List<File> files = new ArrayList<File>();
+        listTiles(root, files);
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (File file : sorted) {
+            String pixelsId = file.getParentFile().getName();
+            if (pixelsId.matches("\\d+")) {
+                putOnDisk(pixelsId + ":" + file.getName(), file.length());
+            }
+        }
+    }
+
+    /**
+     * Collects the tiles found below the passed directory.
+     *
+     * @param directory
+     *            The directory to scan.
+     * @param files
+     *            The list to add the tiles to.
+     */
+    private void listTiles(File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listTiles(child, files);
+            } else if (child.getName().endsWith(".tmp")) {
+                child.delete();
+            } else {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the file holding the tile stored under the passed key.
+     *
+     * @param key
+     *            The key of the tile.
+     * @return See above.
+     */
+    private File getFile(String key) {
+        int index = key.indexOf(':');
+        long pixelsId = Long.parseLong(key.substring(0, index));
+        return new File(getRenderedTilesPath(pixelsId),
+                key.substring(index + 1));
+    }
+
+    /**
+     * Reads a tile from the disk tier.
+     *
+     * @param key
+     *            The key of the tile.
+     * @return The tile or <code>null</code> if none could be read.
+     */
+    private byte[] read(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            synchronized (diskTiles) {
+                Long length = diskTiles.remove(key);
+                if (length != null) {
+                    diskBytes -= length;
+                }
+            }
+            return null;
+        }
+        try {
+            return FileUtils.readFileToByteArray(file);
+        } catch (IOException e) {
+            log.warn("Could not read rendered tile: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a tile to the disk tier. The tile is written to a temporary file
+     * first so that a concurrent reader never sees a partial tile.
+     *
+     * @param key
+     *            The key of the tile.
+     * @param tile
+     *            The tile.
+     * @return <code>true</code> if the tile was written, <code>false</code>
+     *         otherwise.
+     */
+    private boolean write(String key, byte[] tile) {
+        File file = getFile(key);
+        createSubpath(file.getPath());
+        File tmp = new File(file.getPath() + "."
+                + Thread.currentThread().getId() + ".tmp");
+        FileOutputStream stream = null;
+        try {
+            stream = new FileOutputStream(tmp);
+            stream.write(tile);
+            stream.close();
+            stream = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not write rendered tile: " + file, e);
+            tmp.delete();
+            return false;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    log.warn("Could not close rendered tile: " + tmp, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the SHA-1 digest of the passed bytes.
+     *
+     * @param data
+     *            The bytes to digest.
+     * @return See above.
+     */
+    private static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Required SHA-1 message digest "
+                    + "algorithm unavailable.", e);
+        }
+    }
+
+    /**
+     * Returns the hexadecimal representation of the passed bytes.
+     *
+     * @param data
+     *            The bytes to convert.
+     * @return See above.
+     */
+    private static String toHex(byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -50,6 +50,7 @@ import ome.util.ImageUtil;
 import ome.util.ShallowCopy;
 import omeis.providers.re.RGBBuffer;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.RenderingEngine;
 import omeis.providers.re.codomain.CodomainMapContext;
 import omeis.providers.re.data.PlaneDef;
@@ -133,6 +134,12 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /** Reference to the service used to retrieve the pixels data. */
     private transient PixelsService pixDataSrv;
 
+    /** Reference to the thread pool shared by all the renderers. */
+    private transient RenderingExecutor renderingExecutor;
+
+    /** Reference to the cache of compressed tiles. */
+    private transient RenderedTileCache tileCache;
+
     /**
      * read-write lock to prevent READ-calls during WRITE operations.
      *
@@ -163,11 +170,14 @@ public class RenderingBean implements RenderingEngine, Serializable {
      *            an <code>ICompress</code>.
      */
     public RenderingBean(PixelsService dataService, LocalCompress compress,
-            Executor ex, SecuritySystem secSys) {
+            Executor ex, SecuritySystem secSys,
+            RenderingExecutor renderingExecutor, RenderedTileCache tileCache) {
         this.ex = ex;
         this.secSys = secSys;
         this.pixDataSrv = dataService;
         this.compressionSrv = compress;
+        this.renderingExecutor = renderingExecutor;
+        this.tileCache = tileCache;
     }
 
     @RolesAllowed("user")
@@ -392,7 +402,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             // Loading last to try to ensure that the buffer will get closed.
             PixelBuffer buffer = getPixelBuffer();
             renderer = new Renderer(quantumFactory, renderingModels, pixelsObj,
-                    rendDefObj, buffer);
+                    rendDefObj, buffer, renderingExecutor);
         } finally {
             rwl.writeLock().unlock();
         }
@@ -526,6 +536,21 @@ public class RenderingBean implements RenderingEngine, Serializable {
 
         ByteArrayOutputStream byteStream = null;
         try {
+            String key = null;
+            if (tileCache != null && tileCache.isEnabled()) {
+                errorIfInvalidState();
+                // Overlays are not part of the settings, never cache them.
+                Map<byte[], Integer> overlays = renderer.getOverlays();
+                if (overlays == null || overlays.size() == 0) {
+                    key = tileCache.createKey(pixelsObj.getId(),
+                            resolutionLevel, pd,
+                            compressionSrv.getCompressionLevel(), renderer);
+                    byte[] tile = tileCache.get(key);
+                    if (tile != null) {
+                        return tile;
+                    }
+                }
+            }
         	int stride = pd.getStride();
         	if (stride < 0) stride = 0;
         	stride++;
@@ -543,7 +568,11 @@ public class RenderingBean implements RenderingEngine, Serializable {
                     sizeY);
             byteStream = new ByteArrayOutputStream();
             compressionSrv.compressToStream(image, byteStream);
-            return byteStream.toByteArray();
+            byte[] tile = byteStream.toByteArray();
+            if (key != null) {
+                tileCache.put(key, tile);
+            }
+            return tile;
         } catch (IOException e) {
             log.error("Could not compress rendered image.", e);
             throw new ResourceError(e.getMessage());
@@ -560,6 +589,85 @@ public class RenderingBean implements RenderingEngine, Serializable {
         }
     }
 
+    /**
+     * Implemented as specified by the {@link RenderingEngine} interface.
+     * 
+     * @see RenderingEngine#renderRegionsAsPackedInt(PlaneDef, int[])
+     */
+    @RolesAllowed("user")
+    public int[] renderRegionsAsPackedInt(PlaneDef pd, int[] regions) {
+        checkRegions(pd, regions);
+        rwl.writeLock().lock();
+
+        try {
+            int count = regions.length / 4;
+            int[][] rendered = new int[count][];
+            int total = 0;
+            for (int i = 0; i < count; i++) {
+                rendered[i] = renderAsPackedInt(regionPlaneDef(pd, regions, i));
+                total += rendered[i].length;
+            }
+            int[] buf = new int[total];
+            int offset = 0;
+            for (int[] region : rendered) {
+                System.arraycopy(region, 0, buf, offset, region.length);
+                offset += region.length;
+            }
+            return buf;
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Implemented as specified by the {@link RenderingEngine} interface.
+     * 
+     * @see RenderingEngine#renderRegionsCompressed(PlaneDef, int[])
+     */
+    @RolesAllowed("user")
+    public byte[][] renderRegionsCompressed(PlaneDef pd, int[] regions) {
+        checkRegions(pd, regions);
+        rwl.writeLock().lock();
+
+        try {
+            byte[][] tiles = new byte[regions.length / 4][];
+            for (int i = 0; i < tiles.length; i++) {
+                tiles[i] = renderCompressed(regionPlaneDef(pd, regions, i));
+            }
+            return tiles;
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Throws a {@link ValidationException} if the arguments of a call
+     * rendering several regions are not valid.
+     */
+    private void checkRegions(PlaneDef pd, int[] regions) {
+        if (pd == null || pd.getSlice() != PlaneDef.XY) {
+            throw new ValidationException("An XY-plane must be specified.");
+        }
+        if (regions == null || regions.length % 4 != 0) {
+            throw new ValidationException(
+                    "Regions must be specified as x, y, width, height.");
+        }
+    }
+
+    /**
+     * Returns a copy of the passed plane restricted to the region at the
+     * given index.
+     */
+    private PlaneDef regionPlaneDef(PlaneDef pd, int[] regions, int index) {
+        PlaneDef def = new PlaneDef(PlaneDef.XY, pd.getT());
+        def.setZ(pd.getZ());
+        def.setStride(pd.getStride());
+        int i = index * 4;
+        def.setRegion(new RegionDef(regions[i], regions[i + 1],
+                regions[i + 2], regions[i + 3]));
+        return def;
+    }
+
     /**
      * Implemented as specified by the {@link RenderingEngine} interface.
      * 
@@ -666,6 +774,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
         try {
             errorIfNullPixels();
             final long pixelsId = pixelsObj.getId();
+            invalidateTiles();
 
             // Ensure that we haven't just been called before
             // lookupRenderingDef().
@@ -816,6 +925,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             }
             
             // Actually save and reload the rendering settings
+            invalidateTiles();
             rendDefObj = (RenderingDef) ex.execute(/*ex*/null/*principal*/,
                     new Executor.SimpleWork(this,"saveCurrentSettings"){
                         @Transactional(readOnly = false) // ticket:1434
@@ -1538,6 +1648,16 @@ public class RenderingBean implements RenderingEngine, Serializable {
             + "initialized (not-null).\n"
             + "Try lookup and/or use methods.";
 
+    /**
+     * Drops the cached tiles of the current Pixels set, rendered with
+     * settings which are about to be replaced.
+     */
+    private void invalidateTiles() {
+        if (tileCache != null && tileCache.isEnabled()) {
+            tileCache.invalidate(pixelsObj.getId());
+        }
+    }
+
     // TODO ObjectUnreadyException
     protected void errorIfInvalidState() {
         errorIfNullPixels();
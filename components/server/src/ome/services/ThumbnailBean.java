@@ -19,9 +19,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
@@ -52,6 +56,7 @@ import ome.system.EventContext;
 import ome.system.SimpleEventContext;
 import ome.util.ImageUtil;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.data.PlaneDef;
 import omeis.providers.re.quantum.QuantizationException;
 import omeis.providers.re.quantum.QuantumFactory;
@@ -99,6 +104,12 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The service used to retrieve the pixels data. */
     private transient PixelsService pixelDataService;
 
+    /** The thread pool shared by all the renderers. */
+    private transient RenderingExecutor renderingExecutor;
+
+    /** The thread pool creating the missing thumbnails of a set. */
+    private transient ThumbnailExecutor thumbnailExecutor;
+
     /** The ROMIO thumbnail service. */
     private transient ThumbnailService ioService;
 
@@ -325,14 +336,28 @@ public class ThumbnailBean extends AbstractLevel2Service
         }
         pixels = iPixels.retrievePixDescription(pixels.getId());
         settings = iPixels.loadRndSettings(settings.getId());
+        renderer = createRenderer(pixels, settings);
+        dirty = false;
+    }
+
+    /**
+     * Creates a renderer for a deep copy of a pixels set and its rendering
+     * settings.
+     * @param pixels The pixels set as loaded by
+     * {@link IPixels#retrievePixDescription(long)}.
+     * @param settings The rendering settings as loaded by
+     * {@link IPixels#loadRndSettings(long)}.
+     * @return See above.
+     */
+    private Renderer createRenderer(Pixels pixels, RenderingDef settings)
+    {
         List<Family> families = getFamilies();
         List<RenderingModel> renderingModels = getRenderingModels();
         QuantumFactory quantumFactory = new QuantumFactory(families);
         // Loading last to try to ensure that the buffer will get closed.
         PixelBuffer buffer = pixelDataService.getPixelBuffer(pixels, false);
-        renderer = new Renderer(quantumFactory, renderingModels, pixels,
-                settings, buffer);
-        dirty = false;
+        return new Renderer(quantumFactory, renderingModels, pixels,
+                settings, buffer, renderingExecutor);
     }
 
     /* (non-Javadoc)
@@ -372,6 +397,30 @@ public class ThumbnailBean extends AbstractLevel2Service
         this.pixelDataService = pixelDataService;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     * 
+     * @param renderingExecutor
+     *            a <code>RenderingExecutor</code>.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.renderingExecutor,
+                renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Thumbnail executor Bean injector.
+     * 
+     * @param thumbnailExecutor
+     *            a <code>ThumbnailExecutor</code>.
+     */
+    public void setThumbnailExecutor(ThumbnailExecutor thumbnailExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.thumbnailExecutor,
+                thumbnailExecutor);
+        this.thumbnailExecutor = thumbnailExecutor;
+    }
+
     /**
      * Pixels service Bean injector.
      * 
@@ -580,6 +629,26 @@ public class ThumbnailBean extends AbstractLevel2Service
             theT = settings.getDefaultT();
         PlaneDef pd = new PlaneDef(PlaneDef.XY, theT);
         pd.setZ(theZ);
+        BufferedImage image =
+            renderImage(renderer, pixels, thumbnailMetadata, pd);
+        return scaleImage(iScale, image, thumbnailMetadata);
+    }
+
+    /**
+     * Renders a plane at the resolution level closest to the size of a
+     * thumbnail. Only uses the state passed in and no service so that it may
+     * be invoked by the workers of the {@link ThumbnailExecutor}.
+     * 
+     * @param renderer The renderer to use, for the exclusive use of the
+     * calling thread.
+     * @param pixels The pixels set being rendered.
+     * @param thumbnailMetadata The metadata of the thumbnail to create.
+     * @param pd The plane to render.
+     * @return a buffered image of the size of the resolution level used.
+     */
+    private static BufferedImage renderImage(Renderer renderer,
+            Pixels pixels, Thumbnail thumbnailMetadata, PlaneDef pd)
+    {
         // Use a resolution level that matches our requested size if we can
         PixelBuffer pixelBuffer = renderer.getPixels();
         int originalSizeX = pixels.getSizeX();
@@ -615,17 +684,8 @@ public class ThumbnailBean extends AbstractLevel2Service
             rendererPixels.setSizeX(pixelBufferSizeX);
             rendererPixels.setSizeY(pixelBufferSizeY);
             int[] buf = renderer.renderAsPackedInt(pd, null);
-            BufferedImage image = ImageUtil.createBufferedImage(
+            return ImageUtil.createBufferedImage(
                     buf, pixelBufferSizeX, pixelBufferSizeY);
-
-            // Finally, scale our image using scaling factors (percentage).
-            float xScale = (float)
-                    thumbnailMetadata.getSizeX() / pixelBufferSizeX;
-            float yScale = (float)
-                    thumbnailMetadata.getSizeY() / pixelBufferSizeY;
-            log.debug(String.format("Using scaling factors x:%f y:%f",
-                    xScale, yScale));
-            return iScale.scaleBufferedImage(image, xScale, yScale);
         } 
         catch (IOException e)
         {
@@ -653,6 +713,28 @@ public class ThumbnailBean extends AbstractLevel2Service
 
     }
 
+    /**
+     * Scales a rendered image to the size of a thumbnail.
+     *
+     * @param iScale The scaling service to use.
+     * @param image The image returned by
+     * {@link #renderImage(Renderer, Pixels, Thumbnail, PlaneDef)}.
+     * @param thumbnailMetadata The metadata of the thumbnail to create.
+     * @return a scaled buffered image.
+     */
+    private static BufferedImage scaleImage(IScale iScale,
+            BufferedImage image, Thumbnail thumbnailMetadata)
+    {
+        // Scale our image using scaling factors (percentage).
+        float xScale = (float)
+                thumbnailMetadata.getSizeX() / image.getWidth();
+        float yScale = (float)
+                thumbnailMetadata.getSizeY() / image.getHeight();
+        log.debug(String.format("Using scaling factors x:%f y:%f",
+                xScale, yScale));
+        return iScale.scaleBufferedImage(image, xScale, yScale);
+    }
+
     /**
      * Creates a new thumbnail context.
      */
@@ -801,14 +883,7 @@ public class ThumbnailBean extends AbstractLevel2Service
         if (thumbnailMetadata == null) {
             throw new ValidationException("Missing thumbnail metadata.");
         } else if (ctx.dirtyMetadata(pixels.getId())) {
-            // Increment the version of the thumbnail so that its
-            // update event has a timestamp equal to or after that of
-            // the rendering settings. FIXME: This should be 
-            // implemented using IUpdate.touch() or similar once that 
-            // functionality exists.
-            thumbnailMetadata.setVersion(thumbnailMetadata.getVersion() + 1);
-            Pixels unloadedPixels = new Pixels(pixels.getId(), false);
-            thumbnailMetadata.setPixels(unloadedPixels);
+            touchMetadata(thumbnailMetadata, pixels.getId());
             dirtyMetadata = true;
         }
         // dirtyMetadata is left false here because we may be creating a
@@ -826,6 +901,24 @@ public class ThumbnailBean extends AbstractLevel2Service
         }
     }
 
+    /**
+     * Marks the metadata of a thumbnail which has been recreated from dirty
+     * metadata for saving.
+     * @param metadata The thumbnail metadata.
+     * @param pixelsId The ID of the Pixels set of the thumbnail.
+     */
+    private void touchMetadata(Thumbnail metadata, long pixelsId)
+    {
+        // Increment the version of the thumbnail so that its
+        // update event has a timestamp equal to or after that of
+        // the rendering settings. FIXME: This should be 
+        // implemented using IUpdate.touch() or similar once that 
+        // functionality exists.
+        metadata.setVersion(metadata.getVersion() + 1);
+        Pixels unloadedPixels = new Pixels(pixelsId, false);
+        metadata.setPixels(unloadedPixels);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -906,7 +999,13 @@ public class ThumbnailBean extends AbstractLevel2Service
     }
 
     /**
-     * Performs the logic of retrieving a set of thumbnails.
+     * Performs the logic of retrieving a set of thumbnails. Thumbnails found
+     * in the on disk cache are read straight from the
+     * {@link ThumbnailService} while the missing or out of date ones are
+     * rendered in parallel by the {@link ThumbnailExecutor}, then scaled,
+     * compressed and cached by the calling thread. A thumbnail which is not
+     * rendered within the timeout of the executor is returned as
+     * <code>null</code> and will be created by a later request.
      * @param pixelsIds The Pixels IDs to retrieve thumbnails for.
      * @return Map of Pixels ID vs. thumbnail bytes.
      */
@@ -916,6 +1015,11 @@ public class ThumbnailBean extends AbstractLevel2Service
         Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
 
         List<Thumbnail> toSave = new ArrayList<Thumbnail>();
+        Map<Long, Thumbnail> cached = new LinkedHashMap<Long, Thumbnail>();
+        Map<Long, Thumbnail> created = new HashMap<Long, Thumbnail>();
+        Map<Long, Future<BufferedImage>> pending =
+            new LinkedHashMap<Long, Future<BufferedImage>>();
+        boolean repositoryChecked = false;
         for (Long pixelsId : pixelsIds)
         {
             // Ensure that the renderer has been made dirty otherwise the
@@ -943,20 +1047,96 @@ public class ThumbnailBean extends AbstractLevel2Service
                 pixelsId = pixels.getId();
                 settings = ctx.getSettings(pixelsId);
                 thumbnailMetadata = ctx.getMetadata(pixelsId);
-                try
+                if (inProgress)
+                {
+                    toReturn.put(pixelsId, retrieveThumbnail(toSave));
+                }
+                else if (ctx.isThumbnailCached(pixelsId))
+                {
+                    cached.put(pixelsId, thumbnailMetadata);
+                }
+                else
                 {
-                    byte[] thumbnail = retrieveThumbnail();
-                    toReturn.put(pixelsId, thumbnail);
-                    if (dirtyMetadata)
+                    if (diskSpaceChecking && !repositoryChecked)
+                    {
+                        iRepositoryInfo.sanityCheckRepository();
+                        repositoryChecked = true;
+                    }
+                    try
+                    {
+                        pending.put(pixelsId, submitThumbnailJob());
+                        created.put(pixelsId, thumbnailMetadata);
+                    }
+                    catch (ConcurrencyException e)
                     {
-                        toSave.add(thumbnailMetadata);
+                        // The pixel data has become unavailable since the
+                        // context was prepared, fall back to the in progress
+                        // handling of the serial path.
+                        log.info("ConcurrencyException on " +
+                                 "retrieveThumbnailSet.submitThumbnailJob");
+                        toReturn.put(pixelsId, retrieveThumbnail(toSave));
                     }
                 }
-                finally
+            }
+            catch (Throwable t)
+            {
+                log.warn("Retrieving thumbnail in set for " +
+                        "Pixels ID " + pixelsId + " failed.", t);
+                toReturn.put(pixelsId, null);
+            }
+        }
+        resetMetadata();
+
+        // Read the cached thumbnails while the missing ones are created.
+        for (Map.Entry<Long, Thumbnail> entry : cached.entrySet())
+        {
+            try
+            {
+                toReturn.put(entry.getKey(),
+                        ioService.getThumbnail(entry.getValue()));
+            }
+            catch (Throwable t)
+            {
+                log.warn("Retrieving cached thumbnail in set for " +
+                        "Pixels ID " + entry.getKey() + " failed.", t);
+                toReturn.put(entry.getKey(), null);
+            }
+        }
+
+        long since = System.currentTimeMillis();
+        for (Map.Entry<Long, Future<BufferedImage>> entry : pending.entrySet())
+        {
+            Long pixelsId = entry.getKey();
+            try
+            {
+                BufferedImage image =
+                    thumbnailExecutor.get(entry.getValue(), since);
+                // Scaling and compression are services of this request, so
+                // they are called here rather than by the job.
+                Thumbnail metadata = created.get(pixelsId);
+                toReturn.put(pixelsId, compressThumbnail(metadata, image));
+                // Only the metadata of the thumbnails which have actually
+                // been recreated is updated.
+                if (ctx.dirtyMetadata(pixelsId))
                 {
-                    dirtyMetadata = false;
+                    touchMetadata(metadata, pixelsId);
+                    toSave.add(metadata);
                 }
             }
+            catch (TimeoutException e)
+            {
+                log.info(String.format(
+                        "Thumbnail for Pixels ID %d not created within %d ms, "
+                        + "returning without it.",
+                        pixelsId, thumbnailExecutor.getTimeout()));
+                toReturn.put(pixelsId, null);
+            }
+            catch (ExecutionException e)
+            {
+                log.warn("Retrieving thumbnail in set for " +
+                        "Pixels ID " + pixelsId + " failed.", e.getCause());
+                toReturn.put(pixelsId, null);
+            }
             catch (Throwable t)
             {
                 log.warn("Retrieving thumbnail in set for " +
@@ -976,6 +1156,118 @@ public class ThumbnailBean extends AbstractLevel2Service
         return toReturn;
     }
 
+    /**
+     * Creates the active thumbnail or retrieves it from cache in the calling
+     * thread, collecting its metadata if it needs to be saved.
+     * @param toSave The list of thumbnail metadata to save.
+     * @return Thumbnail bytes.
+     */
+    private byte[] retrieveThumbnail(List<Thumbnail> toSave)
+    {
+        try
+        {
+            byte[] thumbnail = retrieveThumbnail();
+            if (dirtyMetadata)
+            {
+                toSave.add(thumbnailMetadata);
+            }
+            return thumbnail;
+        }
+        finally
+        {
+            dirtyMetadata = false;
+        }
+    }
+
+    /**
+     * Scales and compresses an image rendered by a {@link ThumbnailJob} and
+     * writes the thumbnail to the on disk cache.
+     * @param metadata The metadata of the thumbnail.
+     * @param image The rendered image.
+     * @return Thumbnail bytes.
+     * @throws IOException If the thumbnail cannot be compressed or written.
+     */
+    private byte[] compressThumbnail(Thumbnail metadata, BufferedImage image)
+        throws IOException
+    {
+        BufferedImage scaled = scaleImage(iScale, image, metadata);
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        compressionService.compressToStream(scaled, byteStream);
+        byte[] thumbnail = byteStream.toByteArray();
+        ioService.createThumbnail(metadata, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Loads the active pixels set and rendering settings, creates a renderer
+     * for them and submits a job rendering the active thumbnail to the
+     * {@link ThumbnailExecutor}. Everything requiring the Hibernate session
+     * or the services of the request is done in the calling thread, the job
+     * only renders the plane.
+     * @return The pending rendered image.
+     */
+    private Future<BufferedImage> submitThumbnailJob()
+    {
+        Pixels loadedPixels = iPixels.retrievePixDescription(pixels.getId());
+        RenderingDef loadedSettings = iPixels.loadRndSettings(settings.getId());
+        PlaneDef pd = new PlaneDef(PlaneDef.XY, loadedSettings.getDefaultT());
+        pd.setZ(loadedSettings.getDefaultZ());
+        // Detached copy of the metadata so that the job does not touch the
+        // Hibernate managed instance.
+        Thumbnail metadata = ctx.createThumbnailMetadata(loadedPixels,
+                new Dimension(thumbnailMetadata.getSizeX(),
+                              thumbnailMetadata.getSizeY()));
+        metadata.setId(thumbnailMetadata.getId());
+        Renderer jobRenderer = createRenderer(loadedPixels, loadedSettings);
+        // A job is only shared with requests for the same thumbnail and
+        // version of the rendering settings.
+        String key = metadata.getId() + ":" + loadedSettings.getId() + ":"
+                + loadedSettings.getVersion();
+        return thumbnailExecutor.submit(key, new ThumbnailJob(jobRenderer,
+                loadedPixels, metadata, pd));
+    }
+
+    /**
+     * Renders the plane of a thumbnail with a renderer of its own. Executed
+     * by the {@link ThumbnailExecutor}, so it must not call any service.
+     */
+    private static class ThumbnailJob implements ThumbnailExecutor.Job
+    {
+        /** The renderer used by and closed with this job. */
+        private final Renderer renderer;
+
+        /** The pixels set being rendered. */
+        private final Pixels pixels;
+
+        /** Detached metadata of the thumbnail to create. */
+        private final Thumbnail metadata;
+
+        /** The plane to render. */
+        private final PlaneDef pd;
+
+        ThumbnailJob(Renderer renderer, Pixels pixels, Thumbnail metadata,
+                PlaneDef pd)
+        {
+            this.renderer = renderer;
+            this.pixels = pixels;
+            this.metadata = metadata;
+            this.pd = pd;
+        }
+
+        public BufferedImage call()
+        {
+            StopWatch s1 = new CommonsLogStopWatch("omero.thumbnailJob");
+            BufferedImage image = renderImage(renderer, pixels, metadata, pd);
+            s1.stop();
+            return image;
+        }
+
+        public void release()
+        {
+            renderer.close();
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -0,0 +1,313 @@
+/*
+ * ome.services.ThumbnailExecutor
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ome.util.BoundedExecutor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Renders the missing or out of date thumbnails of a set in parallel on a
+ * {@link BoundedExecutor} shared by all the thumbnail services of the server
+ * (see {@link ThumbnailBean#getThumbnailSet(Integer, Integer, java.util.Set)}).
+ * Jobs only render; the services which require the session and transaction
+ * of the request, such as scaling and compression, are called by the
+ * requesting thread once the rendered image is available.
+ * <p>
+ * Jobs are keyed so that a thumbnail which is still being rendered for one
+ * request is not rendered a second time for another: the later request waits
+ * for the pending job instead. Each job is given a timeout which starts
+ * when it begins executing, or when its caller begins waiting if the job is
+ * still queued at that point. A job which times out is not cancelled; it
+ * completes in the background and releases its resources.
+ * </p>
+ * <p>
+ * The pool is distinct from the one of the
+ * {@link omeis.providers.re.RenderingExecutor} as thumbnail jobs themselves
+ * wait on the rendering tasks of their renderer.
+ * </p>
+ *
+ * @since OMERO-Beta4.3
+ */
+public class ThumbnailExecutor {
+
+    /** The logger for this particular class */
+    private static Log log = LogFactory.getLog(ThumbnailExecutor.class);
+
+    /** The number of queued jobs per thread if no queue size is given. */
+    public static final int DEFAULT_QUEUE_FACTOR = 64;
+
+    /**
+     * A unit of work rendering a single thumbnail. Jobs hold resources such as
+     * an open renderer which are freed by {@link #release()}, whether or not
+     * the job has been executed.
+     */
+    public interface Job extends Callable<BufferedImage> {
+
+        /**
+         * Frees the resources held by the job. Invoked exactly once, after
+         * the job has executed or when it is discarded because an identical
+         * job is already pending.
+         */
+        void release();
+    }
+
+    /** The underlying thread pool. */
+    private final BoundedExecutor pool;
+
+    /**
+     * The time, in milliseconds, to wait for each job or <code>0</code> to
+     * wait indefinitely.
+     */
+    private final long timeout;
+
+    /** The pending jobs by key. */
+    private final ConcurrentMap<String, Pending> pending =
+        new ConcurrentHashMap<String, Pending>();
+
+    /** The total number of jobs which have been executed. */
+    private final AtomicLong jobCount = new AtomicLong();
+
+    /** The total time, in milliseconds, jobs have spent executing. */
+    private final AtomicLong jobTime = new AtomicLong();
+
+    /** The number of requests which joined an already pending job. */
+    private final AtomicLong joinedCount = new AtomicLong();
+
+    /** The number of jobs which were not waited for until completion. */
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * Creates a new instance with a pool of its own.
+     *
+     * @param threads
+     *            The number of threads. A value less than or equal to
+     *            <code>0</code> selects the number of available processors.
+     * @param queueSize
+     *            The maximum number of jobs waiting for a thread. A value less
+     *            than or equal to <code>0</code> selects
+     *            {@link #DEFAULT_QUEUE_FACTOR} jobs per thread.
+     * @param timeout
+     *            The time, in milliseconds, to wait for each job. A value
+     *            less than or equal to <code>0</code> waits indefinitely.
+     */
+    public ThumbnailExecutor(int threads, int queueSize, long timeout) {
+        this(new BoundedExecutor("ThumbnailExecutor", threads, queueSize,
+                DEFAULT_QUEUE_FACTOR, true), timeout);
+    }
+
+    /**
+     * Creates a new instance executing the jobs on the given pool.
+     *
+     * @param pool
+     *            The pool shared by the thumbnail services.
+     * @param timeout
+     *            The time, in milliseconds, to wait for each job. A value
+     *            less than or equal to <code>0</code> waits indefinitely.
+     */
+    public ThumbnailExecutor(BoundedExecutor pool, long timeout) {
+        this.pool = pool;
+        this.timeout = timeout > 0 ? timeout : 0;
+        log.info(String.format("Thumbnail jobs time out after %d ms",
+                this.timeout));
+    }
+
+    /**
+     * Submits a job for asynchronous execution unless a job with the same key
+     * is already pending, in which case the given job is released and the
+     * result of the pending one returned. If the queue is full the job is
+     * executed in the calling thread.
+     *
+     * @param key
+     *            Identifies the thumbnail created by the job, for instance
+     *            its metadata ID and the version of the rendering settings.
+     * @param job
+     *            The job to execute.
+     * @return The pending result of the job.
+     */
+    public Future<BufferedImage> submit(String key, Job job) {
+        Pending task = new Pending(key, job);
+        Pending existing = pending.putIfAbsent(key, task);
+        if (existing != null) {
+            joinedCount.incrementAndGet();
+            job.release();
+            return existing;
+        }
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            pending.remove(key, task);
+            job.release();
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * Waits for the result of a job returned by {@link #submit(String, Job)}
+     * for at most the configured timeout. The timeout starts when the job
+     * began executing or, if it was still queued, at <code>since</code>.
+     *
+     * @param future
+     *            The pending result of the job.
+     * @param since
+     *            The time, in milliseconds, the caller started waiting for
+     *            its jobs.
+     * @return The image rendered by the job.
+     * @throws TimeoutException
+     *             If the job has not completed in time.
+     * @throws ExecutionException
+     *             If the job failed.
+     * @throws InterruptedException
+     *             If the calling thread is interrupted.
+     */
+    public BufferedImage get(Future<BufferedImage> future, long since)
+            throws TimeoutException, ExecutionException, InterruptedException {
+        if (timeout == 0) {
+            return future.get();
+        }
+        long deadline = since + timeout;
+        while (true) {
+            if (future instanceof Pending) {
+                long started = ((Pending) future).started;
+                if (started + timeout > deadline) {
+                    deadline = started + timeout;
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                timeoutCount.incrementAndGet();
+                throw new TimeoutException();
+            }
+            try {
+                return future.get(remaining, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // The job may have started in the meantime, which moves the
+                // deadline.
+            }
+        }
+    }
+
+    /**
+     * Returns the time, in milliseconds, waited for each job or
+     * <code>0</code> if jobs are waited for indefinitely.
+     *
+     * @return See above.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the number of jobs currently queued or executing.
+     *
+     * @return See above.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the total number of jobs executed by this instance.
+     *
+     * @return See above.
+     */
+    public long getJobCount() {
+        return jobCount.get();
+    }
+
+    /**
+     * Returns the total time, in milliseconds, jobs have spent executing.
+     *
+     * @return See above.
+     */
+    public long getJobTime() {
+        return jobTime.get();
+    }
+
+    /**
+     * Returns the number of submissions which joined an already pending job.
+     *
+     * @return See above.
+     */
+    public long getJoinedCount() {
+        return joinedCount.get();
+    }
+
+    /**
+     * Returns the number of times a caller stopped waiting for a job.
+     *
+     * @return See above.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Stops the executor. Already submitted jobs are still executed.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * A submitted job which records when it started executing and removes
+     * itself from the pending jobs once completed.
+     */
+    private class Pending extends FutureTask<BufferedImage> {
+
+        /** The key of the job. */
+        private final String key;
+
+        /** The job to execute. */
+        private final Job job;
+
+        /**
+         * The time at which the job started executing or
+         * {@link Long#MIN_VALUE} if it is still queued.
+         */
+        private volatile long started = Long.MIN_VALUE;
+
+        Pending(String key, Job job) {
+            super(job);
+            this.key = key;
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            started = start;
+            try {
+                super.run();
+            } finally {
+                try {
+                    job.release();
+                } catch (Throwable t) {
+                    log.warn("Error releasing thumbnail job " + key, t);
+                }
+                jobCount.incrementAndGet();
+                jobTime.addAndGet(System.currentTimeMillis() - start);
+                pending.remove(key, this);
+            }
+        }
+    }
+}
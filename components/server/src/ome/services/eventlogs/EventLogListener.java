@@ -0,0 +1,213 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.eventlogs;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import ome.util.SqlAction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Runs a consumer of {@link ome.model.meta.EventLog} instances, such as the
+ * indexer or the pixel data processor, as soon as new logs are committed by
+ * any process. {@link SqlAction#insertLogs(java.util.List)} notifies the
+ * {@link SqlAction#EVENTLOG_CHANNEL} channel and this class listens to it on
+ * a dedicated connection, outside of the connection pool.
+ *
+ * The consumer is also run whenever the connection is (re-)opened, since
+ * notifications sent while nobody listens are lost, and is run again as
+ * long as its loader fills its batches. The cron trigger of the consumer
+ * then only serves as a safety net.
+ *
+ * The PostgreSQL JDBC driver only reads notifications from the server
+ * while it executes a statement, so an empty statement is sent at a fixed
+ * interval. It does not touch any table.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class EventLogListener implements Runnable,
+        ApplicationListener<ContextRefreshedEvent> {
+
+    private final static Log log = LogFactory.getLog(EventLogListener.class);
+
+    private final Properties properties;
+
+    private final Runnable consumer;
+
+    private final EventLogLoader loader;
+
+    private final long wait;
+
+    private volatile boolean active = false;
+
+    private Thread thread;
+
+    /**
+     * @param properties
+     *            The "url", "user" and "password" used to connect, i.e. the
+     *            properties of the data source.
+     * @param consumer
+     *            Loads and processes the new logs, e.g. an
+     *            {@link ome.services.util.ExecutionThread}. It must discard
+     *            calls made while it is already running.
+     * @param loader
+     *            The loader used by the consumer.
+     * @param wait
+     *            Time in milliseconds between two checks for notifications.
+     *            It is also the time waited before reconnecting. Listening
+     *            is disabled if not positive.
+     */
+    public EventLogListener(Properties properties, Runnable consumer,
+            EventLogLoader loader, long wait) {
+        this.properties = properties;
+        this.consumer = consumer;
+        this.loader = loader;
+        this.wait = wait;
+    }
+
+    /**
+     * Starts listening once the context is ready to run the consumer.
+     */
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        start();
+    }
+
+    /**
+     * Starts listening in a daemon thread unless already started.
+     */
+    public synchronized void start() {
+        if (wait <= 0) {
+            log.info("Not listening for event logs");
+        } else if (thread == null) {
+            active = true;
+            thread = new Thread(this, "EventLogListener");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Called by Spring on destruction.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            active = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(wait + 1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void run() {
+        while (active) {
+            Connection connection = null;
+            try {
+                connection = connect();
+                consume();
+                while (active) {
+                    if (notified(connection)) {
+                        consume();
+                    } else {
+                        Thread.sleep(wait);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                // Stopped.
+            } catch (Exception e) {
+                log.warn("Failed to listen for event logs; reconnecting", e);
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException ie) {
+                    // Stopped.
+                }
+            } finally {
+                close(connection);
+            }
+        }
+    }
+
+    /**
+     * Runs the consumer until its last batch was not full.
+     */
+    protected void consume() {
+        do {
+            try {
+                consumer.run();
+            } catch (Exception e) {
+                log.error("Failed to process event logs", e);
+                return;
+            }
+        } while (active && loader.isFull());
+    }
+
+    /**
+     * Opens a new connection listening on the
+     * {@link SqlAction#EVENTLOG_CHANNEL} channel.
+     */
+    protected Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection(properties
+                .getProperty("url"), properties);
+        try {
+            connection.setAutoCommit(true);
+            execute(connection, "LISTEN " + SqlAction.EVENTLOG_CHANNEL);
+            return connection;
+        } catch (SQLException e) {
+            close(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if event logs were committed since the last call.
+     */
+    protected boolean notified(Connection connection) throws SQLException {
+        execute(connection, "");
+        PGNotification[] notifications = ((PGConnection) connection)
+                .getNotifications();
+        return notifications != null && notifications.length > 0;
+    }
+
+    private void execute(Connection connection, String sql)
+            throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("Failed to close connection", e);
+            }
+        }
+    }
+
+}
@@ -63,6 +63,46 @@ public abstract class EventLogLoader implements Iterator<EventLog>,
         return this.batchSize;
     }
 
+    /**
+     * Upper bound for the adaptive batch size. If larger than
+     * {@link #batchSize}, each batch which is filled completely doubles the
+     * size of the next batch up to this value, and each batch which runs out
+     * of logs halves it down to {@link #batchSize}. Otherwise, all batches
+     * have {@link #batchSize} elements.
+     */
+    protected int maxBatchSize = 0;
+
+    private int currentBatchSize = 0;
+
+    /**
+     * Spring injector
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Size of the current batch, between {@link #batchSize} and
+     * {@link #maxBatchSize}.
+     */
+    public int getCurrentBatchSize() {
+        return Math.max(batchSize, currentBatchSize);
+    }
+
+    /**
+     * Whether the last batch ended because it was full rather than because
+     * no more logs were found.
+     */
+    private boolean full = false;
+
+    /**
+     * Returns true if the last batch was filled completely, i.e. if more
+     * logs are probably waiting to be loaded.
+     */
+    public boolean isFull() {
+        return full;
+    }
+
     /**
      * The number of objects which have been returned via {@link #next()}. If
      * {@link #count} is -1, then {@link #hasNext()} will temporarily return
@@ -124,8 +164,13 @@ public abstract class EventLogLoader implements Iterator<EventLog>,
         }
 
         // If we've done this enough, then bail out.
-        if (count == batchSize) {
+        if (count >= getCurrentBatchSize()) {
             count = 0;
+            full = true;
+            if (maxBatchSize > batchSize) {
+                currentBatchSize = Math.min(maxBatchSize,
+                        2 * getCurrentBatchSize());
+            }
             return false;
         }
         count++;
@@ -140,6 +185,8 @@ public abstract class EventLogLoader implements Iterator<EventLog>,
         boolean endBatch = eventLog == null;
         if (endBatch) {
             count = 0;
+            full = false;
+            currentBatchSize = getCurrentBatchSize() / 2;
         }
         return !endBatch;
     }
@@ -7,9 +7,20 @@
 
 package ome.services.fulltext;
 
+import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ome.io.nio.OriginalFilesService;
 import ome.model.IAnnotated;
@@ -26,6 +37,7 @@ import ome.model.internal.Permissions;
 import ome.model.meta.Event;
 import ome.model.meta.Experimenter;
 import ome.model.meta.ExperimenterGroup;
+import ome.util.BoundedExecutor;
 import ome.util.DetailsFieldBridge;
 import ome.util.Utils;
 
@@ -53,10 +65,40 @@ import org.hibernate.search.bridge.builtin.DateBridge;
  */
 public class FullTextBridge extends BridgeHelper {
 
+    /**
+     * Files larger than this many bytes are never prefetched by
+     * {@link #prefetch(Collection)}. Currently 1 MB.
+     */
+    public final static long MAX_PREFETCH_FILE_SIZE = 1024L * 1024L;
+
+    /**
+     * Maximum total size in bytes of the files whose contents are held by
+     * {@link #prefetch(Collection)} before further files are left to be
+     * parsed lazily. Currently 32 MB.
+     */
+    public final static long MAX_PREFETCH_SIZE = 32L * 1024L * 1024L;
+
     final protected OriginalFilesService files;
     final protected Map<String, FileParser> parsers;
     final protected Class<FieldBridge>[] classes;
 
+    /**
+     * Contents of the {@link OriginalFile} instances read ahead of indexing by
+     * {@link #prefetch(Collection)}, keyed by file id.
+     */
+    final protected Map<Long, List<String>> prefetched = new ConcurrentHashMap<Long, List<String>>();
+
+    /**
+     * Total size in bytes of the files held in {@link #prefetched}.
+     */
+    private long prefetchedSize = 0;
+
+    /**
+     * Pool reading the files for {@link #prefetch(Collection)}. If null,
+     * files are read by the calling thread only.
+     */
+    private BoundedExecutor prefetchExecutor;
+
     /**
      * Since this constructor provides the instance with no way of parsing
      * {@link OriginalFile} binaries, all files will be assumed to have blank
@@ -100,6 +142,15 @@ public class FullTextBridge extends BridgeHelper {
         this.classes = bridgeClasses == null ? new Class[] {} : bridgeClasses;
     }
 
+    /**
+     * Spring injector. Sets the pool on which
+     * {@link #prefetch(Collection)} reads files. The pool should reject the
+     * tasks it cannot queue, the calling thread then reads the files alone.
+     */
+    public void setPrefetchExecutor(BoundedExecutor prefetchExecutor) {
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
     /**
      * Default implementation of the
      * {@link #set(String, Object, Document, Store, org.apache.lucene.document.Field.Index, Float)}
@@ -324,6 +375,203 @@ public class FullTextBridge extends BridgeHelper {
 
     }
 
+    /**
+     * Reads the contents of all the {@link OriginalFile} instances which will
+     * be parsed when indexing the given objects, i.e. the objects themselves,
+     * their {@link FileAnnotation file annotations} and the files linked to
+     * them. The files are read to the end by the calling thread and the
+     * threads of the {@link #setPrefetchExecutor(BoundedExecutor) prefetch
+     * pool} so that the expensive part of building the Lucene documents
+     * happens in parallel and before Hibernate Search passes them to the
+     * index writer. Later calls to
+     * {@link #parse(OriginalFile, OriginalFilesService, Map)} for these files
+     * return the read contents.
+     * 
+     * Files larger than {@link #MAX_PREFETCH_FILE_SIZE} and files beyond
+     * {@link #MAX_PREFETCH_SIZE} bytes in total are skipped and will be parsed
+     * lazily as before.
+     * 
+     * @param objects
+     *            Loaded objects about to be indexed.
+     * @return the number of files read.
+     */
+    public int prefetch(Collection<IObject> objects) {
+
+        if (files == null || parsers == null) {
+            return 0;
+        }
+
+        final Map<Long, OriginalFile> toRead = new LinkedHashMap<Long, OriginalFile>();
+        for (IObject object : objects) {
+            collectFiles(object, toRead);
+        }
+
+        // FileParser.doParse() may defer opening a file until its readers
+        // are iterated, i.e. on the pool, where no cleanup can be registered
+        // with the current service call. The readers are therefore closed as
+        // soon as they have been read to the end.
+        final List<Long> ids = new ArrayList<Long>();
+        final List<Iterable<Reader>> readers = new ArrayList<Iterable<Reader>>();
+        for (OriginalFile file : toRead.values()) {
+            if (prefetched.containsKey(file.getId())) {
+                continue;
+            }
+            Long size = file.getSize();
+            if (size == null || size > MAX_PREFETCH_FILE_SIZE) {
+                continue;
+            }
+            synchronized (this) {
+                if (prefetchedSize + size > MAX_PREFETCH_SIZE) {
+                    break;
+                }
+                prefetchedSize += size;
+            }
+            ids.add(file.getId());
+            readers.add(super.parse(file, files, parsers));
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        Runnable reader = new Runnable() {
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < ids.size()) {
+                    List<String> contents = new ArrayList<String>();
+                    try {
+                        for (Reader r : readers.get(i)) {
+                            contents.add(read(r));
+                        }
+                    } catch (Exception e) {
+                        // Leave the file to be parsed lazily
+                        log.warn("Could not prefetch file " + ids.get(i), e);
+                        continue;
+                    }
+                    prefetched.put(ids.get(i), contents);
+                }
+            }
+        };
+
+        // The calling thread is one of the readers.
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        if (prefetchExecutor != null) {
+            int count = Math.min(prefetchExecutor.getParallelism() + 1,
+                    ids.size());
+            try {
+                for (int i = 1; i < count; i++) {
+                    workers.add(prefetchExecutor.submit(reader));
+                }
+            } catch (RejectedExecutionException e) {
+                log.debug("Prefetch pool saturated, reading with "
+                        + (workers.size() + 1) + " thread(s)");
+            }
+        }
+        reader.run();
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                log.warn("Error prefetching files", e.getCause());
+            }
+        }
+        return ids.size();
+    }
+
+    /**
+     * Drops all contents read by {@link #prefetch(Collection)}. Should
+     * be called once the documents using them have been written.
+     */
+    public void clearPrefetched() {
+        synchronized (this) {
+            prefetched.clear();
+            prefetchedSize = 0;
+        }
+    }
+
+    /**
+     * Returns the prefetched contents of the file if available, otherwise
+     * parses it lazily.
+     */
+    @Override
+    protected Iterable<Reader> parse(final OriginalFile file,
+            final OriginalFilesService files,
+            final Map<String, FileParser> parsers) {
+        final List<String> contents = file == null ? null : prefetched
+                .get(file.getId());
+        if (contents == null) {
+            return super.parse(file, files, parsers);
+        }
+        return new Iterable<Reader>() {
+            public Iterator<Reader> iterator() {
+                final Iterator<String> it = contents.iterator();
+                return new Iterator<Reader>() {
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    public Reader next() {
+                        return new StringReader(it.next());
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Adds the {@link OriginalFile} instances which
+     * {@link #set_file(String, IObject, Document, LuceneOptions)} and
+     * {@link #set_annotations(String, IObject, Document, LuceneOptions)} will
+     * parse for the given object.
+     */
+    private void collectFiles(IObject object, Map<Long, OriginalFile> toRead) {
+        object = getProxiedObject(object);
+        if (object instanceof OriginalFile) {
+            addFile((OriginalFile) object, toRead);
+        }
+        if (object instanceof IAnnotated) {
+            for (Annotation annotation : ((IAnnotated) object)
+                    .linkedAnnotationList()) {
+                if (annotation instanceof FileAnnotation) {
+                    addFile(((FileAnnotation) annotation).getFile(), toRead);
+                }
+            }
+        }
+        if (object instanceof FileAnnotation) {
+            addFile(((FileAnnotation) object).getFile(), toRead);
+        }
+    }
+
+    private void addFile(OriginalFile file, Map<Long, OriginalFile> toRead) {
+        if (file != null && file.getId() != null && file.isLoaded()
+                && file.getMimetype() != null) {
+            toRead.put(file.getId(), file);
+        }
+    }
+
+    /**
+     * Reads the reader to the end and closes it.
+     */
+    private static String read(Reader r) throws IOException {
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[8192];
+            int rv;
+            while ((rv = r.read(buf)) != -1) {
+                sb.append(buf, 0, rv);
+            }
+            return sb.toString();
+        } finally {
+            r.close();
+        }
+    }
+
     /**
      * Creates {@link Field} instances for {@link FileAnnotation} objects.
      * 
@@ -10,6 +10,11 @@ package ome.services.fulltext;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import ome.api.local.LocalShare;
 import ome.conditions.InternalException;
@@ -39,6 +44,12 @@ import org.springframework.transaction.annotation.Transactional;
  * Hibernate entities. Attempts to index each {@link EventLog} passed from the
  * {@link EventLogLoader} multiple times on failure. Eventually
  * 
+ * Each batch from the {@link EventLogLoader} is first collapsed so that only
+ * the last action on any entity is performed, and then all entities of the
+ * same type are loaded with one query per {@link #MAX_IDS_PER_QUERY} ids.
+ * If a {@link FullTextBridge} is set, the files which it will parse are read
+ * in parallel before the entities are passed to Hibernate Search.
+ * 
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 3.0-Beta3
  */
@@ -46,6 +57,13 @@ public class FullTextIndexer extends SimpleWork {
 
     private final static Log log = LogFactory.getLog(FullTextIndexer.class);
 
+    /**
+     * Maximum number of ids bound to a single "in" clause when loading the
+     * entities of a batch, so that large batches do not produce statements
+     * larger than the database accepts or plans well. Currently 100.
+     */
+    public final static int MAX_IDS_PER_QUERY = 100;
+
     abstract class Action {
         Class type;
         long id;
@@ -96,6 +114,14 @@ public class FullTextIndexer extends SimpleWork {
 
     protected int reps = 5;
 
+    protected FullTextBridge bridge;
+
+    private volatile long lastBatchTime = -1;
+
+    private volatile int lastBatchSize = 0;
+
+    private volatile long backlog = -1;
+
     /**
      * Spring injector. Sets the number of indexing runs will be made if there
      * is a substantial backlog.
@@ -105,6 +131,38 @@ public class FullTextIndexer extends SimpleWork {
         ;
     }
 
+    /**
+     * Spring injector. Sets the {@link FullTextBridge} whose files are
+     * prefetched for each batch. If not set, files are parsed lazily while
+     * Hibernate Search builds the documents.
+     */
+    public void setFullTextBridge(FullTextBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    /**
+     * Returns the time in milliseconds taken by the last batch or -1 if no
+     * batch has been indexed.
+     */
+    public long getLastBatchTime() {
+        return lastBatchTime;
+    }
+
+    /**
+     * Returns the number of objects indexed or purged by the last batch.
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * Returns the estimate of the remaining {@link EventLog} instances as of
+     * the last call to {@link #doMore(int)}, or -1 if it has not been called.
+     */
+    public long getBacklog() {
+        return backlog;
+    }
+
     public FullTextIndexer(EventLogLoader ll) {
         super("FullTextIndexer", "index");
         this.loader = ll;
@@ -130,6 +188,10 @@ public class FullTextIndexer extends SimpleWork {
         int count = 1;
         int perbatch = 0;
         long start = System.currentTimeMillis();
+        if (bridge != null) {
+            // Contents of the previous run have been written on commit.
+            bridge.clearPrefetched();
+        }
         do {
 
             // ticket:1254 -
@@ -177,52 +239,112 @@ public class FullTextIndexer extends SimpleWork {
 
     public int doIndexing(FullTextSession session) {
 
+        long start = System.currentTimeMillis();
         int count = 0;
 
-        for (EventLog eventLog : loader) {
-            if (eventLog != null) {
-                String act = eventLog.getAction();
+        Map<String, EventLog> batch = collapse(loader);
+
+        // Load all entities to index, one query per type.
+        Map<Class, List<Long>> ids = new LinkedHashMap<Class, List<Long>>();
+        for (EventLog eventLog : batch.values()) {
+            if (!"DELETE".equals(eventLog.getAction())) {
                 Class type = asClassOrNull(eventLog.getEntityType());
-                if (type != null) {
-                    long id = eventLog.getEntityId();
-
-                    Action action = null;
-                    if ("DELETE".equals(act)) {
-                        action = new Purge(type, id);
-                    } else if ("REINDEX".equals(act) || "UPDATE".equals(act) || "INSERT".equals(act)) {
-                        IObject obj = get(session, type, id);
-                        if (obj == null) {
-                            log.error(String.format("Null returned! Purging "
-                                    + "since cannot index %s:Id_%s for %s", type
-                                    .getName(), id, eventLog));
-                            action = new Purge(type, id);
-                        } else {
-                            action = new Index(obj);
-                        }
-                    } else {
-                        log.error("Unknown action type: " + act);
-                    }
-
-                    if (action != null) {
-                        try {
-                            action.go(session);
-                            count++;
-                        } catch (Exception e) {
-                            String msg = "FullTextIndexer stuck! "
-                                    + "Failed to index EventLog: " + eventLog;
-                            log.error(msg, e);
-                            loader.rollback(eventLog);
-                            throw new InternalException(msg);
-                        }
-                        action.log(log);
-                    }
+                List<Long> list = ids.get(type);
+                if (list == null) {
+                    list = new ArrayList<Long>();
+                    ids.put(type, list);
+                }
+                list.add(eventLog.getEntityId());
+            }
+        }
+        Map<String, IObject> objects = new HashMap<String, IObject>();
+        for (Map.Entry<Class, List<Long>> entry : ids.entrySet()) {
+            Class type = entry.getKey();
+            for (IObject obj : get(session, type, entry.getValue())) {
+                objects.put(key(type, obj.getId()), obj);
+            }
+        }
+        if (bridge != null && !objects.isEmpty()) {
+            int files = bridge.prefetch(objects.values());
+            if (files > 0 && log.isDebugEnabled()) {
+                log.debug(String.format("Prefetched %s file(s)", files));
+            }
+        }
+
+        for (Map.Entry<String, EventLog> entry : batch.entrySet()) {
+            EventLog eventLog = entry.getValue();
+            String act = eventLog.getAction();
+            Class type = asClassOrNull(eventLog.getEntityType());
+            long id = eventLog.getEntityId();
+
+            Action action = null;
+            if ("DELETE".equals(act)) {
+                action = new Purge(type, id);
+            } else if ("REINDEX".equals(act) || "UPDATE".equals(act) || "INSERT".equals(act)) {
+                IObject obj = objects.get(entry.getKey());
+                if (obj == null) {
+                    log.error(String.format("Null returned! Purging "
+                            + "since cannot index %s:Id_%s for %s", type
+                            .getName(), id, eventLog));
+                    action = new Purge(type, id);
+                } else {
+                    action = new Index(obj);
                 }
+            } else {
+                log.error("Unknown action type: " + act);
             }
 
+            if (action != null) {
+                try {
+                    action.go(session);
+                    count++;
+                } catch (Exception e) {
+                    String msg = "FullTextIndexer stuck! "
+                            + "Failed to index EventLog: " + eventLog;
+                    log.error(msg, e);
+                    loader.rollback(eventLog);
+                    throw new InternalException(msg);
+                }
+                action.log(log);
+            }
+        }
+
+        lastBatchTime = System.currentTimeMillis() - start;
+        lastBatchSize = count;
+        if (count > 0 && log.isDebugEnabled()) {
+            log.debug(String.format("Batch of %s object(s) from %s type(s) "
+                    + "in %s ms.", count, ids.size(), lastBatchTime));
         }
         return count;
     }
 
+    /**
+     * Consumes one batch of the given {@link EventLogLoader} and keeps only
+     * the last {@link EventLog} for each entity, in the order of these last
+     * actions. Logs of unknown types are dropped.
+     * 
+     * @return a map from the entity key (type and id) to its last log.
+     */
+    protected Map<String, EventLog> collapse(Iterable<EventLog> logs) {
+        Map<String, EventLog> batch = new LinkedHashMap<String, EventLog>();
+        for (EventLog eventLog : logs) {
+            if (eventLog != null) {
+                Class type = asClassOrNull(eventLog.getEntityType());
+                if (type != null) {
+                    String key = key(type, eventLog.getEntityId());
+                    // Re-inserting moves the entity to the end
+                    batch.remove(key);
+                    batch.put(key, eventLog);
+                }
+            }
+        }
+        return batch;
+    }
+
+    private static String key(Class type, long id) {
+        return type.getName() + ":" + id;
+    }
+
     /**
      * Default implementation suggests doing more if fewer than {@link #reps}
      * runs have been made and if there are still more than
@@ -233,11 +355,12 @@ public class FullTextIndexer extends SimpleWork {
      * to catch up.
      */
     public boolean doMore(int count) {
-        if (count < this.reps && loader.more() > loader.getBatchSize() * 100) {
+        backlog = loader.more();
+        if (count < this.reps && backlog > loader.getBatchSize() * 100) {
             log.info(String
                     .format("Suggesting round %s of "
                             + "indexing to reduce backlog of %s:", count,
-                            loader.more()));
+                            backlog));
             return true;
         }
         return false;
@@ -253,6 +376,35 @@ public class FullTextIndexer extends SimpleWork {
     }
 
     protected IObject get(Session session, Class type, long id) {
+        QueryBuilder qb = query(type);
+        qb.where().and("this.id = :id");
+        qb.param("id", id);
+
+        return (IObject) qb.query(session).uniqueResult();
+    }
+
+    /**
+     * Loads all the entities of the given type with one query per
+     * {@link #MAX_IDS_PER_QUERY} ids. Entities which cannot be found are
+     * missing from the returned list.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<IObject> get(Session session, Class type, List<Long> ids) {
+        // The fetch joins return one row per annotation link.
+        Map<Long, IObject> unique = new LinkedHashMap<Long, IObject>();
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+            QueryBuilder qb = query(type);
+            qb.where().and("this.id in (:ids)");
+            qb.paramList("ids", ids.subList(i,
+                    Math.min(i + MAX_IDS_PER_QUERY, ids.size())));
+            for (IObject obj : (List<IObject>) qb.query(session).list()) {
+                unique.put(obj.getId(), obj);
+            }
+        }
+        return new ArrayList<IObject>(unique.values());
+    }
+
+    private QueryBuilder query(Class type) {
         QueryBuilder qb = new QueryBuilder();
         qb.select("this").from(type.getName(), "this");
         if (IAnnotated.class.isAssignableFrom(type)) {
@@ -269,9 +421,6 @@ public class FullTextIndexer extends SimpleWork {
             qb.join("this.details.owner", "owner", false, true);
             qb.join("this.details.group", "group", false, true);
         }
-        qb.where().and("this.id = :id");
-        qb.param("id", id);
-
-        return (IObject) qb.query(session).uniqueResult();
+        return qb;
     }
 }
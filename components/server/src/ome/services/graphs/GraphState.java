@@ -10,13 +10,16 @@ package ome.services.graphs;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import ome.model.IObject;
 import ome.security.basic.CurrentDetails;
@@ -50,6 +53,10 @@ import org.perf4j.commonslog.CommonsLogStopWatch;
  * savepoint (or a sub-savepoint) or only valid until release is called, at
  * which time they are merged into the final view.
  *
+ * Alternatively, graphs can be processed in bulk, in which case only the
+ * sub-graphs of SOFT containers are surrounded by savepoints step by step:
+ * see {@link #planChunks(int)} and {@link #executeChunk(int)}.
+ *
  * @author Josh Moore, josh at glencoesoftware.com
  * @since Beta4.2.3
  */
@@ -77,6 +84,12 @@ public class GraphState implements GraphStep.Callback {
      */
     private final Map<String, Class<IObject>> classes = new HashMap<String, Class<IObject>>();
 
+    /**
+     * Steps grouped for bulk execution by {@link #planChunks(int)}. Null
+     * unless planned.
+     */
+    private List<List<GraphStep>> chunks = null;
+
     private final GraphOpts opts = new GraphOpts();
 
     private final Session session;
@@ -267,8 +280,18 @@ public class GraphState implements GraphStep.Callback {
      *             passed in during initialization.
      */
     public String execute(int j) throws GraphException {
+        return execute(steps.get(j), 0);
+    }
 
-        final GraphStep step = steps.get(j);
+    /**
+     * Executes a single step. Savepoints are only created for the
+     * {@link GraphStep#stack parents} of the step starting at index
+     * firstParent, i.e. for none of them if firstParent is the size of the
+     * stack. Skipping the savepoint of a parent is only valid if it is not
+     * within a SOFT container, i.e. when executing in bulk.
+     */
+    private String execute(final GraphStep step, int firstParent)
+        throws GraphException {
 
         String msgOrNull = step.start(this);
         if (msgOrNull != null) {
@@ -285,7 +308,8 @@ public class GraphState implements GraphStep.Callback {
             // To guarantee that finalization
             // happens (#3125, #3130), a special
             // marker is added and handled above.
-            for (GraphStep parent : step.stack) {
+            for (int i = firstParent; i < step.stack.size(); i++) {
+                GraphStep parent = step.stack.get(i);
                 if (!parent.hasSavepoint()) {
                     parent.savepoint(this);
                 }
@@ -298,7 +322,7 @@ public class GraphState implements GraphStep.Callback {
             try {
 
                 // Phase 1: top-levels
-                if (step.stack.size() <= 1) {
+                if (isTopLevel(step)) {
                     StopWatch swTop = new CommonsLogStopWatch();
                     step.spec.runTopLevel(session,
                             Arrays.<Long> asList(step.id));
@@ -332,6 +356,271 @@ public class GraphState implements GraphStep.Callback {
         }
     }
 
+    //
+    // Bulk execution
+    //
+
+    /**
+     * Groups the steps for bulk execution. Finalization markers of the
+     * containers are dropped since no savepoints are created for them. The
+     * remaining steps are ordered table by table as they appear in the
+     * specification, i.e. all rows for one path of the graph are deleted
+     * before the rows of the next path, rather than one sub-graph after the
+     * other. Consecutive steps for the same path are then cut into chunks of
+     * at most chunkSize ids which are deleted with a single statement. SOFT
+     * and NULL steps remain chunks of their own.
+     *
+     * The sub-graph of a SOFT container, e.g. the Instrument of an Image,
+     * may fail as a whole and must then be rolled back without affecting the
+     * rest of the graph. All steps within the outermost SOFT container
+     * therefore form a single chunk, ordered by the position of the
+     * container, which is executed step by step with savepoints for the
+     * container and everything below it, just as by {@link #execute(int)}.
+     *
+     * Note that bulk execution therefore gains nothing for the steps under
+     * an outermost SOFT container: they always fall back to step-by-step
+     * execution. If the container is close to the root of the graph, e.g.
+     * the Datasets of "/Project" which are SOFT, nearly the whole graph is
+     * deleted step by step.
+     *
+     * @param chunkSize
+     *            maximum number of ids deleted per statement.
+     * @return the number of chunks to pass to {@link #executeChunk(int)}.
+     */
+    public int planChunks(int chunkSize) {
+
+        // Position of each entry in its spec for ordering by path
+        final Map<GraphEntry, Integer> positions = new IdentityHashMap<GraphEntry, Integer>();
+        // Steps within each outermost SOFT container, in original order
+        final Map<GraphStep, List<GraphStep>> softGraphs = new IdentityHashMap<GraphStep, List<GraphStep>>();
+        final List<GraphStep> leaves = new ArrayList<GraphStep>();
+        for (GraphStep step : steps) {
+            GraphStep container = softContainer(step);
+            if (container != null) {
+                List<GraphStep> softGraph = softGraphs.get(container);
+                if (softGraph == null) {
+                    softGraph = new ArrayList<GraphStep>();
+                    softGraphs.put(container, softGraph);
+                }
+                softGraph.add(step);
+                if (container != step) {
+                    continue; // Ordered by its container
+                }
+            } else if (step.id < 0) {
+                continue; // Finalization marker
+            }
+            leaves.add(step);
+            position(step.spec, step.entry, positions);
+            for (GraphStep parent : step.stack) {
+                position(parent.spec, parent.entry, positions);
+            }
+        }
+
+        // Stable, so that rows of a path stay in their original order.
+        Collections.sort(leaves, new Comparator<GraphStep>() {
+            public int compare(GraphStep a, GraphStep b) {
+                int n = Math.min(a.stack.size(), b.stack.size());
+                for (int i = 0; i < n; i++) {
+                    int c = positions.get(a.stack.get(i).entry)
+                            - positions.get(b.stack.get(i).entry);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                if (a.stack.size() != b.stack.size()) {
+                    GraphEntry ae = a.stack.size() > n ? a.stack.get(n).entry
+                            : a.entry;
+                    GraphEntry be = b.stack.size() > n ? b.stack.get(n).entry
+                            : b.entry;
+                    return positions.get(ae) - positions.get(be);
+                }
+                return positions.get(a.entry) - positions.get(b.entry);
+            }
+        });
+
+        chunks = new ArrayList<List<GraphStep>>();
+        List<GraphStep> chunk = null;
+        for (GraphStep step : leaves) {
+            List<GraphStep> softGraph = softGraphs.get(step);
+            if (softGraph != null) {
+                chunks.add(softGraph);
+                chunk = null;
+                continue;
+            }
+            if (!isBulkStep(step)) {
+                chunks.add(Collections.singletonList(step));
+                chunk = null;
+                continue;
+            }
+            if (chunk == null || chunk.size() >= chunkSize
+                    || chunk.get(0).entry != step.entry
+                    || isTopLevel(chunk.get(0)) != isTopLevel(step)) {
+                chunk = new ArrayList<GraphStep>();
+                chunks.add(chunk);
+            }
+            chunk.add(step);
+        }
+        return chunks.size();
+    }
+
+    /**
+     * Deletes all ids of a chunk planned by {@link #planChunks(int)} with one
+     * statement, surrounded by a single savepoint. If the statement violates
+     * a constraint or does not delete all of the ids, the savepoint is rolled
+     * back and the steps of the chunk are executed one by one so that the
+     * failure is handled exactly as by {@link #execute(int)}. The chunk of a
+     * SOFT container is always executed step by step.
+     *
+     * @return Any warnings which were noted during execution.
+     */
+    public String executeChunk(int c) throws GraphException {
+
+        if (chunks == null) {
+            throw new GraphException("Chunks have not been planned.");
+        }
+
+        final List<GraphStep> chunk = chunks.get(c);
+        final GraphStep first = chunk.get(0);
+        final GraphStep last = chunk.get(chunk.size() - 1);
+        if (softContainer(last) == last) {
+            StringBuilder sb = new StringBuilder();
+            for (GraphStep step : chunk) {
+                int firstParent = step == last ? step.stack.size()
+                        : step.stack.indexOf(last);
+                sb.append(execute(step, firstParent));
+            }
+            return sb.toString();
+        }
+        if (chunk.size() == 1 && !isBulkStep(first)) {
+            return execute(first, first.stack.size());
+        }
+
+        final List<Long> ids = new ArrayList<Long>(chunk.size());
+        for (GraphStep step : chunk) {
+            ids.add(step.id);
+        }
+
+        boolean done = false;
+        first.push(opts);
+        try {
+            final String savepoint = UUID.randomUUID().toString()
+                    .replaceAll("-", "");
+            add();
+            savepoint(savepoint);
+
+            final QueryBuilder qb = new QueryBuilder();
+            qb.delete(first.table);
+            qb.where();
+            qb.and("id in (:ids)");
+            if (!opts.isForce()) {
+                permissionsClause(first.ec, qb);
+            }
+            qb.paramList("ids", ids);
+
+            int count = -1;
+            StopWatch sw = new CommonsLogStopWatch();
+            try {
+                if (isTopLevel(first)) {
+                    first.spec.runTopLevel(session, ids);
+                }
+                count = qb.query(session).executeUpdate();
+            } catch (ConstraintViolationException cve) {
+                log.debug(String.format("Bulk delete of %s ids from %s "
+                        + "failed due to %s", ids.size(), first.pathMsg,
+                        cve.getConstraintName()));
+            }
+            sw.stop("omero.delete.chunk." + first.table + "." + ids.size());
+
+            if (count == ids.size()) {
+                for (GraphStep step : chunk) {
+                    addGraphIds(step);
+                }
+                release(savepoint, collapse(true));
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Graphd %s ids from %s",
+                            count, first.pathMsg));
+                }
+                done = true;
+            } else {
+                rollback(savepoint, collapse(false));
+            }
+        } finally {
+            first.pop(opts);
+        }
+
+        if (done) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (GraphStep step : chunk) {
+            sb.append(execute(step, step.stack.size()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the number of ids in the given chunk.
+     */
+    public int getChunkSize(int c) {
+        if (chunks == null) {
+            return 0;
+        }
+        int size = 0;
+        for (GraphStep step : chunks.get(c)) {
+            if (step.id >= 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the outermost SOFT container of the step, which is the step
+     * itself for the finalization marker of such a container, or null if
+     * the step is not within a SOFT container.
+     */
+    private GraphStep softContainer(GraphStep step) {
+        for (GraphStep parent : step.stack) {
+            if (parent.entry.isSoft()) {
+                return parent;
+            }
+        }
+        if (step.id < 0 && step.entry.isSoft()) {
+            return step;
+        }
+        return null;
+    }
+
+    /**
+     * Steps which may be deleted together with others by
+     * {@link #executeChunk(int)}.
+     */
+    private boolean isBulkStep(GraphStep step) {
+        return !step.entry.isSoft() && !step.entry.isNull();
+    }
+
+    /**
+     * Steps for which {@link GraphSpec#runTopLevel(Session, List)} must be
+     * called before deletion.
+     */
+    private boolean isTopLevel(GraphStep step) {
+        return step.stack.size() <= 1;
+    }
+
+    private void position(GraphSpec spec, GraphEntry entry,
+            Map<GraphEntry, Integer> positions) {
+        if (!positions.containsKey(entry)) {
+            List<GraphEntry> entries = spec.entries();
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i) == entry) {
+                    positions.put(entry, i);
+                    return;
+                }
+            }
+            positions.put(entry, entries.size());
+        }
+    }
+
     private void logResults(final GraphStep step, final int count) {
         if (count > 0) {
             if (log.isDebugEnabled()) {
@@ -0,0 +1,45 @@
+/*
+ * ome.services.messages.EventLogsCommittedMessage
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.messages;
+
+import java.util.Iterator;
+import java.util.List;
+
+import ome.model.meta.EventLog;
+import ome.util.messages.InternalMessage;
+
+/**
+ * Published once the transaction which saved the given {@link EventLog}
+ * instances has been committed. Unlike {@link EventLogMessage}, which asks
+ * for logs to be created, this message is only informational and is used to
+ * refresh state derived from the modified objects.
+ *
+ * @since OMERO-Beta4.3
+ * @see ome.services.sharing.BlobShareStore
+ */
+public class EventLogsCommittedMessage extends InternalMessage implements
+        Iterable<EventLog> {
+
+    private static final long serialVersionUID = 2365748374652819103L;
+
+    protected final List<EventLog> logs;
+
+    public EventLogsCommittedMessage(Object source, List<EventLog> logs) {
+        super(source);
+        this.logs = logs;
+    }
+
+    public Iterator<EventLog> iterator() {
+        return logs.iterator();
+    }
+
+    public int size() {
+        return logs.size();
+    }
+
+}
@@ -31,10 +31,42 @@ public class PersistentEventLogLoader extends ome.services.eventlogs.PersistentE
     protected long lowestEntityId = -1;
 
     protected List<long[]> dataPerUser = null;
-    
+
+    /**
+     * If true, reading event logs only moves {@link #readId} and the stored
+     * id is left to the caller. See {@link #setReadAhead(boolean)}.
+     */
+    protected boolean readAhead = false;
+
+    /**
+     * Id up to which event logs have been read if {@link #readAhead} is set,
+     * or -1 before the first read.
+     */
+    protected long readId = -1;
+
     public PersistentEventLogLoader(String repo) {
         this.repo = repo;
     }
+
+    /**
+     * If true, the stored id is no longer moved when event logs are read.
+     * Instead, the caller must call {@link #setCurrentId(long)} once the
+     * event logs up to that id have been handled, so that logs which were
+     * read but not handled are read again after a restart. Used when the
+     * event logs are handled asynchronously by the {@link PyramidScheduler}.
+     */
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Returns the id up to which event logs have been read, which is the
+     * stored id unless {@link #setReadAhead(boolean) reading ahead}.
+     */
+    public long getReadId() {
+        long current_id = getCurrentId();
+        return readId > current_id ? readId : current_id;
+    }
     
     @Override
     public void initialize() {
@@ -54,7 +86,7 @@ public class PersistentEventLogLoader extends ome.services.eventlogs.PersistentE
         if (available()) {
             return pop();
         } else {
-            final long current_id = getCurrentId();
+            final long current_id = readAhead ? getReadId() : getCurrentId();
             if (log.isDebugEnabled()) {
                 log.debug(String.format(
                         "Locating next PIXELSDATA EventLog repo:%s > id:%d",
@@ -107,7 +139,11 @@ public class PersistentEventLogLoader extends ome.services.eventlogs.PersistentE
         if (!available()) {
             dataPerUser = null;
             try {
-                setCurrentId(lowestEntityId);
+                if (readAhead) {
+                    readId = lowestEntityId;
+                } else {
+                    setCurrentId(lowestEntityId);
+                }
             } finally {
                 lowestEntityId = -1;
             }
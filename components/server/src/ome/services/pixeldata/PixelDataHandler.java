@@ -7,9 +7,12 @@
 
 package ome.services.pixeldata;
 
+import java.util.List;
+
 import ome.api.IQuery;
 import ome.api.IUpdate;
 import ome.io.nio.PixelsService;
+import ome.io.nio.PixelsService.PyramidProgress;
 import ome.model.core.Channel;
 import ome.model.core.Pixels;
 import ome.model.meta.EventLog;
@@ -43,6 +46,8 @@ public class PixelDataHandler extends SimpleWork {
 
     protected int reps = 5;
 
+    protected PyramidScheduler scheduler;
+
     /**
      * Spring injector. Sets the number of indexing runs will be made if there
      * is a substantial backlog.
@@ -52,6 +57,23 @@ public class PixelDataHandler extends SimpleWork {
         ;
     }
 
+    /**
+     * Spring injector. If set, {@link #doWork(Session, ServiceFactory)}
+     * queues the event logs with the {@link PyramidScheduler} rather than
+     * processing them itself, and the loader only stores the position of
+     * event logs whose jobs have completed.
+     */
+    public void setScheduler(PyramidScheduler scheduler) {
+        this.scheduler = scheduler;
+        if (loader != null) {
+            loader.setReadAhead(scheduler != null);
+        }
+    }
+
+    public PyramidScheduler getScheduler() {
+        return scheduler;
+    }
+
     public PixelDataHandler(PersistentEventLogLoader ll, PixelsService pixelsService) {
         super("PixelDataHandler", "process");
         this.loader = ll;
@@ -78,6 +100,10 @@ public class PixelDataHandler extends SimpleWork {
     @Transactional(readOnly = false)
     public Object doWork(Session session, ServiceFactory sf) {
 
+        if (scheduler != null) {
+            return schedule(sf);
+        }
+
         if (!loader.hasNext()) {
             log.debug("No objects indexed");
             return null;
@@ -93,17 +119,64 @@ public class PixelDataHandler extends SimpleWork {
         return null;
     }
 
+    /**
+     * Queues event logs with the {@link PyramidScheduler} until either the
+     * loader or the queue is exhausted. Only the size of each pixels set is
+     * loaded, so the transaction stays short. The stored event log position
+     * is then moved up to, but not beyond, the oldest unfinished job.
+     */
+    protected Object schedule(ServiceFactory sf) {
+        final IQuery iQuery = sf.getQueryService();
+        int count = 0;
+        while (scheduler.hasCapacity() && loader.hasNext()) {
+            EventLog eventLog = loader.next();
+            Long id = eventLog.getEntityId();
+            List<Object[]> rv = iQuery.projection(
+                    "select p.sizeX, p.sizeY, p.sizeZ, p.sizeC, p.sizeT " +
+                    "from Pixels p where p.id = :id",
+                    new Parameters().addId(id));
+            if (rv.isEmpty()) {
+                log.error("No valid pixels found with id=" + id);
+                continue;
+            }
+            long size = 1;
+            for (Object dim : rv.get(0)) {
+                size *= ((Number) dim).longValue();
+            }
+            scheduler.submit(id, eventLog.getId(), size);
+            count++;
+        }
+        if (count > 0) {
+            log.info(String.format("QUEUED %s object(s) for pyramid creation",
+                    count));
+        }
+
+        long position = Math.min(loader.getReadId(),
+                scheduler.getOldestPending() - 1);
+        if (position > loader.getCurrentId()) {
+            loader.setCurrentId(position);
+        }
+        return null;
+    }
+
+    public boolean process(Long id, ServiceFactory sf, Session s) {
+        return process(id, sf, s, getSqlAction(), null);
+    }
+
     /**
      * Here we assume that our log loader will only return
      * us the proper types, since we are using the specific
      * type defined in this package.
      *
-     * @param eventLog
+     * @param id
      * @param sf
      * @param s
+     * @param sql used to store the {@link StatsInfo} instances.
+     * @param progress may be null.
      * @return
      */
-    public boolean process(Long id, ServiceFactory sf, Session s) {
+    public boolean process(Long id, ServiceFactory sf, Session s,
+            SqlAction sql, PyramidProgress progress) {
 
         final IQuery iQuery = sf.getQueryService();
         final IUpdate iUpdate = sf.getUpdateService();
@@ -120,7 +193,7 @@ public class PixelDataHandler extends SimpleWork {
 
         try
         {
-            StatsInfo[] statsInfo = pixelsService.makePyramid(pixels);
+            StatsInfo[] statsInfo = pixelsService.makePyramid(pixels, progress);
             if(statsInfo == null) {
                 // Either exists or failed to be created, but that's
                 // the PixelsService's business. It should throw an exception
@@ -132,7 +205,7 @@ public class PixelDataHandler extends SimpleWork {
             for(int c=0;c<statsInfo.length;c++) {
                 final StatsInfo si = statsInfo[c];
                 final Channel ch = pixels.getChannel(c);
-                long siId = getSqlAction().setStatsInfo(ch, si);
+                long siId = sql.setStatsInfo(ch, si);
                 log.info(String.format("Added StatsInfo:%s for %s - C:%s Max:%s Min:%s",
                         siId, ch, c, si.getGlobalMax(), si.getGlobalMin()));
             }
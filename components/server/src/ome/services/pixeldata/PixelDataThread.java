@@ -11,6 +11,8 @@ import java.sql.Timestamp;
 import java.util.Date;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import ome.conditions.InternalException;
 import ome.io.messages.MissingPyramidMessage;
@@ -60,6 +62,10 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
      */
     private final boolean performProcessing;
 
+    private final Lock runLock = new ReentrantLock();
+
+    private final PixelDataHandler handler;
+
     /**
      * Uses default {@link Principal} for processing
      */
@@ -74,6 +80,7 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
     public PixelDataThread(SessionManager manager, Executor executor,
             PixelDataHandler handler, Principal principal, String uuid) {
         super(manager, executor, handler, principal);
+        this.handler = handler;
         this.performProcessing = executor.getContext()
             .containsBean("pixelDataTrigger");
         this.uuid = uuid;
@@ -92,7 +99,20 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
     @Override
     public void doRun() {
         if (performProcessing) {
-            this.executor.execute(getPrincipal(), work);
+            // Both the cron trigger and the EventLogListener may call run()
+            if (runLock.tryLock()) {
+                try {
+                    final PyramidScheduler scheduler = handler.getScheduler();
+                    if (scheduler != null) {
+                        scheduler.setPrincipal(getPrincipal());
+                    }
+                    this.executor.execute(getPrincipal(), work);
+                } finally {
+                    runLock.unlock();
+                }
+            } else {
+                log.debug("Currently running; skipping");
+            }
         }
     }
 
@@ -106,6 +126,11 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
     public void onApplicationEvent(final MissingPyramidMessage mpm) {
 
         log.info("Received: " + mpm);
+        final PyramidScheduler scheduler = handler.getScheduler();
+        if (scheduler != null) {
+            // Only has an effect if this process creates the pyramids
+            scheduler.request(mpm.pixelsID);
+        }
         // #5232. If this is called without an active event, then throw
         // an exception since a call to Executor should wrap whatever the
         // invoker is doing.
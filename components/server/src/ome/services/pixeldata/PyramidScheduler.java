@@ -0,0 +1,432 @@
+/*
+ * ome.services.pixeldata.PyramidScheduler
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.pixeldata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import ome.io.nio.PixelsService.PyramidProgress;
+import ome.services.util.Executor;
+import ome.system.Principal;
+import ome.system.ServiceFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Creates pyramids for several pixels sets at once. PIXELDATA event logs
+ * read by the {@link PixelDataHandler} are queued as {@link Job jobs} and
+ * processed by a fixed number of worker threads, each job in its own
+ * transaction. Jobs for pixels sets which a user has asked to view are run
+ * first, followed by the smallest pixels sets so that as many images as
+ * possible become viewable quickly. Ties are broken by the order of the
+ * event logs.
+ *
+ * A user is considered to be asking for an image when a further PIXELDATA
+ * log arrives for a pixels set which is already queued, since one is created
+ * for each {@link ome.io.messages.MissingPyramidMessage}, or when such a
+ * message is published in this process.
+ *
+ * The state of the queued, running and recently completed jobs is available
+ * via {@link #getJobs()}.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class PyramidScheduler {
+
+    private final static Log log = LogFactory.getLog(PyramidScheduler.class);
+
+    /** Number of completed jobs kept for {@link #getJobs()}. */
+    public final static int HISTORY = 100;
+
+    public enum State {
+        QUEUED, RUNNING, FINISHED, FAILED
+    }
+
+    /**
+     * Pyramid creation for a single pixels set.
+     */
+    public static class Job implements PyramidProgress {
+
+        private final long pixelsId;
+
+        private final long eventLogId;
+
+        private final long size;
+
+        private final long queued = System.currentTimeMillis();
+
+        private volatile boolean requested;
+
+        private volatile State state = State.QUEUED;
+
+        private volatile int tiles;
+
+        private volatile int totalTiles;
+
+        private volatile long started;
+
+        private volatile long finished;
+
+        Job(long pixelsId, long eventLogId, long size) {
+            this.pixelsId = pixelsId;
+            this.eventLogId = eventLogId;
+            this.size = size;
+        }
+
+        public long getPixelsId() {
+            return pixelsId;
+        }
+
+        public long getEventLogId() {
+            return eventLogId;
+        }
+
+        /**
+         * Number of pixels in the pixels set (X*Y*Z*C*T).
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Whether a user has asked for the pixels set while it was queued.
+         */
+        public boolean isRequested() {
+            return requested;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getTiles() {
+            return tiles;
+        }
+
+        public int getTotalTiles() {
+            return totalTiles;
+        }
+
+        /**
+         * Percentage of the tiles written so far.
+         */
+        public int getProgress() {
+            if (state == State.FINISHED) {
+                return 100;
+            }
+            int total = totalTiles;
+            return total > 0 ? (int) (tiles * 100L / total) : 0;
+        }
+
+        public long getQueued() {
+            return queued;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        public long getFinished() {
+            return finished;
+        }
+
+        public void written(int tiles, int totalTiles) {
+            this.tiles = tiles;
+            this.totalTiles = totalTiles;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("PyramidJob[Pixels:%d %s %d%%%s]", pixelsId,
+                    state, getProgress(), requested ? " requested" : "");
+        }
+    }
+
+    /**
+     * Requested jobs first, then by increasing size, then by event log.
+     */
+    final static Comparator<Job> PRIORITY = new Comparator<Job>() {
+        public int compare(Job a, Job b) {
+            if (a.requested != b.requested) {
+                return a.requested ? -1 : 1;
+            }
+            if (a.size != b.size) {
+                return a.size < b.size ? -1 : 1;
+            }
+            if (a.eventLogId != b.eventLogId) {
+                return a.eventLogId < b.eventLogId ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private final Executor executor;
+
+    private volatile PixelDataHandler handler;
+
+    private final int threads;
+
+    private final int capacity;
+
+    private final PriorityBlockingQueue<Job> queue;
+
+    /** Queued and running jobs by pixels id. Guarded by this. */
+    private final Map<Long, Job> active = new HashMap<Long, Job>();
+
+    /** Completed jobs, oldest first. Guarded by this. */
+    private final LinkedList<Job> history = new LinkedList<Job>();
+
+    private final List<Thread> workers = new ArrayList<Thread>();
+
+    private volatile Principal principal;
+
+    private boolean stopped = false;
+
+    /**
+     * @param executor
+     *            used to run each job in its own transaction.
+     * @param threads
+     *            number of pyramids created at once. Values less than 1
+     *            are treated as 1.
+     * @param capacity
+     *            maximum number of queued jobs. Values less than the
+     *            number of threads are treated as the number of threads.
+     */
+    public PyramidScheduler(Executor executor, int threads, int capacity) {
+        this.executor = executor;
+        this.threads = Math.max(1, threads);
+        this.capacity = Math.max(this.threads, capacity);
+        this.queue = new PriorityBlockingQueue<Job>(this.capacity, PRIORITY);
+    }
+
+    /**
+     * Spring injector. Sets the {@link PixelDataHandler} which creates the
+     * pyramids.
+     */
+    public void setHandler(PixelDataHandler handler) {
+        this.handler = handler;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the {@link Principal} used by the workers. Set by the
+     * {@link PixelDataThread} on each run so that the session is kept
+     * current.
+     */
+    public void setPrincipal(Principal principal) {
+        this.principal = principal;
+    }
+
+    /**
+     * Whether further jobs can be queued. The queue is filled beyond the
+     * number of threads so that requests for pixels sets further down the
+     * event log can be seen.
+     */
+    public synchronized boolean hasCapacity() {
+        return !stopped && queue.size() < capacity;
+    }
+
+    /**
+     * Queues pyramid creation for the given pixels set. If the pixels set
+     * is already queued from an earlier event log, it is marked as requested
+     * instead; if it is already being processed, nothing is done. The
+     * {@link PersistentEventLogLoader} may return the same event log more
+     * than once, which is ignored.
+     *
+     * @return the job for the pixels set.
+     */
+    public synchronized Job submit(long pixelsId, long eventLogId, long size) {
+        Job job = active.get(pixelsId);
+        if (job != null) {
+            if (eventLogId > job.eventLogId) {
+                request(job);
+            }
+            return job;
+        }
+        for (Job done : history) {
+            if (done.pixelsId == pixelsId && done.eventLogId == eventLogId) {
+                return done;
+            }
+        }
+        job = new Job(pixelsId, eventLogId, size);
+        active.put(pixelsId, job);
+        queue.add(job);
+        startWorkers();
+        if (log.isDebugEnabled()) {
+            log.debug("Queued " + job + " (" + queue.size() + " queued)");
+        }
+        return job;
+    }
+
+    /**
+     * Moves the job for the given pixels set, if queued, to the front of
+     * the queue.
+     *
+     * @return whether a queued job was found.
+     */
+    public synchronized boolean request(long pixelsId) {
+        Job job = active.get(pixelsId);
+        return job != null && request(job);
+    }
+
+    /**
+     * Returns the id of the oldest event log whose job has not completed, or
+     * {@link Long#MAX_VALUE} if all jobs have completed. The
+     * {@link PixelDataHandler} never stores an event log position beyond it,
+     * so that unfinished jobs are queued again after a restart.
+     */
+    public synchronized long getOldestPending() {
+        long oldest = Long.MAX_VALUE;
+        for (Job job : active.values()) {
+            if (job.eventLogId < oldest) {
+                oldest = job.eventLogId;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Snapshot of the running, queued and recently completed jobs, in that
+     * order. Queued jobs are listed by priority.
+     */
+    public synchronized List<Job> getJobs() {
+        List<Job> rv = new ArrayList<Job>();
+        List<Job> queued = new ArrayList<Job>();
+        for (Job job : active.values()) {
+            if (job.state == State.RUNNING) {
+                rv.add(job);
+            } else {
+                queued.add(job);
+            }
+        }
+        Collections.sort(queued, PRIORITY);
+        rv.addAll(queued);
+        for (int i = history.size() - 1; i >= 0; i--) {
+            rv.add(history.get(i));
+        }
+        return rv;
+    }
+
+    /**
+     * Called by Spring on destruction. Running jobs finish and queued jobs
+     * are dropped. Since the stored event log position never passes an
+     * unfinished job (see {@link #getOldestPending()}), the event logs of
+     * the dropped jobs are read and queued again after a restart.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        queue.clear();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Must hold the lock on this. The job is removed and added again since
+     * the queue does not reorder elements whose priority changes.
+     */
+    private boolean request(Job job) {
+        if (job.state != State.QUEUED || job.requested) {
+            return false;
+        }
+        if (queue.remove(job)) {
+            job.requested = true;
+            queue.add(job);
+            log.info("Prioritized " + job);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Must hold the lock on this.
+     */
+    private void startWorkers() {
+        if (!workers.isEmpty() || stopped) {
+            return;
+        }
+        log.info("Starting " + threads + " pyramid worker(s)");
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "PyramidWorker-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    private void work() {
+        while (true) {
+            final Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException ie) {
+                return;
+            }
+            synchronized (this) {
+                job.started = System.currentTimeMillis();
+                job.state = State.RUNNING;
+            }
+            boolean failed = true;
+            try {
+                run(job);
+                failed = false;
+            } catch (Throwable t) {
+                log.error("Failed to create pyramid for Pixels:"
+                        + job.pixelsId, t);
+            } finally {
+                completed(job, failed);
+            }
+        }
+    }
+
+    private void run(final Job job) {
+        executor.execute(principal, new Executor.SimpleWork(this,
+                "makePyramid", job.pixelsId) {
+            @Transactional(readOnly = false)
+            public Object doWork(Session session, ServiceFactory sf) {
+                // The handler is shared by all workers, so this work's own
+                // SqlAction is passed rather than set on the handler.
+                return handler.process(job.pixelsId, sf, session,
+                        getSqlAction(), job);
+            }
+        });
+    }
+
+    private synchronized void completed(Job job, boolean failed) {
+        job.finished = System.currentTimeMillis();
+        job.state = failed ? State.FAILED : State.FINISHED;
+        active.remove(job.pixelsId);
+        history.add(job);
+        if (history.size() > HISTORY) {
+            history.removeFirst();
+        }
+        log.info(String.format("Completed %s in %s ms. (%s queued)", job,
+                job.finished - job.started, queue.size()));
+    }
+
+}
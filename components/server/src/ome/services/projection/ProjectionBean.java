@@ -9,7 +9,14 @@ package ome.services.projection;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,6 +39,7 @@ import ome.model.core.Image;
 import ome.model.core.Pixels;
 import ome.model.enums.PixelsType;
 import ome.model.stats.StatsInfo;
+import ome.util.BoundedExecutor;
 
 /**
  * Implements projection functionality for Pixels sets as declared in {@link
@@ -52,6 +60,12 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     
     /** Reference to the service used to retrieve the pixels data. */
     protected transient PixelsService pixelsService;
+
+    /**
+     * The pool of threads helping to project requests, if any. It rejects
+     * the helpers it cannot queue since the calling thread projects anyway.
+     */
+    protected transient BoundedExecutor executor;
     
     /**
      * Returns the interface this implementation is for.
@@ -82,76 +96,75 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         this.pixelsService = pixelsService;
     }
     
+    /**
+     * Projection executor bean injector. For use during configuration. Can
+     * only be called once. Without an executor, requests are projected by
+     * the calling thread only.
+     */
+    public void setExecutor(BoundedExecutor executor)
+    {
+        getBeanHelper().throwIfAlreadySet(this.executor, executor);
+        this.executor = executor;
+    }
+
     /* (non-Javadoc)
      * @see ome.api.IProjection#projectStack(long, ome.model.enums.PixelsType, int, int, int, int, int, int)
      */
     @RolesAllowed("user")
     public byte[] projectStack(long pixelsId, PixelsType pixelsType,
-                               int algorithm, int timepoint, int channelIndex, 
-                               int stepping, int start, int end)
+                               final int algorithm, final int timepoint,
+                               final int channelIndex, final int stepping,
+                               final int start, final int end)
     {
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
+        final Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(pixels, false);
         try
         {
-
             if (pixelsType == null)
             {
-                pixelsType = ctx.pixels.getPixelsType();
+                pixelsType = pixels.getPixelsType();
             }
             else
             {
                 pixelsType = iQuery.get(PixelsType.class, pixelsType.getId());
             }
+            // Fail early on an invalid channel, timepoint or algorithm.
+            pixelBuffer.checkBounds(null, null, null, channelIndex, timepoint);
+            StackProjector.checkAlgorithm(algorithm);
 
-            ctx.planeSizeInPixels = 
-                ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-            int planeSize = 
-                ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
+            int planeSize = pixels.getSizeX() * pixels.getSizeY()
+                * (iPixels.getBitDepth(pixelsType) / 8);
             byte[] buf = new byte[planeSize];
-            ctx.from = pixelBuffer.getStack(channelIndex, timepoint);
-            ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
+            final PixelData to =
+                new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
 
-            switch (algorithm)
+            // Split the plane in bands so that every thread has some work.
+            int sizeY = pixels.getSizeY();
+            int threads = getParallelism();
+            int bandHeight = Math.min(
+                    getBandHeight(pixelBuffer), (sizeY + threads - 1) / threads);
+            List<ProjectionTask> tasks = new ArrayList<ProjectionTask>();
+            for (int y = 0; y < sizeY; y += bandHeight)
             {
-                case IProjection.MAXIMUM_INTENSITY:
-                {
-                    projectStackMax(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.MEAN_INTENSITY:
-                {
-                    projectStackMean(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.SUM_INTENSITY:
-                {
-                    projectStackSum(ctx, stepping, start, end, false);
-                    break;
-                }
-                default:
-                {
-                    throw new IllegalArgumentException(
-                            "Unknown algorithm: " + algorithm);
-                }
+                final int bandY = y;
+                final int height = Math.min(bandHeight, sizeY - y);
+                tasks.add(new ProjectionTask(channelIndex, timepoint) {
+                    void project(PixelBuffer source) throws IOException
+                    {
+                        new StackProjector(algorithm, stepping, start, end)
+                            .project(source, channelIndex, timepoint, bandY,
+                                     height, to);
+                    }
+                });
             }
+            runTasks(pixels, pixelBuffer, tasks);
             return buf;
         }
-        catch (IOException e)
-        {
-            String error = String.format(
-                    "I/O error retrieving stack C=%d T=%d: %s",
-                    channelIndex, timepoint, e.getMessage());
-            log.error(error, e);
-            throw new ResourceError(error);
-        }
         catch (DimensionsOutOfBoundsException e)
         {
             String error = String.format(
                     "C=%d or T=%d out of range for Pixels Id %d: %s",
-                    channelIndex, timepoint, ctx.pixels.getId(), e.getMessage());
+                    channelIndex, timepoint, pixels.getId(), e.getMessage());
             log.error(error, e);
             throw new ValidationException(error);
         }
@@ -176,14 +189,14 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     @RolesAllowed("user")
     @Transactional(readOnly = false)
     public long projectPixels(long pixelsId, PixelsType pixelsType, 
-                              int algorithm, int tStart, int tEnd, 
-                              List<Integer> channels, int stepping,
-                              int zStart, int zEnd, String name)
+                              final int algorithm, int tStart, int tEnd, 
+                              List<Integer> channels, final int stepping,
+                              final int zStart, final int zEnd, String name)
     {
+        StackProjector.checkAlgorithm(algorithm);
         // First, copy and resize our image with sizeZ = 1.
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        Image image = ctx.pixels.getImage();
+        final Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        Image image = pixels.getImage();
         name = name == null? image.getName() + " Projection" : name;
         //size of the new buffer.
         Integer sizeT = tEnd-tStart+1;
@@ -197,7 +210,7 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         Pixels newPixels = newImage.getPixels(0);
         if (pixelsType == null)
         {
-            pixelsType = ctx.pixels.getPixelsType();
+            pixelsType = pixels.getPixelsType();
         }
         else
         {
@@ -207,81 +220,77 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         
         // Project each stack for each channel and each timepoint in the
         // entire image, copying into the pixel buffer the projected pixels.
+        // The stacks are projected concurrently, the planes being written to
+        // the destination buffer one at a time.
         PixelBuffer sourceBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
+                pixels, false);
         try {
-            PixelBuffer destinationBuffer = pixelsService.getPixelBuffer(
+            final PixelBuffer destinationBuffer = pixelsService.getPixelBuffer(
                     newPixels, true);
             try
             {
-                ctx.planeSizeInPixels = ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-                int planeSize =
-                    ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
-                byte[] buf = new byte[planeSize];
-                ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
+                final int planeSize = pixels.getSizeX() * pixels.getSizeY()
+                    * (iPixels.getBitDepth(pixelsType) / 8);
+                final String type = pixelsType.getValue();
+                final int bandHeight = getBandHeight(sourceBuffer);
+                final int sizeY = pixels.getSizeY();
+                final double[] minimum = new double[channels.size()];
+                final double[] maximum = new double[channels.size()];
+                Arrays.fill(minimum, Double.MAX_VALUE);
+                Arrays.fill(maximum, Double.MIN_VALUE);
+                List<ProjectionTask> tasks = new ArrayList<ProjectionTask>();
                 int newC = 0;
                 for (Integer c : channels)
                 {
-                    ctx.minimum = Double.MAX_VALUE;
-                    ctx.maximum = Double.MIN_VALUE;
+                    final int channel = newC;
                     for (int t = tStart; t <= tEnd; t++)
                     {
-                        try
-                        {
-                            ctx.from = sourceBuffer.getStack(c, t);
-                            switch (algorithm)
+                        final int timepoint = t;
+                        tasks.add(new ProjectionTask(c, t) {
+                            void project(PixelBuffer source)
+                                throws IOException
                             {
-                                case IProjection.MAXIMUM_INTENSITY:
+                                byte[] buf = new byte[planeSize];
+                                PixelData to = new PixelData(
+                                        type, ByteBuffer.wrap(buf));
+                                StackProjector projector = new StackProjector(
+                                        algorithm, stepping, zStart, zEnd);
+                                for (int y = 0; y < sizeY; y += bandHeight)
                                 {
-                                    projectStackMax(ctx, stepping, zStart, zEnd, true);
-                                    break;
+                                    projector.project(source, c, t, y,
+                                            Math.min(bandHeight, sizeY - y),
+                                            to);
                                 }
-                                case IProjection.MEAN_INTENSITY:
+                                synchronized (destinationBuffer)
                                 {
-                                    projectStackMean(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.SUM_INTENSITY:
-                                {
-                                    projectStackSum(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                default:
-                                {
-                                    throw new IllegalArgumentException(
-                                            "Unknown algorithm: " + algorithm);
+                                    destinationBuffer.setPlane(
+                                            buf, 0, channel, timepoint);
+                                    minimum[channel] = Math.min(
+                                            minimum[channel],
+                                            projector.getMinimum());
+                                    maximum[channel] = Math.max(
+                                            maximum[channel],
+                                            projector.getMaximum());
                                 }
                             }
-                            destinationBuffer.setPlane(buf, 0, newC, t);
-                        }
-                        catch (IOException e)
-                        {
-                            String error = String.format(
-                                    "I/O error retrieving stack C=%d T=%d: %s",
-                                    c, t, e.getMessage());
-                            log.error(error, e);
-                            throw new ResourceError(error);
-                        }
-                        catch (DimensionsOutOfBoundsException e)
-                        {
-                            String error = String.format(
-                                    "C=%d or T=%d out of range for Pixels Id %d: %s",
-                                    c, t, ctx.pixels.getId(), e.getMessage());
-                            log.error(error, e);
-                            throw new ValidationException(error);
-                        }
+                        });
                     }
+                    newC++;
+                }
+                runTasks(pixels, sourceBuffer, tasks);
+
+                for (int i = 0; i < channels.size(); i++)
+                {
                     // Handle the change of minimum and maximum for this channel.
-                    Channel channel = newPixels.getChannel(newC);
+                    Channel channel = newPixels.getChannel(i);
                     StatsInfo si = new StatsInfo();
-                    si.setGlobalMin(ctx.minimum);
-                    si.setGlobalMax(ctx.maximum);
+                    si.setGlobalMin(minimum[i]);
+                    si.setGlobalMax(maximum[i]);
                     channel.setStatsInfo(si);
-                    // Set our methodology
-                    newPixels.setMethodology(
-                            IProjection.METHODOLOGY_STRINGS[algorithm]);
-                    newC++;
                 }
+                // Set our methodology
+                newPixels.setMethodology(
+                        IProjection.METHODOLOGY_STRINGS[algorithm]);
             }
             finally
             {
@@ -311,178 +320,261 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         newImage = iUpdate.saveAndReturnObject(newImage);
         return newImage.getId();
     }
-    
+
     /**
-     * Projects a stack based on the maximum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Returns the number of rows projected at once: the height of the tiles
+     * of the pixel buffer, which are read whole.
+     * @param buffer The pixel buffer to read from.
+     * @return See above.
      */
-    private void projectStackMax(ProjectionContext ctx, int stepping,
-                                 int start, int end, boolean doMinMax)
+    private int getBandHeight(PixelBuffer buffer)
     {
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        return Math.max(1, (int) buffer.getTileSize().getHeight());
+    }
+
+    /**
+     * Returns the number of threads a request may be projected by.
+     * @return See above.
+     */
+    private int getParallelism()
+    {
+        return executor == null? 1 : executor.getParallelism();
+    }
+
+    /**
+     * Runs the projection tasks on the calling thread and on up to
+     * {@link BoundedExecutor#getParallelism()} - 1 helpers submitted to
+     * the shared executor, each with a buffer of its own. Helpers which have
+     * not started by the time the calling thread runs out of tasks are
+     * skipped.
+     * @param pixels The Pixels set to project.
+     * @param buffer The pixel buffer used by the calling thread.
+     * @param tasks The tasks to run.
+     */
+    private void runTasks(Pixels pixels, PixelBuffer buffer,
+                          List<ProjectionTask> tasks)
+    {
+        final AtomicInteger next = new AtomicInteger();
+        final List<ProjectionTask> queue = tasks;
+        final Throwable[] failure = new Throwable[1];
+        int helperCount = Math.min(getParallelism(), tasks.size()) - 1;
+        List<PixelBuffer> buffers = new ArrayList<PixelBuffer>();
+        List<Helper> helpers = new ArrayList<Helper>();
+        try
         {
-            projectedValue = 0;
-            for (int z = start; z <= end; z += stepping)
+            // Buffers are created on the calling thread as it may have to
+            // look up the original file of the Pixels set.
+            for (int i = 0; i < helperCount; i++)
             {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                if (stackValue > projectedValue)
+                final PixelBuffer source =
+                    pixelsService.getPixelBuffer(pixels, false);
+                buffers.add(source);
+                Helper helper = new Helper(new Runnable() {
+                    public void run()
+                    {
+                        runTasks(queue, next, source, failure);
+                    }
+                });
+                try
                 {
-                    projectedValue = stackValue;
+                    helper.future = executor.submit(helper);
                 }
+                catch (RejectedExecutionException e)
+                {
+                    // The pool is saturated, carry on with fewer helpers.
+                    break;
+                }
+                helpers.add(helper);
             }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
+            runTasks(queue, next, buffer, failure);
+        }
+        finally
+        {
+            for (Helper helper : helpers)
             {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
+                helper.await();
+            }
+            for (PixelBuffer source : buffers)
+            {
+                try
+                {
+                    source.close();
+                }
+                catch (IOException e)
+                {
+                    log.error("Buffer did not close successfully: " + source, e);
+                }
+            }
+        }
+        synchronized (failure)
+        {
+            if (failure[0] instanceof RuntimeException)
+            {
+                throw (RuntimeException) failure[0];
+            }
+            if (failure[0] instanceof Error)
+            {
+                throw (Error) failure[0];
             }
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Projects a stack based on the mean intensity at each XY coordinate.
-     * @param from The raw pixel data from the stack to project from.
-     * @param ctx The context of our projection.
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMean(ProjectionContext ctx, int stepping, 
-                                  int start, int end, boolean doMinMax)
-    {
-        projectStackMeanOrSum(ctx, stepping, start, end, true, doMinMax);
     }
-    
+
     /**
-     * Projects a stack based on the sum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Runs the projection tasks which have not been claimed yet until none
+     * is left or one of the tasks failed.
+     * @param tasks The tasks to run.
+     * @param next The index of the next task to run.
+     * @param source The pixel buffer to use.
+     * @param failure Holds the first failure.
      */
-    private void projectStackSum(ProjectionContext ctx, int stepping, 
-                                 int start, int end, boolean doMinMax)
+    private void runTasks(List<ProjectionTask> tasks, AtomicInteger next,
+                          PixelBuffer source, Throwable[] failure)
     {
-        projectStackMeanOrSum(ctx, stepping, start, end, false, doMinMax);
+        int index;
+        while ((index = next.getAndIncrement()) < tasks.size())
+        {
+            synchronized (failure)
+            {
+                if (failure[0] != null)
+                {
+                    return;
+                }
+            }
+            try
+            {
+                tasks.get(index).run(source);
+            }
+            catch (Throwable e)
+            {
+                synchronized (failure)
+                {
+                    if (failure[0] == null)
+                    {
+                        failure[0] = e;
+                    }
+                }
+                return;
+            }
+        }
     }
-    
+
     /**
-     * Projects a stack based on the sum intensity at each XY coordinate with
-     * the option to also average the sum intensity.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param mean Whether or not we're performing an average post sum
-     * intensity projection.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Runs projection tasks on the shared executor unless the request no
+     * longer needs it by the time it is executed.
      */
-    private void projectStackMeanOrSum(ProjectionContext ctx, int stepping,
-                                       int start, int end, 
-                                       boolean mean, boolean doMinMax)
+    private static class Helper implements Runnable
     {
-        double planeMaximum = ctx.to.getMaximum();
+        /** Set once the helper either started or was skipped. */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        /** The work of the helper. */
+        private final Runnable work;
+
+        /** The pending completion of the helper. */
+        Future<?> future;
+
+        Helper(Runnable work)
+        {
+            this.work = work;
+        }
 
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        public void run()
         {
-            projectedValue = 0;
-            int projectedPlaneCount = 0;
-            for (int z = start; z < end; z += stepping)
+            if (claimed.compareAndSet(false, true))
             {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                projectedValue += stackValue;
-                projectedPlaneCount++;
+                work.run();
             }
-            if (mean)
+        }
+
+        /**
+         * Skips the helper if it has not started yet or waits for it to
+         * complete otherwise.
+         */
+        void await()
+        {
+            if (claimed.compareAndSet(false, true))
             {
-                projectedValue = projectedValue / projectedPlaneCount;
+                return;
             }
-            if (projectedValue > planeMaximum)
+            boolean interrupted = false;
+            while (true)
             {
-                projectedValue = planeMaximum;
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    // The buffer of the helper must not be closed under it.
+                    interrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    // Failures are recorded by the work itself.
+                    break;
+                }
             }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
+            if (interrupted)
             {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
+                Thread.currentThread().interrupt();
             }
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
     }
-    
+
     /**
-     * Stores the context of a projection operation.
+     * A unit of projection work on the stack of a channel and timepoint.
      * 
      * Class is static to prevent any instances from holding onto
      * {@link ProjectionBean} instances.
-     *
-     * @author Chris Allan &nbsp;&nbsp;&nbsp;&nbsp; <a
-     *         href="mailto:callan@blackcat.ca">callan@blackcat.ca</a>
-     * @since OMERO-Beta3.1
      */
-    private static class ProjectionContext
+    private static abstract class ProjectionTask
     {
-        /** The Pixels set we're currently working on. */
-        public Pixels pixels;
-        
-        /** Count of the number of pixels per plane for <code>pixels</code>. */
-        public int planeSizeInPixels;
-        
-        /** Current minimum for the projected pixel data. */
-        public double minimum = Double.MAX_VALUE;
-        
-        /** Current maximum for the projected pixel data. */
-        public double maximum = Double.MIN_VALUE;
-        
-        /** The raw pixel data from the stack to project from. */
-        public PixelData from;
-        
-        /** The raw pixel data buffer to project into. */
-        public PixelData to;
+        /** The channel of the stack. */
+        final int c;
+
+        /** The timepoint of the stack. */
+        final int t;
+
+        ProjectionTask(int c, int t)
+        {
+            this.c = c;
+            this.t = t;
+        }
+
+        /**
+         * Projects the stack, or part of it, reading from the given buffer.
+         * @param source The pixel buffer to read from.
+         * @throws IOException If the stack cannot be read.
+         */
+        abstract void project(PixelBuffer source) throws IOException;
+
+        /**
+         * Runs the projection, translating the errors as the service does.
+         * @param source The pixel buffer to read from.
+         */
+        void run(PixelBuffer source)
+        {
+            try
+            {
+                project(source);
+            }
+            catch (IOException e)
+            {
+                String error = String.format(
+                        "I/O error retrieving stack C=%d T=%d: %s",
+                        c, t, e.getMessage());
+                log.error(error, e);
+                throw new ResourceError(error);
+            }
+            catch (DimensionsOutOfBoundsException e)
+            {
+                String error = String.format(
+                        "C=%d or T=%d out of range: %s",
+                        c, t, e.getMessage());
+                log.error(error, e);
+                throw new ValidationException(error);
+            }
+        }
     }
 }
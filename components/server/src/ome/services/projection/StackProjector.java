@@ -0,0 +1,277 @@
+/*
+ * ome.services.projection.StackProjector
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import ome.api.IProjection;
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+
+/**
+ * Projects the optical sections of a stack one band of full width rows at a
+ * time. Each section of the band is read as a single tile and accumulated
+ * into a primitive array by a loop specialized for the pixels type, so only
+ * a band of accumulators and a band of input pixels are held at any time.
+ * <p>
+ * Instances are not thread safe. Bands of a plane may be projected
+ * concurrently by several instances, each reading from its own
+ * {@link PixelBuffer}, as long as they write to distinct rows.
+ * </p>
+ *
+ * @since OMERO-Beta4.3
+ */
+public class StackProjector
+{
+
+    /** One of the algorithms declared by {@link IProjection}. */
+    private final int algorithm;
+
+    /** Stepping value to use while iterating over the optical sections. */
+    private final int stepping;
+
+    /** Optical section to start projecting from. */
+    private final int start;
+
+    /** Optical section to finish projecting. */
+    private final int end;
+
+    /** The accumulators of the current band, grown as required. */
+    private double[] accumulators = new double[0];
+
+    /** Minimum of the projected pixel data. */
+    private double minimum = Double.MAX_VALUE;
+
+    /** Maximum of the projected pixel data. */
+    private double maximum = Double.MIN_VALUE;
+
+    /**
+     * Creates a new instance.
+     * @param algorithm One of the algorithms declared by {@link IProjection}.
+     * @param stepping Stepping value to use while calculating the
+     * projection. For example, <code>stepping=1</code> will use every optical
+     * section from <code>start</code> to <code>end</code> where
+     * <code>stepping=2</code> will use every other section.
+     * @param start Optical section to start projecting from.
+     * @param end Optical section to finish projecting.
+     */
+    public StackProjector(int algorithm, int stepping, int start, int end)
+    {
+        checkAlgorithm(algorithm);
+        this.algorithm = algorithm;
+        this.stepping = stepping;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Checks that the passed value is one of the algorithms declared by
+     * {@link IProjection}.
+     * @param algorithm The value to check.
+     * @throws IllegalArgumentException If the algorithm is unknown.
+     */
+    public static void checkAlgorithm(int algorithm)
+    {
+        switch (algorithm)
+        {
+            case IProjection.MAXIMUM_INTENSITY:
+            case IProjection.MEAN_INTENSITY:
+            case IProjection.SUM_INTENSITY:
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown algorithm: " + algorithm);
+        }
+    }
+
+    /**
+     * Returns the minimum of the pixel data projected so far.
+     * @return See above.
+     */
+    public double getMinimum()
+    {
+        return minimum;
+    }
+
+    /**
+     * Returns the maximum of the pixel data projected so far.
+     * @return See above.
+     */
+    public double getMaximum()
+    {
+        return maximum;
+    }
+
+    /**
+     * Projects a band of rows of a stack.
+     * @param source The pixel buffer to read the optical sections from.
+     * @param c The channel of the stack.
+     * @param t The timepoint of the stack.
+     * @param y The first row of the band.
+     * @param height The number of rows of the band.
+     * @param to The whole projected plane. Only the rows of the band are
+     * written.
+     * @throws IOException If a section cannot be read.
+     */
+    public void project(PixelBuffer source, int c, int t, int y, int height,
+                        PixelData to)
+        throws IOException
+    {
+        int sizeX = source.getSizeX();
+        int size = sizeX * height;
+        if (accumulators.length < size)
+        {
+            accumulators = new double[size];
+        }
+        double[] acc = accumulators;
+        Arrays.fill(acc, 0, size, 0);
+
+        boolean max = algorithm == IProjection.MAXIMUM_INTENSITY;
+        int count = 0;
+        // The maximum intensity projection has always included the end
+        // section where the mean and sum ones have not.
+        for (int z = start; max? z <= end : z < end; z += stepping)
+        {
+            PixelData tile = source.getTile(z, c, t, 0, y, sizeX, height);
+            accumulate(tile, acc, size, max);
+            count++;
+        }
+
+        if (max)
+        {
+            store(acc, size, to, y * sizeX, Double.NaN, 1);
+        }
+        else
+        {
+            double divisor =
+                algorithm == IProjection.MEAN_INTENSITY? count : 1;
+            store(acc, size, to, y * sizeX, to.getMaximum(), divisor);
+        }
+    }
+
+    /**
+     * Adds a tile to the accumulators or keeps the maximum of both.
+     * @param tile The tile to accumulate.
+     * @param acc The accumulators.
+     * @param size The number of pixels of the tile.
+     * @param max Whether to keep the maximum rather than the sum.
+     */
+    private static void accumulate(PixelData tile, double[] acc, int size,
+                                   boolean max)
+    {
+        ByteBuffer data = tile.getData();
+        boolean signed = tile.isSigned();
+        double v;
+        switch (tile.javaType())
+        {
+            case PixelData.BYTE:
+                for (int i = 0; i < size; i++)
+                {
+                    v = signed? data.get(i) : data.get(i) & 0xFF;
+                    if (max) { if (v > acc[i]) acc[i] = v; } else acc[i] += v;
+                }
+                break;
+            case PixelData.SHORT:
+                for (int i = 0; i < size; i++)
+                {
+                    v = signed? data.getShort(i * 2)
+                              : data.getShort(i * 2) & 0xFFFF;
+                    if (max) { if (v > acc[i]) acc[i] = v; } else acc[i] += v;
+                }
+                break;
+            case PixelData.INT:
+                for (int i = 0; i < size; i++)
+                {
+                    v = signed? data.getInt(i * 4)
+                              : data.getInt(i * 4) & 0xFFFFFFFFL;
+                    if (max) { if (v > acc[i]) acc[i] = v; } else acc[i] += v;
+                }
+                break;
+            case PixelData.FLOAT:
+                for (int i = 0; i < size; i++)
+                {
+                    v = data.getFloat(i * 4);
+                    if (max) { if (v > acc[i]) acc[i] = v; } else acc[i] += v;
+                }
+                break;
+            case PixelData.DOUBLE:
+                for (int i = 0; i < size; i++)
+                {
+                    v = data.getDouble(i * 8);
+                    if (max) { if (v > acc[i]) acc[i] = v; } else acc[i] += v;
+                }
+                break;
+            default:
+                for (int i = 0; i < size; i++)
+                {
+                    v = tile.getPixelValue(i);
+                    if (max) { if (v > acc[i]) acc[i] = v; } else acc[i] += v;
+                }
+        }
+    }
+
+    /**
+     * Writes the accumulators to the projected plane, updating the minimum
+     * and maximum.
+     * @param acc The accumulators.
+     * @param size The number of pixels of the band.
+     * @param to The projected plane.
+     * @param offset The offset of the band in the plane, in pixels.
+     * @param ceiling The value to clamp the projected values to or
+     * {@link Double#NaN} not to clamp them.
+     * @param divisor The value to divide the accumulators by.
+     */
+    private void store(double[] acc, int size, PixelData to, int offset,
+                       double ceiling, double divisor)
+    {
+        ByteBuffer data = to.getData();
+        int type = to.javaType();
+        double min = minimum;
+        double max = maximum;
+        double v;
+        for (int i = 0; i < size; i++)
+        {
+            v = acc[i];
+            if (divisor != 1)
+            {
+                v = v / divisor;
+            }
+            if (v > ceiling)
+            {
+                v = ceiling;
+            }
+            int index = offset + i;
+            switch (type)
+            {
+                case PixelData.BYTE:
+                    data.put(index, (byte) v);
+                    break;
+                case PixelData.SHORT:
+                    data.putShort(index * 2, (short) v);
+                    break;
+                case PixelData.INT:
+                    data.putInt(index * 4, (int) v);
+                    break;
+                case PixelData.FLOAT:
+                    data.putFloat(index * 4, (float) v);
+                    break;
+                case PixelData.DOUBLE:
+                    data.putDouble(index * 8, v);
+                    break;
+                default:
+                    to.setPixelValue(index, v);
+            }
+            min = v < min? v : min;
+            max = v > max? v : max;
+        }
+        minimum = min;
+        maximum = max;
+    }
+}
@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,8 +42,9 @@ import ome.model.acquisition.LightSettings;
 import ome.model.acquisition.LightSource;
 import ome.model.acquisition.Microscope;
 import ome.model.acquisition.Objective;
-import ome.model.acquisition.ObjectiveSettings;
 import ome.model.acquisition.TransmittanceRange;
+import ome.model.meta.EventLog;
+import ome.services.messages.EventLogsCommittedMessage;
 import ome.services.sharing.data.ShareData;
 import ome.services.sharing.data.ShareItem;
 import ome.system.OmeroContext;
@@ -54,7 +56,10 @@ import org.hibernate.Session;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * 
@@ -64,7 +69,14 @@ import org.springframework.dao.EmptyResultDataAccessException;
  * @see IShare
  */
 public class BlobShareStore extends ShareStore implements
-        ApplicationContextAware {
+        ApplicationContextAware,
+        ApplicationListener<EventLogsCommittedMessage> {
+
+    /**
+     * Maximum number of {@link ShareIndex} instances kept in
+     * {@link #indexes}. The least recently used one is dropped beyond it.
+     */
+    public static final int MAX_INDEXES = 1000;
 
     /**
      * Used <em>indirectly</em> to obtain sessions for querying and updating the
@@ -75,6 +87,24 @@ public class BlobShareStore extends ShareStore implements
 
     protected OmeroContext ctx;
 
+    /**
+     * Parsed {@link ShareData} by share id for
+     * {@link #doContains(long, Class, long)}, which is called for every object
+     * loaded within a share. Entries are removed by {@link #doSet}, replaced
+     * once the images of the share are modified and bounded to
+     * {@link #MAX_INDEXES} in access order. Guarded by itself.
+     */
+    protected final Map<Long, ShareIndex> indexes =
+        new LinkedHashMap<Long, ShareIndex>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<Long, ShareIndex> eldest) {
+            return size() > MAX_INDEXES;
+        }
+    };
+
     /**
      * Because there is a cyclical dependency SF->ACLVoter->BlobStore->SF we
      * have to lazy-load the session factory via the context.
@@ -129,6 +159,62 @@ public class BlobShareStore extends ShareStore implements
         share.setVersion((int) newOptLock);
         session.merge(share);
         synchronizeMembers(session, data);
+        invalidate(data.id);
+    }
+
+    /**
+     * Drops the cached {@link ShareIndex} of a share, both now and, if a
+     * transaction is active, once it completes, so that an index rebuilt
+     * from the old data by a concurrent transaction does not survive the
+     * commit.
+     */
+    protected void invalidate(final long id) {
+        removeIndex(id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            removeIndex(id);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Replaces the cached {@link ShareIndex} instances whose Pixels and
+     * Instrument lookups may be outdated by the committed logs. A modified
+     * Image only affects the shares containing it, while the image of a
+     * modified Pixels is unknown so all shares are affected. The replacement
+     * keeps the parsed share and loads the lookups again on first use.
+     */
+    public void onApplicationEvent(EventLogsCommittedMessage message) {
+        Set<Long> modifiedImages = new HashSet<Long>();
+        boolean modifiedPixels = false;
+        for (EventLog el : message) {
+            String type = el.getEntityType();
+            if (Image.class.getName().equals(type)) {
+                modifiedImages.add(el.getEntityId());
+            } else if (Pixels.class.getName().equals(type)) {
+                modifiedPixels = true;
+            }
+        }
+        if (!modifiedPixels && modifiedImages.isEmpty()) {
+            return;
+        }
+        synchronized (indexes) {
+            for (Map.Entry<Long, ShareIndex> entry : indexes.entrySet()) {
+                ShareIndex index = entry.getValue();
+                boolean modified = modifiedPixels;
+                for (Iterator<Long> it = modifiedImages.iterator(); !modified
+                        && it.hasNext();) {
+                    modified = index.containsImage(it.next());
+                }
+                if (modified) {
+                    entry.setValue(new ShareIndex(index));
+                }
+            }
+        }
     }
 
     @Override
@@ -183,72 +269,15 @@ public class BlobShareStore extends ShareStore implements
         }
     }
 
-    boolean imagesContainsPixels(Session s, List<Long> images, Pixels pix, Map<Long, Long> cache) {
-        Long pixID = pix.getId();
-        return imagesContainsPixels(s, images, pixID, cache);
-    }
-
-    boolean imagesContainsPixels(Session s, List<Long> images, long pixID, Map<Long, Long> cache) {
-        Long imgID;
-        if (cache.containsKey(pixID)) {
-            imgID = cache.get(pixID);
-        } else {
-            imgID = (Long) s.createQuery(
-                "select image.id from Pixels where id = ?")
-                .setParameter(0, pixID).uniqueResult();
-            cache.put(pixID, imgID);
-        }
-        return images.contains(imgID);
-    }
-    
-    boolean imagesContainsInstrument(Session s, List<Long> images, Instrument instr, Map<Long, Long> cache) {
-        Long instrID = instr.getId();
-        return imagesContainsInstrument(s, images, instrID, cache);
-    }
-    
-    boolean imagesContainsInstrument(Session s, List<Long> images, long instrID, Map<Long, Long> cache) {
-        Long imgID;
-        if (cache.containsKey(instrID)) {
-            imgID = cache.get(instrID);
-        } else {
-            imgID = (Long) s.createQuery(
-                "select id from Image where instrument.id = ?")
-                .setParameter(0, instrID).uniqueResult();
-            cache.put(instrID, imgID);
-        }
-        return images.contains(imgID);
-    }
-
-    boolean imagesContainsObjectiveSettings(Session s, List<Long> images, ObjectiveSettings os, Map<Long, Long> cache) {
-        Long osID = os.getId();
-        return imagesContainsObjectiveSettings(s, images, osID, cache);
-    }
-    
-    boolean imagesContainsObjectiveSettings(Session s, List<Long> images, long osID, Map<Long, Long> cache) {
-        Long imgID;
-        if (cache.containsKey(osID)) {
-            imgID = cache.get(osID);
-        } else {
-            imgID = (Long) s.createQuery(
-                "select id from Image where objectivesettings.id = ?")
-                .setParameter(0, osID).uniqueResult();
-            cache.put(osID, imgID);
-        }
-        return images.contains(imgID);
-    }
-    
     @Override
     public <T extends IObject> boolean doContains(long sessionId, Class<T> kls,
             long objId) {
 
-        ShareData data = get(sessionId);
-        if (data == null) {
+        ShareIndex index = index(sessionId);
+        if (index == null) {
             return false;
-        } else {
-            List<Long> ids = data.objectMap.get(kls.getName());
-            if (ids != null && ids.contains(objId)) {
-                return true;
-            }
+        } else if (index.contains(kls.getName(), objId)) {
+            return true;
         }
 
         // ticket:2249 - Implementing logic similar to the query
@@ -270,36 +299,34 @@ public class BlobShareStore extends ShareStore implements
             + "left outer join fetch r.quantization "
         */
 
-        List<Long> images = data.objectMap.get(Image.class.getName());
-        Map<Long, Long> pixToImageCache = new HashMap<Long, Long>();
         Session s = session();
         if (Pixels.class.isAssignableFrom(kls)) {
-            return imagesContainsPixels(s, images, objId, pixToImageCache);
+            return index.containsPixels(s, objId);
         } else if (RenderingDef.class.isAssignableFrom(kls)) {
             RenderingDef obj = (RenderingDef) s.get(RenderingDef.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(), pixToImageCache);
+            return containsPixels(s, index, obj.getPixels());
         } else if (ChannelBinding.class.isAssignableFrom(kls)) {
             ChannelBinding obj = (ChannelBinding) s.get(ChannelBinding.class, objId);
-            return imagesContainsPixels(s, images, obj.getRenderingDef().getPixels(), pixToImageCache);
+            return containsPixels(s, index, obj.getRenderingDef().getPixels());
         } else if (Thumbnail.class.isAssignableFrom(kls)) {
             Thumbnail obj = (Thumbnail) s.get(Thumbnail.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(), pixToImageCache);
+            return containsPixels(s, index, obj.getPixels());
         } else if (Channel.class.isAssignableFrom(kls)) {
             Channel obj = (Channel) s.get(Channel.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(), pixToImageCache);
+            return containsPixels(s, index, obj.getPixels());
         } else if (LogicalChannel.class.isAssignableFrom(kls)) {
             LogicalChannel obj = (LogicalChannel) s.get(LogicalChannel.class,
                     objId);
             Iterator<Channel> it = obj.iterateChannels();
             while (it.hasNext()) {
                 Channel ch = it.next();
-                if (images.contains(ch.getPixels().getImage().getId())) {
+                if (index.containsImage(ch.getPixels().getImage().getId())) {
                     return true;
                 }
             }
         } else if (PlaneInfo.class.isAssignableFrom(kls)) {
             PlaneInfo obj = (PlaneInfo) s.get(PlaneInfo.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(), pixToImageCache);
+            return containsPixels(s, index, obj.getPixels());
         } else if (StatsInfo.class.isAssignableFrom(kls)
                 || QuantumDef.class.isAssignableFrom(kls) 
                 || LightPath.class.isAssignableFrom(kls) 
@@ -309,45 +336,48 @@ public class BlobShareStore extends ShareStore implements
             // user load them if they really want to.
             return true;
         }
-        
-        Map<Long, Long> obToImageCache = new HashMap<Long, Long>();
+
         if (Objective.class.isAssignableFrom(kls)) {
-        	Objective obj = (Objective) s.get(Objective.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            Objective obj = (Objective) s.get(Objective.class, objId);
+            return containsInstrument(s, index, obj.getInstrument());
         } else if (Detector.class.isAssignableFrom(kls)) {
-        	Detector obj = (Detector) s.get(Detector.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            Detector obj = (Detector) s.get(Detector.class, objId);
+            return containsInstrument(s, index, obj.getInstrument());
         } else if (Dichroic.class.isAssignableFrom(kls)) {
-        	Dichroic obj = (Dichroic) s.get(Dichroic.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            Dichroic obj = (Dichroic) s.get(Dichroic.class, objId);
+            return containsInstrument(s, index, obj.getInstrument());
         } else if (FilterSet.class.isAssignableFrom(kls)) {
-        	FilterSet obj = (FilterSet) s.get(FilterSet.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            FilterSet obj = (FilterSet) s.get(FilterSet.class, objId);
+            return containsInstrument(s, index, obj.getInstrument());
         } else if (Filter.class.isAssignableFrom(kls)) {
-        	Filter obj = (Filter) s.get(Filter.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            Filter obj = (Filter) s.get(Filter.class, objId);
+            return containsInstrument(s, index, obj.getInstrument());
         } else if (LightSource.class.isAssignableFrom(kls)) {
-        	LightSource obj = (LightSource) s.get(LightSource.class, objId);
-        	return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            LightSource obj = (LightSource) s.get(LightSource.class, objId);
+            return containsInstrument(s, index, obj.getInstrument());
         } else if (Laser.class.isAssignableFrom(kls)) {
-        	Laser obj = (Laser) s.get(Laser.class, objId);
-        	return imagesContainsInstrument(s, images, obj.getInstrument(), obToImageCache);
+            Laser obj = (Laser) s.get(Laser.class, objId);
+            return containsInstrument(s, index, obj.getInstrument());
         } else if (LightSettings.class.isAssignableFrom(kls)) {
-        	LightSettings obj = (LightSettings) s.get(LightSettings.class, objId);
-        	return imagesContainsInstrument(s, images, obj.getLightSource().getInstrument(), 
-        			obToImageCache);
+            LightSettings obj = (LightSettings) s.get(LightSettings.class,
+                    objId);
+            return containsInstrument(s, index, obj.getLightSource()
+                    .getInstrument());
         } else if (DetectorSettings.class.isAssignableFrom(kls)) {
-        	DetectorSettings obj = (DetectorSettings) s.get(DetectorSettings.class, objId);
-        	return imagesContainsInstrument(s, images, obj.getDetector().getInstrument(), 
-        			obToImageCache);
+            DetectorSettings obj = (DetectorSettings) s.get(
+                    DetectorSettings.class, objId);
+            return containsInstrument(s, index, obj.getDetector()
+                    .getInstrument());
         }
-        
+
         return false;
     }
 
     @Override
     public void doClose() {
-        // no-op
+        synchronized (indexes) {
+            indexes.clear();
+        }
     }
 
     @Override
@@ -361,6 +391,42 @@ public class BlobShareStore extends ShareStore implements
     // Helpers
     // =========================================================================
 
+    /**
+     * Returns the cached {@link ShareIndex} for the share, parsing the share
+     * on first use, or null if the share does not exist.
+     */
+    private ShareIndex index(long id) {
+        synchronized (indexes) {
+            ShareIndex index = indexes.get(id);
+            if (index == null) {
+                // Read under the lock so that an index evicted meanwhile by
+                // a commit cannot be replaced by one parsed from stale data.
+                ShareData data = get(id);
+                if (data == null) {
+                    return null;
+                }
+                index = new ShareIndex(data);
+                indexes.put(id, index);
+            }
+            return index;
+        }
+    }
+
+    private void removeIndex(long id) {
+        synchronized (indexes) {
+            indexes.remove(id);
+        }
+    }
+
+    private boolean containsPixels(Session s, ShareIndex index, Pixels pix) {
+        return pix != null && index.containsPixels(s, pix.getId());
+    }
+
+    private boolean containsInstrument(Session s, ShareIndex index,
+            Instrument instr) {
+        return instr != null && index.containsInstrument(s, instr.getId());
+    }
+
     /**
      * Returns a list of data from all shares.
      * 
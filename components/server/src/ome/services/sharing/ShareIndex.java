@@ -0,0 +1,150 @@
+/*
+ * ome.services.sharing.ShareIndex
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.sharing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ome.model.core.Image;
+import ome.services.sharing.data.ShareData;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+/**
+ * Parsed, hashed view of the objects of a {@link ShareData} used by
+ * {@link BlobShareStore#doContains(long, Class, long)} so that membership
+ * checks neither deserialize the share nor scan its id lists. The ids of the
+ * Pixels and Instruments which belong to the images of the share are loaded
+ * with one query per kind on first use and kept until the image graph
+ * changes, see {@link #ShareIndex(ShareIndex)}.
+ *
+ * @since OMERO-Beta4.3
+ * @see BlobShareStore
+ */
+public class ShareIndex {
+
+    /**
+     * Maximum number of ids passed to a single "in (:ids)" clause.
+     */
+    static final int BATCH_SIZE = 1000;
+
+    private final long optlock;
+
+    private final Map<String, Set<Long>> objects;
+
+    private final Set<Long> images;
+
+    private volatile Set<Long> pixels;
+
+    private volatile Set<Long> instruments;
+
+    public ShareIndex(ShareData data) {
+        this.optlock = data.optlock;
+        Map<String, Set<Long>> map = new HashMap<String, Set<Long>>();
+        if (data.objectMap != null) {
+            for (Map.Entry<String, List<Long>> entry : data.objectMap
+                    .entrySet()) {
+                if (entry.getValue() != null) {
+                    map.put(entry.getKey(),
+                            new HashSet<Long>(entry.getValue()));
+                }
+            }
+        }
+        this.objects = map;
+        Set<Long> imgs = map.get(Image.class.getName());
+        this.images = imgs == null ? Collections.<Long> emptySet() : imgs;
+    }
+
+    /**
+     * Creates an index for the same {@link ShareData} which shares the parsed
+     * objects of the given index but loads the Pixels and Instrument lookups
+     * again on first use. Used once the images of the share may have been
+     * modified.
+     */
+    public ShareIndex(ShareIndex index) {
+        this.optlock = index.optlock;
+        this.objects = index.objects;
+        this.images = index.images;
+    }
+
+    /**
+     * Version of the {@link ShareData} this index was created from.
+     */
+    public long getOptLock() {
+        return optlock;
+    }
+
+    /**
+     * Returns true if the object was explicitly added to the share.
+     */
+    public boolean contains(String type, long id) {
+        Set<Long> ids = objects.get(type);
+        return ids != null && ids.contains(id);
+    }
+
+    public boolean containsImage(Long id) {
+        return id != null && images.contains(id);
+    }
+
+    public boolean containsPixels(Session s, long id) {
+        Set<Long> ids = pixels;
+        if (ids == null) {
+            ids = load(s, "select p.id from Pixels p "
+                    + "where p.image.id in (:ids)");
+            pixels = ids;
+        }
+        return ids.contains(id);
+    }
+
+    public boolean containsInstrument(Session s, long id) {
+        Set<Long> ids = instruments;
+        if (ids == null) {
+            ids = load(s, "select i.instrument.id from Image i "
+                    + "where i.id in (:ids) and i.instrument is not null");
+            instruments = ids;
+        }
+        return ids.contains(id);
+    }
+
+    /**
+     * Runs the given query for all images of the share, {@link #BATCH_SIZE}
+     * ids at a time. Concurrent callers may both run the query, which is
+     * harmless since the result is the same.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Long> load(Session s, String hql) {
+        Set<Long> rv = new HashSet<Long>();
+        List<Long> batch = new ArrayList<Long>(Math.min(BATCH_SIZE,
+                images.size()));
+        for (Long id : images) {
+            batch.add(id);
+            if (batch.size() == BATCH_SIZE) {
+                rv.addAll(query(s, hql, batch));
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0) {
+            rv.addAll(query(s, hql, batch));
+        }
+        return rv;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> query(Session s, String hql, List<Long> ids) {
+        Query q = s.createQuery(hql);
+        q.setParameterList("ids", ids);
+        return q.list();
+    }
+
+}
@@ -8,14 +8,23 @@ package ome.tools.hibernate;
 
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import ome.util.SqlAction;
 import ome.util.TableIdGenerator;
 
 import org.aopalliance.intercept.MethodInterceptor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.aopalliance.intercept.MethodInvocation;
 import org.hibernate.Session;
 import org.hibernate.id.IdentifierGenerator;
@@ -33,6 +42,8 @@ import org.springframework.orm.hibernate3.SessionFactoryUtils;
  */
 public class SessionFactory implements MethodInterceptor {
 
+    private final static Log log = LogFactory.getLog(SessionFactory.class);
+
     private final static Set<String> FORBIDDEN = Collections.unmodifiableSet(
         new HashSet<String>(
             Arrays.asList(
@@ -57,18 +68,62 @@ public class SessionFactory implements MethodInterceptor {
 
     private final org.hibernate.SessionFactory factory;
 
+    private final List<TableIdGenerator> generators = new ArrayList<TableIdGenerator>();
+
     public SessionFactory(org.hibernate.SessionFactory factory, SqlAction isolatedSqlAction) {
+        this(factory, isolatedSqlAction, 0, null, false);
+    }
+
+    /**
+     * Configures the {@link TableIdGenerator} of each mapped class.
+     *
+     * @param idBlockSize
+     *            number of ids fetched by each generator at once. A value
+     *            less than 1 keeps the increment size of the mappings.
+     * @param idBlockSizes
+     *            comma-separated list of "sequence=size" pairs, e.g.
+     *            "seq_image=500,seq_pixels=500", which override idBlockSize
+     *            for single sequences. May be null or empty.
+     * @param idPrefetch
+     *            whether the next block of ids should be loaded in the
+     *            background before the current one is used up.
+     */
+    public SessionFactory(org.hibernate.SessionFactory factory,
+            SqlAction isolatedSqlAction, int idBlockSize, String idBlockSizes,
+            boolean idPrefetch) {
         this.factory = factory;
+        final Map<String, Integer> sizes = parseBlockSizes(idBlockSizes);
+        final ExecutorService prefetcher = idPrefetch ? Executors
+                .newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "TableIdGenerator-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }) : null;
         for (Object k : this.factory.getAllClassMetadata().keySet()) {
             IdentifierGenerator ig =
                 ((SessionFactoryImpl) factory).getIdentifierGenerator((String)k);
             if (ig instanceof TableIdGenerator) {
-                ((TableIdGenerator) ig).setSqlAction(isolatedSqlAction);
+                TableIdGenerator tig = (TableIdGenerator) ig;
+                tig.setSqlAction(isolatedSqlAction);
+                Integer size = sizes.get(tig.getSegmentValue());
+                tig.setBlockSize(size != null ? size : idBlockSize);
+                tig.setPrefetcher(prefetcher);
+                generators.add(tig);
             }
         }
 
     }
 
+    /**
+     * Returns the id generators configured by this instance, e.g. to read
+     * their statistics.
+     */
+    public List<TableIdGenerator> getTableIdGenerators() {
+        return Collections.unmodifiableList(generators);
+    }
+
     /**
      * Returns a session active for the current thread. The returned
      * instance will be wrapped with AOP to prevent certain usage.
@@ -103,4 +158,25 @@ public class SessionFactory implements MethodInterceptor {
 
     }
 
+    private static Map<String, Integer> parseBlockSizes(String spec) {
+        Map<String, Integer> sizes = new HashMap<String, Integer>();
+        if (spec == null) {
+            return sizes;
+        }
+        for (String pair : spec.split(",")) {
+            pair = pair.trim();
+            if (pair.length() == 0) {
+                continue;
+            }
+            int idx = pair.indexOf('=');
+            try {
+                sizes.put(pair.substring(0, idx).trim(), Integer
+                        .valueOf(pair.substring(idx + 1).trim()));
+            } catch (RuntimeException e) {
+                log.warn("Ignoring id block size: " + pair);
+            }
+        }
+        return sizes;
+    }
+
 }
@@ -37,4 +37,22 @@ public class RawFileStoreTest extends AbstractManagedContextTest {
         assertFalse(file.getSize().equals(-1L)); // The should be updated
         assertFalse(file.getSha1().equals("")); // These should be updated
     }
+
+    @Test
+    public void testReadMany() {
+        OriginalFile file = new OriginalFile();
+        file.setName("name");
+        file.setPath("/tmp/path");
+        file.setSha1("");
+        file.setSize(-1L);
+        file.setMimetype("application/octet-stream");
+        file = iUpdate.saveAndReturnObject(file);
+        RawFileStore rfs = factory.createRawFileStore();
+        rfs.setFileId(file.getId());
+        rfs.write(new byte[]{0,1,2,3,4,5}, 0, 6);
+        byte[] rv = rfs.readMany(new long[]{4, 0, 5}, new int[]{2, 1, 3});
+        assertEquals(6, rv.length);
+        assertTrue(java.util.Arrays.equals(new byte[]{4,5,0,5,0,0}, rv));
+        rfs.close();
+    }
 }
@@ -5,15 +5,28 @@
 package ome.server.itests.scalability;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import ome.formats.OMEROMetadataStore;
 import ome.model.IObject;
+import ome.model.core.Pixels;
+import ome.model.core.PlaneInfo;
+import ome.model.screen.Plate;
+import ome.model.screen.Well;
+import ome.model.screen.WellSample;
 import ome.parameters.Parameters;
 import ome.server.itests.AbstractManagedContextTest;
+import ome.services.util.Executor;
+import ome.system.ServiceFactory;
 import ome.testing.ObjectFactory;
 
+import org.hibernate.Session;
 import org.perf4j.StopWatch;
 import org.perf4j.commonslog.CommonsLogStopWatch;
+import org.springframework.transaction.annotation.Transactional;
 import org.testng.annotations.Test;
 
 @Test(groups = { "integration" })
@@ -46,4 +59,118 @@ public class ImportMetadataTest extends AbstractManagedContextTest {
         sw.stop();
     }
 
+    // 1536-well plate, one image per well with 2 channels and 10 timepoints
+
+    static final int ROWS = 32, COLUMNS = 48, CHANNELS = 2, TIMEPOINTS = 10;
+
+    /**
+     * Populates the store the way the importer does with a plate holding
+     * one image per well.
+     */
+    void populatePlate(OMEROMetadataStore store) {
+        Map<String, Integer> indexes;
+        Map<String, String[]> references = new HashMap<String, String[]>();
+        int wells = ROWS * COLUMNS;
+        for (int i = 0; i < wells; i++) {
+            Pixels p = ObjectFactory.createPixelGraphWithChannels(null,
+                    CHANNELS);
+            p.setSizeT(TIMEPOINTS);
+            for (int t = 1; t < TIMEPOINTS; t++) {
+                for (int c = 0; c < CHANNELS; c++) {
+                    PlaneInfo pi = new PlaneInfo();
+                    pi.setTheC(c);
+                    pi.setTheZ(0);
+                    pi.setTheT(t);
+                    pi.setDeltaT(new Double(t));
+                    p.addPlaneInfo(pi);
+                }
+            }
+            indexes = new LinkedHashMap<String, Integer>();
+            indexes.put("imageIndex", i);
+            store.updateObject("Image:" + i, p.getImage(), indexes);
+        }
+        Plate plate = new Plate();
+        plate.setName("1536 wells");
+        indexes = new LinkedHashMap<String, Integer>();
+        indexes.put("plateIndex", 0);
+        store.updateObject("Plate:0", plate, indexes);
+        for (int i = 0; i < wells; i++) {
+            Well well = new Well();
+            well.setRow(i / COLUMNS);
+            well.setColumn(i % COLUMNS);
+            indexes = new LinkedHashMap<String, Integer>();
+            indexes.put("plateIndex", 0);
+            indexes.put("wellIndex", i);
+            store.updateObject("Well:0:" + i, well, indexes);
+            indexes = new LinkedHashMap<String, Integer>(indexes);
+            indexes.put("wellSampleIndex", 0);
+            String lsid = "WellSample:0:" + i + ":0";
+            store.updateObject(lsid, new WellSample(), indexes);
+            references.put(lsid, new String[] { "Image:" + i });
+        }
+        store.updateReferences(references);
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Pixels> savePlate(final int batchSize, String tag) {
+        StopWatch sw = new CommonsLogStopWatch(tag);
+        List<Pixels> pixels = (List<Pixels>) executor.execute(loginAop.p,
+                new Executor.SimpleWork(this, "savePlate") {
+                    @Transactional(readOnly = false)
+                    public Object doWork(Session session, ServiceFactory sf) {
+                        try {
+                            OMEROMetadataStore store = new OMEROMetadataStore(
+                                    sf, applicationContext, getSqlAction(),
+                                    batchSize);
+                            store.createRoot();
+                            populatePlate(store);
+                            return store.saveToDB();
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+        sw.stop();
+        assertEquals(ROWS * COLUMNS, pixels.size());
+        return pixels;
+    }
+
+    /**
+     * Checks that the plane infos of the last Pixels set were saved with
+     * its details and an event log.
+     */
+    void assertPlaneInfos(List<Pixels> pixels) {
+        Pixels last = iQuery.get(Pixels.class, pixels.get(pixels.size() - 1)
+                .getId());
+        List<PlaneInfo> planeInfos = iQuery.findAllByQuery(
+                "select pi from PlaneInfo pi where pi.pixels.id = :id",
+                new Parameters().addId(last.getId()));
+        assertEquals(CHANNELS * TIMEPOINTS, planeInfos.size());
+        for (PlaneInfo pi : planeInfos) {
+            assertEquals(last.getDetails().getPermissions(), pi.getDetails()
+                    .getPermissions());
+            assertEquals(last.getDetails().getOwner().getId(), pi
+                    .getDetails().getOwner().getId());
+            assertEquals(last.getDetails().getGroup().getId(), pi
+                    .getDetails().getGroup().getId());
+            assertEquals(last.getDetails().getCreationEvent().getId(), pi
+                    .getDetails().getCreationEvent().getId());
+            List<IObject> logs = iQuery.findAllByQuery(
+                    "select el from EventLog el where el.action = 'INSERT' "
+                            + "and el.entityType = :type "
+                            + "and el.entityId = :id",
+                    new Parameters().addString("type",
+                            PlaneInfo.class.getName()).addId(pi.getId()));
+            assertEquals(1, logs.size());
+        }
+    }
+
+    public void testSavePlateThroughHibernate() {
+        assertPlaneInfos(savePlate(0, "test.import.plate.hibernate"));
+    }
+
+    public void testSavePlateWithBulkInserts() {
+        assertPlaneInfos(savePlate(1000, "test.import.plate.bulk"));
+    }
+
 }
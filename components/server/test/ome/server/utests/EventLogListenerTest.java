@@ -0,0 +1,220 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ome.model.meta.EventLog;
+import ome.services.eventlogs.EventLogListener;
+import ome.services.eventlogs.EventLogLoader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the {@link EventLogListener} runs its consumer on startup, on
+ * each notification and as long as the batches of its loader are full.
+ *
+ * @since OMERO-Beta4.3
+ */
+@Test(groups = { "fulltext" })
+public class EventLogListenerTest extends TestCase {
+
+    Listener listener;
+
+    Loader loader;
+
+    Consumer consumer;
+
+    @BeforeMethod
+    public void setup() {
+        loader = new Loader();
+        consumer = new Consumer();
+        listener = new Listener(loader, consumer, 10L);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        listener.stop();
+    }
+
+    @Test
+    public void testLoaderIsFullWhenBatchEndsOnSize() {
+        loader.setBatchSize(2);
+        loader.add(3);
+        assertEquals(2, drain(loader));
+        assertTrue(loader.isFull());
+        assertEquals(1, drain(loader));
+        assertFalse(loader.isFull());
+    }
+
+    @Test
+    public void testCatchesUpOnStartup() throws Exception {
+        loader.setBatchSize(2);
+        loader.add(5);
+        listener.start();
+        consumer.await(3);
+        assertTrue(loader.logs.isEmpty());
+        assertEquals(1, listener.connections.size());
+    }
+
+    @Test
+    public void testRunsOnNotification() throws Exception {
+        listener.start();
+        consumer.await(1);
+        loader.add(1);
+        listener.commit(1);
+        consumer.await(2);
+        assertTrue(loader.logs.isEmpty());
+    }
+
+    @Test
+    public void testReconnectsAfterFailure() throws Exception {
+        listener.start();
+        consumer.await(1);
+        listener.fail();
+        consumer.await(2);
+        assertEquals(2, listener.connections.size());
+        assertTrue(listener.closed.contains(listener.connections.get(0)));
+    }
+
+    @Test
+    public void testDisabledWithoutInterval() throws Exception {
+        listener = new Listener(loader, consumer, 0L);
+        listener.start();
+        Thread.sleep(50L);
+        consumer.await(0);
+        assertTrue(listener.connections.isEmpty());
+    }
+
+    static int drain(EventLogLoader loader) {
+        int count = 0;
+        while (loader.hasNext()) {
+            loader.next();
+            count++;
+        }
+        return count;
+    }
+
+    static class Loader extends EventLogLoader {
+
+        final List<EventLog> logs = new LinkedList<EventLog>();
+
+        synchronized void add(int count) {
+            for (int i = 0; i < count; i++) {
+                logs.add(new EventLog((long) logs.size(), false));
+            }
+        }
+
+        @Override
+        protected synchronized EventLog query() {
+            return logs.isEmpty() ? null : logs.remove(0);
+        }
+
+        @Override
+        public long more() {
+            return 0;
+        }
+    }
+
+    class Consumer implements Runnable {
+
+        int runs = 0;
+
+        public void run() {
+            drain(loader);
+            synchronized (this) {
+                runs++;
+                notifyAll();
+            }
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000L;
+            while (runs < count && System.currentTimeMillis() < end) {
+                wait(100L);
+            }
+            assertEquals(count, runs);
+        }
+    }
+
+    /**
+     * Replaces the database connection by notifications and failures
+     * injected by the tests.
+     */
+    static class Listener extends EventLogListener {
+
+        final List<Connection> connections = new ArrayList<Connection>();
+
+        final List<Connection> closed = new ArrayList<Connection>();
+
+        private int notifications = 0;
+
+        private boolean failure = false;
+
+        Listener(EventLogLoader loader, Runnable consumer, long wait) {
+            super(null, consumer, loader, wait);
+        }
+
+        synchronized void commit(int count) {
+            notifications += count;
+        }
+
+        synchronized void fail() {
+            failure = true;
+        }
+
+        @Override
+        protected synchronized Connection connect() {
+            final Connection[] connection = new Connection[1];
+            connection[0] = (Connection) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class[] { Connection.class }, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method,
+                                Object[] args) {
+                            String name = method.getName();
+                            if (name.equals("close")) {
+                                synchronized (Listener.this) {
+                                    closed.add(connection[0]);
+                                }
+                            } else if (name.equals("equals")) {
+                                return proxy == args[0];
+                            } else if (name.equals("hashCode")) {
+                                return System.identityHashCode(proxy);
+                            }
+                            return null;
+                        }
+                    });
+            connections.add(connection[0]);
+            return connection[0];
+        }
+
+        @Override
+        protected synchronized boolean notified(Connection connection)
+                throws SQLException {
+            if (failure) {
+                failure = false;
+                throw new SQLException("connection lost");
+            }
+            if (notifications > 0) {
+                notifications--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
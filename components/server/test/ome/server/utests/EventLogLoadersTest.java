@@ -20,6 +20,8 @@ import ome.services.eventlogs.AllEventsLogLoader;
 import ome.services.eventlogs.EventBacklog;
 import ome.services.eventlogs.EventLogLoader;
 import ome.services.fulltext.FullTextIndexer;
+import ome.services.pixeldata.PersistentEventLogLoader;
+import ome.util.SqlAction;
 
 import org.jmock.Mock;
 import org.jmock.MockObjectTestCase;
@@ -172,6 +174,78 @@ public class EventLogLoadersTest extends MockObjectTestCase {
 
     }
 
+    @Test
+    public void testAdaptiveBatchSize() {
+        el = new EventLog(1L, false);
+        ell = new EventLogLoader() {
+            @Override
+            protected EventLog query() {
+                return el;
+            }
+
+            @Override
+            public long more() {
+                return 0;
+            }
+        };
+        ell.setBatchSize(2);
+        ell.setMaxBatchSize(8);
+
+        // Full batches grow up to the maximum
+        for (int expected : new int[] { 2, 4, 8, 8 }) {
+            int count = 0;
+            for (EventLog test : ell) {
+                count++;
+            }
+            assertEquals(expected, count);
+        }
+
+        // Running out halves the next batch
+        el = null;
+        assertFalse(ell.hasNext());
+        assertEquals(4, ell.getCurrentBatchSize());
+        assertFalse(ell.hasNext());
+        assertEquals(2, ell.getCurrentBatchSize());
+        assertFalse(ell.hasNext());
+        assertEquals(2, ell.getCurrentBatchSize());
+    }
+
+    @Test
+    public void testPixelDataLoaderReadsAhead() {
+        final long[] stored = new long[] { 5L };
+        PersistentEventLogLoader loader = new PersistentEventLogLoader(null) {
+            @Override
+            public long getCurrentId() {
+                return stored[0];
+            }
+
+            @Override
+            public void setCurrentId(long id) {
+                stored[0] = id;
+            }
+        };
+        Mock sql = mock(SqlAction.class);
+        loader.setSqlAction((SqlAction) sql.proxy());
+        loader.setQueryService(svc);
+        loader.setReadAhead(true);
+
+        List<long[]> data = new ArrayList<long[]>();
+        data.add(new long[] { 1L, 6L, 100L });
+        sql.expects(once()).method("nextPixelsDataLogForRepo").with(NULL,
+                eq(5L)).will(returnValue(data));
+        sql.expects(once()).method("nextPixelsDataLogForRepo").with(NULL,
+                eq(6L)).will(returnValue(new ArrayList<long[]>()));
+        el = new EventLog(6L, true);
+        q.expects(once()).method("get").will(returnValue(el));
+
+        assertTrue(loader.hasNext());
+        assertEquals(el, loader.next());
+        // The next read starts after the log read, the stored id is kept
+        assertFalse(loader.hasNext());
+        assertEquals(6L, loader.getReadId());
+        assertEquals(5L, stored[0]);
+    }
+
     @Test(groups = "ticket:1102")
     public void testBacklog() {
         el = null;
@@ -0,0 +1,292 @@
+/*
+ * ome.server.utests.FullTextIndexerBatchTest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import ome.io.nio.OriginalFilesService;
+import ome.model.IObject;
+import ome.model.core.Image;
+import ome.model.core.OriginalFile;
+import ome.model.meta.EventLog;
+import ome.services.fulltext.FileParser;
+import ome.services.fulltext.FullTextBridge;
+import ome.services.fulltext.FullTextIndexer;
+import ome.services.fulltext.SimpleLuceneOptions;
+import ome.util.BoundedExecutor;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the collapsing and loading of {@link EventLog} batches by the
+ * {@link FullTextIndexer} and the prefetching of file contents by the
+ * {@link FullTextBridge}.
+ *
+ * @since OMERO-Beta4.3
+ */
+@Test(groups = { "fulltext" })
+public class FullTextIndexerBatchTest extends TestCase {
+
+    File root;
+
+    BoundedExecutor executor;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        root = File.createTempFile("fulltext", "");
+        root.delete();
+        root.mkdirs();
+        executor = new BoundedExecutor("FullTextPrefetch", 3, 0, 4, false);
+    }
+
+    @AfterMethod
+    public void teardown() throws Exception {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(root);
+    }
+
+    /**
+     * Exposes {@link FullTextIndexer#collapse(Iterable)} and
+     * {@link FullTextIndexer#get(Session, Class, List)}.
+     */
+    static class Collapser extends FullTextIndexer {
+        Collapser() {
+            super(null);
+        }
+
+        public Map<String, EventLog> collapse(Iterable<EventLog> logs) {
+            return super.collapse(logs);
+        }
+
+        public List<IObject> load(Session session, Class type, List<Long> ids) {
+            return super.get(session, type, ids);
+        }
+    }
+
+    /**
+     * Returns a session whose queries return, twice, an {@link Image} for
+     * each bound id as the annotation fetch joins would. The bound id lists
+     * are added to the given list.
+     */
+    static Session session(final List<Collection<?>> queries) {
+        final ClassLoader cl = FullTextIndexerBatchTest.class.getClassLoader();
+        final Query query = (Query) Proxy.newProxyInstance(cl,
+                new Class[] { Query.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("setParameterList")) {
+                            queries.add((Collection<?>) args[1]);
+                        } else if (name.equals("list")) {
+                            List<IObject> rows = new ArrayList<IObject>();
+                            for (Object id : queries.get(queries.size() - 1)) {
+                                rows.add(new Image((Long) id, true));
+                                rows.add(new Image((Long) id, true));
+                            }
+                            return rows;
+                        }
+                        return null;
+                    }
+                });
+        return (Session) Proxy.newProxyInstance(cl,
+                new Class[] { Session.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        if (method.getName().equals("createQuery")) {
+                            return query;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /** Counts the files opened. */
+    static class CountingParser extends FileParser {
+        final AtomicInteger parsed = new AtomicInteger();
+
+        @Override
+        public Iterable<Reader> doParse(File file) throws Exception {
+            parsed.incrementAndGet();
+            return wrap(new FileReader(file));
+        }
+    }
+
+    EventLog log(String type, long id, String action) {
+        EventLog el = new EventLog();
+        el.setEntityType(type);
+        el.setEntityId(id);
+        el.setAction(action);
+        return el;
+    }
+
+    OriginalFile file(OriginalFilesService files, long id, String text)
+            throws Exception {
+        OriginalFile file = new OriginalFile(id, true);
+        file.setMimetype("text/plain");
+        file.setSize((long) text.length());
+        String path = files.getFilesPath(id);
+        new File(path).getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(path);
+        writer.write(text);
+        writer.close();
+        return file;
+    }
+
+    String contents(Document document) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (Object o : document.getFields()) {
+            Field f = (Field) o;
+            if (f.name().equals("file.contents")) {
+                Reader r = f.readerValue();
+                int c;
+                while ((c = r.read()) != -1) {
+                    sb.append((char) c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testCollapseKeepsLastAction() {
+        List<EventLog> logs = new ArrayList<EventLog>();
+        logs.add(log("ome.model.core.Image", 1L, "INSERT"));
+        logs.add(log("ome.model.core.Image", 2L, "INSERT"));
+        logs.add(log("ome.model.containers.Dataset", 1L, "INSERT"));
+        logs.add(log("ome.model.core.Image", 1L, "UPDATE"));
+        logs.add(log("ome.model.core.Image", 2L, "DELETE"));
+        logs.add(log("ome.model.Unknown", 3L, "INSERT"));
+        logs.add(null);
+
+        Map<String, EventLog> batch = new Collapser().collapse(logs);
+        assertEquals(3, batch.size());
+        List<EventLog> order = new ArrayList<EventLog>(batch.values());
+        assertEquals("ome.model.containers.Dataset", order.get(0)
+                .getEntityType());
+        assertEquals("UPDATE", order.get(1).getAction());
+        assertEquals(Long.valueOf(1L), order.get(1).getEntityId());
+        assertEquals("DELETE", order.get(2).getAction());
+    }
+
+    @Test
+    public void testEntitiesLoadedInChunks() {
+        List<Long> ids = new ArrayList<Long>();
+        for (long id = 1; id <= 250; id++) {
+            ids.add(id);
+        }
+        List<Collection<?>> queries = new ArrayList<Collection<?>>();
+        List<IObject> loaded = new Collapser().load(session(queries),
+                Image.class, ids);
+        assertEquals(3, queries.size());
+        assertEquals(FullTextIndexer.MAX_IDS_PER_QUERY, queries.get(0).size());
+        assertEquals(FullTextIndexer.MAX_IDS_PER_QUERY, queries.get(1).size());
+        assertEquals(50, queries.get(2).size());
+        assertEquals(250, loaded.size());
+        for (int i = 0; i < loaded.size(); i++) {
+            assertEquals(ids.get(i), loaded.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testPrefetchedContentsAreIndexed() throws Exception {
+        OriginalFilesService files = new OriginalFilesService(
+                root.getAbsolutePath());
+        CountingParser parser = new CountingParser();
+        Map<String, FileParser> parsers = new HashMap<String, FileParser>();
+        parsers.put("text/plain", parser);
+        FullTextBridge bridge = new FullTextBridge(files, parsers);
+        bridge.setPrefetchExecutor(executor);
+
+        List<IObject> objects = new ArrayList<IObject>();
+        for (long id = 1; id <= 5; id++) {
+            objects.add(file(files, id, "contents of " + id));
+        }
+        assertEquals(5, bridge.prefetch(objects));
+        assertEquals(5, parser.parsed.get());
+        // Already held
+        assertEquals(0, bridge.prefetch(objects));
+
+        SimpleLuceneOptions opts = new SimpleLuceneOptions(null, 1.0f,
+                Index.ANALYZED, Store.NO);
+        Document document = new Document();
+        bridge.set_file("file", objects.get(2), document, opts);
+        assertEquals("contents of 3", contents(document));
+        assertEquals(5, parser.parsed.get());
+
+        // Once cleared, files are parsed lazily again, once for the named
+        // field and once for the combined field.
+        bridge.clearPrefetched();
+        document = new Document();
+        bridge.set_file("file", objects.get(2), document, opts);
+        assertEquals("contents of 3", contents(document));
+        assertEquals(7, parser.parsed.get());
+    }
+
+    @Test
+    public void testLargeFilesAreNotPrefetched() throws Exception {
+        OriginalFilesService files = new OriginalFilesService(
+                root.getAbsolutePath());
+        CountingParser parser = new CountingParser();
+        Map<String, FileParser> parsers = new HashMap<String, FileParser>();
+        parsers.put("text/plain", parser);
+        FullTextBridge bridge = new FullTextBridge(files, parsers);
+
+        OriginalFile file = file(files, 1L, "large");
+        file.setSize(FullTextBridge.MAX_PREFETCH_FILE_SIZE + 1);
+        assertEquals(0, bridge.prefetch(
+                Collections.<IObject> singletonList(file)));
+        assertEquals(0, parser.parsed.get());
+    }
+
+    @Test
+    public void testPrefetchOnCallingThreadWhenPoolShutDown()
+            throws Exception {
+        OriginalFilesService files = new OriginalFilesService(
+                root.getAbsolutePath());
+        CountingParser parser = new CountingParser();
+        Map<String, FileParser> parsers = new HashMap<String, FileParser>();
+        parsers.put("text/plain", parser);
+        FullTextBridge bridge = new FullTextBridge(files, parsers);
+        executor.shutdown();
+        bridge.setPrefetchExecutor(executor);
+
+        List<IObject> objects = new ArrayList<IObject>();
+        for (long id = 1; id <= 3; id++) {
+            objects.add(file(files, id, "contents of " + id));
+        }
+        assertEquals(3, bridge.prefetch(objects));
+        SimpleLuceneOptions opts = new SimpleLuceneOptions(null, 1.0f,
+                Index.ANALYZED, Store.NO);
+        Document document = new Document();
+        bridge.set_file("file", objects.get(1), document, opts);
+        assertEquals("contents of 2", contents(document));
+        assertEquals(3, parser.parsed.get());
+    }
+}
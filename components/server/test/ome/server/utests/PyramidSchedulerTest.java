@@ -0,0 +1,196 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import ome.io.nio.PixelsService.PyramidProgress;
+import ome.services.pixeldata.PixelDataHandler;
+import ome.services.pixeldata.PyramidScheduler;
+import ome.services.pixeldata.PyramidScheduler.Job;
+import ome.services.pixeldata.PyramidScheduler.State;
+import ome.system.ServiceFactory;
+import ome.util.SqlAction;
+
+import org.hibernate.Session;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the order in which a {@link PyramidScheduler} processes its jobs.
+ *
+ * @since OMERO-Beta4.3
+ */
+@Test(groups = { "pixeldata" })
+public class PyramidSchedulerTest extends TestCase {
+
+    /** Records the processed ids and blocks on the first one. */
+    static class BlockingHandler extends PixelDataHandler {
+
+        final List<Long> processed = new ArrayList<Long>();
+
+        final Semaphore started = new Semaphore(0);
+
+        final Semaphore release = new Semaphore(0);
+
+        final Semaphore done = new Semaphore(0);
+
+        BlockingHandler() {
+            super(null, null);
+        }
+
+        @Override
+        public boolean process(Long id, ServiceFactory sf, Session s,
+                SqlAction sql, PyramidProgress progress) {
+            started.release();
+            try {
+                release.acquire();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            synchronized (processed) {
+                processed.add(id);
+            }
+            progress.written(4, 4);
+            done.release();
+            return true;
+        }
+    }
+
+    BlockingHandler handler;
+
+    PyramidScheduler scheduler;
+
+    @BeforeMethod
+    public void setup() {
+        handler = new BlockingHandler();
+        scheduler = new PyramidScheduler(new DummyExecutor(null, null), 1, 10);
+        scheduler.setHandler(handler);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        scheduler.stop();
+    }
+
+    void runAll(int jobs) throws Exception {
+        handler.release.release(jobs);
+        assertTrue(handler.done.tryAcquire(jobs, 500, TimeUnit.MILLISECONDS));
+    }
+
+    boolean completed(Job job) {
+        return job.getState() == State.FINISHED
+                || job.getState() == State.FAILED;
+    }
+
+    /**
+     * The handler returns before the job is marked as completed.
+     */
+    void awaitCompleted(Job job) throws Exception {
+        for (int i = 0; i < 50 && !completed(job); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(completed(job));
+    }
+
+    /**
+     * Occupies the single worker so that further jobs stay queued.
+     */
+    Job occupy() throws Exception {
+        Job job = scheduler.submit(1L, 10L, 1000L);
+        assertTrue(handler.started.tryAcquire(500, TimeUnit.MILLISECONDS));
+        return job;
+    }
+
+    @Test
+    public void testRequestedThenSmallestFirst() throws Exception {
+        occupy();
+        scheduler.submit(2L, 11L, 5000L);
+        Job small = scheduler.submit(3L, 12L, 100L);
+        Job requested = scheduler.submit(4L, 13L, 5000L);
+        // A second log for a queued pixels set is a user waiting for it
+        assertSame(requested, scheduler.submit(4L, 14L, 5000L));
+        // The same log read again is not
+        assertSame(small, scheduler.submit(3L, 12L, 100L));
+        assertTrue(requested.isRequested());
+        assertFalse(small.isRequested());
+
+        runAll(4);
+        assertEquals(Arrays.asList(1L, 4L, 3L, 2L), handler.processed);
+    }
+
+    @Test
+    public void testRequestByPixelsId() throws Exception {
+        occupy();
+        Job job = scheduler.submit(2L, 11L, 5000L);
+        scheduler.submit(3L, 12L, 100L);
+        assertTrue(scheduler.request(2L));
+        assertFalse(scheduler.request(2L));
+        assertFalse(scheduler.request(5L));
+
+        runAll(3);
+        assertEquals(Arrays.asList(1L, 2L, 3L), handler.processed);
+        awaitCompleted(job);
+        assertEquals(State.FINISHED, job.getState());
+    }
+
+    @Test
+    public void testStatus() throws Exception {
+        Job running = occupy();
+        Job queued = scheduler.submit(2L, 11L, 5000L);
+        assertEquals(State.RUNNING, running.getState());
+        assertEquals(State.QUEUED, queued.getState());
+        assertEquals(Arrays.asList(running, queued), scheduler.getJobs());
+
+        runAll(2);
+        awaitCompleted(running);
+        awaitCompleted(queued);
+        assertEquals(100, running.getProgress());
+        assertEquals(4, running.getTotalTiles());
+        // A completed log read again is not processed again
+        assertSame(running, scheduler.submit(1L, 10L, 1000L));
+        List<Job> jobs = scheduler.getJobs();
+        assertEquals(2, jobs.size());
+        assertEquals(State.FINISHED, jobs.get(0).getState());
+    }
+
+    @Test
+    public void testOldestPending() throws Exception {
+        assertEquals(Long.MAX_VALUE, scheduler.getOldestPending());
+        Job running = occupy();
+        Job queued = scheduler.submit(2L, 11L, 5000L);
+        assertEquals(10L, scheduler.getOldestPending());
+
+        runAll(1);
+        awaitCompleted(running);
+        assertEquals(11L, scheduler.getOldestPending());
+        runAll(1);
+        awaitCompleted(queued);
+        assertEquals(Long.MAX_VALUE, scheduler.getOldestPending());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        occupy();
+        for (long i = 2; i < 12; i++) {
+            scheduler.submit(i, 10 + i, 1000L);
+        }
+        assertFalse(scheduler.hasCapacity());
+        runAll(1);
+        // The worker has taken the next job
+        assertTrue(handler.started.tryAcquire(500, TimeUnit.MILLISECONDS));
+        assertTrue(scheduler.hasCapacity());
+        handler.release.release(10);
+    }
+
+}
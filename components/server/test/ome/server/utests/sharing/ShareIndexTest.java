@@ -0,0 +1,206 @@
+/*
+ *   $Id$
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests.sharing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ome.model.IObject;
+import ome.model.core.Image;
+import ome.model.core.Pixels;
+import ome.model.meta.EventLog;
+import ome.services.messages.EventLogsCommittedMessage;
+import ome.services.sharing.BlobShareStore;
+import ome.services.sharing.ShareIndex;
+import ome.services.sharing.data.ShareData;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the lookups of {@link ShareIndex} used by the ACL checks of shares
+ * and their caching by {@link BlobShareStore}.
+ *
+ * @since OMERO-Beta4.3
+ */
+@Test(groups = "sharing")
+public class ShareIndexTest extends MockObjectTestCase {
+
+    Mock mockSession, mockQuery;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        mockSession = mock(Session.class);
+        mockQuery = mock(Query.class);
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        super.verify();
+        super.tearDown();
+    }
+
+    ShareData data(List<Long> images, List<Long> pixels) {
+        Map<String, List<Long>> map = new HashMap<String, List<Long>>();
+        map.put(Image.class.getName(), images);
+        map.put(Pixels.class.getName(), pixels);
+        ShareData data = new ShareData();
+        data.objectMap = map;
+        data.optlock = 3L;
+        return data;
+    }
+
+    @Test
+    public void testContainsExplicitObjects() {
+        ShareIndex index = new ShareIndex(data(Arrays.asList(1L, 2L),
+                Arrays.asList(7L)));
+        assertEquals(3L, index.getOptLock());
+        assertTrue(index.contains(Image.class.getName(), 2L));
+        assertFalse(index.contains(Image.class.getName(), 3L));
+        assertTrue(index.contains(Pixels.class.getName(), 7L));
+        assertFalse(index.contains("ome.model.core.Channel", 7L));
+        assertTrue(index.containsImage(1L));
+        assertFalse(index.containsImage(null));
+    }
+
+    @Test
+    public void testPixelsAreLoadedOnceForAllImages() {
+        List<Long> images = new ArrayList<Long>();
+        for (long i = 0; i < 1500; i++) {
+            images.add(i);
+        }
+        ShareIndex index = new ShareIndex(data(images,
+                new ArrayList<Long>()));
+
+        // Two batches for 1500 images.
+        mockSession.expects(atLeastOnce()).method("createQuery").will(
+                returnValue(mockQuery.proxy()));
+        mockQuery.expects(atLeastOnce()).method("setParameterList").will(
+                returnValue(mockQuery.proxy()));
+        mockQuery.expects(atLeastOnce()).method("list").will(
+                onConsecutiveCalls(returnValue(Arrays.asList(10L, 11L)),
+                        returnValue(Arrays.asList(12L))));
+
+        Session s = (Session) mockSession.proxy();
+        assertTrue(index.containsPixels(s, 10L));
+        assertTrue(index.containsPixels(s, 12L));
+        assertFalse(index.containsPixels(s, 13L));
+    }
+
+    @Test
+    public void testEmptyShareRunsNoQuery() {
+        ShareIndex index = new ShareIndex(new ShareData());
+        Session s = (Session) mockSession.proxy();
+        assertFalse(index.containsInstrument(s, 1L));
+    }
+
+    @Test
+    public void testCopyLoadsLookupsAgain() {
+        ShareIndex index = new ShareIndex(data(Arrays.asList(1L),
+                new ArrayList<Long>()));
+        mockSession.expects(atLeastOnce()).method("createQuery").will(
+                returnValue(mockQuery.proxy()));
+        mockQuery.expects(atLeastOnce()).method("setParameterList").will(
+                returnValue(mockQuery.proxy()));
+        mockQuery.expects(atLeastOnce()).method("list").will(
+                onConsecutiveCalls(returnValue(Arrays.asList(10L)),
+                        returnValue(Arrays.asList(10L, 11L))));
+
+        Session s = (Session) mockSession.proxy();
+        assertFalse(index.containsPixels(s, 11L));
+        assertFalse(index.containsPixels(s, 11L));
+        ShareIndex copy = new ShareIndex(index);
+        assertEquals(3L, copy.getOptLock());
+        assertTrue(copy.containsImage(1L));
+        assertTrue(copy.containsPixels(s, 11L));
+    }
+
+    @Test
+    public void testStoreKeepsBoundedNumberOfIndexes() {
+        CountingStore store = new CountingStore();
+        int count = BlobShareStore.MAX_INDEXES + 10;
+        for (long id = 0; id < count; id++) {
+            assertTrue(store.doContains(id, Image.class, 1L));
+        }
+        assertEquals(count, store.loads);
+        assertEquals(BlobShareStore.MAX_INDEXES, store.size());
+
+        // The most recently used share is still cached, the first is not.
+        assertTrue(store.doContains(count - 1, Image.class, 1L));
+        assertEquals(count, store.loads);
+        assertTrue(store.doContains(0L, Image.class, 1L));
+        assertEquals(count + 1, store.loads);
+    }
+
+    @Test
+    public void testStoreReplacesIndexesOfModifiedImages() {
+        CountingStore store = new CountingStore();
+        assertTrue(store.doContains(1L, Image.class, 1L));
+        assertTrue(store.doContains(2L, Image.class, 2L));
+        ShareIndex first = store.index(1L);
+        ShareIndex second = store.index(2L);
+
+        store.onApplicationEvent(message(Image.class, 2L));
+        assertSame(first, store.index(1L));
+        assertNotSame(second, store.index(2L));
+        assertTrue(store.index(2L).containsImage(2L));
+
+        second = store.index(2L);
+        store.onApplicationEvent(message(Pixels.class, 5L));
+        assertNotSame(first, store.index(1L));
+        assertNotSame(second, store.index(2L));
+
+        // Neither the share nor its images are loaded again.
+        assertEquals(2, store.loads);
+    }
+
+    EventLogsCommittedMessage message(Class<? extends IObject> type, long id) {
+        EventLog el = new EventLog();
+        el.setEntityType(type.getName());
+        el.setEntityId(id);
+        el.setAction("UPDATE");
+        return new EventLogsCommittedMessage(this, Arrays.asList(el));
+    }
+
+    /**
+     * Store serving shares which contain the image with the share's id and
+     * the image 1, without a database.
+     */
+    class CountingStore extends BlobShareStore {
+
+        int loads;
+
+        @Override
+        public ShareData get(long id) {
+            loads++;
+            return data(Arrays.asList(1L, id), new ArrayList<Long>());
+        }
+
+        int size() {
+            synchronized (indexes) {
+                return indexes.size();
+            }
+        }
+
+        ShareIndex index(long id) {
+            synchronized (indexes) {
+                return indexes.get(id);
+            }
+        }
+    }
+}
@@ -259,6 +259,53 @@ public class GraphStateUnitTest extends MockGraphTest {
 
     }
 
+    @Test
+    public void testSoftContainersPlannedAsOneChunk() throws Exception {
+        prepareGetRelationship();
+        GraphSpec spec = spec("/Project");
+
+        prepareGetHibernateClass();
+
+        Queries q = new Queries();
+        q.projects.add(0);
+        q.projectDatasetLinks.add(0, 1);
+        q.projectDatasets.add(0, 1, 2);
+        q.pdImageLinks.none();
+
+        prepareTableLookups(q);
+
+        GraphState state = new GraphState(new DeleteStepFactory(specXml), null, session, spec);
+        // The link, the SOFT dataset with its marker, then the project
+        assertEquals(state.toString(), 3, state.planChunks(10));
+        assertEquals(1, state.getChunkSize(0));
+        assertEquals(1, state.getChunkSize(1));
+        assertEquals(1, state.getChunkSize(2));
+    }
+
+    @Test
+    public void testPlanChunksForRoi() throws Exception {
+        prepareGetRelationship();
+        GraphSpec spec = spec("/Roi");
+
+        prepareGetHibernateClass();
+
+        Queries q = new Queries();
+        q.rois.add(0);
+        q.roiShapes.add(0, 1);
+        q.roiShapes.add(0, 2);
+        q.roiShapes.add(0, 3);
+        q.roiAnnotationLinks.none();
+
+        prepareTableLookups(q);
+
+        GraphState state = new GraphState(new DeleteStepFactory(specXml), null, session, spec);
+        // Shapes 1 & 2, shape 3, then the roi itself
+        assertEquals(state.toString(), 3, state.planChunks(2));
+        assertEquals(2, state.getChunkSize(0));
+        assertEquals(1, state.getChunkSize(1));
+        assertEquals(1, state.getChunkSize(2));
+    }
+
 
     @Test(groups = "ticket:3163")
     public void testSlowGraphStateTablesAdd() {
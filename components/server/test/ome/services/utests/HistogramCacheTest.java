@@ -0,0 +1,71 @@
+/*
+ * ome.services.utests.HistogramCacheTest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import junit.framework.TestCase;
+
+import ome.services.HistogramCache;
+import omeis.providers.re.metadata.ChannelHistogram;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the lookup, eviction and invalidation of a {@link HistogramCache}.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class HistogramCacheTest extends TestCase {
+
+    private ChannelHistogram histogram(int channel, int level) {
+        return new ChannelHistogram(channel, 0, 255, level, 64);
+    }
+
+    @Test
+    public void testHistogramIsServedForSameInterval() {
+        HistogramCache cache = new HistogramCache(10);
+        ChannelHistogram h = histogram(1, -1);
+        cache.put(5L, 0, 2, h);
+        assertSame(h, cache.get(5L, 0, 2, -1, 1, 0, 255));
+        assertNull(cache.get(5L, 0, 2, -1, 0, 0, 255));
+        assertNull(cache.get(5L, 1, 2, -1, 1, 0, 255));
+        assertNull(cache.get(5L, 0, 2, 0, 1, 0, 255));
+        // The statistics of the channel changed.
+        assertNull(cache.get(5L, 0, 2, -1, 1, 0, 4095));
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        HistogramCache cache = new HistogramCache(2);
+        cache.put(1L, 0, 0, histogram(0, -1));
+        cache.put(2L, 0, 0, histogram(0, -1));
+        cache.get(1L, 0, 0, -1, 0, 0, 255);
+        cache.put(3L, 0, 0, histogram(0, -1));
+        assertEquals(2, cache.getSize());
+        assertNotNull(cache.get(1L, 0, 0, -1, 0, 0, 255));
+        assertNull(cache.get(2L, 0, 0, -1, 0, 0, 255));
+    }
+
+    @Test
+    public void testInvalidateDropsPixelsSet() {
+        HistogramCache cache = new HistogramCache(10);
+        cache.put(1L, 0, 0, histogram(0, -1));
+        cache.put(1L, 0, 0, histogram(1, -1));
+        cache.put(11L, 0, 0, histogram(0, -1));
+        cache.invalidate(1L);
+        assertEquals(1, cache.getSize());
+        assertNotNull(cache.get(11L, 0, 0, -1, 0, 0, 255));
+    }
+
+    @Test
+    public void testDisabled() {
+        HistogramCache cache = new HistogramCache(0);
+        cache.put(1L, 0, 0, histogram(0, -1));
+        assertEquals(0, cache.getSize());
+    }
+}
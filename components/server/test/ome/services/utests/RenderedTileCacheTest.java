@@ -0,0 +1,157 @@
+/*
+ * ome.services.utests.RenderedTileCacheTest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import ome.services.RenderedTileCache;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the memory and disk tiers of the {@link RenderedTileCache}.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class RenderedTileCacheTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("tiles", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        RenderedTileCache cache =
+            new RenderedTileCache(dir.getPath(), 1024, 0);
+        assertNull(cache.get("1:a"));
+        byte[] tile = new byte[10];
+        cache.put("1:a", tile);
+        assertSame(tile, cache.get("1:a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(10, cache.getBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        RenderedTileCache cache =
+            new RenderedTileCache(dir.getPath(), 30, 0);
+        cache.put("1:a", new byte[10]);
+        cache.put("1:b", new byte[10]);
+        cache.put("1:c", new byte[10]);
+        cache.get("1:a");
+        cache.put("1:d", new byte[10]);
+        assertNull(cache.get("1:b"));
+        assertNotNull(cache.get("1:a"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getSize());
+        assertEquals(30, cache.getBytes());
+        // Tiles larger than the memory tier are never kept.
+        cache.put("1:e", new byte[31]);
+        assertNull(cache.get("1:e"));
+        assertEquals(3, cache.getSize());
+    }
+
+    @Test
+    public void testInvalidate() {
+        RenderedTileCache cache =
+            new RenderedTileCache(dir.getPath(), 1024, 1024);
+        cache.put("1:a", new byte[10]);
+        cache.put("12:a", new byte[10]);
+        cache.invalidate(1);
+        assertNull(cache.get("1:a"));
+        assertNotNull(cache.get("12:a"));
+        assertEquals(10, cache.getBytes());
+    }
+
+    @Test
+    public void testDiskTier() {
+        RenderedTileCache cache =
+            new RenderedTileCache(dir.getPath(), 0, 1024);
+        assertTrue(cache.isEnabled());
+        byte[] tile = new byte[] { 1, 2, 3 };
+        cache.put("1234:a", tile);
+        assertEquals(0, cache.getSize());
+
+        // A new instance reads the tile back from the repository.
+        cache = new RenderedTileCache(dir.getPath(), 1024, 1024);
+        byte[] read = cache.get("1234:a");
+        assertNotNull(read);
+        assertEquals(3, read.length);
+        assertEquals(3, read[2]);
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(1, cache.getSize());
+
+        cache.invalidate(1234);
+        cache = new RenderedTileCache(dir.getPath(), 1024, 1024);
+        assertNull(cache.get("1234:a"));
+    }
+
+    @Test
+    public void testDiskTierEviction() {
+        RenderedTileCache cache =
+            new RenderedTileCache(dir.getPath(), 0, 30);
+        cache.put("1:a", new byte[10]);
+        cache.put("1:b", new byte[10]);
+        cache.put("2:c", new byte[10]);
+        assertNotNull(cache.get("1:a"));
+        cache.put("2:d", new byte[10]);
+        assertEquals(1, cache.getDiskEvictions());
+        assertEquals(30, cache.getDiskBytes());
+        assertNull(cache.get("1:b"));
+        assertNotNull(cache.get("1:a"));
+        // Tiles larger than the disk tier are never written.
+        cache.put("2:e", new byte[31]);
+        assertNull(cache.get("2:e"));
+        assertEquals(30, cache.getDiskBytes());
+
+        cache.invalidate(2);
+        assertEquals(10, cache.getDiskBytes());
+    }
+
+    @Test
+    public void testDiskTierBoundOnStartup() throws Exception {
+        RenderedTileCache cache =
+            new RenderedTileCache(dir.getPath(), 0, 1024);
+        cache.put("1:a", new byte[10]);
+        cache.put("1:b", new byte[10]);
+        cache.put("1:c", new byte[10]);
+        // Make the first tile the least recently modified one.
+        File tiles = new File(dir, "RenderedTiles");
+        File a = new File(new File(tiles, "1"), "a");
+        assertTrue(a.exists());
+        a.setLastModified(System.currentTimeMillis() - 60000);
+        File tmp = new File(a.getParentFile(), "d.1.tmp");
+        FileUtils.writeByteArrayToFile(tmp, new byte[5]);
+
+        // A smaller bound on restart deletes the oldest tiles and leftovers.
+        cache = new RenderedTileCache(dir.getPath(), 0, 20);
+        assertEquals(20, cache.getDiskBytes());
+        assertFalse(a.exists());
+        assertFalse(tmp.exists());
+        assertNull(cache.get("1:a"));
+        assertNotNull(cache.get("1:b"));
+        assertNotNull(cache.get("1:c"));
+    }
+}
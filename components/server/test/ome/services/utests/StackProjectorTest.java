@@ -0,0 +1,166 @@
+/*
+ * ome.services.utests.StackProjectorTest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import ome.api.IProjection;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.services.projection.StackProjector;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the band by band projection of {@link StackProjector} matches
+ * the pixel by pixel projection of a whole stack.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class StackProjectorTest extends TestCase {
+
+    private static final int sizeX = 37;
+
+    private static final int sizeY = 29;
+
+    private static final int sizeZ = 6;
+
+    private File dir;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("projection", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private RomioPixelBuffer createBuffer(String type) throws Exception {
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(sizeZ);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue(type);
+        pixels.setPixelsType(pixelsType);
+        String path = new File(dir, type).getPath();
+        RomioPixelBuffer buffer = new RomioPixelBuffer(path, pixels, true);
+        byte[] plane = new byte[buffer.getPlaneSize()];
+        for (int z = 0; z < sizeZ; z++) {
+            for (int i = 0; i < plane.length; i++) {
+                plane[i] = (byte) (i * 31 + z * 97);
+            }
+            buffer.setPlane(plane, z, 0, 0);
+        }
+        buffer.close();
+        return new RomioPixelBuffer(path, pixels, false);
+    }
+
+    /**
+     * The projection as implemented before the introduction of the
+     * {@link StackProjector}.
+     */
+    private double expected(PixelData stack, int algorithm, int stepping,
+            int start, int end, int i, double ceiling) {
+        int planeSize = sizeX * sizeY;
+        double value = 0;
+        int count = 0;
+        if (algorithm == IProjection.MAXIMUM_INTENSITY) {
+            for (int z = start; z <= end; z += stepping) {
+                value = Math.max(value, stack.getPixelValue(planeSize * z + i));
+            }
+            return value;
+        }
+        for (int z = start; z < end; z += stepping) {
+            value += stack.getPixelValue(planeSize * z + i);
+            count++;
+        }
+        if (algorithm == IProjection.MEAN_INTENSITY) {
+            value = value / count;
+        }
+        return value > ceiling ? ceiling : value;
+    }
+
+    private void assertProjection(String type, String toType, int algorithm)
+            throws Exception {
+        RomioPixelBuffer buffer = createBuffer(type);
+        try {
+            int bytes = PixelData.getBitDepth(toType) / 8;
+            PixelData to = new PixelData(toType,
+                    ByteBuffer.wrap(new byte[sizeX * sizeY * bytes]));
+            PixelData check = new PixelData(toType,
+                    ByteBuffer.wrap(new byte[bytes]));
+            StackProjector projector = new StackProjector(algorithm, 2, 1, 5);
+            // Uneven bands.
+            for (int y = 0; y < sizeY; y += 8) {
+                projector.project(buffer, 0, 0, y, Math.min(8, sizeY - y), to);
+            }
+            PixelData stack = buffer.getStack(0, 0);
+            double min = Double.MAX_VALUE;
+            double max = Double.MIN_VALUE;
+            for (int i = 0; i < sizeX * sizeY; i++) {
+                double value = expected(stack, algorithm, 2, 1, 5, i,
+                        to.getMaximum());
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                check.setPixelValue(0, value);
+                assertEquals(check.getPixelValue(0), to.getPixelValue(i));
+            }
+            assertEquals(min, projector.getMinimum());
+            assertEquals(max, projector.getMaximum());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testMaximumUint16() throws Exception {
+        assertProjection("uint16", "uint16", IProjection.MAXIMUM_INTENSITY);
+    }
+
+    @Test
+    public void testMeanInt8() throws Exception {
+        assertProjection("int8", "int8", IProjection.MEAN_INTENSITY);
+    }
+
+    @Test
+    public void testSumUint8ToUint8IsClamped() throws Exception {
+        assertProjection("uint8", "uint8", IProjection.SUM_INTENSITY);
+    }
+
+    @Test
+    public void testSumUint16ToFloat() throws Exception {
+        assertProjection("uint16", "float", IProjection.SUM_INTENSITY);
+    }
+
+    @Test
+    public void testUnknownAlgorithm() {
+        try {
+            new StackProjector(42, 1, 0, 1);
+            fail("Unknown algorithm accepted.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
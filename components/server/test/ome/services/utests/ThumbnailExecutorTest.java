@@ -0,0 +1,149 @@
+/*
+ * ome.services.utests.ThumbnailExecutorTest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import ome.services.ThumbnailExecutor;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the sharing, timeouts and release of the jobs of a
+ * {@link ThumbnailExecutor}.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class ThumbnailExecutorTest extends TestCase {
+
+    private ThumbnailExecutor executor;
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /** Returns an image identified by its width. */
+    private static BufferedImage image(int width) {
+        return new BufferedImage(width, 1, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /** A job returning its image once its latch has been released. */
+    private static class LatchedJob implements ThumbnailExecutor.Job {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final AtomicInteger released = new AtomicInteger();
+
+        final BufferedImage result;
+
+        LatchedJob(BufferedImage result) {
+            this.result = result;
+        }
+
+        public BufferedImage call() throws Exception {
+            latch.await();
+            if (result == null) {
+                throw new IllegalStateException("No thumbnail");
+            }
+            return result;
+        }
+
+        public void release() {
+            released.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testPendingJobIsShared() throws Exception {
+        executor = new ThumbnailExecutor(2, 0, 0);
+        LatchedJob first = new LatchedJob(image(1));
+        LatchedJob second = new LatchedJob(image(2));
+        Future<BufferedImage> a = executor.submit("1:1:0", first);
+        Future<BufferedImage> b = executor.submit("1:1:0", second);
+        assertSame(a, b);
+        // The duplicate is released without being executed.
+        assertEquals(1, second.released.get());
+        first.latch.countDown();
+        assertEquals(1, executor.get(b, System.currentTimeMillis())
+                .getWidth());
+        assertEquals(1, executor.getJoinedCount());
+    }
+
+    @Test
+    public void testCompletedJobIsReleased() throws Exception {
+        executor = new ThumbnailExecutor(1, 0, 0);
+        LatchedJob job = new LatchedJob(image(3));
+        job.latch.countDown();
+        Future<BufferedImage> f = executor.submit("2:1:0", job);
+        assertEquals(3, executor.get(f, System.currentTimeMillis())
+                .getWidth());
+        // Release happens after the result is set.
+        for (int i = 0; i < 100 && executor.getPendingCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, job.released.get());
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    public void testStragglerTimesOutAndCompletes() throws Exception {
+        executor = new ThumbnailExecutor(1, 0, 100);
+        LatchedJob job = new LatchedJob(image(4));
+        Future<BufferedImage> f = executor.submit("3:1:0", job);
+        try {
+            executor.get(f, System.currentTimeMillis());
+            fail("Straggler waited for.");
+        } catch (TimeoutException e) {
+            // Expected
+        }
+        assertEquals(1, executor.getTimeoutCount());
+        job.latch.countDown();
+        assertEquals(4, f.get().getWidth());
+    }
+
+    @Test
+    public void testQueuedJobTimeoutStartsWhenWaiting() throws Exception {
+        executor = new ThumbnailExecutor(1, 0, 200);
+        LatchedJob busy = new LatchedJob(image(5));
+        LatchedJob queued = new LatchedJob(image(6));
+        queued.latch.countDown();
+        Future<BufferedImage> a = executor.submit("4:1:0", busy);
+        Future<BufferedImage> b = executor.submit("5:1:0", queued);
+        long since = System.currentTimeMillis();
+        Thread.sleep(150);
+        busy.latch.countDown();
+        assertEquals(5, executor.get(a, since).getWidth());
+        // The queued job started late but is given its full timeout.
+        assertEquals(6, executor.get(b, since).getWidth());
+    }
+
+    @Test
+    public void testFailureIsPropagated() throws Exception {
+        executor = new ThumbnailExecutor(1, 0, 0);
+        LatchedJob job = new LatchedJob(null);
+        job.latch.countDown();
+        Future<BufferedImage> f = executor.submit("6:1:0", job);
+        try {
+            executor.get(f, System.currentTimeMillis());
+            fail("Failure not propagated.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * ome.formats.utests.TileUploaderTest
+ *
+ *   Copyright 2011 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.formats.utests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import ome.formats.OMEROMetadataStoreClient;
+import ome.formats.importer.TileUploader;
+import omero.InternalException;
+import omero.ServerError;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the bounded window and the error handling of the
+ * {@link TileUploader}.
+ *
+ * @since OMERO-Beta4.3
+ */
+public class TileUploaderTest extends TestCase
+{
+
+    private static final long PIXELS_ID = 1L;
+
+    @Test
+    public void testTilesUploadedInOrder() throws Exception
+    {
+        RecordingStore store = new RecordingStore(null, -1);
+        TileUploader uploader = new TileUploader(store, PIXELS_ID, 2);
+        uploader.start();
+        for (int i = 0; i < 10; i++)
+        {
+            uploader.put(new byte[4], 0, 0, 0, i, 0, 1, 1, i % 5 == 4);
+        }
+        uploader.finish();
+        assertEquals(10, store.written.size());
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals(i, store.written.get(i).intValue());
+        }
+        assertEquals(2, uploader.getCompletedPlanes());
+        assertEquals(40, uploader.getBytesUploaded());
+    }
+
+    @Test
+    public void testWindowBlocksReader() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingStore store = new RecordingStore(release, -1);
+        final TileUploader uploader = new TileUploader(store, PIXELS_ID, 2);
+        uploader.start();
+        final AtomicInteger queued = new AtomicInteger();
+        Thread reader = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; i < 10; i++)
+                    {
+                        uploader.put(new byte[1], 0, 0, 0, i, 0, 1, 1, false);
+                        queued.incrementAndGet();
+                    }
+                }
+                catch (ServerError e)
+                {
+                    fail(e.toString());
+                }
+            }
+        };
+        reader.start();
+        // One tile is in transit and two wait in the window.
+        assertTrue(store.entered.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queued.get() < 3 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(3, queued.get());
+        assertTrue(reader.isAlive());
+
+        release.countDown();
+        reader.join(10000);
+        assertEquals(10, queued.get());
+        uploader.finish();
+        assertEquals(10, store.written.size());
+    }
+
+    @Test
+    public void testErrorPropagatedToReader() throws Exception
+    {
+        RecordingStore store = new RecordingStore(null, 2);
+        TileUploader uploader = new TileUploader(store, PIXELS_ID, 1);
+        uploader.start();
+        try
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                uploader.put(new byte[1], 0, 0, 0, i, 0, 1, 1, false);
+            }
+            uploader.finish();
+            fail("The upload error must be rethrown.");
+        }
+        catch (InternalException e)
+        {
+            assertSame(store.error, e);
+        }
+        assertEquals(2, store.written.size());
+    }
+
+    @Test
+    public void testErrorPropagatedOnFinish() throws Exception
+    {
+        RecordingStore store = new RecordingStore(null, 0);
+        TileUploader uploader = new TileUploader(store, PIXELS_ID, 4);
+        uploader.start();
+        uploader.put(new byte[1], 0, 0, 0, 0, 0, 1, 1, true);
+        try
+        {
+            uploader.finish();
+            fail("The upload error must be rethrown.");
+        }
+        catch (InternalException e)
+        {
+            assertSame(store.error, e);
+        }
+        assertEquals(0, uploader.getCompletedPlanes());
+    }
+
+    @Test
+    public void testCancelWaitsForTileInTransit() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        final RecordingStore store = new RecordingStore(release, -1);
+        TileUploader uploader = new TileUploader(store, PIXELS_ID, 4);
+        uploader.start();
+        for (int i = 0; i < 3; i++)
+        {
+            uploader.put(new byte[1], 0, 0, 0, i, 0, 1, 1, false);
+        }
+        assertTrue(store.entered.await(10, TimeUnit.SECONDS));
+        // The store ignores interrupts, as Ice invocations do.
+        new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException e)
+                {
+                    // Release anyway.
+                }
+                store.release.countDown();
+            }
+        }.start();
+        uploader.cancel();
+        // The tile in transit completed, the queued ones were discarded.
+        assertEquals(1, store.written.size());
+        assertFalse(store.inTransit);
+    }
+
+    /**
+     * Store recording the tiles written, optionally blocking the first write
+     * until released and failing once a number of tiles has been written.
+     */
+    private static class RecordingStore extends OMEROMetadataStoreClient
+    {
+
+        final List<Integer> written =
+            Collections.synchronizedList(new ArrayList<Integer>());
+
+        final CountDownLatch entered = new CountDownLatch(1);
+
+        final CountDownLatch release;
+
+        final int failAfter;
+
+        final InternalException error = new InternalException();
+
+        volatile boolean inTransit;
+
+        RecordingStore(CountDownLatch release, int failAfter)
+        {
+            this.release = release;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void setTile(Long pixId, byte[] arrayBuf, int z, int c, int t,
+                            int x, int y, int w, int h)
+            throws ServerError
+        {
+            if (written.size() == failAfter)
+            {
+                throw error;
+            }
+            inTransit = true;
+            entered.countDown();
+            if (release != null)
+            {
+                boolean released = false;
+                while (!released)
+                {
+                    try
+                    {
+                        released = release.await(10, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // Keep waiting like a remote invocation would.
+                    }
+                }
+            }
+            written.add(x);
+            inTransit = false;
+        }
+    }
+}
@@ -8,16 +8,21 @@ package integration;
 
 
 //Java imports
+import java.io.File;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 //Third-party libraries
+import org.apache.commons.io.FileUtils;
 import org.testng.annotations.Test;
 
 //Application-internal dependencies
 import omero.api.IScriptPrx;
 import omero.api.RawFileStorePrx;
 import omero.model.OriginalFile;
+import omero.util.RawFileTransfer;
 
 /** 
  * Collections of tests for the <code>RawFileStore</code> service.
@@ -118,4 +123,78 @@ public class RawFileStoreTest
 		}
     }
     
+    /**
+     * Tests the upload and the download of a file spread over several
+     * blocks through a single stream, using asynchronous requests.
+     * @throws Exception Thrown if an error occurred.
+     */
+    @Test
+    public void testTransferFile() 
+    	throws Exception 
+    {
+    	byte[] data = createData(10*1024+17);
+    	File file = createFile(data);
+    	RawFileStorePrx svc = factory.createRawFileStore();
+    	OriginalFile f = mmFactory.createOriginalFile();
+    	f = (OriginalFile) iUpdate.saveAndReturnObject(f);
+    	RawFileTransfer transfer = new RawFileTransfer(factory, 1024);
+    	String sha1 = transfer.upload(svc, f.getId().getValue(), file);
+    	assertEquals(sha1(data), sha1);
+    	f = svc.save();
+    	assertEquals(data.length, f.getSize().getValue());
+    	assertEquals(sha1, f.getSha1().getValue());
+    	File copy = createFile(new byte[0]);
+    	transfer.download(svc, f.getId().getValue(), data.length, copy);
+    	assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(copy)));
+    	svc.close();
+    }
+    
+    /**
+     * Tests the upload and the download of a file through several streams
+     * using the methods of the client.
+     * @throws Exception Thrown if an error occurred.
+     */
+    @Test
+    public void testTransferFileOverSeveralStreams() 
+    	throws Exception 
+    {
+    	byte[] data = createData(20*1024+3);
+    	File file = createFile(data);
+    	OriginalFile f = client.upload(file, null, 1024, 3);
+    	assertEquals(data.length, f.getSize().getValue());
+    	assertEquals(sha1(data), f.getSha1().getValue());
+    	File copy = createFile(new byte[0]);
+    	client.download(f.getId().getValue(), copy, 1024, 3);
+    	assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(copy)));
+    }
+    
+    /**
+     * Creates random data.
+     * 
+     * @param length The number of bytes.
+     * @return See above.
+     */
+    private byte[] createData(int length)
+    {
+    	byte[] data = new byte[length];
+    	new Random(length).nextBytes(data);
+    	return data;
+    }
+    
+    /**
+     * Creates a temporary file deleted on exit.
+     * 
+     * @param data The contents of the file.
+     * @return See above.
+     * @throws Exception Thrown if an error occurred.
+     */
+    private File createFile(byte[] data)
+    	throws Exception
+    {
+    	File file = File.createTempFile("rawfilestore", ".bin");
+    	file.deleteOnExit();
+    	FileUtils.writeByteArrayToFile(file, data);
+    	return file;
+    }
+    
 }
@@ -896,6 +896,65 @@ public class RenderingEngineTest
 		re.close();
 	}
 	
+	/**
+	 * Tests to render several regions of a plane in one call using the 
+	 * <code>renderRegionsAsPackedInt</code> and 
+	 * <code>renderRegionsCompressed</code> methods.
+	 * @throws Exception Thrown if an error occurred.
+	 */
+	@Test
+	public void testRenderRegions()
+		throws Exception
+	{
+		File f = File.createTempFile("testRenderRegions", "."+OME_FORMAT);
+		XMLMockObjects xml = new XMLMockObjects();
+		XMLWriter writer = new XMLWriter();
+		writer.writeFile(f, xml.createImage(), true);
+		List<Pixels> pixels = null;
+		try {
+			pixels = importFile(f, OME_FORMAT);
+		} catch (Throwable e) {
+			throw new Exception("cannot import image", e);
+		}
+		Pixels p = pixels.get(0);
+		long id = p.getId().getValue();
+		RenderingEnginePrx re = factory.createRenderingEngine();
+		re.lookupPixels(id);
+		if (!(re.lookupRenderingDef(id))) {
+			re.resetDefaults();
+			re.lookupRenderingDef(id);
+		}
+		re.load();
+		int w = p.getSizeX().getValue()/2;
+		int h = p.getSizeY().getValue()/2;
+		int[] regions = {0, 0, w, h, w, h, w, h};
+		PlaneDef pDef = new PlaneDef();
+		pDef.t = re.getDefaultT();
+		pDef.z = re.getDefaultZ();
+		pDef.slice = omero.romio.XY.value;
+		int[] values = re.renderRegionsAsPackedInt(pDef, regions);
+		assertNotNull(values);
+		assertEquals(2*w*h, values.length);
+		byte[][] compressed = re.renderRegionsCompressed(pDef, regions);
+		assertNotNull(compressed);
+		assertEquals(2, compressed.length);
+		int[] region;
+		for (int i = 0; i < 2; i++) {
+			RegionDef r = new RegionDef();
+			r.x = regions[4*i];
+			r.y = regions[4*i+1];
+			r.width = w;
+			r.height = h;
+			pDef.region = r;
+			region = re.renderAsPackedInt(pDef);
+			for (int j = 0; j < region.length; j++)
+				assertEquals(region[j], values[i*w*h+j]);
+			assertNotNull(createImage(compressed[i]));
+		}
+		f.delete();
+		re.close();
+	}
+	
 	/**
 	 * Tests to render a given region of plane using the 
 	 * <code>renderAsPackedInt</code> method, change the color model.